@@ -0,0 +1,83 @@
+/**
+ * (c) Copyright IBM Corporation 2011, 2017.
+ * (c) Copyright HCL Technologies Ltd. 2018. All Rights Reserved.
+ * This is licensed under the following license.
+ * The Apache Version 2.0 License (https://www.apache.org/licenses/LICENSE-2.0.txt)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+package com.urbancode.ud.client;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.codehaus.jettison.json.JSONArray;
+import org.codehaus.jettison.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Reading response bodies: copying into a String and parsing it, as the clients used to,
+ * against decoding straight from the entity stream. Run with -prof gc to compare allocation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+@State(Scope.Benchmark)
+public class BodyBenchmark {
+
+    //**********************************************************************************************
+    // CLASS
+    //**********************************************************************************************
+
+    //**********************************************************************************************
+    // INSTANCE
+    //**********************************************************************************************
+    /**
+     * Resources in the listing. 20000 is about 10 MB, the size of the tree of a large server.
+     */
+    @Param({"100", "2000", "20000"})
+    public int resources;
+
+    private UDRestClient client;
+    private byte[] body;
+
+    //----------------------------------------------------------------------------------------------
+    @Setup
+    public void setup()
+    throws JSONException {
+        client = Payloads.client();
+        body = Payloads.resources(resources).toString().getBytes(Payloads.UTF8);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    @Benchmark
+    public String getBody()
+    throws IOException {
+        return client.getBody(Payloads.response(body));
+    }
+
+    //----------------------------------------------------------------------------------------------
+    @Benchmark
+    public JSONArray getBodyThenParse()
+    throws IOException, JSONException {
+        return new JSONArray(client.getBody(Payloads.response(body)));
+    }
+
+    //----------------------------------------------------------------------------------------------
+    @Benchmark
+    public JSONArray getBodyAsJSONArray()
+    throws IOException, JSONException {
+        return client.getBodyAsJSONArray(Payloads.response(body));
+    }
+}
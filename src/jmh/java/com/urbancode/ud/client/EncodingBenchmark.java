@@ -0,0 +1,101 @@
+/**
+ * (c) Copyright IBM Corporation 2011, 2017.
+ * (c) Copyright HCL Technologies Ltd. 2018. All Rights Reserved.
+ * This is licensed under the following license.
+ * The Apache Version 2.0 License (https://www.apache.org/licenses/LICENSE-2.0.txt)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+package com.urbancode.ud.client;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.codec.EncoderException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.urbancode.commons.web.util.PercentCodec;
+
+/**
+ * Percent encoding of user input, done for every name placed in a request URI, and building
+ * a whole request URI. Run with -prof gc to compare allocation per operation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EncodingBenchmark {
+
+    //**********************************************************************************************
+    // CLASS
+    //**********************************************************************************************
+
+    //**********************************************************************************************
+    // INSTANCE
+    //**********************************************************************************************
+    private UDRestClient client;
+    private URI url;
+    private String name;
+    private String path;
+
+    //----------------------------------------------------------------------------------------------
+    @Setup
+    public void setup() {
+        client = Payloads.client();
+        url = URI.create("https://localhost:8443");
+        name = "order-service";
+        path = Payloads.resourcePath(1234);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    @Benchmark
+    public String encodePathPlainName() {
+        return client.encodePath(name);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    @Benchmark
+    public String encodePathResourcePath() {
+        return client.encodePath(path);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    @Benchmark
+    public String sanitizePathSegment()
+    throws URISyntaxException, EncoderException {
+        return client.sanitizePathSegment(path);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    @Benchmark
+    public String percentCodecResourcePath()
+    throws EncoderException {
+        return new PercentCodec().encode(path);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    @Benchmark
+    public String concatenateEnvironmentUri()
+    throws EncoderException {
+        PercentCodec codec = new PercentCodec();
+        return url + "/cli/environment/info?environment=" + codec.encode(name) +
+            "&application=" + codec.encode(path);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    @Benchmark
+    public String expandEnvironmentUri() {
+        return Endpoints.ENVIRONMENT_INFO.expand(url, name, path);
+    }
+}
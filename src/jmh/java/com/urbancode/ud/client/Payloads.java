@@ -0,0 +1,198 @@
+/**
+ * (c) Copyright IBM Corporation 2011, 2017.
+ * (c) Copyright HCL Technologies Ltd. 2018. All Rights Reserved.
+ * This is licensed under the following license.
+ * The Apache Version 2.0 License (https://www.apache.org/licenses/LICENSE-2.0.txt)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+package com.urbancode.ud.client;
+
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.UUID;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.message.BasicHttpResponse;
+import org.codehaus.jettison.json.JSONArray;
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+
+/**
+ * Generates payloads shaped and sized like the responses of large servers: resource trees with
+ * thousands of agents, components with hundreds of properties.
+ */
+@SuppressWarnings("deprecation") // Triggered by DefaultHttpClient
+public class Payloads {
+
+    //**********************************************************************************************
+    // CLASS
+    //**********************************************************************************************
+    final static public Charset UTF8 = Charset.forName("UTF-8");
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return a client that is never connected, for benchmarking the local helpers.
+     */
+    static public UDRestClient client() {
+        return new UDRestClient(URI.create("https://ucd.example.com:8443"), new DefaultHttpClient());
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return a path of the shape used for resources, with spaces and punctuation to encode.
+     */
+    static public String resourcePath(int i) {
+        return "/Data Center East/Rack " + (i % 40) + "/web-" + i + ".prod.example.com/JBoss EAP (7.1)/"
+            + "order-service #" + i;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return a resource listing as returned by /rest/resource/resource, count resources long.
+     */
+    static public JSONArray resources(int count)
+    throws JSONException {
+        JSONArray result = new JSONArray();
+        for (int i = 0; i < count; i++) {
+            JSONObject resource = new JSONObject();
+            resource.put("id", new UUID(0xcafeL, i).toString());
+            resource.put("name", "web-" + i + ".prod.example.com");
+            resource.put("path", resourcePath(i));
+            resource.put("active", true);
+            resource.put("description", "Order service node " + i + " in the east data center");
+            resource.put("inheritTeam", true);
+            resource.put("hasAgent", i % 3 == 0);
+            resource.put("status", "ONLINE");
+            resource.put("type", "subresource");
+            resource.put("prototype", false);
+            resource.put("created", 1546300800000L + i);
+            resource.put("security", new JSONObject()
+                .put("read", true).put("execute", true).put("Edit Basic Settings", true));
+            resource.put("tags", new JSONArray().put(new JSONObject()
+                .put("name", "prod").put("color", "#DD731C")));
+            result.put(resource);
+        }
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return a resource tree as returned by /rest/resource/resource/tree, about count resources
+     * in all: data centers of 40 racks, hosts with an agent, and five component resources on
+     * each host.
+     */
+    static public JSONArray resourceTree(int count)
+    throws JSONException {
+        JSONArray result = new JSONArray();
+        JSONObject dataCenter = null;
+        JSONObject rack = null;
+        int hosts = Math.max(1, count / 6);
+        for (int i = 0; i < hosts; i++) {
+            if (i % 4000 == 0) {
+                dataCenter = treeNode(null, "Data Center " + (i / 4000), "subresource", i);
+                result.put(dataCenter);
+            }
+            if (i % 100 == 0) {
+                rack = treeNode(dataCenter, "Rack " + (i / 100 % 40), "subresource", i);
+            }
+            JSONObject host = treeNode(rack, "web-" + i + ".prod.example.com", "agent", i);
+            host.put("hasAgent", true);
+            for (int j = 0; j < 5; j++) {
+                String role = "Component " + j;
+                treeNode(host, role, "subresource", i * 5 + j)
+                    .put("hasAgent", true)
+                    .put("role", new JSONObject().put("id", new UUID(0xfeedL, j).toString()).put("name", role));
+            }
+        }
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    static private JSONObject treeNode(JSONObject parent, String name, String type, int i)
+    throws JSONException {
+        JSONObject result = new JSONObject();
+        result.put("id", UUID.randomUUID().toString());
+        result.put("name", name);
+        result.put("path", (parent == null ? "" : parent.getString("path")) + "/" + name);
+        result.put("active", true);
+        result.put("description", "");
+        result.put("hasAgent", false);
+        result.put("type", type);
+        result.put("status", "ONLINE");
+        result.put("created", 1546300800000L + i);
+        if (parent != null) {
+            if (!parent.has("children")) {
+                parent.put("children", new JSONArray());
+            }
+            parent.getJSONArray("children").put(result);
+        }
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return a property sheet as returned by /rest/deploy/component/{id}/properties, half of
+     * the properties overriding their definition.
+     */
+    static public JSONArray propSheet(int count)
+    throws JSONException {
+        JSONArray result = new JSONArray();
+        for (int i = 0; i < count; i++) {
+            JSONObject propDef = new JSONObject()
+                .put("id", new UUID(0xbeefL, i).toString())
+                .put("name", "app.config.property" + i)
+                .put("value", "default value of property " + i)
+                .put("type", "TEXT")
+                .put("required", false);
+            JSONObject prop = new JSONObject().put("propDef", propDef);
+            if (i % 2 == 0) {
+                prop.put("propValue", new JSONObject()
+                    .put("name", "app.config.property" + i)
+                    .put("value", "jdbc:db2://db" + i + ".example.com:50000/ORDERS")
+                    .put("secure", false));
+            }
+            result.put(prop);
+        }
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return an object like the info of a component or environment, count fields wide with
+     * a few nested objects that are not properties.
+     */
+    static public JSONObject info(int count)
+    throws JSONException {
+        JSONObject result = new JSONObject();
+        for (int i = 0; i < count; i++) {
+            if (i % 10 == 0) {
+                result.put("nested" + i, new JSONObject().put("id", i));
+            }
+            else if (i % 3 == 0) {
+                result.put("flag" + i, i % 2 == 0);
+            }
+            else {
+                result.put("field" + i, "value of field " + i);
+            }
+        }
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    static public HttpResponse response(byte[] body) {
+        HttpResponse result = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        result.setEntity(new ByteArrayEntity(body));
+        return result;
+    }
+
+    //**********************************************************************************************
+    // INSTANCE
+    //**********************************************************************************************
+
+    //----------------------------------------------------------------------------------------------
+    private Payloads() {
+    }
+}
@@ -0,0 +1,86 @@
+/**
+ * (c) Copyright IBM Corporation 2011, 2017.
+ * (c) Copyright HCL Technologies Ltd. 2018. All Rights Reserved.
+ * This is licensed under the following license.
+ * The Apache Version 2.0 License (https://www.apache.org/licenses/LICENSE-2.0.txt)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+package com.urbancode.ud.client;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.entity.StringEntity;
+import org.codehaus.jettison.json.JSONArray;
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Converting property sheets and info objects, and serializing request bodies.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PropertiesBenchmark {
+
+    //**********************************************************************************************
+    // CLASS
+    //**********************************************************************************************
+
+    //**********************************************************************************************
+    // INSTANCE
+    //**********************************************************************************************
+    /**
+     * Properties on the sheet. Components of large servers carry a few hundred.
+     */
+    @Param({"50", "500"})
+    public int properties;
+
+    private UDRestClient client;
+    private JSONArray propSheet;
+    private JSONObject info;
+    private JSONArray resources;
+
+    //----------------------------------------------------------------------------------------------
+    @Setup
+    public void setup()
+    throws JSONException {
+        client = Payloads.client();
+        propSheet = Payloads.propSheet(properties);
+        info = Payloads.info(properties);
+        resources = Payloads.resources(properties);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    @Benchmark
+    public JSONObject convertPropArrayToKeyValuePairs()
+    throws JSONException {
+        return client.convertPropArrayToKeyValuePairs(propSheet);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    @Benchmark
+    public Map<String, String> getJSONAsProperties() {
+        return client.getJSONAsProperties(info);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    @Benchmark
+    public StringEntity getStringEntity() {
+        return client.getStringEntity(resources);
+    }
+}
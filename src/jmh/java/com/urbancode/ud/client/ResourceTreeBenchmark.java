@@ -0,0 +1,220 @@
+/**
+ * (c) Copyright IBM Corporation 2011, 2017.
+ * (c) Copyright HCL Technologies Ltd. 2018. All Rights Reserved.
+ * This is licensed under the following license.
+ * The Apache Version 2.0 License (https://www.apache.org/licenses/LICENSE-2.0.txt)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+package com.urbancode.ud.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.concurrent.TimeUnit;
+
+import org.codehaus.jettison.json.JSONArray;
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Holding the resource tree as JSON against the columns of {@link CompactResourceTree}: a full
+ * walk, lookups by path and loading from the response body. Run the main method for the heap
+ * each form retains.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+@State(Scope.Benchmark)
+public class ResourceTreeBenchmark {
+
+    //**********************************************************************************************
+    // CLASS
+    //**********************************************************************************************
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Print the heap retained by the JSON and the compact form of trees of growing size.
+     */
+    static public void main(String[] args)
+    throws Exception {
+        for (int count : new int[] {1000, 20000, 150000}) {
+            byte[] body = Payloads.resourceTree(count).toString().getBytes(Payloads.UTF8);
+            long before = usedHeap();
+            JsonResourceTree json = new JsonResourceTree(new JSONArray(new String(body, Payloads.UTF8)));
+            long jsonBytes = usedHeap() - before;
+
+            before = usedHeap();
+            CompactResourceTree compact = read(body);
+            long compactBytes = usedHeap() - before;
+
+            before = usedHeap();
+            CompactResourceTree offHeap = read(body).toOffHeap();
+            long offHeapBytes = usedHeap() - before;
+
+            System.out.printf("%7d resources: JSON %,13d bytes, compact %,11d bytes, off-heap %,11d bytes on the heap%n",
+                json.size(), jsonBytes, compactBytes, offHeapBytes);
+            if (json.size() != compact.size() || compact.size() != offHeap.size()) {
+                throw new IllegalStateException("Trees differ");
+            }
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    static private long usedHeap() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    //----------------------------------------------------------------------------------------------
+    static private CompactResourceTree read(byte[] body)
+    throws IOException, JSONException {
+        JsonStreamReader reader = new JsonStreamReader(new ByteArrayInputStream(body));
+        try {
+            return CompactResourceTree.read(reader);
+        }
+        finally {
+            reader.close();
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return the length of every name below a node, plus one for each component resource.
+     */
+    static private int walk(ResourceTree tree, int node) {
+        int result = tree.getRole(node) == null ? 0 : 1;
+        result += tree.getName(node).length();
+        for (int child = tree.getFirstChild(node); child != ResourceTree.NONE; child = tree.getNextSibling(child)) {
+            result += walk(tree, child);
+        }
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    static private int walk(JSONObject resource)
+    throws JSONException {
+        JSONObject role = resource.optJSONObject("role");
+        int result = role == null || role.optString("name", null) == null ? 0 : 1;
+        result += resource.getString("name").length();
+        JSONArray children = resource.optJSONArray("children");
+        if (children != null) {
+            for (int i = 0; i < children.length(); i++) {
+                result += walk(children.getJSONObject(i));
+            }
+        }
+        return result;
+    }
+
+    //**********************************************************************************************
+    // INSTANCE
+    //**********************************************************************************************
+    /**
+     * Resources in the tree. 150000 is a server with 25000 agents.
+     */
+    @Param({"1000", "20000", "150000"})
+    public int resources;
+
+    private byte[] body;
+    private JSONArray json;
+    private JsonResourceTree jsonTree;
+    private CompactResourceTree compact;
+    private CompactResourceTree offHeap;
+    private String[] paths;
+
+    //----------------------------------------------------------------------------------------------
+    @Setup
+    public void setup()
+    throws IOException, JSONException {
+        body = Payloads.resourceTree(resources).toString().getBytes(Payloads.UTF8);
+        json = new JSONArray(new String(body, Payloads.UTF8));
+        jsonTree = new JsonResourceTree(json);
+        compact = read(body);
+        offHeap = compact.toOffHeap();
+        paths = new String[1024];
+        for (int i = 0; i < paths.length; i++) {
+            paths[i] = jsonTree.getPath((int) ((long) i * jsonTree.size() / paths.length));
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    @Benchmark
+    public int walkJson()
+    throws JSONException {
+        int result = 0;
+        for (int i = 0; i < json.length(); i++) {
+            result += walk(json.getJSONObject(i));
+        }
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    @Benchmark
+    public int walkCompact() {
+        int result = 0;
+        for (int root = compact.getFirstRoot(); root != ResourceTree.NONE; root = compact.getNextSibling(root)) {
+            result += walk(compact, root);
+        }
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    @Benchmark
+    public int walkOffHeap() {
+        int result = 0;
+        for (int root = offHeap.getFirstRoot(); root != ResourceTree.NONE; root = offHeap.getNextSibling(root)) {
+            result += walk(offHeap, root);
+        }
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    @Benchmark
+    public int findJson() {
+        int result = 0;
+        for (String path : paths) {
+            result += jsonTree.find(path);
+        }
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    @Benchmark
+    public int findCompact() {
+        int result = 0;
+        for (String path : paths) {
+            result += compact.find(path);
+        }
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    @Benchmark
+    public JsonResourceTree loadJson()
+    throws JSONException {
+        return new JsonResourceTree(new JSONArray(new String(body, Payloads.UTF8)));
+    }
+
+    //----------------------------------------------------------------------------------------------
+    @Benchmark
+    public CompactResourceTree loadCompact()
+    throws IOException, JSONException {
+        return read(body);
+    }
+}
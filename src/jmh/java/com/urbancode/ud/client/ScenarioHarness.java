@@ -0,0 +1,293 @@
+/**
+ * (c) Copyright IBM Corporation 2011, 2017.
+ * (c) Copyright HCL Technologies Ltd. 2018. All Rights Reserved.
+ * This is licensed under the following license.
+ * The Apache Version 2.0 License (https://www.apache.org/licenses/LICENSE-2.0.txt)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+package com.urbancode.ud.client;
+
+import java.io.PrintStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Macro benchmark running deployment scenarios with concurrent clients against a
+ * {@link StubUcdServer}, reporting throughput, latency percentiles per step and the TLS
+ * handshakes it took. Runs offline.
+ * <p>
+ * Each iteration creates a version, requests a deployment of it, polls the request until it
+ * finishes and checks the inventory of the environment. Options, all optional:
+ * <pre>
+ *   --clients=8             concurrent scenarios
+ *   --iterations=50         scenarios per client
+ *   --latency=5-20          server latency range in milliseconds
+ *   --errorRate=0.01        fraction of requests failing with 503
+ *   --processMillis=200     how long a deployment runs
+ *   --pollMillis=50         status poll interval
+ *   --resources=1000        resource tree size, fetched once per scenario (0 to skip)
+ *   --transport=session     'session' shares one pooled transport, 'standalone' creates
+ *                           each client with new XClient(url, user, password) per scenario,
+ *                           like plugin steps do, so every client opens its own connection
+ *   --coalesce=false        share concurrent identical reads within the session
+ *   --https=true            serve HTTPS, so new connections pay for a handshake
+ * </pre>
+ * Run with: gradle loadTest -PloadTestArgs="--clients=16 --latency=20-50"
+ */
+public class ScenarioHarness {
+
+    //**********************************************************************************************
+    // CLASS
+    //**********************************************************************************************
+    static private final String[] STEPS = {"resolve", "createVersion", "deploy", "poll", "inventory", "resourceTree", "scenario"};
+
+    //----------------------------------------------------------------------------------------------
+    public static void main(String[] args)
+    throws Exception {
+        Map<String, String> options = new LinkedHashMap<String, String>();
+        options.put("clients", "8");
+        options.put("iterations", "50");
+        options.put("latency", "5-20");
+        options.put("errorRate", "0");
+        options.put("processMillis", "200");
+        options.put("pollMillis", "50");
+        options.put("resources", "1000");
+        options.put("transport", "session");
+        options.put("coalesce", "false");
+        options.put("https", "true");
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (!arg.startsWith("--") || equals < 0 || !options.containsKey(arg.substring(2, equals))) {
+                throw new IllegalArgumentException("Unknown option " + arg + ", expected one of " + options.keySet());
+            }
+            options.put(arg.substring(2, equals), arg.substring(equals + 1));
+        }
+
+        StubUcdServer server = new StubUcdServer(Boolean.parseBoolean(options.get("https")));
+        try {
+            String[] latency = options.get("latency").split("-");
+            server.setLatency(Long.parseLong(latency[0]), Long.parseLong(latency[latency.length - 1]));
+            server.setErrorRate(Double.parseDouble(options.get("errorRate")), 503);
+            server.setProcessDurationMillis(Long.parseLong(options.get("processMillis")));
+            server.setResourceCount(Integer.parseInt(options.get("resources")));
+
+            ScenarioHarness harness = new ScenarioHarness(server.getUri(),
+                "session".equals(options.get("transport")),
+                Long.parseLong(options.get("pollMillis")),
+                Integer.parseInt(options.get("resources")) > 0,
+                Boolean.parseBoolean(options.get("coalesce")));
+            harness.run(Integer.parseInt(options.get("clients")), Integer.parseInt(options.get("iterations")));
+            harness.report(System.out, options, server);
+        }
+        finally {
+            server.close();
+        }
+    }
+
+    //**********************************************************************************************
+    // INSTANCE
+    //**********************************************************************************************
+    final private URI url;
+    final private boolean shared;
+    final private long pollMillis;
+    final private boolean fetchTree;
+    final private boolean coalesce;
+    final private Map<String, LatencyHistogram> latencies = new LinkedHashMap<String, LatencyHistogram>();
+    final private LongAdder failures = new LongAdder();
+    final private List<String> failureMessages = Collections.synchronizedList(new ArrayList<String>());
+    private UDClientSession session;
+    private long elapsedNanos;
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @param url The server to run against.
+     * @param shared Whether all scenarios share one session, or create standalone clients.
+     * @param pollMillis How long to wait between status polls.
+     * @param fetchTree Whether each scenario also fetches the resource tree.
+     * @param coalesce Whether the shared session coalesces identical reads.
+     */
+    public ScenarioHarness(URI url, boolean shared, long pollMillis, boolean fetchTree, boolean coalesce) {
+        this.url = url;
+        this.shared = shared;
+        this.pollMillis = pollMillis;
+        this.fetchTree = fetchTree;
+        this.coalesce = coalesce;
+        for (String step : STEPS) {
+            latencies.put(step, new LatencyHistogram());
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Run the scenarios and wait for all of them.
+     */
+    public void run(int clients, final int iterations)
+    throws Exception {
+        if (shared) {
+            session = new UDClientSession(url, "admin", "admin", true, clients);
+            session.getRequestCoalescer().setEnabled(coalesce);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(clients);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            long started = System.nanoTime();
+            for (int c = 0; c < clients; c++) {
+                final int client = c;
+                futures.add(executor.submit(new Callable<Void>() {
+                    public Void call() {
+                        for (int i = 0; i < iterations; i++) {
+                            runScenario(client, i);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+            elapsedNanos = System.nanoTime() - started;
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    private void runScenario(int client, int iteration) {
+        long started = System.nanoTime();
+        ApplicationClient applications;
+        EnvironmentClient environments;
+        VersionClient versionClient;
+        ResourceClient resources;
+        if (session != null) {
+            applications = session.getApplicationClient();
+            environments = session.getEnvironmentClient();
+            versionClient = session.getVersionClient();
+            resources = session.getResourceClient();
+        }
+        else {
+            // the way plugin steps create clients: each with its own connection and handshake
+            applications = new ApplicationClient(url, "admin", "admin");
+            environments = new EnvironmentClient(url, "admin", "admin");
+            versionClient = new VersionClient(url, "admin", "admin");
+            resources = new ResourceClient(url, "admin", "admin");
+        }
+        try {
+            String component = "service-" + client;
+            String version = "1." + iteration + "." + client;
+
+            long step = System.nanoTime();
+            environments.getEnvironmentUUID("PERF", "shop");
+            step = record("resolve", step);
+
+            versionClient.createVersion(component, version, "load test");
+            step = record("createVersion", step);
+
+            Map<String, List<String>> versions =
+                Collections.singletonMap(component, Collections.singletonList(version));
+            UUID request = applications.requestApplicationProcess("shop", "Deploy", "load test",
+                "PERF", null, false, versions);
+            step = record("deploy", step);
+
+            String result = applications.getApplicationProcessStatus(request.toString());
+            while ("NONE".equals(result)) {
+                Thread.sleep(pollMillis);
+                result = applications.getApplicationProcessStatus(request.toString());
+            }
+            step = record("poll", step);
+            if (!"SUCCEEDED".equals(result)) {
+                throw new IllegalStateException("Deployment " + request + " ended with " + result);
+            }
+
+            if (!environments.verifyInventoryStatus("PERF", "shop", component, version, "Active")) {
+                throw new IllegalStateException(component + " " + version + " missing from inventory");
+            }
+            step = record("inventory", step);
+
+            if (fetchTree) {
+                resources.getResourceTree();
+                record("resourceTree", step);
+            }
+            record("scenario", started);
+        }
+        catch (Exception e) {
+            failures.increment();
+            if (failureMessages.size() < 10) {
+                failureMessages.add(e.toString());
+            }
+        }
+        finally {
+            if (session == null) {
+                for (UDRestClient standalone : new UDRestClient[] {applications, environments, versionClient, resources}) {
+                    standalone.client.getConnectionManager().shutdown();
+                }
+            }
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    private long record(String step, long started) {
+        long now = System.nanoTime();
+        latencies.get(step).record(now - started);
+        return now;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Print the results.
+     *
+     * @param server The server the scenarios ran against, for the handshakes it counted.
+     */
+    public void report(PrintStream out, Map<String, String> options, StubUcdServer server) {
+        long scenarios = latencies.get("scenario").getCount();
+        double seconds = elapsedNanos / 1e9;
+        out.println("Options: " + options);
+        out.printf("%d scenarios in %.2f s: %.1f scenarios/s, %d failed%n",
+            scenarios, seconds, scenarios / seconds, failures.sum());
+        for (String message : failureMessages) {
+            out.println("  " + message);
+        }
+        out.printf("%-14s %8s %9s %9s %9s %9s %9s%n", "step", "count", "mean ms", "p50 ms", "p95 ms", "p99 ms", "max ms");
+        for (Map.Entry<String, LatencyHistogram> entry : latencies.entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            if (histogram.getCount() > 0) {
+                out.printf("%-14s %8d %9.1f %9.1f %9.1f %9.1f %9.1f%n", entry.getKey(), histogram.getCount(),
+                    histogram.getMeanMillis(), histogram.getPercentileMillis(0.5),
+                    histogram.getPercentileMillis(0.95), histogram.getPercentileMillis(0.99),
+                    histogram.getMaxMillis());
+            }
+        }
+        if (server.getUri().getScheme().equals("https")) {
+            long handshakes = server.getHandshakeCount();
+            out.printf("Connections: %d, each with a TLS handshake, %.2f per scenario%n",
+                handshakes, scenarios == 0 ? 0.0 : (double) handshakes / scenarios);
+        }
+        else {
+            out.println("Connections: not counted over HTTP, run with --https=true");
+        }
+        if (session != null) {
+            out.println("Endpoints:");
+            for (MetricsRegistry.EndpointStats stats : session.getMetrics().getEndpoints().values()) {
+                out.println("  " + stats);
+            }
+            if (coalesce) {
+                out.println(session.getRequestCoalescer());
+            }
+            LeakDetectingConnectionManager leaks = session.getLeakDetector();
+            if (leaks != null) {
+                out.println("Leaked connections: " + leaks.getLeases(0).size());
+            }
+            session.close();
+        }
+    }
+}
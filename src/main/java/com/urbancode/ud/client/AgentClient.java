@@ -10,6 +10,7 @@ package com.urbancode.ud.client;
 import java.io.File;
 import java.io.IOException;
 import java.net.URI;
+import java.util.concurrent.CompletableFuture;
 
 import org.apache.http.HttpResponse;
 import org.apache.http.client.methods.HttpDelete;
@@ -19,8 +20,6 @@ import org.apache.http.impl.client.DefaultHttpClient;
 import org.codehaus.jettison.json.JSONException;
 import org.codehaus.jettison.json.JSONObject;
 
-import com.urbancode.commons.util.IO;
-
 @SuppressWarnings("deprecation") // Triggered by DefaultHttpClient
 public class AgentClient extends UDRestClient {
 
@@ -50,6 +49,14 @@ public class AgentClient extends UDRestClient {
         super(url, client);
     }
 
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Construct with the shared transport of a session. See UDClientSession.
+     */
+    public AgentClient(UDClientSession session) {
+        super(session);
+    }
+
     //----------------------------------------------------------------------------------------------
     public void deleteAgent(String name)
     throws IOException {
@@ -57,18 +64,35 @@ public class AgentClient extends UDRestClient {
         uri = uri + "?agent=" + encodePath(name);
 
         HttpDelete method = new HttpDelete(uri);
-        invokeMethod(method);
+        invokeMethodAndDiscard(method);
     }
 
     //----------------------------------------------------------------------------------------------
+    /**
+     * Download the agent install package. With a content cache set, the package is revalidated
+     * with a conditional request and copied from the cache, so an unchanged package is not
+     * downloaded again.
+     *
+     * @param agentZipLocation The file to write the package to.
+     */
     public int getAgentInstallPackage(File agentZipLocation)
     throws IOException {
         int result = 1;
 
-        String uri = url + "/tools/ibm-ucd-agent.zip";
-        HttpGet method = new HttpGet(uri);
-        HttpResponse resp = invokeMethod(method);
-        IO.copy(resp.getEntity().getContent(), agentZipLocation);
+        String uri = Endpoints.AGENT_INSTALL_PACKAGE.expand(url);
+        if (getContentCache() != null) {
+            ContentCache.copy(getCachedContent(uri), agentZipLocation);
+        }
+        else {
+            HttpGet method = new HttpGet(uri);
+            try {
+                HttpResponse resp = invokeMethod(method);
+                ContentCache.transfer(resp.getEntity().getContent(), agentZipLocation);
+            }
+            finally {
+                releaseConnection(method);
+            }
+        }
         return result;
     }
 
@@ -120,7 +144,7 @@ public class AgentClient extends UDRestClient {
                 "&mutualAuth="+encodePath(mutualAuth);
 
         HttpPut method = new HttpPut(uri);
-        invokeMethod(method);
+        invokeMethodAndDiscard(method);
     }
 
     //----------------------------------------------------------------------------------------------
@@ -138,7 +162,7 @@ public class AgentClient extends UDRestClient {
                 encodePath(String.valueOf(isSecure));
         HttpPut method = new HttpPut(uri);
 
-        invokeMethod(method);
+        invokeMethodAndDiscard(method);
         if (isSecure) {
             result = name + "=****";
         }
@@ -152,14 +176,12 @@ public class AgentClient extends UDRestClient {
     throws IOException, JSONException{
         JSONObject result = null;
 
-        String uri = url + "/cli/agentCLI/info";
-        uri = uri + "?agent=" + encodePath(agentName);
+        String uri = Endpoints.AGENT_INFO.expand(url, agentName);
         HttpGet method = new HttpGet(uri);
 
         try {
             HttpResponse response = invokeMethod(method);
-            String body = getBody(response);
-            result = new JSONObject(body);
+            result = getBodyAsJSONObject(response);
         }
         finally {
             releaseConnection(method);
@@ -167,4 +189,13 @@ public class AgentClient extends UDRestClient {
 
         return result;
     }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Non-blocking variant of {@link #getAgent(String)}.
+     */
+    public CompletableFuture<JSONObject> getAgentAsync(String agentName) {
+        HttpGet method = new HttpGet(Endpoints.AGENT_INFO.expand(url, agentName));
+        return invokeMethodAsync(method, response -> getBodyAsJSONObject(response));
+    }
 }
@@ -9,10 +9,19 @@ package com.urbancode.ud.client;
 
 import java.io.IOException;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.http.HttpResponse;
@@ -31,6 +40,62 @@ public class ApplicationClient extends UDRestClient {
     //**********************************************************************************************
     // CLASS
     //**********************************************************************************************
+    /**
+     * The number of requests checked together by {@link #awaitAll}.
+     */
+    public static final int AWAIT_GROUP_SIZE = 25;
+
+    final static private Set<String> FINAL_STATUSES =
+        new HashSet<String>(Arrays.asList("CLOSED", "FAULTED", "CANCELED"));
+
+    /**
+     * The final status of an application process request.
+     */
+    public static class ProcessRequestStatus {
+        final private UUID requestId;
+        final private String status;
+        final private String result;
+
+        //------------------------------------------------------------------------------------------
+        private ProcessRequestStatus(UUID requestId, String status, String result) {
+            this.requestId = requestId;
+            this.status = status;
+            this.result = result;
+        }
+
+        //------------------------------------------------------------------------------------------
+        public UUID getRequestId() {
+            return requestId;
+        }
+
+        //------------------------------------------------------------------------------------------
+        /**
+         * @return the status of the request, e.g. "CLOSED" or "FAULTED".
+         */
+        public String getStatus() {
+            return status;
+        }
+
+        //------------------------------------------------------------------------------------------
+        /**
+         * @return the result of the process, e.g. "SUCCEEDED" or "FAULTED".
+         */
+        public String getResult() {
+            return result;
+        }
+
+        //------------------------------------------------------------------------------------------
+        public boolean isSuccessful() {
+            return "SUCCEEDED".equals(result);
+        }
+
+        //------------------------------------------------------------------------------------------
+        @Override
+        public String toString() {
+            return requestId + " " + status + " " + result;
+        }
+    }
+
     //**********************************************************************************************
     // INSTANCE
     //**********************************************************************************************
@@ -54,6 +119,14 @@ public class ApplicationClient extends UDRestClient {
         super(url, client);
     }
 
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Construct with the shared transport of a session. See UDClientSession.
+     */
+    public ApplicationClient(UDClientSession session) {
+        super(session);
+    }
+
     //----------------------------------------------------------------------------------------------
     public String addComponentToApplication(String appName, String compName)
     throws IOException {
@@ -92,7 +165,7 @@ public class ApplicationClient extends UDRestClient {
                 encodePath(type) + "&application=" +
                 encodePath(application);
         HttpPut method = new HttpPut(uri);
-        invokeMethod(method);
+        invokeMethodAndDiscard(method);
     }
 
     //----------------------------------------------------------------------------------------------
@@ -117,8 +190,7 @@ public class ApplicationClient extends UDRestClient {
         HttpPut method = new HttpPut(uri);
         method.setEntity(getStringEntity(jsonToSend));
         HttpResponse response = invokeMethod(method);
-        String body = getBody(response);
-        JSONObject jsonResult = new JSONObject(body);
+        JSONObject jsonResult = getBodyAsJSONObject(response);
         result = UUID.fromString((String) jsonResult.get("id"));
 
         return result;
@@ -135,8 +207,7 @@ public class ApplicationClient extends UDRestClient {
         method.setEntity(getStringEntity(jsonToSend));
 
         HttpResponse response = invokeMethod(method);
-        String body = getBody(response);
-        JSONObject jsonResult = new JSONObject(body);
+        JSONObject jsonResult = getBodyAsJSONObject(response);
         result = UUID.fromString((String) jsonResult.get("id"));
 
         return result;
@@ -150,12 +221,19 @@ public class ApplicationClient extends UDRestClient {
                 encodePath(processId.toString()) + "/versions";
         HttpGet method = new HttpGet(uri);
         HttpResponse response = invokeMethod(method);
+        // Depending on the server version the array may be wrapped in an object
+        JsonStreamReader reader = getBodyReader(response);
         try {
-            JSONObject props = new JSONObject(getBody(response));
-            result = props.getJSONArray("versions");
+            Object body = reader.readValue();
+            if (body instanceof JSONObject) {
+                result = ((JSONObject) body).getJSONArray("versions");
+            }
+            else {
+                result = (JSONArray) body;
+            }
         }
-        catch (JSONException e) {
-            result = new JSONArray(getBody(response));
+        finally {
+            reader.close();
         }
         return result;
     }
@@ -168,12 +246,19 @@ public class ApplicationClient extends UDRestClient {
                 encodePath(processId.toString()) + "/properties";
         HttpGet method = new HttpGet(uri);
         HttpResponse response = invokeMethod(method);
+        // Depending on the server version the array may be wrapped in an object
+        JsonStreamReader reader = getBodyReader(response);
         try {
-            JSONObject props = new JSONObject(getBody(response));
-            result = props.getJSONArray("properties");
+            Object body = reader.readValue();
+            if (body instanceof JSONObject) {
+                result = ((JSONObject) body).getJSONArray("properties");
+            }
+            else {
+                result = (JSONArray) body;
+            }
         }
-        catch (JSONException e) {
-            result = new JSONArray(getBody(response));
+        finally {
+            reader.close();
         }
         return result;
     }
@@ -183,17 +268,134 @@ public class ApplicationClient extends UDRestClient {
     throws IOException, JSONException {
         String result = null;
 
-        String uri = url + "/cli/applicationProcessRequest/requestStatus?request=" +
-                encodePath(processID);
+        String uri = Endpoints.APPLICATION_PROCESS_REQUEST_STATUS.expand(url, processID);
         HttpGet method = new HttpGet(uri);
         HttpResponse response = invokeMethod(method);
-        String body = getBody(response);
-        JSONObject resultAsJSON = new JSONObject(body);
+        JSONObject resultAsJSON = getBodyAsJSONObject(response);
 
         result = resultAsJSON.getString("result");
         return result;
     }
 
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Non-blocking variant of {@link #getApplicationProcessStatus(String)}.
+     */
+    public CompletableFuture<String> getApplicationProcessStatusAsync(String processID) {
+        HttpGet method = new HttpGet(Endpoints.APPLICATION_PROCESS_REQUEST_STATUS.expand(url, processID));
+        return invokeMethodAsync(method, response -> getBodyAsJSONObject(response).getString("result"));
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Wait for an application process request to finish, without blocking a thread.
+     *
+     * @param requestId The id returned by requestApplicationProcess.
+     * @param timeout How long to wait, or 0 to wait until the process finishes.
+     *
+     * @return a future completing with the final status, or exceptionally with a
+     * TimeoutException when the request did not finish in time.
+     */
+    public CompletableFuture<ProcessRequestStatus> awaitApplicationProcess(UUID requestId, long timeout,
+        TimeUnit unit) {
+        return awaitAll(Collections.singletonList(requestId), timeout, unit).get(requestId);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Wait for many application process requests to finish, without blocking a thread. The
+     * requests are checked in groups of {@link #AWAIT_GROUP_SIZE} by the shared
+     * {@link ProcessWatcher}: each check of a group reads the status of its unfinished requests
+     * one after the other, and the group is checked less often while none of them changes
+     * status. A request whose status cannot be read a few times in a row fails on its own,
+     * without affecting the rest of its group.
+     *
+     * @param requestIds The ids returned by requestApplicationProcess.
+     * @param timeout How long to wait, or 0 to wait until the processes finish.
+     *
+     * @return a future per request, in the order given, completing with the final status or
+     * exceptionally with a TimeoutException when the request did not finish in time.
+     * Cancelling a future stops checking its request.
+     */
+    public Map<UUID, CompletableFuture<ProcessRequestStatus>> awaitAll(Collection<UUID> requestIds,
+        long timeout, TimeUnit unit) {
+        Map<UUID, CompletableFuture<ProcessRequestStatus>> result =
+            new LinkedHashMap<UUID, CompletableFuture<ProcessRequestStatus>>();
+        for (UUID requestId : requestIds) {
+            result.put(requestId, new CompletableFuture<ProcessRequestStatus>());
+        }
+
+        List<UUID> ids = new ArrayList<UUID>(result.keySet());
+        for (int start = 0; start < ids.size(); start += AWAIT_GROUP_SIZE) {
+            Map<UUID, CompletableFuture<ProcessRequestStatus>> group =
+                new LinkedHashMap<UUID, CompletableFuture<ProcessRequestStatus>>();
+            for (UUID id : ids.subList(start, Math.min(start + AWAIT_GROUP_SIZE, ids.size()))) {
+                group.put(id, result.get(id));
+            }
+            awaitGroup(group, timeout, unit);
+        }
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    private void awaitGroup(final Map<UUID, CompletableFuture<ProcessRequestStatus>> group, long timeout,
+        TimeUnit unit) {
+        final Map<UUID, Integer> failures = new HashMap<UUID, Integer>();
+        getProcessWatcher().watch(() -> {
+            StringBuilder state = new StringBuilder();
+            for (Map.Entry<UUID, CompletableFuture<ProcessRequestStatus>> entry : group.entrySet()) {
+                UUID requestId = entry.getKey();
+                CompletableFuture<ProcessRequestStatus> future = entry.getValue();
+                if (future.isDone()) {
+                    continue;
+                }
+                try {
+                    String uri = Endpoints.APPLICATION_PROCESS_REQUEST_STATUS.expand(url, requestId.toString());
+                    JSONObject status = getBodyAsJSONObject(invokeMethod(new HttpGet(uri)));
+                    if (status == null) {
+                        throw new IOException("No status returned for request " + requestId);
+                    }
+                    failures.remove(requestId);
+                    String requestStatus = status.getString("status");
+                    if (FINAL_STATUSES.contains(requestStatus)) {
+                        future.complete(new ProcessRequestStatus(requestId, requestStatus,
+                            status.optString("result", null)));
+                    }
+                    else {
+                        state.append(requestId).append('=').append(requestStatus).append(' ');
+                    }
+                }
+                catch (IOException e) {
+                    Integer count = failures.get(requestId);
+                    count = count == null ? 1 : count + 1;
+                    if (count >= ProcessWatcher.MAX_CONSECUTIVE_FAILURES_DEFAULT) {
+                        future.completeExceptionally(e);
+                    }
+                    else {
+                        failures.put(requestId, count);
+                        state.append(requestId).append("=? ");
+                    }
+                }
+                catch (JSONException e) {
+                    future.completeExceptionally(e);
+                }
+                catch (RuntimeException e) {
+                    // fail this request only; escaping the check would fail the whole group
+                    future.completeExceptionally(e);
+                }
+            }
+            return state.length() == 0
+                ? ProcessWatcher.Poll.<Void>done(null)
+                : ProcessWatcher.Poll.<Void>running(state.toString());
+        }, timeout, unit).whenComplete((ignored, e) -> {
+            if (e != null) {
+                for (CompletableFuture<ProcessRequestStatus> future : group.values()) {
+                    future.completeExceptionally(e);
+                }
+            }
+        });
+    }
+
     //----------------------------------------------------------------------------------------------
     public JSONObject getSnapshot(String application, String snapshot)
     throws IOException, JSONException {
@@ -204,8 +406,7 @@ public class ApplicationClient extends UDRestClient {
         HttpGet method = new HttpGet(uri);
 
         HttpResponse response = invokeMethod(method);
-        String body = getBody(response);
-        JSONArray resultJSON = new JSONArray(body);
+        JSONArray resultJSON = getBodyAsJSONArray(response);
         for (int i=0; i<resultJSON.length(); i++) {
             JSONObject snapshotJson = (JSONObject) resultJSON.get(i);
             String resultName = (String) snapshotJson.get("name");
@@ -234,8 +435,7 @@ public class ApplicationClient extends UDRestClient {
         HttpGet method = new HttpGet(uri);
 
         HttpResponse response = invokeMethod(method);
-        String body = getBody(response);
-        result = new JSONArray(body);
+        result = getBodyAsJSONArray(response);
 
         return result;
     }
@@ -243,15 +443,22 @@ public class ApplicationClient extends UDRestClient {
     //----------------------------------------------------------------------------------------------
     public JSONObject getApplication(String appName)
     throws IOException, JSONException {
-        JSONObject result = null;
-        String uri = url + "/cli/application/info?application=" +
-        encodePath(appName);
-        HttpGet method = new HttpGet(uri);
+        String uri = Endpoints.APPLICATION_INFO.expand(url, appName);
+        return coalesceGet(uri, () -> {
+            HttpGet method = new HttpGet(uri);
+            HttpResponse response = invokeMethod(method);
+            return getBodyAsJSONObject(response);
+        });
+    }
 
-        HttpResponse response = invokeMethod(method);
-        String body = getBody(response);
-        result = new JSONObject(body);
-        return result;
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Non-blocking variant of {@link #getApplication(String)}.
+     */
+    public CompletableFuture<JSONObject> getApplicationAsync(String appName) {
+        String uri = Endpoints.APPLICATION_INFO.expand(url, appName);
+        return coalesceGetAsync(uri, () ->
+            invokeMethodAsync(new HttpGet(uri), response -> getBodyAsJSONObject(response)));
     }
 
     //----------------------------------------------------------------------------------------------
@@ -263,8 +470,7 @@ public class ApplicationClient extends UDRestClient {
         HttpGet method = new HttpGet(uri);
 
         HttpResponse response = invokeMethod(method);
-        String body = getBody(response);
-        result = new JSONArray(body);
+        result = getBodyAsJSONArray(response);
         return result;
     }
 
@@ -274,6 +480,41 @@ public class ApplicationClient extends UDRestClient {
         Map<String, List<String>> componentVersions)
     throws IOException, JSONException {
         UUID result = null;
+        HttpPut method = newApplicationProcessRequest(appName, processName, description, envName,
+            snapshot, onlyChanged, componentVersions);
+        HttpResponse response = invokeMethod(method);
+        JSONObject jsonResult = getBodyAsJSONObject(response);
+        result = UUID.fromString((String) jsonResult.get("requestId"));
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Non-blocking variant of
+     * {@link #requestApplicationProcess(String, String, String, String, String, boolean, Map)}.
+     */
+    public CompletableFuture<UUID> requestApplicationProcessAsync(String appName,
+        String processName, String description, String envName, String snapshot,
+        boolean onlyChanged, Map<String, List<String>> componentVersions) {
+        HttpPut method;
+        try {
+            method = newApplicationProcessRequest(appName, processName, description, envName,
+                snapshot, onlyChanged, componentVersions);
+        }
+        catch (JSONException e) {
+            CompletableFuture<UUID> result = new CompletableFuture<UUID>();
+            result.completeExceptionally(e);
+            return result;
+        }
+        return invokeMethodAsync(method,
+            response -> UUID.fromString(getBodyAsJSONObject(response).getString("requestId")));
+    }
+
+    //----------------------------------------------------------------------------------------------
+    private HttpPut newApplicationProcessRequest(String appName, String processName,
+        String description, String envName, String snapshot, boolean onlyChanged,
+        Map<String, List<String>> componentVersions)
+    throws JSONException {
         JSONObject jsonToSend = new JSONObject();
         jsonToSend.put("application", appName)
         .put("applicationProcess", processName)
@@ -299,14 +540,10 @@ public class ApplicationClient extends UDRestClient {
         }
         jsonToSend.put("versions", cvMappings);
 
-        String uri = url + "/cli/applicationProcessRequest/request";
+        String uri = Endpoints.APPLICATION_PROCESS_REQUEST.expand(url);
         HttpPut method = new HttpPut(uri);
         method.setEntity(getStringEntity(jsonToSend));
-        HttpResponse response = invokeMethod(method);
-        String body = getBody(response);
-        JSONObject jsonResult = new JSONObject(body);
-        result = UUID.fromString((String) jsonResult.get("requestId"));
-        return result;
+        return method;
     }
 
     //----------------------------------------------------------------------------------------------
@@ -328,7 +565,7 @@ public class ApplicationClient extends UDRestClient {
 
         HttpPut method = new HttpPut(uri);
         method.setEntity(getStringEntity(props));
-        invokeMethod(method);
+        invokeMethodAndDiscard(method);
     }
 
     //----------------------------------------------------------------------------------------------
@@ -346,7 +583,7 @@ public class ApplicationClient extends UDRestClient {
                 encodePath(String.valueOf(isSecure));
 
         HttpPut method = new HttpPut(uri);
-        retryInvokeMethod(method, "set application property");
+        discardBody(retryInvokeMethod(method, "set application property"));
         if (isSecure) {
             result = name + "=****";
         }
@@ -396,8 +633,7 @@ public class ApplicationClient extends UDRestClient {
         HttpPut method = new HttpPut(uri);
         method.setEntity(getStringEntity(jsonToSend));
         HttpResponse response = invokeMethod(method);
-        String body = getBody(response);
-        JSONObject jsonResult = new JSONObject(body);
+        JSONObject jsonResult = getBodyAsJSONObject(response);
         result = UUID.fromString((String) jsonResult.get("id"));
 
         return result;
@@ -426,8 +662,7 @@ public class ApplicationClient extends UDRestClient {
 
         HttpPut method = new HttpPut(uri);
         HttpResponse response = invokeMethod(method);
-        String body = getBody(response);
-        JSONObject jsonResult = new JSONObject(body);
+        JSONObject jsonResult = getBodyAsJSONObject(response);
         result = UUID.fromString((String) jsonResult.get("id"));
 
         return result;
@@ -449,8 +684,7 @@ public class ApplicationClient extends UDRestClient {
         if (response.getStatusLine().getStatusCode() == HttpStatus.SC_NO_CONTENT) {
             throw new IOException("404 Not Found");
         }
-        String body = getBody(response);
-        result = new JSONObject(body);
+        result = getBodyAsJSONObject(response);
         return result;
     }
 
@@ -471,8 +705,7 @@ public class ApplicationClient extends UDRestClient {
         HttpGet method = new HttpGet(uri);
 
         HttpResponse response = invokeMethod(method);
-        String body = getBody(response);
-        result = new JSONArray(body);
+        result = getBodyAsJSONArray(response);
         return result;
     }
 
@@ -500,8 +733,7 @@ public class ApplicationClient extends UDRestClient {
         method.setEntity(getStringEntity(jsonToSend));
 
         HttpResponse response = invokeMethod(method);
-        String body = getBody(response);
-        JSONObject result = new JSONObject(body);
+        JSONObject result = getBodyAsJSONObject(response);
         return result;
     }
 
@@ -534,36 +766,31 @@ public class ApplicationClient extends UDRestClient {
         UUID appUUID = getApplicationUUID(applicationName);
         String uri = url + "/rest/deploy/application/" + appUUID.toString();
         HttpDelete method = new HttpDelete(uri);
-        invokeMethod(method);
+        invokeMethodAndDiscard(method);
+        invalidateUUID("application", null, applicationName);
 
         return appUUID;
     }
 
     //----------------------------------------------------------------------------------------------
-    private UUID getApplicationUUID(String applicationName) throws IOException, JSONException {
-        UUID result = null;
-
-        String uri = url + "/cli/application/info?application=" + encodePath(applicationName);
-        HttpGet method = new HttpGet(uri);
-        HttpResponse response = invokeMethod(method);
-        String body = getBody(response);
-        JSONObject resultJSON = new JSONObject(body);
-        result = UUID.fromString(resultJSON.getString("id"));
-
-        return result;
+    private UUID getApplicationUUID(final String applicationName) throws IOException, JSONException {
+        return resolveUUID("application", null, applicationName, () -> {
+            String uri = Endpoints.APPLICATION_INFO.expand(url, applicationName);
+            HttpGet method = new HttpGet(uri);
+            HttpResponse response = invokeMethod(method);
+            JSONObject resultJSON = getBodyAsJSONObject(response);
+            return UUID.fromString(resultJSON.getString("id"));
+        });
     }
 
     //----------------------------------------------------------------------------------------------
-    private UUID getComponentUUID(String component) throws IOException, JSONException {
-        UUID result = null;
-
-        String uri = url + "/cli/component/info?component=" + encodePath(component);
-        HttpGet method = new HttpGet(uri);
-        HttpResponse response = invokeMethod(method);
-        String body = getBody(response);
-        JSONObject resultJSON = new JSONObject(body);
-        result = UUID.fromString(resultJSON.getString("id"));
-
-        return result;
+    private UUID getComponentUUID(final String component) throws IOException, JSONException {
+        return resolveUUID("component", null, component, () -> {
+            String uri = Endpoints.COMPONENT_INFO.expand(url, component);
+            HttpGet method = new HttpGet(uri);
+            HttpResponse response = invokeMethod(method);
+            JSONObject resultJSON = getBodyAsJSONObject(response);
+            return UUID.fromString(resultJSON.getString("id"));
+        });
     }
 }
@@ -0,0 +1,321 @@
+/**
+ * (c) Copyright IBM Corporation 2011, 2017.
+ * (c) Copyright HCL Technologies Ltd. 2018. All Rights Reserved.
+ * This is licensed under the following license.
+ * The Apache Version 2.0 License (https://www.apache.org/licenses/LICENSE-2.0.txt)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+package com.urbancode.ud.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.SSLContext;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ssl.SSLContexts;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.conn.ssl.TrustStrategy;
+import org.apache.http.conn.ssl.X509HostnameVerifier;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.conn.NoopIOSessionStrategy;
+import org.apache.http.nio.conn.SchemeIOSessionStrategy;
+import org.apache.http.nio.conn.ssl.SSLIOSessionStrategy;
+import org.apache.http.protocol.HttpContext;
+import org.apache.log4j.Logger;
+
+/**
+ * Sends requests over non-blocking I/O, so any number of requests can be in flight on a couple
+ * of I/O threads. Requests beyond the connection limit wait for a connection without holding a
+ * thread. Each response is read into memory before its future completes.
+ * <p>
+ * The transport is configured like {@link UDRestClient#createHttpClient(String,String,boolean)}:
+ * the same certificate trust and the proxy from the environment. Credentials and cookies are not
+ * part of the transport; each request brings them in its context, so clients of different users
+ * can share one transport.
+ * <p>
+ * The I/O threads are daemons. They start with the first request and end when no request has
+ * been in flight for a minute, so a transport that is never closed does not keep threads.
+ */
+public class AsyncHttpTransport implements Closeable {
+
+    //**********************************************************************************************
+    // CLASS
+    //**********************************************************************************************
+    final static private Logger log = Logger.getLogger(AsyncHttpTransport.class);
+    final static private AtomicInteger transportCount = new AtomicInteger();
+    final static private long IDLE_TIMEOUT_SECONDS = 60L;
+    final static private int IO_THREADS = Math.min(2, Runtime.getRuntime().availableProcessors());
+
+    static private AsyncHttpTransport trustingTransport;
+    static private AsyncHttpTransport verifyingTransport;
+
+    /**
+     * Runs retries after their delay and stops idle transports. Its thread ends when idle too.
+     */
+    final static private ScheduledThreadPoolExecutor timer =
+        new ScheduledThreadPoolExecutor(1, daemonThreads("ud-client-async-timer-"));
+    static {
+        timer.setKeepAliveTime(IDLE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        timer.allowCoreThreadTimeOut(true);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * The transport for standalone clients, shared by all of them. It is never closed but gives
+     * up its threads when idle.
+     *
+     * @param trustAllCerts Boolean to trust or deny all insecure certifications.
+     *
+     * @return AsyncHttpTransport
+     */
+    static public synchronized AsyncHttpTransport getShared(boolean trustAllCerts) {
+        AsyncHttpTransport result;
+        if (trustAllCerts) {
+            if (trustingTransport == null) {
+                trustingTransport = new AsyncHttpTransport(true, UDClientSession.MAX_CONNECTIONS_DEFAULT);
+            }
+            result = trustingTransport;
+        }
+        else {
+            if (verifyingTransport == null) {
+                verifyingTransport = new AsyncHttpTransport(false, UDClientSession.MAX_CONNECTIONS_DEFAULT);
+            }
+            result = verifyingTransport;
+        }
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    static private ThreadFactory daemonThreads(final String prefix) {
+        return new ThreadFactory() {
+            final private AtomicInteger threadCount = new AtomicInteger();
+
+            public Thread newThread(Runnable runnable) {
+                Thread result = new Thread(runnable, prefix + threadCount.incrementAndGet());
+                result.setDaemon(true);
+                return result;
+            }
+        };
+    }
+
+    //**********************************************************************************************
+    // INSTANCE
+    //**********************************************************************************************
+    final private boolean trustAllCerts;
+    final private int maxConnections;
+    final private String threadPrefix = "ud-client-io-" + transportCount.incrementAndGet() + "-";
+    private CloseableHttpAsyncClient client;
+    private int inFlight;
+    private long idleSince;
+    private boolean closed;
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @param trustAllCerts Boolean to trust or deny all insecure certifications.
+     * @param maxConnections The maximum number of connections kept open to the server.
+     */
+    public AsyncHttpTransport(boolean trustAllCerts, int maxConnections) {
+        if (maxConnections < 1) {
+            throw new IllegalArgumentException("maxConnections must be at least 1: " + maxConnections);
+        }
+        this.trustAllCerts = trustAllCerts;
+        this.maxConnections = maxConnections;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return the number of requests sent and not yet answered.
+     */
+    public synchronized int getInFlightCount() {
+        return inFlight;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Send a request. The returned future completes on an I/O thread with the response, whatever
+     * its status, or exceptionally with the I/O failure. Cancelling it aborts the request.
+     *
+     * @param request The request to send.
+     * @param context Carries the credentials and cookies of the client sending the request.
+     *
+     * @return CompletableFuture
+     */
+    public CompletableFuture<HttpResponse> execute(HttpRequestBase request, HttpContext context) {
+        final CompletableFuture<HttpResponse> result = new CompletableFuture<HttpResponse>();
+        CloseableHttpAsyncClient started;
+        try {
+            started = start();
+        }
+        catch (IOException e) {
+            result.completeExceptionally(e);
+            return result;
+        }
+        final Future<HttpResponse> sent = started.execute(request, context,
+            new FutureCallback<HttpResponse>() {
+                public void completed(HttpResponse response) {
+                    finished();
+                    result.complete(response);
+                }
+
+                public void failed(Exception e) {
+                    finished();
+                    result.completeExceptionally(e);
+                }
+
+                public void cancelled() {
+                    finished();
+                    result.cancel(false);
+                }
+            });
+        result.whenComplete((response, error) -> {
+            if (result.isCancelled()) {
+                sent.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Run a task after a delay without holding a thread while waiting, e.g. to retry a request.
+     *
+     * @param task The task to run.
+     * @param delayMillis The delay in milliseconds.
+     */
+    public void schedule(Runnable task, long delayMillis) {
+        timer.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Abort the requests in flight and stop the I/O threads. Later requests fail.
+     */
+    public void close() {
+        CloseableHttpAsyncClient stopped;
+        synchronized (this) {
+            closed = true;
+            stopped = client;
+            client = null;
+        }
+        stop(stopped);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    private synchronized CloseableHttpAsyncClient start()
+    throws IOException {
+        if (closed) {
+            throw new IOException("The transport is closed");
+        }
+        if (client == null) {
+            client = build();
+            client.start();
+        }
+        ++inFlight;
+        return client;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    private synchronized void finished() {
+        if (--inFlight == 0) {
+            idleSince = System.nanoTime();
+            timer.schedule(() -> stopIfIdle(), IDLE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    private void stopIfIdle() {
+        CloseableHttpAsyncClient stopped = null;
+        synchronized (this) {
+            if (client != null && inFlight == 0 &&
+                System.nanoTime() - idleSince >= TimeUnit.SECONDS.toNanos(IDLE_TIMEOUT_SECONDS))
+            {
+                stopped = client;
+                client = null;
+            }
+        }
+        stop(stopped);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    static private void stop(CloseableHttpAsyncClient stopped) {
+        if (stopped != null) {
+            try {
+                stopped.close();
+            }
+            catch (IOException e) {
+                log.debug("Failed to stop the I/O threads", e);
+            }
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    private CloseableHttpAsyncClient build()
+    throws IOException {
+        SSLContext sslContext;
+        X509HostnameVerifier hostnameVerifier;
+        try {
+            if (trustAllCerts) {
+                sslContext = SSLContexts.custom().loadTrustMaterial(null, new TrustStrategy() {
+                    public boolean isTrusted(X509Certificate[] chain, String authType) {
+                        return true;
+                    }
+                }).build();
+                hostnameVerifier = SSLConnectionSocketFactory.ALLOW_ALL_HOSTNAME_VERIFIER;
+            }
+            else {
+                sslContext = SSLContexts.createSystemDefault();
+                hostnameVerifier = SSLConnectionSocketFactory.BROWSER_COMPATIBLE_HOSTNAME_VERIFIER;
+            }
+        }
+        catch (GeneralSecurityException e) {
+            throw new IOException("Failed to create the SSL context", e);
+        }
+
+        // The dispatcher threads come from the reactor, not the client builder
+        IOReactorConfig config = IOReactorConfig.custom().setIoThreadCount(IO_THREADS).build();
+        ThreadFactory threadFactory = daemonThreads(threadPrefix);
+        PoolingNHttpClientConnectionManager manager = new PoolingNHttpClientConnectionManager(
+            new DefaultConnectingIOReactor(config, threadFactory),
+            RegistryBuilder.<SchemeIOSessionStrategy>create()
+                .register("http", NoopIOSessionStrategy.INSTANCE)
+                .register("https", new SSLIOSessionStrategy(sslContext, hostnameVerifier))
+                .build());
+        manager.setMaxTotal(maxConnections);
+        manager.setDefaultMaxPerRoute(maxConnections);
+
+        HttpAsyncClientBuilder builder = HttpAsyncClientBuilder.create()
+            .setConnectionManager(manager)
+            .setThreadFactory(threadFactory);
+        if (!StringUtils.isEmpty(System.getenv("PROXY_HOST")) &&
+            StringUtils.isNumeric(System.getenv("PROXY_PORT")))
+        {
+            log.debug("Configuring proxy settings.");
+            builder.setProxy(new HttpHost(System.getenv("PROXY_HOST"),
+                Integer.valueOf(System.getenv("PROXY_PORT"))));
+        }
+        return builder.build();
+    }
+}
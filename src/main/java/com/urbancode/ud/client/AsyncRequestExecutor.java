@@ -0,0 +1,117 @@
+/**
+ * (c) Copyright IBM Corporation 2011, 2017.
+ * (c) Copyright HCL Technologies Ltd. 2018. All Rights Reserved.
+ * This is licensed under the following license.
+ * The Apache Version 2.0 License (https://www.apache.org/licenses/LICENSE-2.0.txt)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+package com.urbancode.ud.client;
+
+import java.io.Closeable;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded worker pool that runs blocking client calls off the calling thread and exposes them
+ * as {@link CompletableFuture}s. Each running call holds a worker thread while it waits for the
+ * server, so at most {@code maxInFlight} calls are executing at once; further calls queue without
+ * blocking the caller. Worker threads are daemons and exit when idle.
+ * <p>
+ * Single reads do not need a worker: they go through {@link AsyncHttpTransport}, which keeps any
+ * number of requests in flight without a thread each.
+ */
+public class AsyncRequestExecutor implements Closeable {
+
+    //**********************************************************************************************
+    // CLASS
+    //**********************************************************************************************
+    private static final long IDLE_TIMEOUT_SECONDS = 60L;
+    private static final AtomicInteger poolCount = new AtomicInteger();
+
+    //**********************************************************************************************
+    // INSTANCE
+    //**********************************************************************************************
+    final private int maxInFlight;
+    final private ThreadPoolExecutor executor;
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @param maxInFlight The maximum number of requests executing at the same time.
+     */
+    public AsyncRequestExecutor(int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be at least 1: " + maxInFlight);
+        }
+        this.maxInFlight = maxInFlight;
+
+        final String prefix = "ud-client-async-" + poolCount.incrementAndGet() + "-";
+        ThreadFactory threadFactory = new ThreadFactory() {
+            final private AtomicInteger threadCount = new AtomicInteger();
+
+            public Thread newThread(Runnable runnable) {
+                Thread result = new Thread(runnable, prefix + threadCount.incrementAndGet());
+                result.setDaemon(true);
+                return result;
+            }
+        };
+        executor = new ThreadPoolExecutor(maxInFlight, maxInFlight, IDLE_TIMEOUT_SECONDS,
+            TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), threadFactory);
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return the number of calls waiting for a free slot.
+     */
+    public int getQueuedCount() {
+        return executor.getQueue().size();
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Schedule a call. The returned future completes with the call's result, or exceptionally
+     * with the exception it threw. Cancelling the future before the call starts skips it.
+     *
+     * @param call The blocking client call to run.
+     *
+     * @return CompletableFuture
+     */
+    public <T> CompletableFuture<T> submit(final Callable<T> call) {
+        final CompletableFuture<T> result = new CompletableFuture<T>();
+        try {
+            executor.execute(() -> {
+                if (!result.isDone()) {
+                    try {
+                        result.complete(call.call());
+                    }
+                    catch (Throwable e) {
+                        result.completeExceptionally(e);
+                    }
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Stop accepting calls. Calls already scheduled still run.
+     */
+    public void close() {
+        executor.shutdown();
+    }
+}
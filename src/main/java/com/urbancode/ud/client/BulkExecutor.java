@@ -0,0 +1,505 @@
+/**
+ * (c) Copyright IBM Corporation 2011, 2017.
+ * (c) Copyright HCL Technologies Ltd. 2018. All Rights Reserved.
+ * This is licensed under the following license.
+ * The Apache Version 2.0 License (https://www.apache.org/licenses/LICENSE-2.0.txt)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+package com.urbancode.ud.client;
+
+import java.io.Closeable;
+import java.lang.reflect.Method;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Runs the same client call for many items, such as reading the latest version of 2,000
+ * components, with a cap on concurrent requests per server. Every item ends up in exactly one
+ * of the results, failures or cancelled items of the returned {@link Result}.
+ *
+ * <pre>
+ * BulkExecutor bulk = new BulkExecutor(16);
+ * BulkExecutor.Result&lt;String, String&gt; latest =
+ *     bulk.invokeAll(componentClient, componentNames, componentClient::getLatestVersion);
+ * </pre>
+ *
+ * Calls run on virtual threads when the JVM provides them (Java 21 and later) and on a cached
+ * pool of daemon threads otherwise. In both cases no more than the per-server limit of calls is
+ * started at once, so large batches do not create a thread per item.
+ */
+public class BulkExecutor implements Closeable {
+
+    //**********************************************************************************************
+    // CLASS
+    //**********************************************************************************************
+    final static private Logger log = Logger.getLogger(BulkExecutor.class);
+
+    public static final int MAX_CONCURRENCY_PER_SERVER_DEFAULT = 16;
+
+    private static final int PENDING = 0;
+    private static final int SUCCEEDED = 1;
+    private static final int FAILED = 2;
+    private static final int CANCELLED = 3;
+
+    /**
+     * A client call applied to one item of a batch.
+     */
+    public interface Call<I, T> {
+        T call(I item) throws Exception;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    private static ExecutorService createExecutor() {
+        ExecutorService result;
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            result = (ExecutorService) factory.invoke(null);
+        }
+        catch (Exception e) {
+            log.debug("Virtual threads are not available, using platform threads");
+            final AtomicInteger threadCount = new AtomicInteger();
+            result = Executors.newCachedThreadPool(new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "ud-client-bulk-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    private static String getServerKey(URI server) {
+        return server.getScheme() + "://" + server.getAuthority();
+    }
+
+    /**
+     * A task cancelled through its future, so that a cancellation interrupt reaches only this
+     * task and never a later task of the same pool thread. A task cancelled before it starts
+     * does not run; its skipped action runs instead.
+     */
+    static private class Job extends FutureTask<Void> {
+        final private AtomicBoolean claimed;
+        final private Runnable onSkipped;
+
+        //------------------------------------------------------------------------------------------
+        static private Job create(final Runnable body, Runnable onSkipped) {
+            final AtomicBoolean claimed = new AtomicBoolean();
+            return new Job(() -> {
+                if (claimed.compareAndSet(false, true)) {
+                    body.run();
+                }
+                return null;
+            }, claimed, onSkipped);
+        }
+
+        //------------------------------------------------------------------------------------------
+        private Job(Callable<Void> body, AtomicBoolean claimed, Runnable onSkipped) {
+            super(body);
+            this.claimed = claimed;
+            this.onSkipped = onSkipped;
+        }
+
+        //------------------------------------------------------------------------------------------
+        @Override
+        protected void done() {
+            if (isCancelled() && claimed.compareAndSet(false, true)) {
+                onSkipped.run();
+            }
+        }
+    }
+
+    //**********************************************************************************************
+    // INSTANCE
+    //**********************************************************************************************
+    final private int maxConcurrencyPerServer;
+    final private ExecutorService executor;
+    final private ConcurrentMap<String, Semaphore> serverPermits = new ConcurrentHashMap<String, Semaphore>();
+
+    //----------------------------------------------------------------------------------------------
+    public BulkExecutor() {
+        this(MAX_CONCURRENCY_PER_SERVER_DEFAULT);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @param maxConcurrencyPerServer The maximum number of calls running against one server,
+     * shared by all batches of this executor.
+     */
+    public BulkExecutor(int maxConcurrencyPerServer) {
+        if (maxConcurrencyPerServer < 1) {
+            throw new IllegalArgumentException(
+                "maxConcurrencyPerServer must be at least 1: " + maxConcurrencyPerServer);
+        }
+        this.maxConcurrencyPerServer = maxConcurrencyPerServer;
+        this.executor = createExecutor();
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public int getMaxConcurrencyPerServer() {
+        return maxConcurrencyPerServer;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Start a batch of calls against the server of a client and return immediately.
+     *
+     * @param client The client whose server limits the concurrency of the batch.
+     * @param items The items to call for. Items are used as result keys and should be distinct.
+     * @param call The call to run for every item.
+     *
+     * @return Batch
+     */
+    public <I, T> Batch<I, T> submit(UDRestClient client, Collection<? extends I> items,
+        Call<? super I, ? extends T> call) {
+        return submit(client.url, items, call);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Start a batch of calls against a server and return immediately.
+     *
+     * @param server The url of the server the calls are made against.
+     * @param items The items to call for. Items are used as result keys and should be distinct.
+     * @param call The call to run for every item.
+     *
+     * @return Batch
+     */
+    public <I, T> Batch<I, T> submit(URI server, Collection<? extends I> items,
+        Call<? super I, ? extends T> call) {
+        Semaphore permits = serverPermits.computeIfAbsent(getServerKey(server),
+            key -> new Semaphore(maxConcurrencyPerServer));
+
+        Batch<I, T> result = new Batch<I, T>(items, call, permits);
+        result.start();
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Run a batch of calls against the server of a client and wait for all of them. If the
+     * calling thread is interrupted, the batch is cancelled.
+     *
+     * @return Result
+     *
+     * @throws InterruptedException
+     */
+    public <I, T> Result<I, T> invokeAll(UDRestClient client, Collection<? extends I> items,
+        Call<? super I, ? extends T> call)
+    throws InterruptedException {
+        return this.<I, T>submit(client, items, call).await();
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Run a batch of calls against a server and wait for all of them. If the calling thread is
+     * interrupted, the batch is cancelled.
+     *
+     * @return Result
+     *
+     * @throws InterruptedException
+     */
+    public <I, T> Result<I, T> invokeAll(URI server, Collection<? extends I> items,
+        Call<? super I, ? extends T> call)
+    throws InterruptedException {
+        return this.<I, T>submit(server, items, call).await();
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Stop accepting batches. Calls already started still run.
+     */
+    public void close() {
+        executor.shutdown();
+    }
+
+    //**********************************************************************************************
+    // NESTED
+    //**********************************************************************************************
+    /**
+     * A running batch. Items are started in order as permits for the server become free.
+     */
+    public class Batch<I, T> {
+
+        final private List<I> items;
+        final private Call<? super I, ? extends T> call;
+        final private Semaphore permits;
+        final private Object[] values;
+        final private Exception[] errors;
+        final private AtomicInteger[] states;
+        final private AtomicReferenceArray<Job> jobs;
+        final private CountDownLatch remaining;
+        private volatile boolean cancelled;
+        private volatile Job dispatcher;
+
+        //------------------------------------------------------------------------------------------
+        private Batch(Collection<? extends I> items, Call<? super I, ? extends T> call,
+            Semaphore permits) {
+            this.items = new ArrayList<I>(items);
+            this.call = call;
+            this.permits = permits;
+            this.values = new Object[this.items.size()];
+            this.errors = new Exception[this.items.size()];
+            this.states = new AtomicInteger[this.items.size()];
+            for (int i = 0; i < states.length; i++) {
+                states[i] = new AtomicInteger(PENDING);
+            }
+            this.jobs = new AtomicReferenceArray<Job>(this.items.size());
+            this.remaining = new CountDownLatch(this.items.size());
+        }
+
+        //------------------------------------------------------------------------------------------
+        private void start() {
+            dispatcher = Job.create(() -> dispatch(), () -> {
+                for (int i = 0; i < items.size(); i++) {
+                    finish(i, CANCELLED, null, null);
+                }
+            });
+            try {
+                executor.execute(dispatcher);
+            }
+            catch (RejectedExecutionException e) {
+                for (int i = 0; i < items.size(); i++) {
+                    finish(i, FAILED, null, e);
+                }
+            }
+        }
+
+        //------------------------------------------------------------------------------------------
+        private void dispatch() {
+            int next = 0;
+            try {
+                while (next < items.size() && !cancelled) {
+                    permits.acquire();
+                    final int index = next++;
+                    Job job = Job.create(() -> execute(index), () -> {
+                        permits.release();
+                        finish(index, CANCELLED, null, null);
+                    });
+                    jobs.set(index, job);
+                    try {
+                        executor.execute(job);
+                        if (cancelled) {
+                            // cancel() may have looked at the jobs before this one was added
+                            job.cancel(true);
+                        }
+                    }
+                    catch (RejectedExecutionException e) {
+                        jobs.set(index, null);
+                        permits.release();
+                        finish(index, FAILED, null, e);
+                    }
+                }
+            }
+            catch (InterruptedException e) {
+                // cancelled while waiting for a permit
+            }
+            finally {
+                for (int i = next; i < items.size(); i++) {
+                    finish(i, CANCELLED, null, null);
+                }
+            }
+        }
+
+        //------------------------------------------------------------------------------------------
+        private void execute(int index) {
+            try {
+                if (cancelled) {
+                    finish(index, CANCELLED, null, null);
+                }
+                else {
+                    try {
+                        T value = call.call(items.get(index));
+                        finish(index, SUCCEEDED, value, null);
+                    }
+                    catch (Exception e) {
+                        finish(index, cancelled ? CANCELLED : FAILED, null, e);
+                    }
+                }
+            }
+            finally {
+                jobs.set(index, null);
+                permits.release();
+            }
+        }
+
+        //------------------------------------------------------------------------------------------
+        private void finish(int index, int state, Object value, Exception error) {
+            if (states[index].compareAndSet(PENDING, state)) {
+                values[index] = value;
+                errors[index] = error;
+                remaining.countDown();
+            }
+        }
+
+        //------------------------------------------------------------------------------------------
+        /**
+         * Stop the batch early. Items not yet started are reported as cancelled and running
+         * calls are interrupted. The interrupts go through the future of each call, so a pool
+         * thread that has moved on to other work is never interrupted.
+         */
+        public void cancel() {
+            cancelled = true;
+            dispatcher.cancel(true);
+            for (int i = 0; i < jobs.length(); i++) {
+                Job job = jobs.get(i);
+                if (job != null) {
+                    job.cancel(true);
+                }
+            }
+        }
+
+        //------------------------------------------------------------------------------------------
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        //------------------------------------------------------------------------------------------
+        /**
+         * @return the number of items that have not finished.
+         */
+        public long getRemainingCount() {
+            return remaining.getCount();
+        }
+
+        //------------------------------------------------------------------------------------------
+        /**
+         * Wait for every item to finish. If the waiting thread is interrupted the batch is
+         * cancelled.
+         *
+         * @return Result
+         *
+         * @throws InterruptedException
+         */
+        public Result<I, T> await()
+        throws InterruptedException {
+            try {
+                remaining.await();
+            }
+            catch (InterruptedException e) {
+                cancel();
+                throw e;
+            }
+            return getResult();
+        }
+
+        //------------------------------------------------------------------------------------------
+        /**
+         * Wait for every item to finish, up to a timeout.
+         *
+         * @return Result, or null if the timeout elapsed first.
+         *
+         * @throws InterruptedException
+         */
+        public Result<I, T> await(long timeout, TimeUnit unit)
+        throws InterruptedException {
+            Result<I, T> result = null;
+            try {
+                if (remaining.await(timeout, unit)) {
+                    result = getResult();
+                }
+            }
+            catch (InterruptedException e) {
+                cancel();
+                throw e;
+            }
+            return result;
+        }
+
+        //------------------------------------------------------------------------------------------
+        @SuppressWarnings("unchecked")
+        private Result<I, T> getResult() {
+            Map<I, T> succeeded = new LinkedHashMap<I, T>();
+            Map<I, Exception> failed = new LinkedHashMap<I, Exception>();
+            List<I> skipped = new ArrayList<I>();
+            for (int i = 0; i < items.size(); i++) {
+                switch (states[i].get()) {
+                    case SUCCEEDED:
+                        succeeded.put(items.get(i), (T) values[i]);
+                        break;
+                    case FAILED:
+                        failed.put(items.get(i), errors[i]);
+                        break;
+                    default:
+                        skipped.add(items.get(i));
+                        break;
+                }
+            }
+            return new Result<I, T>(succeeded, failed, skipped, cancelled);
+        }
+    }
+
+    //**********************************************************************************************
+    /**
+     * The outcome of a batch, keyed by item in submission order.
+     */
+    public static class Result<I, T> {
+
+        final private Map<I, T> results;
+        final private Map<I, Exception> failures;
+        final private List<I> cancelled;
+        final private boolean wasCancelled;
+
+        //------------------------------------------------------------------------------------------
+        private Result(Map<I, T> results, Map<I, Exception> failures, List<I> cancelled,
+            boolean wasCancelled) {
+            this.results = Collections.unmodifiableMap(results);
+            this.failures = Collections.unmodifiableMap(failures);
+            this.cancelled = Collections.unmodifiableList(cancelled);
+            this.wasCancelled = wasCancelled;
+        }
+
+        //------------------------------------------------------------------------------------------
+        public Map<I, T> getResults() {
+            return results;
+        }
+
+        //------------------------------------------------------------------------------------------
+        public Map<I, Exception> getFailures() {
+            return failures;
+        }
+
+        //------------------------------------------------------------------------------------------
+        /**
+         * @return items that were not run, or were interrupted, because the batch was cancelled.
+         */
+        public List<I> getCancelled() {
+            return cancelled;
+        }
+
+        //------------------------------------------------------------------------------------------
+        public boolean isCancelled() {
+            return wasCancelled;
+        }
+
+        //------------------------------------------------------------------------------------------
+        /**
+         * @return true if every item succeeded.
+         */
+        public boolean isSuccessful() {
+            return failures.isEmpty() && cancelled.isEmpty();
+        }
+    }
+}
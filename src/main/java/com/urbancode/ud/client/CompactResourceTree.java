@@ -0,0 +1,510 @@
+/**
+ * (c) Copyright IBM Corporation 2011, 2017.
+ * (c) Copyright HCL Technologies Ltd. 2018. All Rights Reserved.
+ * This is licensed under the following license.
+ * The Apache Version 2.0 License (https://www.apache.org/licenses/LICENSE-2.0.txt)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+package com.urbancode.ud.client;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.codehaus.jettison.json.JSONArray;
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+
+/**
+ * {@link ResourceTree} held in columns instead of JSON objects, for trees of a hundred thousand
+ * resources and more. Per resource it keeps the parent, first child and next sibling indexes,
+ * references into a dictionary of distinct names, roles and types, the id as two longs and a
+ * byte of flags: about fifty bytes, against kilobytes for the JSON of a resource.
+ * <p>
+ * Paths are not stored: a path is the parent's path and the name, so it is rebuilt on demand.
+ * The rare resource whose path does not follow that rule keeps its own. Lookups by path go
+ * through an open-addressing table of indexes and compare the path segment by segment without
+ * allocating.
+ * <p>
+ * Fields other than the id, name, path, role, type and hasAgent are dropped. With
+ * {@link #toOffHeap()} the columns move into one direct buffer, leaving only the dictionary on
+ * the heap. Instances are immutable and thread-safe.
+ */
+public class CompactResourceTree implements ResourceTree {
+
+    //**********************************************************************************************
+    // CLASS
+    //**********************************************************************************************
+    final static private byte FLAG_HAS_AGENT = 1;
+    final static private byte FLAG_HAS_ID = 2;
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Convert the JSON returned by {@link ResourceClient#getResourceTree()}.
+     */
+    static public CompactResourceTree fromJSON(JSONArray tree)
+    throws JSONException {
+        Builder builder = new Builder();
+        for (int i = 0; i < tree.length(); i++) {
+            builder.add(tree.getJSONObject(i), NONE);
+        }
+        return builder.build();
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Read a tree straight from a JSON stream, without building the JSON objects.
+     *
+     * @param reader Positioned before the array of top level resources.
+     */
+    static public CompactResourceTree read(JsonStreamReader reader)
+    throws IOException, JSONException {
+        Builder builder = new Builder();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            builder.read(reader, NONE);
+        }
+        reader.endArray();
+        return builder.build();
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return the next string, or null for a JSON null.
+     */
+    static private String readString(JsonStreamReader reader)
+    throws IOException, JSONException {
+        if (reader.peek() == JsonStreamReader.Token.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextString();
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Spread the bits of a hash code over the table.
+     */
+    static private int mix(int hash) {
+        int result = hash * 0x9E3779B9;
+        return result ^ (result >>> 16);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    static private int[] grow(int[] array, int size) {
+        return size < array.length ? array : Arrays.copyOf(array, array.length * 2);
+    }
+
+    /**
+     * Collects the columns while the tree is read, in depth-first order.
+     */
+    static private class Builder {
+        private int size;
+        private int[] parents = new int[1024];
+        private int[] firstChildren = new int[1024];
+        private int[] nextSiblings = new int[1024];
+        private int[] lastChildren = new int[1024];
+        private int[] names = new int[1024];
+        private int[] roles = new int[1024];
+        private int[] types = new int[1024];
+        private long[] ids = new long[2048];
+        private byte[] flags = new byte[1024];
+        private String[] paths = new String[1024];
+        private int lastRoot = NONE;
+        final private Map<String, Integer> dictionary = new HashMap<String, Integer>();
+        final private List<String> words = new ArrayList<String>();
+
+        //------------------------------------------------------------------------------------------
+        /**
+         * Append a resource and link it to its parent.
+         */
+        private int append(int parent) {
+            if (size == parents.length) {
+                parents = grow(parents, size);
+                firstChildren = grow(firstChildren, size);
+                nextSiblings = grow(nextSiblings, size);
+                lastChildren = grow(lastChildren, size);
+                names = grow(names, size);
+                roles = grow(roles, size);
+                types = grow(types, size);
+                ids = Arrays.copyOf(ids, ids.length * 2);
+                flags = Arrays.copyOf(flags, flags.length * 2);
+                paths = Arrays.copyOf(paths, paths.length * 2);
+            }
+            int node = size++;
+            parents[node] = parent;
+            firstChildren[node] = NONE;
+            nextSiblings[node] = NONE;
+            lastChildren[node] = NONE;
+            names[node] = NONE;
+            roles[node] = NONE;
+            types[node] = NONE;
+
+            int previous = parent == NONE ? lastRoot : lastChildren[parent];
+            if (previous != NONE) {
+                nextSiblings[previous] = node;
+            }
+            else if (parent != NONE) {
+                firstChildren[parent] = node;
+            }
+            if (parent == NONE) {
+                lastRoot = node;
+            }
+            else {
+                lastChildren[parent] = node;
+            }
+            return node;
+        }
+
+        //------------------------------------------------------------------------------------------
+        /**
+         * @return the dictionary index of a string, or NONE for null.
+         */
+        private int intern(String value) {
+            if (value == null) {
+                return NONE;
+            }
+            Integer result = dictionary.get(value);
+            if (result == null) {
+                result = words.size();
+                dictionary.put(value, result);
+                words.add(value);
+            }
+            return result;
+        }
+
+        //------------------------------------------------------------------------------------------
+        private void setId(int node, String id) {
+            if (id != null) {
+                UUID uuid = UUID.fromString(id);
+                ids[2 * node] = uuid.getMostSignificantBits();
+                ids[2 * node + 1] = uuid.getLeastSignificantBits();
+                flags[node] |= FLAG_HAS_ID;
+            }
+        }
+
+        //------------------------------------------------------------------------------------------
+        private void add(JSONObject json, int parent)
+        throws JSONException {
+            int node = append(parent);
+            setId(node, json.optString("id", null));
+            names[node] = intern(json.optString("name", null));
+            paths[node] = json.optString("path", null);
+            types[node] = intern(json.optString("type", null));
+            JSONObject role = json.optJSONObject("role");
+            if (role != null) {
+                roles[node] = intern(role.optString("name", null));
+            }
+            if (json.optBoolean("hasAgent")) {
+                flags[node] |= FLAG_HAS_AGENT;
+            }
+            JSONArray children = json.optJSONArray("children");
+            if (children != null) {
+                for (int i = 0; i < children.length(); i++) {
+                    add(children.getJSONObject(i), node);
+                }
+            }
+        }
+
+        //------------------------------------------------------------------------------------------
+        private void read(JsonStreamReader reader, int parent)
+        throws IOException, JSONException {
+            int node = append(parent);
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String key = reader.nextName();
+                JsonStreamReader.Token token = reader.peek();
+                if ("children".equals(key) && token == JsonStreamReader.Token.BEGIN_ARRAY) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        read(reader, node);
+                    }
+                    reader.endArray();
+                }
+                else if ("role".equals(key) && token == JsonStreamReader.Token.BEGIN_OBJECT) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        if ("name".equals(reader.nextName())) {
+                            roles[node] = intern(readString(reader));
+                        }
+                        else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                }
+                else if ("hasAgent".equals(key) && token == JsonStreamReader.Token.BOOLEAN) {
+                    if (reader.nextBoolean()) {
+                        flags[node] |= FLAG_HAS_AGENT;
+                    }
+                }
+                else if ("id".equals(key) && token == JsonStreamReader.Token.STRING) {
+                    setId(node, reader.nextString());
+                }
+                else if ("name".equals(key) && token == JsonStreamReader.Token.STRING) {
+                    names[node] = intern(reader.nextString());
+                }
+                else if ("path".equals(key) && token == JsonStreamReader.Token.STRING) {
+                    paths[node] = reader.nextString();
+                }
+                else if ("type".equals(key) && token == JsonStreamReader.Token.STRING) {
+                    types[node] = intern(reader.nextString());
+                }
+                else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+
+        //------------------------------------------------------------------------------------------
+        private CompactResourceTree build() {
+            int tableSize = Integer.highestOneBit(Math.max(2, size * 2 - 1)) << 1;
+            CompactResourceTree result = new CompactResourceTree(size,
+                IntBuffer.wrap(Arrays.copyOf(parents, size)),
+                IntBuffer.wrap(Arrays.copyOf(firstChildren, size)),
+                IntBuffer.wrap(Arrays.copyOf(nextSiblings, size)),
+                IntBuffer.wrap(Arrays.copyOf(names, size)),
+                IntBuffer.wrap(Arrays.copyOf(roles, size)),
+                IntBuffer.wrap(Arrays.copyOf(types, size)),
+                LongBuffer.wrap(Arrays.copyOf(ids, 2 * size)),
+                ByteBuffer.wrap(Arrays.copyOf(flags, size)),
+                IntBuffer.wrap(new int[tableSize]),
+                words.toArray(new String[words.size()]),
+                new HashMap<Integer, String>(),
+                null);
+
+            // keep only the paths that cannot be rebuilt, then index all of them
+            for (int node = 0; node < size; node++) {
+                String path = paths[node];
+                if (path != null && !result.matches(node, path)) {
+                    result.pathOverrides.put(node, path);
+                }
+            }
+            for (int node = 0; node < size; node++) {
+                String path = paths[node] == null ? result.getPath(node) : paths[node];
+                int mask = tableSize - 1;
+                int slot = mix(path.hashCode()) & mask;
+                while (result.pathTable.get(slot) != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                result.pathTable.put(slot, node + 1);
+            }
+            return result;
+        }
+    }
+
+    //**********************************************************************************************
+    // INSTANCE
+    //**********************************************************************************************
+    final private int size;
+    final private IntBuffer parents;
+    final private IntBuffer firstChildren;
+    final private IntBuffer nextSiblings;
+    final private IntBuffer names;
+    final private IntBuffer roles;
+    final private IntBuffer types;
+    final private LongBuffer ids;
+    final private ByteBuffer flags;
+    final private IntBuffer pathTable;
+    final private String[] dictionary;
+    final private Map<Integer, String> pathOverrides;
+    final private ByteBuffer offHeap;
+
+    //----------------------------------------------------------------------------------------------
+    private CompactResourceTree(int size, IntBuffer parents, IntBuffer firstChildren,
+        IntBuffer nextSiblings, IntBuffer names, IntBuffer roles, IntBuffer types, LongBuffer ids,
+        ByteBuffer flags, IntBuffer pathTable, String[] dictionary, Map<Integer, String> pathOverrides,
+        ByteBuffer offHeap) {
+        this.size = size;
+        this.parents = parents;
+        this.firstChildren = firstChildren;
+        this.nextSiblings = nextSiblings;
+        this.names = names;
+        this.roles = roles;
+        this.types = types;
+        this.ids = ids;
+        this.flags = flags;
+        this.pathTable = pathTable;
+        this.dictionary = dictionary;
+        this.pathOverrides = pathOverrides;
+        this.offHeap = offHeap;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return a copy of this tree with the columns in a direct buffer outside the heap.
+     */
+    public CompactResourceTree toOffHeap() {
+        int tableSize = pathTable.capacity();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(size * (2 * 8 + 6 * 4 + 1) + tableSize * 4);
+        // the copies are rewound after the put, like the heap columns they replace, so that an
+        // off-heap tree can be copied again
+        LongBuffer offHeapIds = slice(buffer, 2 * size * 8).asLongBuffer();
+        offHeapIds.put(ids.duplicate()).rewind();
+        IntBuffer[] columns = new IntBuffer[] {parents, firstChildren, nextSiblings, names, roles, types};
+        IntBuffer[] copies = new IntBuffer[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            copies[i] = slice(buffer, size * 4).asIntBuffer();
+            copies[i].put(columns[i].duplicate()).rewind();
+        }
+        IntBuffer offHeapTable = slice(buffer, tableSize * 4).asIntBuffer();
+        offHeapTable.put(pathTable.duplicate()).rewind();
+        ByteBuffer offHeapFlags = slice(buffer, size);
+        offHeapFlags.put(flags.duplicate()).rewind();
+        return new CompactResourceTree(size, copies[0], copies[1], copies[2], copies[3], copies[4],
+            copies[5], offHeapIds, offHeapFlags, offHeapTable, dictionary, pathOverrides, buffer);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return the next bytes of a buffer as a buffer of their own, in native byte order.
+     */
+    static private ByteBuffer slice(ByteBuffer buffer, int length) {
+        ByteBuffer result = buffer.duplicate();
+        result.limit(result.position() + length);
+        buffer.position(buffer.position() + length);
+        return result.slice().order(ByteOrder.nativeOrder());
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public boolean isOffHeap() {
+        return offHeap != null;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return the bytes taken by the columns and the path table, not counting the dictionary.
+     */
+    public long getColumnBytes() {
+        return size * (2L * 8L + 6L * 4L + 1L) + pathTable.capacity() * 4L;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return the distinct names, roles and types.
+     */
+    public List<String> getDictionary() {
+        return Collections.unmodifiableList(Arrays.asList(dictionary));
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public int size() {
+        return size;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public int getFirstRoot() {
+        return size == 0 ? NONE : 0;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public int getParent(int node) {
+        return parents.get(node);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public int getFirstChild(int node) {
+        return firstChildren.get(node);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public int getNextSibling(int node) {
+        return nextSiblings.get(node);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public UUID getId(int node) {
+        if ((flags.get(node) & FLAG_HAS_ID) == 0) {
+            return null;
+        }
+        return new UUID(ids.get(2 * node), ids.get(2 * node + 1));
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public String getName(int node) {
+        return word(names.get(node));
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public String getPath(int node) {
+        String result = pathOverrides.isEmpty() ? null : pathOverrides.get(node);
+        if (result == null) {
+            String name = getName(node);
+            int parent = parents.get(node);
+            result = (parent == NONE ? "" : getPath(parent)) + "/" + (name == null ? "" : name);
+        }
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public String getRole(int node) {
+        return word(roles.get(node));
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public String getType(int node) {
+        return word(types.get(node));
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public boolean hasAgent(int node) {
+        return (flags.get(node) & FLAG_HAS_AGENT) != 0;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public int find(String path) {
+        int mask = pathTable.capacity() - 1;
+        int slot = mix(path.hashCode()) & mask;
+        int entry;
+        while ((entry = pathTable.get(slot)) != 0) {
+            if (matches(entry - 1, path)) {
+                return entry - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return NONE;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    private String word(int index) {
+        return index == NONE ? null : dictionary[index];
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return whether a resource has a path, comparing it from the end one name at a time.
+     */
+    private boolean matches(int node, String path) {
+        int end = path.length();
+        int current = node;
+        while (true) {
+            String override = pathOverrides.isEmpty() ? null : pathOverrides.get(current);
+            if (override != null) {
+                return end == override.length() && path.regionMatches(0, override, 0, end);
+            }
+            String name = getName(current);
+            if (name == null) {
+                name = "";
+            }
+            int start = end - name.length();
+            if (start < 1 || path.charAt(start - 1) != '/' || !path.regionMatches(start, name, 0, name.length())) {
+                return false;
+            }
+            end = start - 1;
+            current = parents.get(current);
+            if (current == NONE) {
+                return end == 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/**
+ * (c) Copyright IBM Corporation 2011, 2017.
+ * (c) Copyright HCL Technologies Ltd. 2018. All Rights Reserved.
+ * This is licensed under the following license.
+ * The Apache Version 2.0 License (https://www.apache.org/licenses/LICENSE-2.0.txt)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+package com.urbancode.ud.client;
+
+import java.util.Set;
+
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+
+/**
+ * A component, as returned by {@link ComponentClient#getComponentModel(String)}.
+ */
+public class Component extends UDObject {
+
+    //**********************************************************************************************
+    // CLASS
+    //**********************************************************************************************
+    static private final Set<String> DECODED_KEYS = keys("active", "created", "componentType");
+
+    //----------------------------------------------------------------------------------------------
+    static public Component fromJSON(JSONObject json)
+    throws JSONException {
+        return new Component(json);
+    }
+
+    //**********************************************************************************************
+    // INSTANCE
+    //**********************************************************************************************
+    final private boolean active;
+    final private long created;
+    final private String componentType;
+
+    //----------------------------------------------------------------------------------------------
+    protected Component(JSONObject json)
+    throws JSONException {
+        super(json, DECODED_KEYS);
+        this.active = json.optBoolean("active", true);
+        this.created = json.optLong("created");
+        this.componentType = getInternedString(json, "componentType");
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public boolean isActive() {
+        return active;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return the creation time in milliseconds since the epoch.
+     */
+    public long getCreated() {
+        return created;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return the type of the component, e.g. "STANDARD" or "ZOS".
+     */
+    public String getComponentType() {
+        return componentType;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    @Override
+    protected void putFields(JSONObject json)
+    throws JSONException {
+        json.put("active", active);
+        json.put("created", created);
+        if (componentType != null) {
+            json.put("componentType", componentType);
+        }
+    }
+}
@@ -10,11 +10,12 @@ package com.urbancode.ud.client;
 import java.io.IOException;
 import java.net.URI;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.http.HttpResponse;
@@ -58,6 +59,22 @@ public class ComponentClient extends UDRestClient {
         super(url, client);
     }
 
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Construct with the shared transport of a session. See UDClientSession.
+     */
+    public ComponentClient(UDClientSession session) {
+        super(session);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Construct sharing the transport and settings of another client.
+     */
+    protected ComponentClient(UDRestClient other) {
+        super(other);
+    }
+
     //----------------------------------------------------------------------------------------------
     public void addComponentVersionLink(
         String componentName,
@@ -72,7 +89,7 @@ public class ComponentClient extends UDRestClient {
             encodePath(linkURL);
 
         HttpPut method = new HttpPut(uri);
-        invokeMethod(method);
+        invokeMethodAndDiscard(method);
     }
 
     //----------------------------------------------------------------------------------------------
@@ -85,7 +102,7 @@ public class ComponentClient extends UDRestClient {
                 encodePath(componentName) +
                 "&version=" + encodePath(versionName) + "&status=" + encodePath(statusName);
         HttpPut method = new HttpPut(uri);
-        invokeMethod(method);
+        invokeMethodAndDiscard(method);
     }
 
     //----------------------------------------------------------------------------------------------
@@ -96,7 +113,7 @@ public class ComponentClient extends UDRestClient {
                 encodePath(type) + "&component=" +
                 encodePath(component);
         HttpPut method = new HttpPut(uri);
-        invokeMethod(method);
+        invokeMethodAndDiscard(method);
     }
 
     //----------------------------------------------------------------------------------------------
@@ -161,8 +178,7 @@ public class ComponentClient extends UDRestClient {
         method.setEntity(getStringEntity(jsonToSend));
 
         HttpResponse response = invokeMethod(method);
-        String body = getBody(response);
-        JSONObject jsonResult = new JSONObject(body);
+        JSONObject jsonResult = getBodyAsJSONObject(response);
         result = UUID.fromString((String) jsonResult.get("id"));
 
         return result;
@@ -178,7 +194,8 @@ public class ComponentClient extends UDRestClient {
         UUID compUUID = getComponentUUID(componentName);
         String uri = url + "/rest/deploy/component/" + compUUID.toString();
         HttpDelete method = new HttpDelete(uri);
-        invokeMethod(method);
+        invokeMethodAndDiscard(method);
+        invalidateUUID("component", null, componentName);
 
         return compUUID;
     }
@@ -207,7 +224,7 @@ public class ComponentClient extends UDRestClient {
         HttpPut method = new HttpPut(uri);
         method.setEntity(getStringEntity(jsonToSend));
 
-        HttpResponse response = invokeMethod(method);
+        invokeMethodAndDiscard(method);
     }
 
     /**
@@ -224,8 +241,7 @@ public class ComponentClient extends UDRestClient {
         HttpGet method = new HttpGet(uri);
 
         HttpResponse response = invokeMethod(method);
-        String body = getBody(response);
-        result = new JSONArray(body);
+        result = getBodyAsJSONArray(response);
         return result;
     }
 
@@ -252,20 +268,20 @@ public class ComponentClient extends UDRestClient {
     //----------------------------------------------------------------------------------------------
     public Map<String, String> getComponentProperties(String component)
     throws IOException, JSONException {
-        Map<String, String> result = new HashMap<String, String>();
-        String uri = url + "/cli/component/getProperties?component=" +
-            encodePath(component);
+        String uri = Endpoints.COMPONENT_PROPERTIES.expand(url, component);
         HttpGet method = new HttpGet(uri);
 
         HttpResponse response = invokeMethod(method);
-        String body = getBody(response);
-        JSONArray propsJSON = new JSONArray(body);
+        return getBodyAsProperties(response);
+    }
 
-        for (int i=0; i<propsJSON.length(); i++) {
-            JSONObject propObject = (JSONObject) propsJSON.get(i);
-            result.put((String)propObject.get("name"), (String)propObject.get("value"));
-        }
-        return result;
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Non-blocking variant of {@link #getComponentProperties(String)}.
+     */
+    public CompletableFuture<Map<String, String>> getComponentPropertiesAsync(String component) {
+        HttpGet method = new HttpGet(Endpoints.COMPONENT_PROPERTIES.expand(url, component));
+        return invokeMethodAsync(method, response -> getBodyAsProperties(response));
     }
 
     //----------------------------------------------------------------------------------------------
@@ -277,7 +293,7 @@ public class ComponentClient extends UDRestClient {
         HttpGet method = new HttpGet(uri);
 
         HttpResponse response = invokeMethod(method);
-        JSONObject props = new JSONObject(getBody(response));
+        JSONObject props = getBodyAsJSONObject(response);
         result = props.getJSONArray("properties");
         return result;
     }
@@ -291,34 +307,61 @@ public class ComponentClient extends UDRestClient {
         HttpGet method = new HttpGet(uri);
 
         HttpResponse response = invokeMethod(method);
-        result = new JSONObject(getBody(response));
+        result = getBodyAsJSONObject(response);
         return result;
     }
 
     //----------------------------------------------------------------------------------------------
-    public UUID getComponentUUID(String component)
+    public UUID getComponentUUID(final String component)
     throws IOException, JSONException {
-        UUID result = null;
-
-        String uri = url + "/cli/component/info?component=" + encodePath(component);
-        HttpGet method = new HttpGet(uri);
-        HttpResponse response = invokeMethod(method);
-        String body = getBody(response);
-        JSONObject resultJSON = new JSONObject(body);
-        result = UUID.fromString(resultJSON.getString("id"));
+        return resolveUUID("component", null, component, () -> {
+            String uri = Endpoints.COMPONENT_INFO.expand(url, component);
+            HttpGet method = new HttpGet(uri);
+            HttpResponse response = invokeMethod(method);
+            JSONObject resultJSON = getBodyAsJSONObject(response);
+            return UUID.fromString(resultJSON.getString("id"));
+        });
+    }
 
-        return result;
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Non-blocking variant of {@link #getComponentUUID(String)}. Runs on the worker pool of the
+     * client, as it goes through the name to id cache.
+     */
+    public CompletableFuture<UUID> getComponentUUIDAsync(String component) {
+        return async(() -> getComponentUUID(component));
     }
 
     //----------------------------------------------------------------------------------------------
     public JSONObject getComponent(String component)
     throws IOException, JSONException {
-        String uri = url + "/cli/component/info?component=" + encodePath(component);
-        HttpGet method = new HttpGet(uri);
-        HttpResponse response = invokeMethod(method);
-        String body = getBody(response);
+        String uri = Endpoints.COMPONENT_INFO.expand(url, component);
+        return coalesceGet(uri, () -> {
+            HttpGet method = new HttpGet(uri);
+            HttpResponse response = invokeMethod(method);
+            return getBodyAsJSONObject(response);
+        });
+    }
 
-        return new JSONObject(body);
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Non-blocking variant of {@link #getComponent(String)}.
+     */
+    public CompletableFuture<JSONObject> getComponentAsync(String component) {
+        String uri = Endpoints.COMPONENT_INFO.expand(url, component);
+        return coalesceGetAsync(uri, () ->
+            invokeMethodAsync(new HttpGet(uri), response -> getBodyAsJSONObject(response)));
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Typed variant of {@link #getComponent(String)}, compact enough to hold in large numbers.
+     *
+     * @param component The name or id of the component.
+     */
+    public Component getComponentModel(String component)
+    throws IOException, JSONException {
+        return Component.fromJSON(getComponent(component));
     }
 
     //----------------------------------------------------------------------------------------------
@@ -331,7 +374,7 @@ public class ComponentClient extends UDRestClient {
                 encodePath(componentName) +
                 "&version=" + encodePath(versionName) + "&status=" + encodePath(statusName);
         HttpDelete method = new HttpDelete(uri);
-        invokeMethod(method);
+        invokeMethodAndDiscard(method);
     }
 
     /**
@@ -372,7 +415,7 @@ public class ComponentClient extends UDRestClient {
 
         HttpPut method = new HttpPut(uri);
         method.setEntity(getStringEntity(props));
-        invokeMethod(method);
+        invokeMethodAndDiscard(method);
     }
 
     //----------------------------------------------------------------------------------------------
@@ -383,15 +426,13 @@ public class ComponentClient extends UDRestClient {
             throw new IOException("a required argument was not supplied");
         }
 
-        String uri = url + "/cli/component/propValue?component=" +
-                encodePath(componentName) + "&name=" +
-                encodePath(name) + "&value=" +
-                encodePath(value) + "&isSecure=" +
-                encodePath(String.valueOf(isSecure));
+        // a null value is sent as "null", as it always was, rather than left out
+        String uri = Endpoints.COMPONENT_PROP_VALUE.expand(url, String.valueOf(componentName),
+            String.valueOf(name), String.valueOf(value), isSecure);
 
         HttpPut method = new HttpPut(uri);
 
-        invokeMethod(method);
+        invokeMethodAndDiscard(method);
         if (isSecure) {
             result = name + "=****";
         }
@@ -401,6 +442,20 @@ public class ComponentClient extends UDRestClient {
         return result;
     }
 
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Collect properties of a component and write them with a few batch requests. See
+     * {@link PropertyBatch}.
+     *
+     * @param componentName The name or id of the component.
+     */
+    public PropertyBatch newPropertyBatch(final String componentName)
+    throws IOException, JSONException {
+        UUID id = getComponentUUID(componentName);
+        return new PropertyBatch(this, "components&" + id + "&propSheet",
+            (name, value, isSecure) -> setComponentProperty(componentName, name, value, isSecure));
+    }
+
     public void updateSourceConfigProperty(String componentParam, String name, String value, String description, Boolean secure)
     throws IOException, JSONException {
         JSONObject propJson = createNewPropertyJSON(name, value, secure);
@@ -409,18 +464,17 @@ public class ComponentClient extends UDRestClient {
         String uri = url + "/rest/deploy/component/" + encodePath(componentParam) + "/updateSourceConfigProperties/"  + encodePath(name);
         HttpPut method = new HttpPut(uri);
         method.setEntity(getStringEntity(propJson));
-        invokeMethod(method);
+        invokeMethodAndDiscard(method);
     }
 
     public List<String> getComponentVersions(String componentParam, Boolean getInactive)
     throws ClientProtocolException, IOException, JSONException {
         List<String> result = new ArrayList<String>();
 
-        String uri = url + "/rest/deploy/component/" + encodePath(componentParam) + "/versions/" + encodePath(getInactive.toString());
+        String uri = Endpoints.COMPONENT_VERSIONS.expand(url, componentParam, getInactive, null, null);
         HttpGet method = new HttpGet(uri);
         HttpResponse response = invokeMethod(method);
-        String body = getBody(response);
-        JSONArray resultJSON = new JSONArray(body);
+        JSONArray resultJSON = getBodyAsJSONArray(response);
         for (int i = 0; i < resultJSON.length(); i++) {
             JSONObject entry = resultJSON.getJSONObject(i);
             result.add(entry.getString("name"));
@@ -432,12 +486,10 @@ public class ComponentClient extends UDRestClient {
     throws ClientProtocolException, IOException, JSONException {
         JSONArray result = null;
 
-        String uri = url + "/rest/deploy/component/" + encodePath(componentParam) + "/versions/" + encodePath(getInactive.toString());
+        String uri = Endpoints.COMPONENT_VERSIONS.expand(url, componentParam, getInactive, null, null);
         HttpGet method = new HttpGet(uri);
         HttpResponse response = invokeMethod(method);
-        String body = getBody(response);
-
-        result = new JSONArray(body);
+        result = getBodyAsJSONArray(response);
         return result;
     }
 
@@ -445,12 +497,10 @@ public class ComponentClient extends UDRestClient {
     throws ClientProtocolException, IOException, JSONException {
         List<String> result = new ArrayList<String>();
 
-        String uri = url + "/rest/deploy/component/"+ encodePath(componentParam) +
-                "/versions/true?filterFields=archived&filterValue_archived=true&filterType_archived=eq&filterClass_archived=Boolean";
+        String uri = Endpoints.COMPONENT_ARCHIVED_VERSIONS.expand(url, componentParam, null, null);
         HttpGet method = new HttpGet(uri);
         HttpResponse response = invokeMethod(method);
-        String body = getBody(response);
-        JSONArray resultJSON = new JSONArray(body);
+        JSONArray resultJSON = getBodyAsJSONArray(response);
         for (int i = 0; i < resultJSON.length(); i++) {
             JSONObject entry = resultJSON.getJSONObject(i);
             result.add(entry.getString("name"));
@@ -458,13 +508,72 @@ public class ComponentClient extends UDRestClient {
         return result;
     }
 
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Page through the versions of a component, {@link PagedIterator#PAGE_SIZE_DEFAULT} at a
+     * time, instead of loading all of them like {@link #getComponentVersionsJsonArray}.
+     *
+     * @param componentParam The name or id of the component.
+     * @param getInactive Whether to include inactive versions.
+     *
+     * @return the versions in the order the server lists them. Close the stream when
+     * abandoning it early.
+     */
+    public Stream<JSONObject> streamComponentVersions(String componentParam, Boolean getInactive) {
+        return getComponentVersionsIterator(componentParam, getInactive, PagedIterator.PAGE_SIZE_DEFAULT).stream();
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @param componentParam The name or id of the component.
+     * @param getInactive Whether to include inactive versions.
+     * @param pageSize The number of versions per request.
+     *
+     * @return an iterator fetching the next page in the background while the current one is used.
+     */
+    public PagedIterator<JSONObject> getComponentVersionsIterator(
+        final String componentParam,
+        final Boolean getInactive,
+        int pageSize) {
+        return paged((pageNumber, rowsPerPage) -> {
+            String uri = Endpoints.COMPONENT_VERSIONS.expand(url, componentParam, getInactive,
+                rowsPerPage, pageNumber);
+            HttpGet method = new HttpGet(uri);
+            HttpResponse response = invokeMethod(method);
+            return getBodyAsPage(response);
+        }, pageSize);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Paged variant of {@link #getArchivedComponentVersions(String)}.
+     *
+     * @param componentParam The name or id of the component.
+     *
+     * @return the archived versions. Close the stream when abandoning it early.
+     */
+    public Stream<JSONObject> streamArchivedComponentVersions(final String componentParam) {
+        return paged((pageNumber, rowsPerPage) -> {
+            String uri = Endpoints.COMPONENT_ARCHIVED_VERSIONS.expand(url, componentParam,
+                rowsPerPage, pageNumber);
+            HttpGet method = new HttpGet(uri);
+            HttpResponse response = invokeMethod(method);
+            return getBodyAsPage(response);
+        }, PagedIterator.PAGE_SIZE_DEFAULT).stream();
+    }
+
     public String getLatestVersion(String componentParam)
     throws ClientProtocolException, IOException, JSONException {
-        String result = null;
-
-        String uri = url + "/rest/deploy/component/" + encodePath(componentParam) + "/latestVersion";
+        String uri = Endpoints.COMPONENT_LATEST_VERSION.expand(url, componentParam);
         HttpGet method = new HttpGet(uri);
         HttpResponse response = invokeMethod(method);
+        return getLatestVersionName(response);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    private String getLatestVersionName(HttpResponse response)
+    throws IOException, JSONException {
+        String result = null;
         String body = getBody(response);
 
         if (body != null) {
@@ -474,4 +583,13 @@ public class ComponentClient extends UDRestClient {
         return result;
     }
 
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Non-blocking variant of {@link #getLatestVersion(String)}.
+     */
+    public CompletableFuture<String> getLatestVersionAsync(String componentParam) {
+        HttpGet method = new HttpGet(Endpoints.COMPONENT_LATEST_VERSION.expand(url, componentParam));
+        return invokeMethodAsync(method, response -> getLatestVersionName(response));
+    }
+
 }
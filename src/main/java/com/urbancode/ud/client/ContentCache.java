@@ -0,0 +1,290 @@
+/**
+ * (c) Copyright IBM Corporation 2011, 2017.
+ * (c) Copyright HCL Technologies Ltd. 2018. All Rights Reserved.
+ * This is licensed under the following license.
+ * The Apache Version 2.0 License (https://www.apache.org/licenses/LICENSE-2.0.txt)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+package com.urbancode.ud.client;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local copies of large downloads, such as the agent install package, kept with the ETag and
+ * Last-Modified validators the server sent. A client holding a cache sends conditional requests,
+ * so fetching unchanged content again costs one 304 response instead of the whole body.
+ * <p>
+ * Entries are files in the cache directory and survive the process. They are replaced by an
+ * atomic rename, so a copy being read is never seen half written. Instances are thread-safe and
+ * may be shared by several clients and sessions.
+ */
+public class ContentCache {
+
+    //**********************************************************************************************
+    // CLASS
+    //**********************************************************************************************
+    final static private String DATA_SUFFIX = ".data";
+    final static private String META_SUFFIX = ".properties";
+
+    /**
+     * A cached download.
+     */
+    public static class Entry {
+        final private File file;
+        final private String etag;
+        final private String lastModified;
+
+        //------------------------------------------------------------------------------------------
+        private Entry(File file, String etag, String lastModified) {
+            this.file = file;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+
+        //------------------------------------------------------------------------------------------
+        /**
+         * @return the local copy of the content.
+         */
+        public File getFile() {
+            return file;
+        }
+
+        //------------------------------------------------------------------------------------------
+        /**
+         * @return the ETag header of the response, or null.
+         */
+        public String getETag() {
+            return etag;
+        }
+
+        //------------------------------------------------------------------------------------------
+        /**
+         * @return the Last-Modified header of the response, or null.
+         */
+        public String getLastModified() {
+            return lastModified;
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Write a stream to a file through its channel.
+     */
+    static public void transfer(InputStream in, File target)
+    throws IOException {
+        ReadableByteChannel source = Channels.newChannel(in);
+        FileChannel out = FileChannel.open(target.toPath(), StandardOpenOption.WRITE,
+            StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            long position = 0;
+            long count;
+            while ((count = out.transferFrom(source, position, Long.MAX_VALUE)) > 0) {
+                position += count;
+            }
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Copy a file with {@link FileChannel#transferFrom}, which lets the operating system move
+     * the bytes without passing them through the heap.
+     */
+    static public void copy(File source, File target)
+    throws IOException {
+        FileChannel in = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+        try {
+            FileChannel out = FileChannel.open(target.toPath(), StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+            try {
+                long size = in.size();
+                long position = 0;
+                while (position < size) {
+                    long count = out.transferFrom(in, position, size - position);
+                    if (count <= 0) {
+                        throw new IOException("Could not copy " + source + " to " + target);
+                    }
+                    position += count;
+                }
+            }
+            finally {
+                out.close();
+            }
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return the file name of the entry for a URI.
+     */
+    static private String key(String uri) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(uri.getBytes(StandardCharsets.UTF_8));
+            StringBuilder result = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                result.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return result.toString();
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    //**********************************************************************************************
+    // INSTANCE
+    //**********************************************************************************************
+    final private File directory;
+    final private ConcurrentMap<String, Object> locks = new ConcurrentHashMap<String, Object>();
+    final private AtomicLong hitCount = new AtomicLong();
+    final private AtomicLong missCount = new AtomicLong();
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @param directory The directory holding the entries. It is created if missing.
+     */
+    public ContentCache(File directory)
+    throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory.toPath());
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public File getDirectory() {
+        return directory;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return the number of downloads answered from the cache.
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return the number of downloads that fetched the whole content.
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return the entry for a URI, or null if it was never stored.
+     */
+    public Entry get(String uri)
+    throws IOException {
+        String key = key(uri);
+        File file = new File(directory, key + DATA_SUFFIX);
+        File meta = new File(directory, key + META_SUFFIX);
+        if (!file.isFile() || !meta.isFile()) {
+            return null;
+        }
+        Properties properties = new Properties();
+        InputStream in = Files.newInputStream(meta.toPath());
+        try {
+            properties.load(in);
+        }
+        finally {
+            in.close();
+        }
+        return new Entry(file, properties.getProperty("etag"), properties.getProperty("lastModified"));
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Store the content of a full response, replacing any earlier entry.
+     *
+     * @param uri The URI the content was downloaded from.
+     * @param content The response body.
+     * @param etag The ETag header, or null.
+     * @param lastModified The Last-Modified header, or null.
+     */
+    public Entry put(String uri, InputStream content, String etag, String lastModified)
+    throws IOException {
+        String key = key(uri);
+        Path temp = Files.createTempFile(directory.toPath(), key, ".tmp");
+        try {
+            transfer(content, temp.toFile());
+            File file = new File(directory, key + DATA_SUFFIX);
+            Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            Properties properties = new Properties();
+            properties.setProperty("uri", uri);
+            if (etag != null) {
+                properties.setProperty("etag", etag);
+            }
+            if (lastModified != null) {
+                properties.setProperty("lastModified", lastModified);
+            }
+            temp = Files.createTempFile(directory.toPath(), key, ".tmp");
+            OutputStream out = Files.newOutputStream(temp);
+            try {
+                properties.store(out, null);
+            }
+            finally {
+                out.close();
+            }
+            Files.move(temp, new File(directory, key + META_SUFFIX).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            missCount.incrementAndGet();
+            return new Entry(file, etag, lastModified);
+        }
+        finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Forget the entry for a URI.
+     */
+    public void invalidate(String uri)
+    throws IOException {
+        String key = key(uri);
+        Files.deleteIfExists(new File(directory, key + META_SUFFIX).toPath());
+        Files.deleteIfExists(new File(directory, key + DATA_SUFFIX).toPath());
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Count a download answered from an entry.
+     */
+    void recordHit() {
+        hitCount.incrementAndGet();
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return an object to hold while refreshing the entry for a URI, so that concurrent
+     * downloads of the same content wait for the first one and then revalidate it.
+     */
+    Object getLock(String uri) {
+        return locks.computeIfAbsent(uri, k -> new Object());
+    }
+}
@@ -0,0 +1,48 @@
+/**
+ * (c) Copyright IBM Corporation 2011, 2017.
+ * (c) Copyright HCL Technologies Ltd. 2018. All Rights Reserved.
+ * This is licensed under the following license.
+ * The Apache Version 2.0 License (https://www.apache.org/licenses/LICENSE-2.0.txt)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+package com.urbancode.ud.client;
+
+import java.util.Map;
+
+/**
+ * JMX view of the requests sent to one endpoint. See {@link JmxMetricsExporter}.
+ */
+public interface EndpointStatsMXBean {
+
+    String getEndpoint();
+
+    long getRequestCount();
+
+    long getErrorCount();
+
+    long getRetryCount();
+
+    /**
+     * @return the number of calls that shared a request in flight instead of sending one.
+     */
+    long getCoalescedCount();
+
+    long getBytesIn();
+
+    long getBytesOut();
+
+    double getMeanMillis();
+
+    double getMaxMillis();
+
+    double getP50Millis();
+
+    double getP95Millis();
+
+    double getP99Millis();
+
+    /**
+     * @return the number of responses by status code, with "-1" for requests that got none.
+     */
+    Map<String, Long> getStatusCounts();
+}
@@ -0,0 +1,109 @@
+/**
+ * (c) Copyright IBM Corporation 2011, 2017.
+ * (c) Copyright HCL Technologies Ltd. 2018. All Rights Reserved.
+ * This is licensed under the following license.
+ * The Apache Version 2.0 License (https://www.apache.org/licenses/LICENSE-2.0.txt)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+package com.urbancode.ud.client;
+
+/**
+ * Precompiled templates of the server endpoints on the hot paths of the clients: name lookups,
+ * property reads and writes, process requests and their status, inventory and resources.
+ * Expanding a template encodes its values without building intermediate strings.
+ */
+public final class Endpoints {
+
+    //**********************************************************************************************
+    // CLASS
+    //**********************************************************************************************
+    static public final UriTemplate AGENT_INFO =
+        new UriTemplate("/cli/agentCLI/info?agent={agent}");
+    static public final UriTemplate AGENT_INSTALL_PACKAGE =
+        new UriTemplate("/tools/ibm-ucd-agent.zip");
+
+    static public final UriTemplate APPLICATION_INFO =
+        new UriTemplate("/cli/application/info?application={application}");
+    static public final UriTemplate APPLICATION_PROCESS_REQUEST =
+        new UriTemplate("/cli/applicationProcessRequest/request");
+    static public final UriTemplate APPLICATION_PROCESS_REQUEST_STATUS =
+        new UriTemplate("/cli/applicationProcessRequest/requestStatus?request={request}");
+
+    static public final UriTemplate COMPONENT_INFO =
+        new UriTemplate("/cli/component/info?component={component}");
+    static public final UriTemplate COMPONENT_PROPERTIES =
+        new UriTemplate("/cli/component/getProperties?component={component}");
+    static public final UriTemplate COMPONENT_PROP_VALUE =
+        new UriTemplate("/cli/component/propValue?component={component}&name={name}&value={value}&isSecure={isSecure}");
+    static public final UriTemplate COMPONENT_VERSIONS =
+        new UriTemplate("/rest/deploy/component/{component}/versions/{inactive}"
+            + "?rowsPerPage={rowsPerPage}&pageNumber={pageNumber}");
+    static public final UriTemplate COMPONENT_ARCHIVED_VERSIONS =
+        new UriTemplate("/rest/deploy/component/{component}/versions/true?filterFields=archived"
+            + "&filterValue_archived=true&filterType_archived=eq&filterClass_archived=Boolean"
+            + "&rowsPerPage={rowsPerPage}&pageNumber={pageNumber}");
+    static public final UriTemplate COMPONENT_LATEST_VERSION =
+        new UriTemplate("/rest/deploy/component/{component}/latestVersion");
+
+    static public final UriTemplate ENVIRONMENT_INFO =
+        new UriTemplate("/cli/environment/info?environment={environment}&application={application}");
+    static public final UriTemplate ENVIRONMENT_PROPERTIES =
+        new UriTemplate("/cli/environment/getProperties?environment={environment}&application={application}");
+    static public final UriTemplate ENVIRONMENT_COMPONENT_PROPERTIES =
+        new UriTemplate("/cli/environment/componentProperties?environment={environment}&component={component}&application={application}");
+    static public final UriTemplate ENVIRONMENT_PROP_VALUE =
+        new UriTemplate("/cli/environment/propValue?environment={environment}&name={name}&value={value}&isSecure={isSecure}&application={application}");
+
+    static public final UriTemplate DESIRED_INVENTORY =
+        new UriTemplate("/rest/inventory/desiredInventory/{environment}");
+    static public final UriTemplate DESIRED_INVENTORY_ENTRIES =
+        new UriTemplate("/rest/inventory/desiredInventory/entries");
+    static public final UriTemplate INVENTORY_ENTRIES =
+        new UriTemplate("/rest/inventory/entries");
+    static public final UriTemplate INVENTORY_BY_ENVIRONMENT_AND_COMPONENT =
+        new UriTemplate("/rest/inventory/versionByEnvironmentAndComponent/{environment}/{component}");
+
+    static public final UriTemplate PROCESS_REQUEST =
+        new UriTemplate("/rest/process/request/{request}");
+    static public final UriTemplate PROCESS_REQUEST_PROPERTIES =
+        new UriTemplate("/rest/process/request/{request}/properties");
+
+    static public final UriTemplate WORKFLOW_TRACE =
+        new UriTemplate("/rest/workflow/workflowTrace/{workflowTrace}");
+
+    static public final UriTemplate PROP_SHEET =
+        new UriTemplate("/property/propSheet/{propSheet}.-1");
+    static public final UriTemplate PROP_SHEET_BATCH =
+        new UriTemplate("/property/propSheet/{propSheet}.{version}/allPropValuesFromBatch");
+
+    static public final UriTemplate RESOURCE =
+        new UriTemplate("/rest/resource/resource/{resource}");
+    static public final UriTemplate RESOURCE_TREE =
+        new UriTemplate("/rest/resource/resource/tree");
+    static public final UriTemplate RESOURCE_CHILDREN =
+        new UriTemplate("/cli/resource/?parent={parent}");
+    static public final UriTemplate RESOURCE_INFO =
+        new UriTemplate("/cli/resource/info?resource={resource}");
+    static public final UriTemplate RESOURCE_PROPERTY =
+        new UriTemplate("/cli/resource/getProperty?resource={resource}&name={name}");
+
+    static public final UriTemplate VERSION =
+        new UriTemplate("/rest/deploy/version/{version}");
+    static public final UriTemplate VERSION_ARTIFACTS =
+        new UriTemplate("/cli/version/listVersionArtifacts?component={component}&version={version}");
+    static public final UriTemplate VERSION_ARTIFACT_DOWNLOAD =
+        new UriTemplate("/cli/version/downloadArtifacts?component={component}&version={version}&singleFilePath={singleFilePath}");
+    static public final UriTemplate VERSION_CREATE =
+        new UriTemplate("/cli/version/createVersion/?name={name}&component={component}&description={description}"
+            + "&type={type}");
+    static public final UriTemplate VERSION_PROPERTIES =
+        new UriTemplate("/cli/version/versionProperties?version={version}&component={component}");
+
+    //**********************************************************************************************
+    // INSTANCE
+    //**********************************************************************************************
+
+    //----------------------------------------------------------------------------------------------
+    private Endpoints() {
+    }
+}
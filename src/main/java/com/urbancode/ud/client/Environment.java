@@ -0,0 +1,76 @@
+/**
+ * (c) Copyright IBM Corporation 2011, 2017.
+ * (c) Copyright HCL Technologies Ltd. 2018. All Rights Reserved.
+ * This is licensed under the following license.
+ * The Apache Version 2.0 License (https://www.apache.org/licenses/LICENSE-2.0.txt)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+package com.urbancode.ud.client;
+
+import java.util.Set;
+
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+
+/**
+ * An environment of an application, as returned by
+ * {@link EnvironmentClient#getEnvironmentModel(String, String)}.
+ */
+public class Environment extends UDObject {
+
+    //**********************************************************************************************
+    // CLASS
+    //**********************************************************************************************
+    static private final Set<String> DECODED_KEYS = keys("active", "color", "requireApprovals");
+
+    //----------------------------------------------------------------------------------------------
+    static public Environment fromJSON(JSONObject json)
+    throws JSONException {
+        return new Environment(json);
+    }
+
+    //**********************************************************************************************
+    // INSTANCE
+    //**********************************************************************************************
+    final private boolean active;
+    final private boolean requireApprovals;
+    final private String color;
+
+    //----------------------------------------------------------------------------------------------
+    protected Environment(JSONObject json)
+    throws JSONException {
+        super(json, DECODED_KEYS);
+        this.active = json.optBoolean("active", true);
+        this.requireApprovals = json.optBoolean("requireApprovals");
+        this.color = getInternedString(json, "color");
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public boolean isActive() {
+        return active;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public boolean isRequireApprovals() {
+        return requireApprovals;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return the color of the environment, e.g. "#00B2EF", or null.
+     */
+    public String getColor() {
+        return color;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    @Override
+    protected void putFields(JSONObject json)
+    throws JSONException {
+        json.put("active", active);
+        json.put("requireApprovals", requireApprovals);
+        if (color != null) {
+            json.put("color", color);
+        }
+    }
+}
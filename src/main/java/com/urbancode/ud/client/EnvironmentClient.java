@@ -12,6 +12,7 @@ import java.net.URI;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.http.HttpResponse;
@@ -54,6 +55,14 @@ public class EnvironmentClient extends UDRestClient {
         super(url, client);
     }
 
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Construct with the shared transport of a session. See UDClientSession.
+     */
+    public EnvironmentClient(UDClientSession session) {
+        super(session);
+    }
+
     //----------------------------------------------------------------------------------------------
     public void addEnvironmentBaseResource(String application, String environment, String resource)
     throws IOException {
@@ -65,7 +74,7 @@ public class EnvironmentClient extends UDRestClient {
                     encodePath(application);
         }
         HttpPut method = new HttpPut(uri);
-        invokeMethod(method);
+        invokeMethodAndDiscard(method);
     }
 
     //----------------------------------------------------------------------------------------------
@@ -80,7 +89,7 @@ public class EnvironmentClient extends UDRestClient {
                     encodePath(application);
         }
         HttpPut method = new HttpPut(uri);
-        invokeMethod(method);
+        invokeMethodAndDiscard(method);
     }
 
     //----------------------------------------------------------------------------------------------
@@ -174,8 +183,7 @@ public class EnvironmentClient extends UDRestClient {
             method.setEntity(getStringEntity(jsonToSend));
 
             HttpResponse response = invokeMethod(method);
-            String body = getBody(response);
-            JSONObject jsonBody = new JSONObject(body);
+            JSONObject jsonBody = getBodyAsJSONObject(response);
             result = UUID.fromString(jsonBody.getString("id"));
         }
 
@@ -204,13 +212,27 @@ public class EnvironmentClient extends UDRestClient {
         HttpPut method = new HttpPut(uri);
         try {
             method.setEntity(getStringEntity(requestBody));
-            invokeMethod(method);
+            invokeMethodAndDiscard(method);
         }
         finally {
             releaseConnection(method);
         }
     }
 
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Collection variant of {@link #createDesiredInventoryEntry}, for recording many entries
+     * with few requests. The target of each entry is an environment id.
+     *
+     * @param deploymentRequest The deployment request the entries are recorded for.
+     *
+     * @return an import to configure and run with the entries.
+     */
+    public InventoryImport newDesiredInventoryImport(String deploymentRequest) {
+        return new InventoryImport(this, Endpoints.DESIRED_INVENTORY_ENTRIES.expand(url), "environmentId",
+            deploymentRequest);
+    }
+
     //----------------------------------------------------------------------------------------------
     public void deleteEnvironment(
         String applicationName,
@@ -223,7 +245,8 @@ public class EnvironmentClient extends UDRestClient {
                     encodePath(applicationName);
         }
         HttpDelete method = new HttpDelete(uri);
-        invokeMethod(method);
+        invokeMethodAndDiscard(method);
+        invalidateUUID("environment", applicationName, name);
     }
 
     //----------------------------------------------------------------------------------------------
@@ -235,17 +258,11 @@ public class EnvironmentClient extends UDRestClient {
             throw new IOException("a required argument was not supplied");
         }
 
-        String uri = url + "/cli/environment/componentProperties?environment=" +
-                encodePath(envName) + "&component=" +
-                encodePath(compName);
-        if (!StringUtils.isEmpty(appName)) {
-            uri = uri + "&application=" +
-                    encodePath(appName);
-        }
+        String uri = Endpoints.ENVIRONMENT_COMPONENT_PROPERTIES.expand(url, envName, compName,
+            StringUtils.defaultIfEmpty(appName, null));
         HttpGet method = new HttpGet(uri);
         HttpResponse response = invokeMethod(method);
-        String body = getBody(response);
-        JSONArray propsJSON = new JSONArray(body);
+        JSONArray propsJSON = getBodyAsJSONArray(response);
 
         for (int i=0; i<propsJSON.length(); i++) {
             JSONObject propObject = (JSONObject) propsJSON.get(i);
@@ -258,58 +275,77 @@ public class EnvironmentClient extends UDRestClient {
     public Map<String, String> getEnvironmentProperties(String envName, String appName)
     throws IOException, JSONException {
         //return mapping of name-value pairs
-        Map<String, String> result = new HashMap<String, String>();
         if ("".equals(envName) || "".equals(appName)) {
             throw new IOException("a required argument was not supplied");
         }
 
-        String uri = url + "/cli/environment/getProperties?environment=" +
-                encodePath(envName);
-        if (!StringUtils.isEmpty(appName)) {
-            uri = uri + "&application=" +
-                    encodePath(appName);
-        }
+        String uri = Endpoints.ENVIRONMENT_PROPERTIES.expand(url, envName,
+            StringUtils.defaultIfEmpty(appName, null));
         HttpGet method = new HttpGet(uri);
         HttpResponse response = invokeMethod(method);
-        String body = getBody(response);
-        JSONArray propsJSON = new JSONArray(body);
+        return getBodyAsProperties(response);
+    }
 
-        for (int i=0; i<propsJSON.length(); i++) {
-            JSONObject propObject = (JSONObject) propsJSON.get(i);
-            result.put((String)propObject.get("name"), (String)propObject.get("value"));
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Non-blocking variant of {@link #getEnvironmentProperties(String, String)}.
+     */
+    public CompletableFuture<Map<String, String>> getEnvironmentPropertiesAsync(String envName, String appName) {
+        if ("".equals(envName) || "".equals(appName)) {
+            CompletableFuture<Map<String, String>> result = new CompletableFuture<Map<String, String>>();
+            result.completeExceptionally(new IOException("a required argument was not supplied"));
+            return result;
         }
-        return result;
+
+        String uri = Endpoints.ENVIRONMENT_PROPERTIES.expand(url, envName,
+            StringUtils.defaultIfEmpty(appName, null));
+        return invokeMethodAsync(new HttpGet(uri), response -> getBodyAsProperties(response));
     }
 
     //----------------------------------------------------------------------------------------------
-    public UUID getEnvironmentUUID(String environmentName, String applicationName)
+    public UUID getEnvironmentUUID(final String environmentName, final String applicationName)
     throws IOException, JSONException {
-        UUID result = null;
+        return resolveUUID("environment", applicationName, environmentName, () -> {
+            String uri = Endpoints.ENVIRONMENT_INFO.expand(url, environmentName,
+                StringUtils.defaultIfEmpty(applicationName, null));
+            HttpGet method = new HttpGet(uri);
+            HttpResponse response = invokeMethod(method);
+            JSONObject resultJSON = getBodyAsJSONObject(response);
+            return UUID.fromString(resultJSON.getString("id"));
+        });
+    }
 
-        String uri = url + "/cli/environment/info?environment=" + encodePath(environmentName);
-        if (applicationName!= null && !"".equals(applicationName)) {
-            uri = uri + "&application=" + encodePath(applicationName);
-        }
-        HttpGet method = new HttpGet(uri);
-        HttpResponse response = invokeMethod(method);
-        String body = getBody(response);
-        JSONObject resultJSON = new JSONObject(body);
-        result = UUID.fromString(resultJSON.getString("id"));
+    //----------------------------------------------------------------------------------------------
+    public JSONObject getEnvironment(String environmentName, String applicationName)
+    throws IOException, JSONException {
+        String uri = Endpoints.ENVIRONMENT_INFO.expand(url, environmentName,
+            StringUtils.defaultIfEmpty(applicationName, null));
+        return coalesceGet(uri, () -> {
+            HttpGet method = new HttpGet(uri);
+            HttpResponse response = invokeMethod(method);
+            return getBodyAsJSONObject(response);
+        });
+    }
 
-        return result;
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Non-blocking variant of {@link #getEnvironment(String, String)}.
+     */
+    public CompletableFuture<JSONObject> getEnvironmentAsync(String environmentName, String applicationName) {
+        String uri = Endpoints.ENVIRONMENT_INFO.expand(url, environmentName,
+            StringUtils.defaultIfEmpty(applicationName, null));
+        return coalesceGetAsync(uri, () ->
+            invokeMethodAsync(new HttpGet(uri), response -> getBodyAsJSONObject(response)));
     }
 
     //----------------------------------------------------------------------------------------------
-    public JSONObject getEnvironment(String environmentName, String applicationName)
+    /**
+     * Typed variant of {@link #getEnvironment(String, String)}, compact enough to hold in large
+     * numbers.
+     */
+    public Environment getEnvironmentModel(String environmentName, String applicationName)
     throws IOException, JSONException {
-        String uri = url + "/cli/environment/info?environment=" + encodePath(environmentName);
-        if (applicationName!= null && !"".equals(applicationName)) {
-            uri = uri + "&application=" + encodePath(applicationName);
-        }
-        HttpGet method = new HttpGet(uri);
-        HttpResponse response = invokeMethod(method);
-        String body = getBody(response);
-        return new JSONObject(body);
+        return Environment.fromJSON(getEnvironment(environmentName, applicationName));
     }
 
     //----------------------------------------------------------------------------------------------
@@ -323,7 +359,7 @@ public class EnvironmentClient extends UDRestClient {
                     encodePath(application);
         }
         HttpPut method = new HttpPut(uri);
-        invokeMethod(method);
+        invokeMethodAndDiscard(method);
     }
 
     //----------------------------------------------------------------------------------------------
@@ -347,7 +383,7 @@ public class EnvironmentClient extends UDRestClient {
         }
         HttpPut method = new HttpPut(uri);
 
-        retryInvokeMethod(method, "set component environment property");
+        discardBody(retryInvokeMethod(method, "set component environment property"));
         if (isSecure) {
             result = name + "=****";
         }
@@ -365,20 +401,13 @@ public class EnvironmentClient extends UDRestClient {
             throw new IOException("a required argument was not supplied");
         }
 
-        String uri = url + "/cli/environment/propValue?environment=" +
-                encodePath(envName) + "&name=" +
-                encodePath(name) + "&value=" +
-                encodePath(value) + "&isSecure=" +
-                encodePath(String.valueOf(isSecure));
-
-        if (!StringUtils.isEmpty(appName)) {
-            uri = uri + "&application=" +
-                    encodePath(appName);
-        }
+        // a null value is sent as "null", as it always was, rather than left out
+        String uri = Endpoints.ENVIRONMENT_PROP_VALUE.expand(url, String.valueOf(envName),
+            String.valueOf(name), String.valueOf(value), isSecure, StringUtils.defaultIfEmpty(appName, null));
 
         HttpPut method = new HttpPut(uri);
 
-        retryInvokeMethod(method, "set environment property");
+        discardBody(retryInvokeMethod(method, "set environment property"));
         if (isSecure) {
             result = name + "=****";
         }
@@ -388,27 +417,29 @@ public class EnvironmentClient extends UDRestClient {
         return result;
     }
 
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Collect properties of an environment and write them with a few batch requests. See
+     * {@link PropertyBatch}.
+     */
+    public PropertyBatch newPropertyBatch(final String envName, final String appName)
+    throws IOException, JSONException {
+        UUID id = getEnvironmentUUID(envName, appName);
+        return new PropertyBatch(this, "environments&" + id + "&propSheet",
+            (name, value, isSecure) -> setEnvironmentProperty(envName, appName, name, value, isSecure));
+    }
+
     //----------------------------------------------------------------------------------------------
     public boolean verifyInventoryStatus(String envName, String appName, String componentName,
             String componentVersion, String inventoryStatus)
     throws IOException, JSONException {
         boolean result = false;
-        boolean isID = false;
-        try {
-            @SuppressWarnings("unused")
-            UUID envUUID = UUID.fromString(envName);
-            isID = true;
-        }
-        catch (IllegalArgumentException e) {
-            //swallow
-        }
-        String envID = isID? envName : getEnvironmentUUID(envName, appName).toString();
-        String uri = url + "/rest/inventory/desiredInventory/" + encodePath(envID);
+        String envID = getEnvironmentUUID(envName, appName).toString();
+        String uri = Endpoints.DESIRED_INVENTORY.expand(url, envID);
         HttpGet method = new HttpGet(uri);
 
         HttpResponse response = invokeMethod(method);
-        String body = getBody(response);
-        JSONArray responseJSON = new JSONArray(body);
+        JSONArray responseJSON = getBodyAsJSONArray(response);
         try {
             for (int i=0; i<responseJSON.length(); i++) {
                 JSONObject obj = responseJSON.getJSONObject(i);
@@ -437,15 +468,24 @@ public class EnvironmentClient extends UDRestClient {
     public JSONObject getLatestEnvironmentInventoryByComponent(String envName, String appName, String compName)
     throws IOException, JSONException {
         UUID envId = getEnvironmentUUID(envName, appName);
-        String uri = url + "/rest/inventory/versionByEnvironmentAndComponent/"+envId.toString()+"/"+compName;
+        String uri = Endpoints.INVENTORY_BY_ENVIRONMENT_AND_COMPONENT.expand(url, envId, compName);
         HttpGet method = new HttpGet(uri);
 
         HttpResponse response = invokeMethod(method);
-        String body = getBody(response);
-        JSONObject result = new JSONObject(body);
+        JSONObject result = getBodyAsJSONObject(response);
         return result;
     }
 
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Non-blocking variant of {@link #getLatestEnvironmentInventoryByComponent(String, String, String)}.
+     * Runs on the worker pool of the client, as it may have to look up the environment first.
+     */
+    public CompletableFuture<JSONObject> getLatestEnvironmentInventoryByComponentAsync(String envName,
+        String appName, String compName) {
+        return async(() -> getLatestEnvironmentInventoryByComponent(envName, appName, compName));
+    }
+
     //----------------------------------------------------------------------------------------------
     public JSONArray deleteRedundantVersions(String envName, String appName,
             String compName, boolean deleteRedundant) throws IOException,
@@ -461,8 +501,7 @@ public class EnvironmentClient extends UDRestClient {
 
         HttpDelete method = new HttpDelete(uri);
         HttpResponse response = invokeMethod(method);
-        String body = getBody(response);
-        JSONArray versionsJson = new JSONArray(body);
+        JSONArray versionsJson = getBodyAsJSONArray(response);
 
         return versionsJson;
     }
@@ -490,8 +529,7 @@ public class EnvironmentClient extends UDRestClient {
                          + "/overlappingArtifacts/" + versionId;
         HttpGet method = new HttpGet(uri);
         HttpResponse response = invokeMethod(method);
-        String body = getBody(response);
-        JSONArray overlappingArtifactJsonArray = new JSONArray(body);
+        JSONArray overlappingArtifactJsonArray = getBodyAsJSONArray(response);
 
         return overlappingArtifactJsonArray;
     }
@@ -511,8 +549,7 @@ public class EnvironmentClient extends UDRestClient {
 
         HttpDelete method = new HttpDelete(uri);
         HttpResponse response = invokeMethod(method);
-        String body = getBody(response);
-        JSONArray versionsJson = new JSONArray(body);
+        JSONArray versionsJson = getBodyAsJSONArray(response);
 
         return versionsJson;
     }
@@ -0,0 +1,81 @@
+/**
+ * (c) Copyright IBM Corporation 2011, 2017.
+ * (c) Copyright HCL Technologies Ltd. 2018. All Rights Reserved.
+ * This is licensed under the following license.
+ * The Apache Version 2.0 License (https://www.apache.org/licenses/LICENSE-2.0.txt)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+package com.urbancode.ud.client;
+
+/**
+ * One row of inventory: a version of a component on a resource, or desired in an environment.
+ *
+ * @see InventoryImport
+ */
+public class InventoryEntry {
+
+    //**********************************************************************************************
+    // CLASS
+    //**********************************************************************************************
+
+    //**********************************************************************************************
+    // INSTANCE
+    //**********************************************************************************************
+    final private String targetId;
+    final private String componentId;
+    final private String versionId;
+    final private String status;
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @param targetId The id of the resource, or of the environment for desired inventory.
+     * @param componentId The id of the component.
+     * @param versionId The id of the version.
+     * @param status The inventory status, e.g. "Active".
+     */
+    public InventoryEntry(String targetId, String componentId, String versionId, String status) {
+        this.targetId = targetId;
+        this.componentId = componentId;
+        this.versionId = versionId;
+        this.status = status;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public String getTargetId() {
+        return targetId;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public String getComponentId() {
+        return componentId;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public String getVersionId() {
+        return versionId;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public String getStatus() {
+        return status;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return a rough size of the entry in a request body, in bytes.
+     */
+    int getEncodedSize() {
+        return 80 + length(targetId) + length(componentId) + length(versionId) + length(status);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    private int length(String value) {
+        return value == null ? 4 : value.length();
+    }
+
+    //----------------------------------------------------------------------------------------------
+    @Override
+    public String toString() {
+        return "InventoryEntry[" + targetId + ", " + componentId + ", " + versionId + ", " + status + "]";
+    }
+}
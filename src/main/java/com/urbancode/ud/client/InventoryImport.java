@@ -0,0 +1,309 @@
+/**
+ * (c) Copyright IBM Corporation 2011, 2017.
+ * (c) Copyright HCL Technologies Ltd. 2018. All Rights Reserved.
+ * This is licensed under the following license.
+ * The Apache Version 2.0 License (https://www.apache.org/licenses/LICENSE-2.0.txt)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+package com.urbancode.ud.client;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.client.methods.HttpPut;
+import org.apache.log4j.Logger;
+import org.codehaus.jettison.json.JSONArray;
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+
+/**
+ * Records many inventory entries with few requests. Entries are read from an iterator into
+ * chunks capped by entry count and body size, and several chunks are sent at once. Only the
+ * chunks being sent are held in memory, so the source may be far larger than the heap.
+ * <p>
+ * A chunk the server rejects does not stop the import; its entries are reported in the
+ * {@link Result} so they can be corrected and sent again.
+ * <p>
+ * Create imports with {@link ResourceClient#newInventoryImport(String)} or
+ * {@link EnvironmentClient#newDesiredInventoryImport(String)}.
+ */
+public class InventoryImport {
+
+    //**********************************************************************************************
+    // CLASS
+    //**********************************************************************************************
+    final static private Logger log = Logger.getLogger(InventoryImport.class);
+
+    public static final int CHUNK_SIZE_DEFAULT = 500;
+    public static final int MAX_CHUNK_BYTES_DEFAULT = 1024 * 1024;
+    public static final int CONCURRENCY_DEFAULT = 4;
+
+    /**
+     * Told about every chunk that completed. Called on the threads sending the chunks; an
+     * exception it throws is logged and does not change the result.
+     */
+    public interface Listener {
+        /**
+         * @param written The number of entries recorded so far.
+         * @param failed The number of entries in rejected chunks so far.
+         */
+        void progress(long written, long failed);
+    }
+
+    /**
+     * A rejected chunk.
+     */
+    public static class Failure {
+        final private List<InventoryEntry> entries;
+        final private Exception cause;
+
+        //------------------------------------------------------------------------------------------
+        private Failure(List<InventoryEntry> entries, Exception cause) {
+            this.entries = Collections.unmodifiableList(entries);
+            this.cause = cause;
+        }
+
+        //------------------------------------------------------------------------------------------
+        public List<InventoryEntry> getEntries() {
+            return entries;
+        }
+
+        //------------------------------------------------------------------------------------------
+        public Exception getCause() {
+            return cause;
+        }
+    }
+
+    /**
+     * The outcome of {@link InventoryImport#run(Iterator)}.
+     */
+    public static class Result {
+        final private long writtenCount;
+        final private long failedCount;
+        final private int requestCount;
+        final private List<Failure> failures;
+
+        //------------------------------------------------------------------------------------------
+        private Result(long writtenCount, long failedCount, int requestCount, List<Failure> failures) {
+            this.writtenCount = writtenCount;
+            this.failedCount = failedCount;
+            this.requestCount = requestCount;
+            this.failures = Collections.unmodifiableList(failures);
+        }
+
+        //------------------------------------------------------------------------------------------
+        public long getWrittenCount() {
+            return writtenCount;
+        }
+
+        //------------------------------------------------------------------------------------------
+        public long getFailedCount() {
+            return failedCount;
+        }
+
+        //------------------------------------------------------------------------------------------
+        public int getRequestCount() {
+            return requestCount;
+        }
+
+        //------------------------------------------------------------------------------------------
+        public List<Failure> getFailures() {
+            return failures;
+        }
+
+        //------------------------------------------------------------------------------------------
+        /**
+         * @return true if every entry was recorded.
+         */
+        public boolean isSuccessful() {
+            return failures.isEmpty();
+        }
+    }
+
+    //**********************************************************************************************
+    // INSTANCE
+    //**********************************************************************************************
+    final private UDRestClient client;
+    final private String uri;
+    final private String targetKey;
+    final private String deploymentRequest;
+    private int chunkSize = CHUNK_SIZE_DEFAULT;
+    private int maxChunkBytes = MAX_CHUNK_BYTES_DEFAULT;
+    private int concurrency = CONCURRENCY_DEFAULT;
+    private Listener listener;
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @param client Sends the requests.
+     * @param uri The entries endpoint.
+     * @param targetKey The field naming the target of an entry, "resourceId" or "environmentId".
+     * @param deploymentRequest The deployment request the entries are recorded for.
+     */
+    protected InventoryImport(UDRestClient client, String uri, String targetKey, String deploymentRequest) {
+        this.client = client;
+        this.uri = uri;
+        this.targetKey = targetKey;
+        this.deploymentRequest = deploymentRequest;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @param chunkSize The most entries sent in one request.
+     */
+    public InventoryImport setChunkSize(int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunkSize must be at least 1: " + chunkSize);
+        }
+        this.chunkSize = chunkSize;
+        return this;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @param maxChunkBytes The largest request body, estimated from the entry fields. A chunk
+     * always holds at least one entry, however large.
+     */
+    public InventoryImport setMaxChunkBytes(int maxChunkBytes) {
+        this.maxChunkBytes = maxChunkBytes;
+        return this;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @param concurrency The most chunks sent at once. Requests also wait for the client's
+     * async executor, which allows one request at a time for clients not created from a
+     * {@link UDClientSession}.
+     */
+    public InventoryImport setConcurrency(int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("concurrency must be at least 1: " + concurrency);
+        }
+        this.concurrency = concurrency;
+        return this;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public InventoryImport setListener(Listener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public Result run(Iterable<InventoryEntry> entries)
+    throws IOException {
+        return run(entries.iterator());
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Send all entries and wait for the last chunk.
+     *
+     * @param entries The entries to record, read once.
+     *
+     * @return the counts and the rejected chunks.
+     *
+     * @throws InterruptedIOException if interrupted; chunks already started still complete.
+     */
+    public Result run(Iterator<InventoryEntry> entries)
+    throws IOException {
+        final Semaphore permits = new Semaphore(concurrency);
+        final AtomicLong written = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+        final List<Failure> failures = Collections.synchronizedList(new ArrayList<Failure>());
+        int requestCount = 0;
+        // the entry that did not fit the previous chunk
+        InventoryEntry pending = null;
+
+        try {
+            while (pending != null || entries.hasNext()) {
+                final List<InventoryEntry> chunk = new ArrayList<InventoryEntry>();
+                int bytes = 0;
+                while (chunk.size() < chunkSize && (pending != null || entries.hasNext())) {
+                    InventoryEntry entry = pending != null ? pending : entries.next();
+                    pending = null;
+                    if (!chunk.isEmpty() && bytes + entry.getEncodedSize() > maxChunkBytes) {
+                        pending = entry;
+                        break;
+                    }
+                    chunk.add(entry);
+                    bytes += entry.getEncodedSize();
+                }
+
+                permits.acquire();
+                requestCount++;
+                final AtomicBoolean started = new AtomicBoolean();
+                client.async(() -> {
+                    started.set(true);
+                    try {
+                        try {
+                            send(chunk);
+                            written.addAndGet(chunk.size());
+                        }
+                        catch (Exception e) {
+                            log.debug("Inventory chunk of " + chunk.size() + " entries was rejected", e);
+                            failures.add(new Failure(chunk, e));
+                            failed.addAndGet(chunk.size());
+                        }
+                        Listener progress = listener;
+                        if (progress != null) {
+                            try {
+                                progress.progress(written.get(), failed.get());
+                            }
+                            catch (RuntimeException e) {
+                                // the chunk is already counted; a listener cannot change that
+                                log.warn("Inventory progress listener failed", e);
+                            }
+                        }
+                    }
+                    finally {
+                        permits.release();
+                    }
+                    return null;
+                }).whenComplete((ignored, e) -> {
+                    // a call that ran counted its chunk and released its permit itself
+                    if (e != null && !started.get()) {
+                        failures.add(new Failure(chunk, e instanceof Exception ? (Exception) e : new Exception(e)));
+                        failed.addAndGet(chunk.size());
+                        permits.release();
+                    }
+                });
+            }
+            permits.acquire(concurrency);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted after sending " + requestCount + " inventory chunks");
+        }
+
+        return new Result(written.get(), failed.get(), requestCount, new ArrayList<Failure>(failures));
+    }
+
+    //----------------------------------------------------------------------------------------------
+    private void send(List<InventoryEntry> chunk)
+    throws IOException, JSONException {
+        JSONArray entries = new JSONArray();
+        for (InventoryEntry entry : chunk) {
+            JSONObject json = new JSONObject();
+            json.put(targetKey, entry.getTargetId());
+            json.put("componentId", entry.getComponentId());
+            json.put("versionId", entry.getVersionId());
+            json.put("status", entry.getStatus());
+            entries.put(json);
+        }
+
+        JSONObject requestBody = new JSONObject();
+        requestBody.put("deploymentRequest", deploymentRequest);
+        requestBody.put("entries", entries);
+
+        HttpPut method = new HttpPut(uri);
+        method.setEntity(client.getStringEntity(requestBody));
+        client.invokeMethodAndDiscard(method);
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ * (c) Copyright IBM Corporation 2011, 2017.
+ * (c) Copyright HCL Technologies Ltd. 2018. All Rights Reserved.
+ * This is licensed under the following license.
+ * The Apache Version 2.0 License (https://www.apache.org/licenses/LICENSE-2.0.txt)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+package com.urbancode.ud.client;
+
+import java.io.Closeable;
+import java.lang.management.ManagementFactory;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Publishes the endpoints of a {@link MetricsRegistry} as MXBeans named
+ * &lt;domain&gt;:type=Endpoint,name="GET /cli/environment/info", so they can be watched with
+ * jconsole or any JMX collector. Endpoints are registered as they are first used.
+ */
+public class JmxMetricsExporter implements Closeable, MetricsRegistry.Listener {
+
+    //**********************************************************************************************
+    // CLASS
+    //**********************************************************************************************
+    final static private Logger log = Logger.getLogger(JmxMetricsExporter.class);
+
+    public static final String DOMAIN_DEFAULT = "com.urbancode.ud.client";
+
+    //**********************************************************************************************
+    // INSTANCE
+    //**********************************************************************************************
+    final private MetricsRegistry registry;
+    final private MBeanServer server;
+    final private String domain;
+    final private Set<ObjectName> names = new HashSet<ObjectName>();
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Export to the platform MBean server under the default domain.
+     */
+    public JmxMetricsExporter(MetricsRegistry registry) {
+        this(registry, ManagementFactory.getPlatformMBeanServer(), DOMAIN_DEFAULT);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @param registry The metrics to export.
+     * @param server The MBean server to register with.
+     * @param domain The domain of the object names, e.g. to tell several sessions apart.
+     */
+    public JmxMetricsExporter(MetricsRegistry registry, MBeanServer server, String domain) {
+        this.registry = registry;
+        this.server = server;
+        this.domain = domain;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Register the endpoints seen so far and any added later.
+     */
+    public void start() {
+        registry.addListener(this);
+        for (MetricsRegistry.EndpointStats stats : registry.getEndpoints().values()) {
+            endpointAdded(stats);
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public synchronized void endpointAdded(MetricsRegistry.EndpointStats stats) {
+        try {
+            ObjectName name = getObjectName(stats.getEndpoint());
+            // replaces the stats of an endpoint dropped by MetricsRegistry.clear()
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(stats, name);
+            names.add(name);
+        }
+        catch (JMException e) {
+            log.warn("Could not export metrics of " + stats.getEndpoint(), e);
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public ObjectName getObjectName(String endpoint)
+    throws MalformedObjectNameException {
+        return new ObjectName(domain + ":type=Endpoint,name=" + ObjectName.quote(endpoint));
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Stop exporting and unregister every endpoint.
+     */
+    public synchronized void close() {
+        registry.removeListener(this);
+        for (ObjectName name : names) {
+            try {
+                server.unregisterMBean(name);
+            }
+            catch (JMException e) {
+                log.debug("Could not unregister " + name, e);
+            }
+        }
+        names.clear();
+    }
+}
@@ -0,0 +1,170 @@
+/**
+ * (c) Copyright IBM Corporation 2011, 2017.
+ * (c) Copyright HCL Technologies Ltd. 2018. All Rights Reserved.
+ * This is licensed under the following license.
+ * The Apache Version 2.0 License (https://www.apache.org/licenses/LICENSE-2.0.txt)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+package com.urbancode.ud.client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.codehaus.jettison.json.JSONArray;
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+
+/**
+ * {@link ResourceTree} over the nested JSON objects returned by
+ * {@link ResourceClient#getResourceTree()}. The objects are kept as they are; only the links
+ * between them are added.
+ */
+public class JsonResourceTree implements ResourceTree {
+
+    //**********************************************************************************************
+    // CLASS
+    //**********************************************************************************************
+
+    //**********************************************************************************************
+    // INSTANCE
+    //**********************************************************************************************
+    final private List<JSONObject> nodes = new ArrayList<JSONObject>();
+    final private Map<String, Integer> byPath = new HashMap<String, Integer>();
+    private int[] parent = new int[16];
+    private int[] firstChild = new int[16];
+    private int[] nextSibling = new int[16];
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @param tree The top level resources, with their descendants in "children".
+     */
+    public JsonResourceTree(JSONArray tree)
+    throws JSONException {
+        int previous = NONE;
+        for (int i = 0; i < tree.length(); i++) {
+            int node = add(tree.getJSONObject(i), NONE);
+            if (previous != NONE) {
+                nextSibling[previous] = node;
+            }
+            previous = node;
+        }
+        parent = Arrays.copyOf(parent, nodes.size());
+        firstChild = Arrays.copyOf(firstChild, nodes.size());
+        nextSibling = Arrays.copyOf(nextSibling, nodes.size());
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return the JSON of a resource.
+     */
+    public JSONObject getJSON(int node) {
+        return nodes.get(node);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public int size() {
+        return nodes.size();
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public int getFirstRoot() {
+        return nodes.isEmpty() ? NONE : 0;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public int getParent(int node) {
+        return parent[node];
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public int getFirstChild(int node) {
+        return firstChild[node];
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public int getNextSibling(int node) {
+        return nextSibling[node];
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public UUID getId(int node) {
+        String id = nodes.get(node).optString("id", null);
+        return id == null ? null : UUID.fromString(id);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public String getName(int node) {
+        return nodes.get(node).optString("name", null);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public String getPath(int node) {
+        return nodes.get(node).optString("path", null);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public String getRole(int node) {
+        JSONObject role = nodes.get(node).optJSONObject("role");
+        return role == null ? null : role.optString("name", null);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public String getType(int node) {
+        return nodes.get(node).optString("type", null);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public boolean hasAgent(int node) {
+        return nodes.get(node).optBoolean("hasAgent");
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public int find(String path) {
+        Integer result = byPath.get(path);
+        return result == null ? NONE : result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Add a resource and its descendants in depth-first order.
+     *
+     * @return the index of the resource.
+     */
+    private int add(JSONObject json, int parentNode)
+    throws JSONException {
+        int node = nodes.size();
+        nodes.add(json);
+        if (node == parent.length) {
+            parent = Arrays.copyOf(parent, node * 2);
+            firstChild = Arrays.copyOf(firstChild, node * 2);
+            nextSibling = Arrays.copyOf(nextSibling, node * 2);
+        }
+        parent[node] = parentNode;
+        firstChild[node] = NONE;
+        nextSibling[node] = NONE;
+        String path = json.optString("path", null);
+        if (path != null) {
+            byPath.put(path, node);
+        }
+
+        JSONArray children = json.optJSONArray("children");
+        if (children != null) {
+            int previous = NONE;
+            for (int i = 0; i < children.length(); i++) {
+                int child = add(children.getJSONObject(i), node);
+                if (previous == NONE) {
+                    firstChild[node] = child;
+                }
+                else {
+                    nextSibling[previous] = child;
+                }
+                previous = child;
+            }
+        }
+        return node;
+    }
+}
@@ -0,0 +1,531 @@
+/**
+ * (c) Copyright IBM Corporation 2011, 2017.
+ * (c) Copyright HCL Technologies Ltd. 2018. All Rights Reserved.
+ * This is licensed under the following license.
+ * The Apache Version 2.0 License (https://www.apache.org/licenses/LICENSE-2.0.txt)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+package com.urbancode.ud.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+
+import org.codehaus.jettison.json.JSONArray;
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+
+/**
+ * Pull parser reading JSON tokens directly from a stream. Unlike the Jettison parser it does
+ * not need the whole document as a String, so large responses can be decoded into
+ * {@link JSONObject}s and {@link JSONArray}s, or into any other model, in a single pass.
+ *
+ * <pre>
+ * reader.beginArray();
+ * while (reader.hasNext()) {
+ *     reader.beginObject();
+ *     while (reader.hasNext()) {
+ *         if ("name".equals(reader.nextName())) {
+ *             names.add(reader.nextString());
+ *         }
+ *         else {
+ *             reader.skipValue();
+ *         }
+ *     }
+ *     reader.endObject();
+ * }
+ * reader.endArray();
+ * </pre>
+ */
+public class JsonStreamReader implements Closeable {
+
+    //**********************************************************************************************
+    // CLASS
+    //**********************************************************************************************
+    public enum Token {
+        BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL,
+        END_DOCUMENT
+    }
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final int EMPTY_DOCUMENT = 0;
+    private static final int NONEMPTY_DOCUMENT = 1;
+    private static final int EMPTY_ARRAY = 2;
+    private static final int NONEMPTY_ARRAY = 3;
+    private static final int EMPTY_OBJECT = 4;
+    private static final int NONEMPTY_OBJECT = 5;
+    private static final int DANGLING_NAME = 6;
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Convert a literal the way the Jettison parser does: Integer, then Long, then Double.
+     */
+    static Object parseNumber(String text) {
+        Object result;
+        try {
+            result = Integer.valueOf(text);
+        }
+        catch (NumberFormatException e) {
+            try {
+                result = Long.valueOf(text);
+            }
+            catch (NumberFormatException e2) {
+                try {
+                    result = Double.valueOf(text);
+                }
+                catch (NumberFormatException e3) {
+                    result = text;
+                }
+            }
+        }
+        return result;
+    }
+
+    //**********************************************************************************************
+    // INSTANCE
+    //**********************************************************************************************
+    final private Reader in;
+    final private char[] buffer = new char[BUFFER_SIZE];
+    private int pos = 0;
+    private int limit = 0;
+
+    private int[] stack = new int[32];
+    private int stackSize = 0;
+
+    private Token peeked;
+    private String peekedText;
+    final private StringBuilder text = new StringBuilder();
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @param in UTF-8 encoded JSON.
+     */
+    public JsonStreamReader(InputStream in) {
+        this(new InputStreamReader(in, UTF8));
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public JsonStreamReader(Reader in) {
+        this.in = in;
+        push(EMPTY_DOCUMENT);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public Token peek()
+    throws IOException, JSONException {
+        if (peeked == null) {
+            peeked = advance();
+        }
+        return peeked;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public boolean hasNext()
+    throws IOException, JSONException {
+        Token token = peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public void beginObject()
+    throws IOException, JSONException {
+        expect(Token.BEGIN_OBJECT);
+        push(EMPTY_OBJECT);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public void endObject()
+    throws IOException, JSONException {
+        expect(Token.END_OBJECT);
+        stackSize--;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public void beginArray()
+    throws IOException, JSONException {
+        expect(Token.BEGIN_ARRAY);
+        push(EMPTY_ARRAY);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public void endArray()
+    throws IOException, JSONException {
+        expect(Token.END_ARRAY);
+        stackSize--;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public String nextName()
+    throws IOException, JSONException {
+        expect(Token.NAME);
+        return peekedText;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return the next string value, or the text of the next number.
+     */
+    public String nextString()
+    throws IOException, JSONException {
+        Token token = peek();
+        if (token != Token.STRING && token != Token.NUMBER) {
+            throw syntaxError("Expected a string but was " + token);
+        }
+        peeked = null;
+        return peekedText;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public boolean nextBoolean()
+    throws IOException, JSONException {
+        expect(Token.BOOLEAN);
+        return "true".equals(peekedText);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public void nextNull()
+    throws IOException, JSONException {
+        expect(Token.NULL);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Skip the next value, including all nested objects and arrays.
+     */
+    public void skipValue()
+    throws IOException, JSONException {
+        int depth = 0;
+        do {
+            Token token = peek();
+            peeked = null;
+            if (token == Token.BEGIN_OBJECT) {
+                push(EMPTY_OBJECT);
+                depth++;
+            }
+            else if (token == Token.BEGIN_ARRAY) {
+                push(EMPTY_ARRAY);
+                depth++;
+            }
+            else if (token == Token.END_OBJECT || token == Token.END_ARRAY) {
+                stackSize--;
+                depth--;
+            }
+            else if (token == Token.END_DOCUMENT) {
+                throw syntaxError("Unexpected end of document");
+            }
+        }
+        while (depth > 0);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Read the next value as the Jettison parser would represent it: a JSONObject, JSONArray,
+     * String, Integer, Long, Double, Boolean or {@link JSONObject#NULL}.
+     *
+     * @return Object
+     */
+    public Object readValue()
+    throws IOException, JSONException {
+        Object result;
+        switch (peek()) {
+            case BEGIN_OBJECT:
+                result = readObject();
+                break;
+            case BEGIN_ARRAY:
+                result = readArray();
+                break;
+            case STRING:
+                result = nextString();
+                break;
+            case NUMBER:
+                result = parseNumber(nextString());
+                break;
+            case BOOLEAN:
+                result = Boolean.valueOf(nextBoolean());
+                break;
+            case NULL:
+                nextNull();
+                result = JSONObject.NULL;
+                break;
+            default:
+                throw syntaxError("Expected a value but was " + peek());
+        }
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public JSONObject readObject()
+    throws IOException, JSONException {
+        JSONObject result = new JSONObject();
+        beginObject();
+        while (hasNext()) {
+            String name = nextName();
+            result.put(name, readValue());
+        }
+        endObject();
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public JSONArray readArray()
+    throws IOException, JSONException {
+        JSONArray result = new JSONArray();
+        beginArray();
+        while (hasNext()) {
+            result.put(readValue());
+        }
+        endArray();
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public void close()
+    throws IOException {
+        in.close();
+    }
+
+    //----------------------------------------------------------------------------------------------
+    private void expect(Token expected)
+    throws IOException, JSONException {
+        Token token = peek();
+        if (token != expected) {
+            throw syntaxError("Expected " + expected + " but was " + token);
+        }
+        peeked = null;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    private void push(int scope) {
+        if (stackSize == stack.length) {
+            int[] grown = new int[stack.length * 2];
+            System.arraycopy(stack, 0, grown, 0, stackSize);
+            stack = grown;
+        }
+        stack[stackSize++] = scope;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    private Token advance()
+    throws IOException, JSONException {
+        Token result;
+        int scope = stack[stackSize - 1];
+        int c;
+        switch (scope) {
+            case EMPTY_DOCUMENT:
+                stack[stackSize - 1] = NONEMPTY_DOCUMENT;
+                result = readValueToken(nextNonWhitespace());
+                break;
+            case NONEMPTY_DOCUMENT:
+                c = nextNonWhitespace();
+                if (c != -1) {
+                    throw syntaxError("Unexpected content after the document");
+                }
+                result = Token.END_DOCUMENT;
+                break;
+            case EMPTY_ARRAY:
+            case NONEMPTY_ARRAY:
+                stack[stackSize - 1] = NONEMPTY_ARRAY;
+                c = nextNonWhitespace();
+                if (c == ']') {
+                    result = Token.END_ARRAY;
+                }
+                else if (scope == EMPTY_ARRAY) {
+                    result = readValueToken(c);
+                }
+                else if (c == ',') {
+                    result = readValueToken(nextNonWhitespace());
+                }
+                else {
+                    throw syntaxError("Expected ',' or ']'");
+                }
+                break;
+            case EMPTY_OBJECT:
+            case NONEMPTY_OBJECT:
+                c = nextNonWhitespace();
+                if (c == '}') {
+                    result = Token.END_OBJECT;
+                }
+                else {
+                    if (scope == NONEMPTY_OBJECT) {
+                        if (c != ',') {
+                            throw syntaxError("Expected ',' or '}'");
+                        }
+                        c = nextNonWhitespace();
+                    }
+                    if (c != '"') {
+                        throw syntaxError("Expected a name");
+                    }
+                    peekedText = readString();
+                    stack[stackSize - 1] = DANGLING_NAME;
+                    result = Token.NAME;
+                }
+                break;
+            case DANGLING_NAME:
+                if (nextNonWhitespace() != ':') {
+                    throw syntaxError("Expected ':'");
+                }
+                stack[stackSize - 1] = NONEMPTY_OBJECT;
+                result = readValueToken(nextNonWhitespace());
+                break;
+            default:
+                throw new IllegalStateException("Unknown scope " + scope);
+        }
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    private Token readValueToken(int c)
+    throws IOException, JSONException {
+        Token result;
+        if (c == '{') {
+            result = Token.BEGIN_OBJECT;
+        }
+        else if (c == '[') {
+            result = Token.BEGIN_ARRAY;
+        }
+        else if (c == '"') {
+            peekedText = readString();
+            result = Token.STRING;
+        }
+        else if (c == -1) {
+            throw syntaxError("Unexpected end of document");
+        }
+        else if (c == '}' || c == ']' || c == ',' || c == ':') {
+            throw syntaxError("Expected a value but found '" + (char) c + "'");
+        }
+        else {
+            text.setLength(0);
+            text.append((char) c);
+            while ((c = read()) != -1) {
+                if (c == ',' || c == ']' || c == '}' || c == ':' || c <= ' ') {
+                    pos--;
+                    break;
+                }
+                text.append((char) c);
+            }
+            peekedText = text.toString();
+            if ("true".equals(peekedText) || "false".equals(peekedText)) {
+                result = Token.BOOLEAN;
+            }
+            else if ("null".equals(peekedText)) {
+                result = Token.NULL;
+            }
+            else {
+                result = Token.NUMBER;
+            }
+        }
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    private String readString()
+    throws IOException, JSONException {
+        text.setLength(0);
+        while (true) {
+            // copy runs of plain characters straight from the buffer
+            int start = pos;
+            while (pos < limit) {
+                char c = buffer[pos];
+                if (c == '"' || c == '\\') {
+                    break;
+                }
+                pos++;
+            }
+            text.append(buffer, start, pos - start);
+
+            int c = read();
+            if (c == '"') {
+                break;
+            }
+            else if (c == '\\') {
+                text.append(readEscape());
+            }
+            else if (c == -1) {
+                throw syntaxError("Unterminated string");
+            }
+            else {
+                pos--;
+            }
+        }
+        return text.toString();
+    }
+
+    //----------------------------------------------------------------------------------------------
+    private char readEscape()
+    throws IOException, JSONException {
+        char result;
+        int c = read();
+        switch (c) {
+            case 'b':
+                result = '\b';
+                break;
+            case 'f':
+                result = '\f';
+                break;
+            case 'n':
+                result = '\n';
+                break;
+            case 'r':
+                result = '\r';
+                break;
+            case 't':
+                result = '\t';
+                break;
+            case 'u':
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(read(), 16);
+                    if (digit < 0) {
+                        throw syntaxError("Invalid unicode escape");
+                    }
+                    value = (value << 4) + digit;
+                }
+                result = (char) value;
+                break;
+            case -1:
+                throw syntaxError("Unterminated escape");
+            default:
+                result = (char) c;
+                break;
+        }
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    private int nextNonWhitespace()
+    throws IOException {
+        int c;
+        do {
+            c = read();
+        }
+        while (c == ' ' || c == '\n' || c == '\r' || c == '\t');
+        return c;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    private int read()
+    throws IOException {
+        if (pos == limit) {
+            int count = in.read(buffer, 0, buffer.length);
+            if (count <= 0) {
+                // leave pos == limit == 0 so a following pushback is a no-op at end of stream
+                pos = 0;
+                limit = 0;
+                return -1;
+            }
+            pos = 0;
+            limit = count;
+        }
+        return buffer[pos++];
+    }
+
+    //----------------------------------------------------------------------------------------------
+    private JSONException syntaxError(String message) {
+        return new JSONException(message + " at stack depth " + stackSize);
+    }
+}
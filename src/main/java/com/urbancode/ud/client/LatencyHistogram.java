@@ -0,0 +1,119 @@
+/**
+ * (c) Copyright IBM Corporation 2011, 2017.
+ * (c) Copyright HCL Technologies Ltd. 2018. All Rights Reserved.
+ * This is licensed under the following license.
+ * The Apache Version 2.0 License (https://www.apache.org/licenses/LICENSE-2.0.txt)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+package com.urbancode.ud.client;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of durations in microseconds. Each power of two is split into four
+ * buckets, so percentiles are accurate to within 25% over any range with a fixed, small
+ * footprint.
+ */
+public class LatencyHistogram {
+
+    //**********************************************************************************************
+    // CLASS
+    //**********************************************************************************************
+    final static private int SUB_BUCKETS = 4;
+    final static private int BUCKETS = 40 * SUB_BUCKETS; // beyond 2^40 microseconds (12 days)
+
+    //----------------------------------------------------------------------------------------------
+    static int bucketOf(long micros) {
+        int result;
+        if (micros < SUB_BUCKETS) {
+            result = (int) Math.max(0, micros);
+        }
+        else {
+            int exponent = 63 - Long.numberOfLeadingZeros(micros);
+            int sub = (int) (micros >>> (exponent - 2)) & (SUB_BUCKETS - 1);
+            result = Math.min(BUCKETS - 1, (exponent - 1) * SUB_BUCKETS + sub);
+        }
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return the largest value counted in a bucket.
+     */
+    static long upperBoundOf(int bucket) {
+        long result;
+        if (bucket < SUB_BUCKETS) {
+            result = bucket;
+        }
+        else {
+            int exponent = bucket / SUB_BUCKETS + 1;
+            int sub = bucket % SUB_BUCKETS;
+            result = ((long) (SUB_BUCKETS + sub + 1) << (exponent - 2)) - 1;
+        }
+        return result;
+    }
+
+    //**********************************************************************************************
+    // INSTANCE
+    //**********************************************************************************************
+    final private AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    final private LongAdder count = new LongAdder();
+    final private LongAdder totalMicros = new LongAdder();
+    final private LongAccumulator maxMicros = new LongAccumulator(Math::max, 0);
+
+    //----------------------------------------------------------------------------------------------
+    public void record(long durationNanos) {
+        long micros = durationNanos / 1000L;
+        counts.incrementAndGet(bucketOf(micros));
+        count.increment();
+        totalMicros.add(micros);
+        maxMicros.accumulate(micros);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public long getCount() {
+        return count.sum();
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public double getMeanMillis() {
+        long n = count.sum();
+        return n == 0 ? 0 : totalMicros.sum() / 1000.0 / n;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public double getMaxMillis() {
+        return maxMicros.get() / 1000.0;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @param quantile Between 0 and 1, e.g. 0.99 for the 99th percentile.
+     *
+     * @return an upper bound of the duration at the quantile, in milliseconds.
+     */
+    public double getPercentileMillis(double quantile) {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+
+        double result = 0;
+        if (total > 0) {
+            long rank = (long) Math.ceil(Math.max(0, Math.min(1, quantile)) * total);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += snapshot[i];
+                if (seen >= Math.max(1, rank)) {
+                    result = Math.min(upperBoundOf(i), maxMicros.get()) / 1000.0;
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,185 @@
+/**
+ * (c) Copyright IBM Corporation 2011, 2017.
+ * (c) Copyright HCL Technologies Ltd. 2018. All Rights Reserved.
+ * This is licensed under the following license.
+ * The Apache Version 2.0 License (https://www.apache.org/licenses/LICENSE-2.0.txt)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+package com.urbancode.ud.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.conn.ClientConnectionRequest;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ManagedClientConnection;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.log4j.Logger;
+
+/**
+ * Pooled connection manager that remembers who leased each connection, so connections that
+ * are never returned to the pool (usually a response whose entity was not consumed) can be
+ * reported. Stack traces of the leasing code are only captured when enabled, as they are
+ * expensive to collect on every request.
+ */
+@SuppressWarnings("deprecation") // Triggered by PoolingClientConnectionManager
+public class LeakDetectingConnectionManager extends PoolingClientConnectionManager {
+
+    //**********************************************************************************************
+    // CLASS
+    //**********************************************************************************************
+    final static private Logger log = Logger.getLogger(LeakDetectingConnectionManager.class);
+
+    /**
+     * A connection currently leased from the pool.
+     */
+    public static class Lease {
+        final private HttpRoute route;
+        final private String threadName;
+        final private long leasedAt;
+        final private StackTraceElement[] stackTrace;
+
+        //------------------------------------------------------------------------------------------
+        private Lease(HttpRoute route, String threadName, long leasedAt, StackTraceElement[] stackTrace) {
+            this.route = route;
+            this.threadName = threadName;
+            this.leasedAt = leasedAt;
+            this.stackTrace = stackTrace;
+        }
+
+        //------------------------------------------------------------------------------------------
+        public HttpRoute getRoute() {
+            return route;
+        }
+
+        //------------------------------------------------------------------------------------------
+        public String getThreadName() {
+            return threadName;
+        }
+
+        //------------------------------------------------------------------------------------------
+        /**
+         * @return the time the connection was leased, in milliseconds since the epoch.
+         */
+        public long getLeasedAt() {
+            return leasedAt;
+        }
+
+        //------------------------------------------------------------------------------------------
+        /**
+         * @return where the connection was leased, or null if stack traces are not captured.
+         */
+        public StackTraceElement[] getStackTrace() {
+            return stackTrace;
+        }
+
+        //------------------------------------------------------------------------------------------
+        @Override
+        public String toString() {
+            StringBuilder result = new StringBuilder();
+            result.append("Connection to ").append(route.getTargetHost())
+                .append(" leased by thread '").append(threadName).append("' ")
+                .append(System.currentTimeMillis() - leasedAt).append(" ms ago");
+            if (stackTrace != null) {
+                for (StackTraceElement element : stackTrace) {
+                    result.append("\n\tat ").append(element);
+                }
+            }
+            return result.toString();
+        }
+    }
+
+    //**********************************************************************************************
+    // INSTANCE
+    //**********************************************************************************************
+    final private Map<ManagedClientConnection, Lease> leases =
+        new ConcurrentHashMap<ManagedClientConnection, Lease>();
+    private volatile boolean captureStackTraces =
+        Boolean.getBoolean("com.urbancode.ud.client.captureLeaseStackTraces");
+
+    //----------------------------------------------------------------------------------------------
+    public LeakDetectingConnectionManager(SchemeRegistry schemeRegistry) {
+        super(schemeRegistry);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @param captureStackTraces Whether to record the stack of the code leasing each connection.
+     * Defaults to the system property com.urbancode.ud.client.captureLeaseStackTraces.
+     */
+    public void setCaptureStackTraces(boolean captureStackTraces) {
+        this.captureStackTraces = captureStackTraces;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    @Override
+    public ClientConnectionRequest requestConnection(final HttpRoute route, Object state) {
+        final ClientConnectionRequest request = super.requestConnection(route, state);
+        return new ClientConnectionRequest() {
+            public ManagedClientConnection getConnection(long timeout, TimeUnit unit)
+            throws InterruptedException, ConnectionPoolTimeoutException {
+                ManagedClientConnection result = request.getConnection(timeout, unit);
+                Thread thread = Thread.currentThread();
+                leases.put(result, new Lease(route, thread.getName(), System.currentTimeMillis(),
+                    captureStackTraces ? thread.getStackTrace() : null));
+                return result;
+            }
+
+            public void abortRequest() {
+                request.abortRequest();
+            }
+        };
+    }
+
+    //----------------------------------------------------------------------------------------------
+    @Override
+    public void releaseConnection(ManagedClientConnection connection, long keepAlive, TimeUnit unit) {
+        leases.remove(connection);
+        super.releaseConnection(connection, keepAlive, unit);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @param minLeaseMillis Only return connections leased at least this long ago.
+     *
+     * @return connections that have not been returned to the pool.
+     */
+    public List<Lease> getLeases(long minLeaseMillis) {
+        List<Lease> result = new ArrayList<Lease>();
+        long cutoff = System.currentTimeMillis() - minLeaseMillis;
+        for (Lease lease : leases.values()) {
+            if (lease.getLeasedAt() <= cutoff) {
+                result.add(lease);
+            }
+        }
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Log a warning for every connection leased at least minLeaseMillis ago.
+     *
+     * @param minLeaseMillis Connections held for less time are assumed to be in use.
+     *
+     * @return the number of connections reported.
+     */
+    public int reportLeaks(long minLeaseMillis) {
+        List<Lease> leaked = getLeases(minLeaseMillis);
+        for (Lease lease : leaked) {
+            log.warn("Possible connection leak: " + lease);
+        }
+        return leaked.size();
+    }
+
+    //----------------------------------------------------------------------------------------------
+    @Override
+    public void shutdown() {
+        leases.clear();
+        super.shutdown();
+    }
+}
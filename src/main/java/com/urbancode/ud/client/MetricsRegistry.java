@@ -0,0 +1,258 @@
+/**
+ * (c) Copyright IBM Corporation 2011, 2017.
+ * (c) Copyright HCL Technologies Ltd. 2018. All Rights Reserved.
+ * This is licensed under the following license.
+ * The Apache Version 2.0 License (https://www.apache.org/licenses/LICENSE-2.0.txt)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+package com.urbancode.ud.client;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Default in-process {@link RequestMetrics}, keeping a latency histogram and counters for every
+ * endpoint. The number of endpoints is bounded; requests to endpoints beyond the limit are
+ * counted under {@link #OTHER_ENDPOINT}.
+ */
+public class MetricsRegistry implements RequestMetrics {
+
+    //**********************************************************************************************
+    // CLASS
+    //**********************************************************************************************
+    final static private Logger log = Logger.getLogger(MetricsRegistry.class);
+
+    public static final int MAX_ENDPOINTS_DEFAULT = 500;
+    public static final String OTHER_ENDPOINT = "(other)";
+
+    /**
+     * Notified when the first request to an endpoint is recorded.
+     */
+    public interface Listener {
+        void endpointAdded(EndpointStats stats);
+    }
+
+    /**
+     * Measurements of the requests sent to one endpoint.
+     */
+    public static class EndpointStats implements EndpointStatsMXBean {
+        final private String endpoint;
+        final private LatencyHistogram latency = new LatencyHistogram();
+        final private LongAdder errorCount = new LongAdder();
+        final private LongAdder retryCount = new LongAdder();
+        final private LongAdder coalescedCount = new LongAdder();
+        final private LongAdder bytesIn = new LongAdder();
+        final private LongAdder bytesOut = new LongAdder();
+        final private ConcurrentMap<Integer, LongAdder> statusCounts =
+            new ConcurrentHashMap<Integer, LongAdder>();
+
+        //------------------------------------------------------------------------------------------
+        private EndpointStats(String endpoint) {
+            this.endpoint = endpoint;
+        }
+
+        //------------------------------------------------------------------------------------------
+        public String getEndpoint() {
+            return endpoint;
+        }
+
+        //------------------------------------------------------------------------------------------
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        //------------------------------------------------------------------------------------------
+        public long getRequestCount() {
+            return latency.getCount();
+        }
+
+        //------------------------------------------------------------------------------------------
+        /**
+         * @return the number of requests that failed with a status code above 299 or without
+         * a response.
+         */
+        public long getErrorCount() {
+            return errorCount.sum();
+        }
+
+        //------------------------------------------------------------------------------------------
+        public long getRetryCount() {
+            return retryCount.sum();
+        }
+
+        //------------------------------------------------------------------------------------------
+        public long getCoalescedCount() {
+            return coalescedCount.sum();
+        }
+
+        //------------------------------------------------------------------------------------------
+        public long getBytesIn() {
+            return bytesIn.sum();
+        }
+
+        //------------------------------------------------------------------------------------------
+        public long getBytesOut() {
+            return bytesOut.sum();
+        }
+
+        //------------------------------------------------------------------------------------------
+        public double getMeanMillis() {
+            return latency.getMeanMillis();
+        }
+
+        //------------------------------------------------------------------------------------------
+        public double getMaxMillis() {
+            return latency.getMaxMillis();
+        }
+
+        //------------------------------------------------------------------------------------------
+        public double getP50Millis() {
+            return latency.getPercentileMillis(0.50);
+        }
+
+        //------------------------------------------------------------------------------------------
+        public double getP95Millis() {
+            return latency.getPercentileMillis(0.95);
+        }
+
+        //------------------------------------------------------------------------------------------
+        public double getP99Millis() {
+            return latency.getPercentileMillis(0.99);
+        }
+
+        //------------------------------------------------------------------------------------------
+        public Map<String, Long> getStatusCounts() {
+            Map<String, Long> result = new TreeMap<String, Long>();
+            for (Map.Entry<Integer, LongAdder> entry : statusCounts.entrySet()) {
+                result.put(String.valueOf(entry.getKey()), entry.getValue().sum());
+            }
+            return result;
+        }
+
+        //------------------------------------------------------------------------------------------
+        @Override
+        public String toString() {
+            return String.format("%s count=%d errors=%d retries=%d coalesced=%d p50=%.1fms p95=%.1fms "
+                + "p99=%.1fms max=%.1fms in=%d out=%d", endpoint, getRequestCount(), getErrorCount(),
+                getRetryCount(), getCoalescedCount(), getP50Millis(), getP95Millis(), getP99Millis(),
+                getMaxMillis(), getBytesIn(), getBytesOut());
+        }
+    }
+
+    //**********************************************************************************************
+    // INSTANCE
+    //**********************************************************************************************
+    final private int maxEndpoints;
+    final private ConcurrentMap<String, EndpointStats> endpoints =
+        new ConcurrentHashMap<String, EndpointStats>();
+    final private CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+    //----------------------------------------------------------------------------------------------
+    public MetricsRegistry() {
+        this(MAX_ENDPOINTS_DEFAULT);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @param maxEndpoints The most endpoints tracked separately.
+     */
+    public MetricsRegistry(int maxEndpoints) {
+        this.maxEndpoints = maxEndpoints;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return the stats of every endpoint, sorted by endpoint.
+     */
+    public Map<String, EndpointStats> getEndpoints() {
+        return Collections.unmodifiableMap(new TreeMap<String, EndpointStats>(endpoints));
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return the stats of an endpoint, e.g. "GET /cli/environment/info", or null if no
+     * request was recorded for it.
+     */
+    public EndpointStats getEndpoint(String endpoint) {
+        return endpoints.get(endpoint);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public void clear() {
+        endpoints.clear();
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public void requestCompleted(String method, String endpoint, int status, long durationNanos,
+        long bytesOut) {
+        EndpointStats stats = getOrCreate(method, endpoint);
+        stats.latency.record(durationNanos);
+        stats.bytesOut.add(bytesOut);
+        if (status < 0 || status > 299) {
+            stats.errorCount.increment();
+        }
+        LongAdder statusCount = stats.statusCounts.get(status);
+        if (statusCount == null) {
+            statusCount = stats.statusCounts.computeIfAbsent(status, key -> new LongAdder());
+        }
+        statusCount.increment();
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public void responseRead(String method, String endpoint, long bytesIn) {
+        getOrCreate(method, endpoint).bytesIn.add(bytesIn);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public void requestRetried(String method, String endpoint, int status) {
+        getOrCreate(method, endpoint).retryCount.increment();
+    }
+
+    //----------------------------------------------------------------------------------------------
+    @Override
+    public void requestCoalesced(String method, String endpoint) {
+        getOrCreate(method, endpoint).coalescedCount.increment();
+    }
+
+    //----------------------------------------------------------------------------------------------
+    private EndpointStats getOrCreate(String method, String endpoint) {
+        String key = method + " " + endpoint;
+        EndpointStats result = endpoints.get(key);
+        if (result == null) {
+            if (endpoints.size() >= maxEndpoints) {
+                key = OTHER_ENDPOINT;
+            }
+            EndpointStats created = new EndpointStats(key);
+            result = endpoints.putIfAbsent(key, created);
+            if (result == null) {
+                result = created;
+                for (Listener listener : listeners) {
+                    try {
+                        listener.endpointAdded(created);
+                    }
+                    catch (RuntimeException e) {
+                        log.warn("Metrics listener failed for " + key, e);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+}
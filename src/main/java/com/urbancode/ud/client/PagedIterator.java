@@ -0,0 +1,271 @@
+/**
+ * (c) Copyright IBM Corporation 2011, 2017.
+ * (c) Copyright HCL Technologies Ltd. 2018. All Rights Reserved.
+ * This is licensed under the following license.
+ * The Apache Version 2.0 License (https://www.apache.org/licenses/LICENSE-2.0.txt)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+package com.urbancode.ud.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.codehaus.jettison.json.JSONException;
+
+/**
+ * Iterates over a listing the server returns in pages, fetching the next page in the background
+ * while the caller works through the current one. At most two pages are held at a time, however
+ * long the listing is.
+ * <p>
+ * The listing ends with an empty page, once the total the server reported has been read, or, if
+ * it reported none, with a page shorter than requested. A server that caps the page size below
+ * the one requested is asked for pages of its size from then on. A response that is not a page,
+ * such as a plain array or more rows than requested, means the server ignored the paging
+ * parameters and returned the whole listing.
+ * <p>
+ * Failures are thrown as {@link UncheckedIOException} from {@link #hasNext()} or {@link #next()}.
+ * Close the iterator, or the stream from {@link #stream()}, when abandoning it early so a pending
+ * prefetch is cancelled.
+ */
+public class PagedIterator<T> implements Iterator<T>, Closeable {
+
+    //**********************************************************************************************
+    // CLASS
+    //**********************************************************************************************
+    public static final int PAGE_SIZE_DEFAULT = 500;
+
+    /**
+     * Fetches one page of a listing.
+     */
+    public interface PageSource<T> {
+        /**
+         * @param pageNumber The page to fetch, starting with 1.
+         * @param rowsPerPage The size of a page.
+         *
+         * @return the page.
+         */
+        Page<T> getPage(int pageNumber, int rowsPerPage)
+        throws IOException, JSONException;
+    }
+
+    /**
+     * One page of a listing, with the total size of the listing if the server reported it.
+     */
+    public static class Page<T> {
+        final private List<T> items;
+        final private long totalRecords;
+        final private boolean paged;
+
+        //------------------------------------------------------------------------------------------
+        /**
+         * @param totalRecords The size of the whole listing, or -1 if unknown.
+         */
+        static public <T> Page<T> of(List<T> items, long totalRecords) {
+            return new Page<T>(items, totalRecords, true);
+        }
+
+        //------------------------------------------------------------------------------------------
+        /**
+         * @return a response that holds the whole listing, as the server ignored the paging.
+         */
+        static public <T> Page<T> unpaged(List<T> items) {
+            return new Page<T>(items, items.size(), false);
+        }
+
+        //------------------------------------------------------------------------------------------
+        private Page(List<T> items, long totalRecords, boolean paged) {
+            this.items = items == null ? Collections.<T>emptyList() : items;
+            this.totalRecords = totalRecords;
+            this.paged = paged;
+        }
+
+        //------------------------------------------------------------------------------------------
+        public List<T> getItems() {
+            return items;
+        }
+
+        //------------------------------------------------------------------------------------------
+        /**
+         * @return the size of the whole listing, or -1 if unknown.
+         */
+        public long getTotalRecords() {
+            return totalRecords;
+        }
+
+        //------------------------------------------------------------------------------------------
+        /**
+         * @return false if the server ignored the paging and returned the whole listing.
+         */
+        public boolean isPaged() {
+            return paged;
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    static private UncheckedIOException unchecked(Throwable e) {
+        UncheckedIOException result;
+        if (e instanceof UncheckedIOException) {
+            result = (UncheckedIOException) e;
+        }
+        else if (e instanceof IOException) {
+            result = new UncheckedIOException((IOException) e);
+        }
+        else if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        }
+        else if (e instanceof Error) {
+            throw (Error) e;
+        }
+        else {
+            result = new UncheckedIOException(new IOException("Failed to read page: " + e.getMessage(), e));
+        }
+        return result;
+    }
+
+    //**********************************************************************************************
+    // INSTANCE
+    //**********************************************************************************************
+    final private PageSource<T> source;
+    final private int pageSize;
+    final private AsyncRequestExecutor executor;
+    private Iterator<T> current = Collections.<T>emptyList().iterator();
+    private CompletableFuture<Page<T>> prefetch;
+    private int rowsPerPage;
+    private int nextPageNumber = 1;
+    private long fetched;
+    private boolean lastPage;
+    private boolean closed;
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @param source Fetches the pages.
+     * @param pageSize The number of items to request per page.
+     * @param executor Runs the prefetch of the next page, or null to fetch every page when it
+     * is needed.
+     */
+    public PagedIterator(PageSource<T> source, int pageSize, AsyncRequestExecutor executor) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("pageSize must be at least 1: " + pageSize);
+        }
+        this.source = source;
+        this.pageSize = pageSize;
+        this.rowsPerPage = pageSize;
+        this.executor = executor;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public boolean hasNext() {
+        while (!current.hasNext() && !lastPage && !closed) {
+            Page<T> page = takePage();
+            lastPage = isLast(page);
+            current = page.getItems().iterator();
+            if (!lastPage && executor != null) {
+                final int pageNumber = nextPageNumber++;
+                final int rows = rowsPerPage;
+                prefetch = executor.submit(() -> source.getPage(pageNumber, rows));
+            }
+        }
+        return current.hasNext();
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return current.next();
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return a sequential stream over the remaining items, which closes this iterator when it is
+     * closed.
+     */
+    public Stream<T> stream() {
+        Spliterator<T> spliterator = Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL);
+        return StreamSupport.stream(spliterator, false).onClose(this::close);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Stop paging and cancel the prefetch of the next page if it has not started yet.
+     */
+    public void close() {
+        closed = true;
+        current = Collections.<T>emptyList().iterator();
+        if (prefetch != null) {
+            prefetch.cancel(false);
+            prefetch = null;
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return whether a page just taken is the last one. Adapts the page size to a server that
+     * returned fewer rows than asked for on the first page.
+     */
+    private boolean isLast(Page<T> page) {
+        int size = page.getItems().size();
+        long total = page.getTotalRecords();
+        fetched += size;
+        if (!page.isPaged() || size == 0 || size > rowsPerPage) {
+            return true;
+        }
+        if (total < 0) {
+            return size < rowsPerPage;
+        }
+        if (fetched == size && size < rowsPerPage && fetched < total) {
+            // the server caps the page size, so ask for pages of its size from now on
+            rowsPerPage = size;
+            nextPageNumber = 2;
+        }
+        // stop once the pages requested cover the total, even if some rows went missing
+        return fetched >= total || (long) (nextPageNumber - 1) * rowsPerPage >= total;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    private Page<T> takePage() {
+        Page<T> result;
+        try {
+            if (prefetch != null) {
+                CompletableFuture<Page<T>> future = prefetch;
+                prefetch = null;
+                result = future.get();
+            }
+            else {
+                result = source.getPage(nextPageNumber++, rowsPerPage);
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            close();
+            throw new UncheckedIOException(new InterruptedIOException("Interrupted waiting for a page"));
+        }
+        catch (ExecutionException e) {
+            close();
+            throw unchecked(e.getCause());
+        }
+        catch (IOException | JSONException | RuntimeException e) {
+            close();
+            throw unchecked(e);
+        }
+        return result == null ? Page.of(Collections.<T>emptyList(), -1) : result;
+    }
+}
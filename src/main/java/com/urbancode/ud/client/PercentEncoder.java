@@ -0,0 +1,141 @@
+/**
+ * (c) Copyright IBM Corporation 2011, 2017.
+ * (c) Copyright HCL Technologies Ltd. 2018. All Rights Reserved.
+ * This is licensed under the following license.
+ * The Apache Version 2.0 License (https://www.apache.org/licenses/LICENSE-2.0.txt)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+package com.urbancode.ud.client;
+
+/**
+ * Percent encoder for URI path segments and query values. Everything except the RFC 3986
+ * unreserved characters (ALPHA, DIGIT, '-', '.', '_', '~') is encoded as the percent-escaped
+ * UTF-8 bytes, which gives the same result as the PercentCodec the clients used before.
+ * <p>
+ * Values that need no encoding, the common case for names and ids, are returned as is without
+ * allocating. Other values are encoded in a single pass with no intermediate byte array.
+ */
+public final class PercentEncoder {
+
+    //**********************************************************************************************
+    // CLASS
+    //**********************************************************************************************
+    static private final boolean[] UNRESERVED = new boolean[128];
+    static private final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    static {
+        for (char c = 'a'; c <= 'z'; c++) {
+            UNRESERVED[c] = true;
+        }
+        for (char c = 'A'; c <= 'Z'; c++) {
+            UNRESERVED[c] = true;
+        }
+        for (char c = '0'; c <= '9'; c++) {
+            UNRESERVED[c] = true;
+        }
+        UNRESERVED['-'] = true;
+        UNRESERVED['.'] = true;
+        UNRESERVED['_'] = true;
+        UNRESERVED['~'] = true;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @param value The text to encode, may be null.
+     *
+     * @return the encoded value, the value itself if nothing needs encoding, or null.
+     */
+    static public String encode(String value) {
+        String result = value;
+        if (value != null) {
+            int first = indexOfEscape(value);
+            if (first < value.length()) {
+                StringBuilder builder = new StringBuilder(value.length() + 16);
+                builder.append(value, 0, first);
+                encode(value, first, builder);
+                result = builder.toString();
+            }
+        }
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Append the encoded value to a builder.
+     */
+    static public void encode(CharSequence value, StringBuilder out) {
+        int first = indexOfEscape(value);
+        out.append(value, 0, first);
+        if (first < value.length()) {
+            encode(value, first, out);
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return whether a character is left as is.
+     */
+    static public boolean isUnreserved(char c) {
+        return c < 128 && UNRESERVED[c];
+    }
+
+    //----------------------------------------------------------------------------------------------
+    static private int indexOfEscape(CharSequence value) {
+        int length = value.length();
+        int result = 0;
+        while (result < length && isUnreserved(value.charAt(result))) {
+            result++;
+        }
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    static private void encode(CharSequence value, int start, StringBuilder out) {
+        int length = value.length();
+        for (int i = start; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 128) {
+                if (UNRESERVED[c]) {
+                    out.append(c);
+                }
+                else {
+                    appendByte(c, out);
+                }
+            }
+            else if (c < 0x800) {
+                appendByte(0xC0 | (c >> 6), out);
+                appendByte(0x80 | (c & 0x3F), out);
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < length
+                && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                appendByte(0xF0 | (codePoint >> 18), out);
+                appendByte(0x80 | ((codePoint >> 12) & 0x3F), out);
+                appendByte(0x80 | ((codePoint >> 6) & 0x3F), out);
+                appendByte(0x80 | (codePoint & 0x3F), out);
+            }
+            else if (Character.isSurrogate(c)) {
+                // unpaired surrogate, replaced like String.getBytes does
+                appendByte('?', out);
+            }
+            else {
+                appendByte(0xE0 | (c >> 12), out);
+                appendByte(0x80 | ((c >> 6) & 0x3F), out);
+                appendByte(0x80 | (c & 0x3F), out);
+            }
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    static private void appendByte(int b, StringBuilder out) {
+        out.append('%').append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]);
+    }
+
+    //**********************************************************************************************
+    // INSTANCE
+    //**********************************************************************************************
+
+    //----------------------------------------------------------------------------------------------
+    private PercentEncoder() {
+    }
+}
@@ -12,6 +12,11 @@ import java.net.URI;
 import java.rmi.RemoteException;
 import java.util.Properties;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.http.HttpResponse;
@@ -53,50 +58,105 @@ public class ProcessClient extends UDRestClient {
     }
 
     //----------------------------------------------------------------------------------------------
+    /**
+     * Construct with the shared transport of a session. See UDClientSession.
+     */
+    public ProcessClient(UDClientSession session) {
+        super(session);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Block until a generic process request finishes. Waits on {@link #watchGenericProcess}, so
+     * the request is checked less often the longer it runs.
+     *
+     * @param timeoutInMinutes How long to wait. With 0 or less the request is checked once,
+     * without waiting.
+     *
+     * @throws RemoteException if the process did not finish within the timeout.
+     */
     public String getGenericProcessResult(String processID, int timeoutInMinutes)
     throws IOException, JSONException, InterruptedException, RemoteException {
-        String result = "";
-        String workflowTraceID = getWorkflowTraceID(processID);
-        String uri = url + "/rest/workflow/workflowTrace/" + encodePath(workflowTraceID);
+        if (timeoutInMinutes <= 0) {
+            ProcessWatcher.Poll<String> poll = newGenericProcessProbe(processID).poll();
+            if (!poll.isDone()) {
+                throw new RemoteException("Timeout waiting for generic process to finish");
+            }
+            return poll.getResult();
+        }
 
-        HttpGet method = new HttpGet(uri);
-        HttpResponse response = invokeMethod(method);
+        CompletableFuture<String> result = watchGenericProcess(processID, timeoutInMinutes, TimeUnit.MINUTES);
+        try {
+            return result.get();
+        }
+        catch (InterruptedException e) {
+            result.cancel(false);
+            throw e;
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof TimeoutException) {
+                throw new RemoteException("Timeout waiting for generic process to finish");
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof JSONException) {
+                throw (JSONException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
 
-        long pollInterval = 1000L;
-        long timeoutInterval = timeoutInMinutes * 60L * 1000L;
-        long start = System.currentTimeMillis();
-        boolean found = false;
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Wait for a generic process request without blocking a thread. The request's workflow trace
+     * is checked by the shared {@link ProcessWatcher} until its root activity is closed or
+     * completed.
+     *
+     * @param processID The id of the process request.
+     * @param timeout How long to wait, or 0 to wait until the process finishes.
+     *
+     * @return a future completing with the result of the process, or exceptionally with a
+     * TimeoutException when it did not finish in time.
+     */
+    public CompletableFuture<String> watchGenericProcess(String processID, long timeout, TimeUnit unit) {
+        return getProcessWatcher().watch(newGenericProcessProbe(processID), timeout, unit);
+    }
 
-        while (!found) {
-            if (System.currentTimeMillis() - start > timeoutInterval) {
-                throw new RemoteException("Timeout waiting for generic process to finish");
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return a check of the workflow trace of a generic process request.
+     */
+    private ProcessWatcher.Probe<String> newGenericProcessProbe(final String processID) {
+        final AtomicReference<String> traceUri = new AtomicReference<String>();
+        return () -> {
+            if (traceUri.get() == null) {
+                traceUri.set(Endpoints.WORKFLOW_TRACE.expand(url, getWorkflowTraceID(processID)));
             }
-            discardBody(response);
-            Thread.sleep(pollInterval);
-            method = new HttpGet(uri);
-            response = invokeMethod(method);
-            String body = getBody(response);
-            JSONObject jsonResult = new JSONObject(body);
-            JSONObject rootActivity = (JSONObject) jsonResult.get("rootActivity");
-            String workflowStatus = (String) rootActivity.get("state");
+            HttpGet method = new HttpGet(traceUri.get());
+            HttpResponse response = invokeMethod(method);
+            JSONObject jsonResult = getBodyAsJSONObject(response);
+            String workflowStatus = jsonResult.getJSONObject("rootActivity").getString("state");
             if (workflowStatus.equalsIgnoreCase("CLOSED") || workflowStatus.equalsIgnoreCase("COMPLETED")) {
-                result = (String) jsonResult.get("result");
-                found = true;
+                return ProcessWatcher.Poll.done((String) jsonResult.get("result"));
             }
-        }
-        return result;
+            return ProcessWatcher.Poll.running(workflowStatus);
+        };
     }
 
     //----------------------------------------------------------------------------------------------
     public JSONArray getProcessRequestProperties(String processId)
     throws IOException, JSONException {
         JSONArray result;
-        String uri = url + "/rest/process/request/" +
-                encodePath(processId) + "/properties";
+        String uri = Endpoints.PROCESS_REQUEST_PROPERTIES.expand(url, processId);
         HttpGet method = new HttpGet(uri);
 
         HttpResponse response = invokeMethod(method);
-        result = new JSONArray(getBody(response));
+        result = getBodyAsJSONArray(response);
         return result;
     }
 
@@ -104,12 +164,11 @@ public class ProcessClient extends UDRestClient {
     public String getWorkflowTraceID(String processID)
     throws IOException, JSONException {
         String result;
-        String uri = url + "/rest/process/request/" + encodePath(processID);
+        String uri = Endpoints.PROCESS_REQUEST.expand(url, processID);
         HttpGet method = new HttpGet(uri);
 
         HttpResponse response = invokeMethod(method);
-        String body = getBody(response);
-        JSONObject jsonResult = new JSONObject(body);
+        JSONObject jsonResult = getBodyAsJSONObject(response);
         result = (String) jsonResult.get("workflowTraceId");
         return result;
     }
@@ -119,6 +178,37 @@ public class ProcessClient extends UDRestClient {
             Properties properties)
     throws IOException, JSONException {
         UUID result;
+        HttpPost method = newGenericProcessRequest(processId, processVersion, resource, properties);
+        HttpResponse response = invokeMethod(method);
+        JSONObject jsonResult = getBodyAsJSONObject(response);
+        result = UUID.fromString((String) jsonResult.get("id"));
+
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Non-blocking variant of {@link #requestGenericProcess(String, String, String, Properties)}.
+     */
+    public CompletableFuture<UUID> requestGenericProcessAsync(String processId, String processVersion,
+        String resource, Properties properties) {
+        HttpPost method;
+        try {
+            method = newGenericProcessRequest(processId, processVersion, resource, properties);
+        }
+        catch (JSONException e) {
+            CompletableFuture<UUID> result = new CompletableFuture<UUID>();
+            result.completeExceptionally(e);
+            return result;
+        }
+        return invokeMethodAsync(method,
+            response -> UUID.fromString(getBodyAsJSONObject(response).getString("id")));
+    }
+
+    //----------------------------------------------------------------------------------------------
+    private HttpPost newGenericProcessRequest(String processId, String processVersion, String resource,
+            Properties properties)
+    throws JSONException {
         JSONObject jsonToSend = new JSONObject();
         jsonToSend.put("processId", processId);
         if (processVersion != null) {
@@ -136,12 +226,7 @@ public class ProcessClient extends UDRestClient {
         String uri = url + "/rest/process/request";
         HttpPost method = new HttpPost(uri);
         method.setEntity(getStringEntity(jsonToSend));
-        HttpResponse response = invokeMethod(method);
-        String body = getBody(response);
-        JSONObject jsonResult = new JSONObject(body);
-        result = UUID.fromString((String) jsonResult.get("id"));
-
-        return result;
+        return method;
     }
 
     //----------------------------------------------------------------------------------------------
@@ -162,6 +247,6 @@ public class ProcessClient extends UDRestClient {
 
         HttpPut method = new HttpPut(uri);
         method.setEntity(getStringEntity(props));
-        invokeMethod(method);
+        invokeMethodAndDiscard(method);
     }
 }
@@ -0,0 +1,303 @@
+/**
+ * (c) Copyright IBM Corporation 2011, 2017.
+ * (c) Copyright HCL Technologies Ltd. 2018. All Rights Reserved.
+ * This is licensed under the following license.
+ * The Apache Version 2.0 License (https://www.apache.org/licenses/LICENSE-2.0.txt)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+package com.urbancode.ud.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.commons.lang.ObjectUtils;
+import org.apache.log4j.Logger;
+import org.codehaus.jettison.json.JSONException;
+
+/**
+ * Waits for many long-running server operations, such as generic process requests, without a
+ * blocked thread per operation. A single scheduler thread decides when each watched operation is
+ * checked next; the checks run on an {@link AsyncRequestExecutor}, so no more requests are sent
+ * at once than its in-flight limit, however many operations are watched.
+ * <p>
+ * An operation is first checked right after it is watched, then less often the longer its state
+ * stays the same: the interval is a quarter of the time since the state last changed, kept
+ * between the minimum and maximum interval. A change of state, e.g. from queued to executing,
+ * returns to the minimum interval.
+ * <p>
+ * Clients created from a {@link UDClientSession} share the session's watcher. The scheduler
+ * thread ends when nothing has been watched for a few seconds and starts again with the next
+ * watch, so a watcher that is never closed does not keep a thread.
+ */
+public class ProcessWatcher implements Closeable {
+
+    //**********************************************************************************************
+    // CLASS
+    //**********************************************************************************************
+    final static private Logger log = Logger.getLogger(ProcessWatcher.class);
+    final static private AtomicInteger watcherCount = new AtomicInteger();
+    final static private int BACKOFF_DIVISOR = 4;
+    final static private long KEEP_ALIVE_SECONDS = 10L;
+
+    public static final long MIN_INTERVAL_MILLIS_DEFAULT = 250L;
+    public static final long MAX_INTERVAL_MILLIS_DEFAULT = 30000L;
+    public static final int MAX_CONSECUTIVE_FAILURES_DEFAULT = 3;
+
+    /**
+     * Checks a watched operation once. Never called concurrently for the same operation.
+     */
+    public interface Probe<T> {
+        Poll<T> poll()
+        throws IOException, JSONException;
+    }
+
+    /**
+     * The outcome of one check: either the final result, or the state of an operation still
+     * running.
+     */
+    public static class Poll<T> {
+        final private boolean done;
+        final private T result;
+        final private String state;
+
+        //------------------------------------------------------------------------------------------
+        static public <T> Poll<T> done(T result) {
+            return new Poll<T>(true, result, null);
+        }
+
+        //------------------------------------------------------------------------------------------
+        /**
+         * @param state The current state, compared with the previous check to adapt the interval.
+         */
+        static public <T> Poll<T> running(String state) {
+            return new Poll<T>(false, null, state);
+        }
+
+        //------------------------------------------------------------------------------------------
+        private Poll(boolean done, T result, String state) {
+            this.done = done;
+            this.result = result;
+            this.state = state;
+        }
+
+        //------------------------------------------------------------------------------------------
+        public boolean isDone() {
+            return done;
+        }
+
+        //------------------------------------------------------------------------------------------
+        public T getResult() {
+            return result;
+        }
+
+        //------------------------------------------------------------------------------------------
+        public String getState() {
+            return state;
+        }
+    }
+
+    /**
+     * A watched operation. Only one check runs at a time, so the mutable fields need no locking.
+     */
+    static private class Watch<T> {
+        final private Probe<T> probe;
+        final private CompletableFuture<T> future = new CompletableFuture<T>();
+        private String state;
+        private long stateChangedAt = System.nanoTime();
+        private int failures;
+
+        //------------------------------------------------------------------------------------------
+        private Watch(Probe<T> probe) {
+            this.probe = probe;
+        }
+    }
+
+    //**********************************************************************************************
+    // INSTANCE
+    //**********************************************************************************************
+    final private AsyncRequestExecutor executor;
+    final private ScheduledThreadPoolExecutor scheduler;
+    final private Set<Watch<?>> watches = ConcurrentHashMap.newKeySet();
+    final private LongAdder pollCount = new LongAdder();
+    private volatile long minIntervalNanos = TimeUnit.MILLISECONDS.toNanos(MIN_INTERVAL_MILLIS_DEFAULT);
+    private volatile long maxIntervalNanos = TimeUnit.MILLISECONDS.toNanos(MAX_INTERVAL_MILLIS_DEFAULT);
+    private volatile int maxConsecutiveFailures = MAX_CONSECUTIVE_FAILURES_DEFAULT;
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @param executor Runs the checks.
+     */
+    public ProcessWatcher(AsyncRequestExecutor executor) {
+        this.executor = executor;
+
+        final String name = "ud-process-watcher-" + watcherCount.incrementAndGet();
+        scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread result = new Thread(runnable, name);
+                result.setDaemon(true);
+                return result;
+            }
+        });
+        scheduler.setRemoveOnCancelPolicy(true);
+        // standalone clients are never closed, so the thread must not outlive the last watch
+        scheduler.setKeepAliveTime(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+        scheduler.allowCoreThreadTimeOut(true);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @param interval The shortest time between two checks of an operation.
+     */
+    public ProcessWatcher setMinInterval(long interval, TimeUnit unit) {
+        minIntervalNanos = unit.toNanos(interval);
+        return this;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @param interval The longest time between two checks of an operation.
+     */
+    public ProcessWatcher setMaxInterval(long interval, TimeUnit unit) {
+        maxIntervalNanos = unit.toNanos(interval);
+        return this;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @param maxConsecutiveFailures The number of checks in a row that may fail with an
+     * IOException before the watch fails. Other exceptions fail the watch at once.
+     */
+    public ProcessWatcher setMaxConsecutiveFailures(int maxConsecutiveFailures) {
+        if (maxConsecutiveFailures < 1) {
+            throw new IllegalArgumentException("maxConsecutiveFailures must be at least 1: "
+                + maxConsecutiveFailures);
+        }
+        this.maxConsecutiveFailures = maxConsecutiveFailures;
+        return this;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return the number of operations being watched.
+     */
+    public int getWatchCount() {
+        return watches.size();
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return the number of checks made so far.
+     */
+    public long getPollCount() {
+        return pollCount.sum();
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Watch an operation until it is done, without a deadline.
+     */
+    public <T> CompletableFuture<T> watch(Probe<T> probe) {
+        return watch(probe, 0L, TimeUnit.MILLISECONDS);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Watch an operation until it is done.
+     *
+     * @param probe Checks the operation.
+     * @param timeout How long to wait, or 0 to wait until the operation is done.
+     *
+     * @return a future completing with the operation's result, or exceptionally with the failure
+     * of its checks, or a {@link TimeoutException} when the deadline passed. Cancelling the
+     * future stops the checks.
+     */
+    public <T> CompletableFuture<T> watch(Probe<T> probe, long timeout, TimeUnit unit) {
+        final Watch<T> watch = new Watch<T>(probe);
+        watches.add(watch);
+        watch.future.whenComplete((result, e) -> watches.remove(watch));
+
+        if (timeout > 0) {
+            final long millis = unit.toMillis(timeout);
+            try {
+                final ScheduledFuture<?> deadline = scheduler.schedule(
+                    () -> watch.future.completeExceptionally(
+                        new TimeoutException("Operation did not finish within " + millis + " ms")),
+                    timeout, unit);
+                watch.future.whenComplete((result, e) -> deadline.cancel(false));
+            }
+            catch (RejectedExecutionException e) {
+                watch.future.completeExceptionally(e);
+            }
+        }
+        schedule(watch, 0L);
+        return watch.future;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Stop checking. Operations still watched fail with an IOException.
+     */
+    public void close() {
+        scheduler.shutdownNow();
+        for (Watch<?> watch : watches) {
+            watch.future.completeExceptionally(new IOException("Process watcher closed"));
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    private <T> void schedule(final Watch<T> watch, long delayNanos) {
+        try {
+            scheduler.schedule(() -> check(watch), delayNanos, TimeUnit.NANOSECONDS);
+        }
+        catch (RejectedExecutionException e) {
+            watch.future.completeExceptionally(e);
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    private <T> void check(final Watch<T> watch) {
+        // cancelled or past its deadline
+        if (!watch.future.isDone()) {
+            pollCount.increment();
+            executor.submit(() -> watch.probe.poll()).whenComplete((poll, e) -> checked(watch, poll, e));
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    private <T> void checked(Watch<T> watch, Poll<T> poll, Throwable e) {
+        long now = System.nanoTime();
+        if (e != null) {
+            watch.failures++;
+            if (!(e instanceof IOException) || watch.failures >= maxConsecutiveFailures) {
+                watch.future.completeExceptionally(e);
+                return;
+            }
+            log.debug("Check " + watch.failures + " of a watched operation failed", e);
+        }
+        else if (poll.isDone()) {
+            watch.future.complete(poll.getResult());
+            return;
+        }
+        else {
+            watch.failures = 0;
+            if (!ObjectUtils.equals(watch.state, poll.getState())) {
+                watch.state = poll.getState();
+                watch.stateChangedAt = now;
+            }
+        }
+
+        long interval = (now - watch.stateChangedAt) / BACKOFF_DIVISOR;
+        schedule(watch, Math.max(minIntervalNanos, Math.min(maxIntervalNanos, interval)));
+    }
+}
@@ -0,0 +1,265 @@
+/**
+ * (c) Copyright IBM Corporation 2011, 2017.
+ * (c) Copyright HCL Technologies Ltd. 2018. All Rights Reserved.
+ * This is licensed under the following license.
+ * The Apache Version 2.0 License (https://www.apache.org/licenses/LICENSE-2.0.txt)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+package com.urbancode.ud.client;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.log4j.Logger;
+import org.codehaus.jettison.json.JSONArray;
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+
+/**
+ * Collects property values of one property sheet, such as the properties of a component, and
+ * writes them in a few batch requests instead of one request per property.
+ * <p>
+ * The allPropValuesFromBatch endpoint used by {@link PropertyClient#updateResourcePropValues}
+ * replaces the complete value set of a sheet at a given version. So the batch reads the sheet's
+ * current values and version, merges its own values in, and sends the whole set in one
+ * versioned request. When another user changed the sheet in between, the server answers 409
+ * and the batch reads the sheet again, a few times at most.
+ * <p>
+ * Secure values are written one at a time with the owner's single-property call, as the batch
+ * format has no way to mark them secure. A sheet that already holds secure values is written
+ * one property at a time as well, since the server only returns them masked and sending the
+ * whole set would overwrite them. The same fallback is used when the sheet cannot be read or the
+ * batch is rejected, so the result tells exactly which properties failed.
+ * <p>
+ * A null value is written as an empty value, in the batch and one at a time alike. Values of the
+ * sheet that are null are sent back as they are.
+ * <p>
+ * Create batches with the owning client, e.g. {@link ComponentClient#newPropertyBatch(String)}.
+ * A batch is not thread-safe.
+ */
+public class PropertyBatch {
+
+    //**********************************************************************************************
+    // CLASS
+    //**********************************************************************************************
+    final static private Logger log = Logger.getLogger(PropertyBatch.class);
+
+    /**
+     * How many times a batch is sent when it conflicts with other writes to the sheet.
+     */
+    final static private int CONFLICT_ATTEMPTS = 3;
+
+    /**
+     * Writes one property with the owner's single-property call.
+     */
+    public interface PropertyWriter {
+        void write(String name, String value, boolean isSecure)
+        throws IOException;
+    }
+
+    /**
+     * The outcome of {@link PropertyBatch#execute()}.
+     */
+    public static class Result {
+        final private List<String> written;
+        final private Map<String, Exception> failures;
+        final private int requestCount;
+
+        //------------------------------------------------------------------------------------------
+        private Result(List<String> written, Map<String, Exception> failures, int requestCount) {
+            this.written = Collections.unmodifiableList(written);
+            this.failures = Collections.unmodifiableMap(failures);
+            this.requestCount = requestCount;
+        }
+
+        //------------------------------------------------------------------------------------------
+        /**
+         * @return the names of the properties written.
+         */
+        public List<String> getWritten() {
+            return written;
+        }
+
+        //------------------------------------------------------------------------------------------
+        /**
+         * @return the properties that could not be written, with the reason.
+         */
+        public Map<String, Exception> getFailures() {
+            return failures;
+        }
+
+        //------------------------------------------------------------------------------------------
+        /**
+         * @return the number of requests sent.
+         */
+        public int getRequestCount() {
+            return requestCount;
+        }
+
+        //------------------------------------------------------------------------------------------
+        /**
+         * @return true if every property was written.
+         */
+        public boolean isSuccessful() {
+            return failures.isEmpty();
+        }
+    }
+
+    //**********************************************************************************************
+    // INSTANCE
+    //**********************************************************************************************
+    final private UDRestClient client;
+    final private String propSheetPath;
+    final private PropertyWriter writer;
+    final private Map<String, String> values = new LinkedHashMap<String, String>();
+    final private Map<String, String> secureValues = new LinkedHashMap<String, String>();
+    private int requestCount;
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @param client Sends the requests.
+     * @param propSheetPath The path of the property sheet, e.g. "components&amp;{id}&amp;propSheet".
+     * It is checked by reading the sheet before any write; a path the server does not know
+     * leaves the batch to the single-property writes.
+     * @param writer Writes a single property, for secure values and rejected chunks.
+     */
+    protected PropertyBatch(UDRestClient client, String propSheetPath, PropertyWriter writer) {
+        this.client = client;
+        this.propSheetPath = propSheetPath;
+        this.writer = writer;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public PropertyBatch set(String name, String value) {
+        return set(name, value, false);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Add a property value, replacing an earlier value of the same property in this batch.
+     * A null value is written as an empty value.
+     */
+    public PropertyBatch set(String name, String value, boolean isSecure) {
+        if (name == null || name.isEmpty()) {
+            throw new IllegalArgumentException("a property name is required");
+        }
+        values.remove(name);
+        secureValues.remove(name);
+        (isSecure ? secureValues : values).put(name, value);
+        return this;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Add all entries of a map as plain values.
+     */
+    public PropertyBatch setAll(Map<String, String> properties) {
+        for (Map.Entry<String, String> entry : properties.entrySet()) {
+            set(entry.getKey(), entry.getValue());
+        }
+        return this;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public int size() {
+        return values.size() + secureValues.size();
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Write the collected values. The batch is emptied, so it can be reused.
+     *
+     * @return which properties were written and which failed.
+     */
+    public Result execute() {
+        List<String> written = new ArrayList<String>();
+        Map<String, Exception> failures = new LinkedHashMap<String, Exception>();
+        requestCount = 0;
+
+        if (!values.isEmpty()) {
+            try {
+                sendBatch();
+                written.addAll(values.keySet());
+            }
+            catch (IOException | JSONException e) {
+                log.debug("Batch of " + values.size() + " properties of " + propSheetPath
+                    + " was not written, writing them one at a time", e);
+                for (Map.Entry<String, String> entry : values.entrySet()) {
+                    writeOne(entry.getKey(), entry.getValue(), false, written, failures);
+                }
+            }
+        }
+        for (Map.Entry<String, String> entry : secureValues.entrySet()) {
+            writeOne(entry.getKey(), entry.getValue(), true, written, failures);
+        }
+
+        values.clear();
+        secureValues.clear();
+        return new Result(written, failures, requestCount);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Merge the values into the current ones of the sheet and write them at the sheet's version,
+     * reading the sheet again after a conflict.
+     */
+    private void sendBatch()
+    throws IOException, JSONException {
+        for (int attempt = 1; ; attempt++) {
+            requestCount++;
+            HttpGet read = new HttpGet(Endpoints.PROP_SHEET.expand(client.url, propSheetPath));
+            JSONObject sheet = client.invokeMethod(read, response -> client.getBodyAsJSONObject(response));
+            JSONObject body = new JSONObject();
+            JSONArray properties = sheet.optJSONArray("properties");
+            for (int i = 0; properties != null && i < properties.length(); i++) {
+                JSONObject property = properties.getJSONObject(i);
+                if (property.optBoolean("secure")) {
+                    throw new IOException("Property sheet " + propSheetPath
+                        + " has secure values, which a batch write would overwrite");
+                }
+                // optString would turn a null value into the text "null"
+                body.put(property.getString("name"),
+                    property.isNull("value") ? JSONObject.NULL : property.getString("value"));
+            }
+            for (Map.Entry<String, String> entry : values.entrySet()) {
+                body.put(entry.getKey(), entry.getValue() == null ? "" : entry.getValue());
+            }
+
+            String version = sheet.getString("version");
+            HttpPut method = new HttpPut(Endpoints.PROP_SHEET_BATCH.expand(client.url, propSheetPath, version));
+            method.addHeader("Version", version);
+            method.setEntity(client.getStringEntity(body));
+            requestCount++;
+            try {
+                client.invokeMethodAndDiscard(method);
+                return;
+            }
+            catch (StatusException e) {
+                if (e.getStatusCode() != HttpStatus.SC_CONFLICT || attempt >= CONFLICT_ATTEMPTS) {
+                    throw e;
+                }
+                log.debug("Property sheet " + propSheetPath + " changed while writing a batch, reading it again");
+            }
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    private void writeOne(String name, String value, boolean isSecure, List<String> written,
+        Map<String, Exception> failures) {
+        requestCount++;
+        try {
+            writer.write(name, value == null ? "" : value, isSecure);
+            written.add(name);
+        }
+        catch (IOException | RuntimeException e) {
+            failures.put(name, e);
+        }
+    }
+}
@@ -49,6 +49,14 @@ public class PropertyClient extends UDRestClient {
         super(url, client);
     }
 
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Construct with the shared transport of a session. See UDClientSession.
+     */
+    public PropertyClient(UDClientSession session) {
+        super(session);
+    }
+
     //----------------------------------------------------------------------------------------------
     public UUID createPropDef(UUID propSheetDefId, String propSheetDefPath, String name,
                               String description, String label, Boolean required, String type, String value)
@@ -84,8 +92,7 @@ public class PropertyClient extends UDRestClient {
 
         HttpGet method = new HttpGet(uri);
         HttpResponse response = invokeMethod(method);
-        String body = getBody(response);
-        result = new JSONArray(body);
+        result = getBodyAsJSONArray(response);
 
         return result;
     }
@@ -99,8 +106,7 @@ public class PropertyClient extends UDRestClient {
         HttpPut method = new HttpPut(uri);
         method.setEntity(getStringEntity(propDefs));
         HttpResponse response = invokeMethod(method);
-        String body = getBody(response);
-        result = new JSONArray(body);
+        result = getBodyAsJSONArray(response);
 
         return result;
     }
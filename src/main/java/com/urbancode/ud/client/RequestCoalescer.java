@@ -0,0 +1,257 @@
+/**
+ * (c) Copyright IBM Corporation 2011, 2017.
+ * (c) Copyright HCL Technologies Ltd. 2018. All Rights Reserved.
+ * This is licensed under the following license.
+ * The Apache Version 2.0 License (https://www.apache.org/licenses/LICENSE-2.0.txt)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+package com.urbancode.ud.client;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import org.codehaus.jettison.json.JSONException;
+
+/**
+ * Lets concurrent identical reads share one request. The first caller for a key sends the
+ * request; callers arriving while it is in flight wait for it and receive the same decoded
+ * result, or the same exception. Nothing is cached once the request completes.
+ * <p>
+ * Coalesced results are shared between threads, so callers must not modify returned JSON.
+ * Only use a coalescer for clients that send the same credentials, such as the clients of one
+ * {@link UDClientSession}.
+ */
+public class RequestCoalescer {
+
+    //**********************************************************************************************
+    // CLASS
+    //**********************************************************************************************
+
+    /**
+     * A read that may be shared.
+     */
+    public interface Call<T> {
+        T call() throws IOException, JSONException;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    static private Object await(CompletableFuture<Object> future)
+    throws IOException, JSONException {
+        try {
+            return future.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for a shared request");
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof JSONException) {
+                throw (JSONException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    //**********************************************************************************************
+    // INSTANCE
+    //**********************************************************************************************
+    final private ConcurrentMap<String, CompletableFuture<Object>> inFlight =
+        new ConcurrentHashMap<String, CompletableFuture<Object>>();
+    final private LongAdder callCount = new LongAdder();
+    final private LongAdder coalescedCount = new LongAdder();
+    private volatile boolean enabled;
+
+    //----------------------------------------------------------------------------------------------
+    public RequestCoalescer() {
+        this(true);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @param enabled Whether to share requests from the start.
+     */
+    public RequestCoalescer(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @param enabled Whether to share requests. When disabled, every call sends its own request.
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @param key Identifies the read, normally the request URI.
+     * @param call Sends the request and decodes the response.
+     *
+     * @return the result of this call, or of the identical call in flight.
+     */
+    public <T> T execute(String key, Call<T> call)
+    throws IOException, JSONException {
+        return execute(key, call, null);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @param key Identifies the read, normally the request URI.
+     * @param call Sends the request and decodes the response.
+     * @param onCoalesced Run when this call joins one in flight instead of sending a request,
+     * or null.
+     *
+     * @return the result of this call, or of the identical call in flight.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T execute(String key, Call<T> call, Runnable onCoalesced)
+    throws IOException, JSONException {
+        T result;
+        if (!enabled) {
+            result = call.call();
+        }
+        else {
+            callCount.increment();
+            CompletableFuture<Object> created = new CompletableFuture<Object>();
+            CompletableFuture<Object> existing = inFlight.putIfAbsent(key, created);
+            if (existing == null) {
+                try {
+                    result = call.call();
+                    created.complete(result);
+                }
+                catch (Throwable e) {
+                    created.completeExceptionally(e);
+                    throw e;
+                }
+                finally {
+                    inFlight.remove(key, created);
+                }
+            }
+            else {
+                coalescedCount.increment();
+                if (onCoalesced != null) {
+                    onCoalesced.run();
+                }
+                result = (T) await(existing);
+            }
+        }
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Non-blocking form of {@link #execute(String, Call, Runnable)}. Calls in flight are shared
+     * between both forms.
+     *
+     * @param key Identifies the read, normally the request URI.
+     * @param call Sends the request and returns a future of the decoded response.
+     * @param onCoalesced Run when this call joins one in flight instead of sending a request,
+     * or null.
+     *
+     * @return a future of the result of this call, or of the identical call in flight.
+     * Cancelling it does not affect the other callers.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> CompletableFuture<T> executeAsync(final String key, Supplier<CompletableFuture<T>> call,
+        Runnable onCoalesced) {
+        CompletableFuture<T> result;
+        if (!enabled) {
+            result = call.get();
+        }
+        else {
+            callCount.increment();
+            final CompletableFuture<Object> created = new CompletableFuture<Object>();
+            CompletableFuture<Object> existing = inFlight.putIfAbsent(key, created);
+            if (existing == null) {
+                existing = created;
+                CompletableFuture<T> sent;
+                try {
+                    sent = call.get();
+                }
+                catch (RuntimeException e) {
+                    inFlight.remove(key, created);
+                    created.completeExceptionally(e);
+                    throw e;
+                }
+                sent.whenComplete((value, error) -> {
+                    inFlight.remove(key, created);
+                    if (error != null) {
+                        created.completeExceptionally(error);
+                    }
+                    else {
+                        created.complete(value);
+                    }
+                });
+            }
+            else {
+                coalescedCount.increment();
+                if (onCoalesced != null) {
+                    onCoalesced.run();
+                }
+            }
+            result = existing.thenApply(value -> (T) value);
+        }
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return the number of calls made while enabled.
+     */
+    public long getCallCount() {
+        return callCount.sum();
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return the number of calls that joined a request in flight instead of sending their own.
+     */
+    public long getCoalescedCount() {
+        return coalescedCount.sum();
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return the fraction of calls that did not send a request, from 0 to 1.
+     */
+    public double getHitRate() {
+        long calls = callCount.sum();
+        return calls == 0 ? 0 : (double) coalescedCount.sum() / calls;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return the number of distinct requests currently in flight.
+     */
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    //----------------------------------------------------------------------------------------------
+    @Override
+    public String toString() {
+        return String.format("RequestCoalescer calls=%d coalesced=%d hitRate=%.3f", getCallCount(),
+            getCoalescedCount(), getHitRate());
+    }
+}
@@ -0,0 +1,58 @@
+/**
+ * (c) Copyright IBM Corporation 2011, 2017.
+ * (c) Copyright HCL Technologies Ltd. 2018. All Rights Reserved.
+ * This is licensed under the following license.
+ * The Apache Version 2.0 License (https://www.apache.org/licenses/LICENSE-2.0.txt)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+package com.urbancode.ud.client;
+
+/**
+ * Receives measurements of the requests sent by {@link UDRestClient}. Endpoints are identified
+ * by the method and a template of the request path, with ids replaced by {id} and the query
+ * string removed, e.g. "GET /rest/deploy/component/{id}/versions". Implementations must be
+ * thread-safe and fast, as they are called on the request path.
+ *
+ * @see MetricsRegistry
+ */
+public interface RequestMetrics {
+
+    /**
+     * Called once for every attempt of a request, including retries.
+     *
+     * @param method The HTTP method.
+     * @param endpoint The endpoint template.
+     * @param status The status code of the response, or -1 if no response was received.
+     * @param durationNanos The time until the response headers arrived.
+     * @param bytesOut The size of the request body, or 0 if it has none or it is not known.
+     */
+    void requestCompleted(String method, String endpoint, int status, long durationNanos, long bytesOut);
+
+    /**
+     * Called when a response body was read to the end or closed.
+     *
+     * @param method The HTTP method.
+     * @param endpoint The endpoint template.
+     * @param bytesIn The number of body bytes read.
+     */
+    void responseRead(String method, String endpoint, long bytesIn);
+
+    /**
+     * Called before a failed request is sent again.
+     *
+     * @param method The HTTP method.
+     * @param endpoint The endpoint template.
+     * @param status The status code that caused the retry, or -1 if no response was received.
+     */
+    void requestRetried(String method, String endpoint, int status);
+
+    /**
+     * Called when a request was not sent because an identical one in flight was shared.
+     * See {@link RequestCoalescer}.
+     *
+     * @param method The HTTP method.
+     * @param endpoint The endpoint template.
+     */
+    default void requestCoalesced(String method, String endpoint) {
+    }
+}
@@ -0,0 +1,175 @@
+/**
+ * (c) Copyright IBM Corporation 2011, 2017.
+ * (c) Copyright HCL Technologies Ltd. 2018. All Rights Reserved.
+ * This is licensed under the following license.
+ * The Apache Version 2.0 License (https://www.apache.org/licenses/LICENSE-2.0.txt)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+package com.urbancode.ud.client;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Bounded cache of name to UUID resolutions, such as an environment name within an application
+ * to the environment's id. Entries expire after a fixed time so renamed or recreated objects are
+ * picked up, and the least recently used entries are evicted when the cache is full.
+ * Instances are thread-safe and are normally shared by all clients of a {@link UDClientSession}.
+ */
+public class ResolverCache {
+
+    //**********************************************************************************************
+    // CLASS
+    //**********************************************************************************************
+    public static final int MAX_ENTRIES_DEFAULT = 10000;
+    public static final long TTL_MILLIS_DEFAULT = 5L * 60L * 1000L;
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @param type The kind of object, e.g. "component" or "environment".
+     * @param scope The name of the enclosing object, e.g. the application of an environment,
+     * or null.
+     * @param name The name being resolved.
+     *
+     * @return the cache key
+     */
+    static String key(String type, String scope, String name) {
+        StringBuilder result = new StringBuilder(type).append('\u0000');
+        if (scope != null) {
+            result.append(scope);
+        }
+        return result.append('\u0000').append(name).toString();
+    }
+
+    //**********************************************************************************************
+    // INSTANCE
+    //**********************************************************************************************
+    final private int maxEntries;
+    final private long ttlMillis;
+    final private LinkedHashMap<String, Resolution> entries;
+    private long hitCount;
+    private long missCount;
+
+    //----------------------------------------------------------------------------------------------
+    public ResolverCache() {
+        this(MAX_ENTRIES_DEFAULT, TTL_MILLIS_DEFAULT);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @param maxEntries The maximum number of resolutions kept.
+     * @param ttlMillis How long a resolution is trusted, in milliseconds.
+     */
+    public ResolverCache(final int maxEntries, long ttlMillis) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be at least 1: " + maxEntries);
+        }
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+        this.entries = new LinkedHashMap<String, Resolution>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Resolution> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public long getTtlMillis() {
+        return ttlMillis;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return the cached id, or null if it is unknown or expired.
+     */
+    public synchronized UUID get(String type, String scope, String name) {
+        UUID result = null;
+        String key = key(type, scope, name);
+        Resolution entry = entries.get(key);
+        if (entry != null) {
+            if (entry.expiresAt > System.currentTimeMillis()) {
+                result = entry.id;
+            }
+            else {
+                entries.remove(key);
+            }
+        }
+        if (result == null) {
+            missCount++;
+        }
+        else {
+            hitCount++;
+        }
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public synchronized void put(String type, String scope, String name, UUID id) {
+        entries.put(key(type, scope, name), new Resolution(id, System.currentTimeMillis() + ttlMillis));
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Forget the resolution of a name, e.g. after the object was deleted.
+     */
+    public synchronized void invalidate(String type, String scope, String name) {
+        entries.remove(key(type, scope, name));
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Forget every resolution pointing to an id.
+     */
+    public synchronized void invalidate(UUID id) {
+        Iterator<Resolution> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().id.equals(id)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    //**********************************************************************************************
+    // NESTED
+    //**********************************************************************************************
+    private static class Resolution {
+        final private UUID id;
+        final private long expiresAt;
+
+        //------------------------------------------------------------------------------------------
+        private Resolution(UUID id, long expiresAt) {
+            this.id = id;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/**
+ * (c) Copyright IBM Corporation 2011, 2017.
+ * (c) Copyright HCL Technologies Ltd. 2018. All Rights Reserved.
+ * This is licensed under the following license.
+ * The Apache Version 2.0 License (https://www.apache.org/licenses/LICENSE-2.0.txt)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+package com.urbancode.ud.client;
+
+import java.util.Set;
+
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+
+/**
+ * A resource of the resource tree, as returned by {@link ResourceClient#getResourceModelById(String)}.
+ */
+public class Resource extends UDObject {
+
+    //**********************************************************************************************
+    // CLASS
+    //**********************************************************************************************
+    static private final Set<String> DECODED_KEYS = keys("path", "type", "active", "hasAgent");
+
+    //----------------------------------------------------------------------------------------------
+    static public Resource fromJSON(JSONObject json)
+    throws JSONException {
+        return new Resource(json);
+    }
+
+    //**********************************************************************************************
+    // INSTANCE
+    //**********************************************************************************************
+    final private String path;
+    final private String type;
+    final private boolean active;
+    final private boolean hasAgent;
+
+    //----------------------------------------------------------------------------------------------
+    protected Resource(JSONObject json)
+    throws JSONException {
+        super(json, DECODED_KEYS);
+        this.path = getString(json, "path");
+        this.type = getInternedString(json, "type");
+        this.active = json.optBoolean("active", true);
+        this.hasAgent = json.optBoolean("hasAgent");
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return the full path, e.g. "/Top/web/agent-1".
+     */
+    public String getPath() {
+        return path;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return the kind of resource, e.g. "agent", "subresource" or "component".
+     */
+    public String getType() {
+        return type;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public boolean isActive() {
+        return active;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return whether the resource is, or is below, an agent.
+     */
+    public boolean hasAgent() {
+        return hasAgent;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    @Override
+    protected void putFields(JSONObject json)
+    throws JSONException {
+        if (path != null) {
+            json.put("path", path);
+        }
+        if (type != null) {
+            json.put("type", type);
+        }
+        json.put("active", active);
+        json.put("hasAgent", hasAgent);
+    }
+}
@@ -11,11 +11,17 @@ import java.io.IOException;
 import java.net.URI;
 import java.rmi.RemoteException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.http.HttpResponse;
@@ -57,6 +63,14 @@ public class ResourceClient extends UDRestClient {
         super(url, client);
     }
 
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Construct with the shared transport of a session. See UDClientSession.
+     */
+    public ResourceClient(UDClientSession session) {
+        super(session);
+    }
+
     //----------------------------------------------------------------------------------------------
     public void addResourceToTeam(String resource, String team, String type)
     throws IOException {
@@ -65,7 +79,7 @@ public class ResourceClient extends UDRestClient {
                 encodePath(type) + "&resource=" +
                 encodePath(resource);
         HttpPut method = new HttpPut(uri);
-        invokeMethod(method);
+        invokeMethodAndDiscard(method);
     }
 
     //----------------------------------------------------------------------------------------------
@@ -98,7 +112,7 @@ public class ResourceClient extends UDRestClient {
         HttpPost method = new HttpPost(uri);
         try {
             method.setEntity(getStringEntity(propertiesObject));
-            invokeMethod(method);
+            invokeMethodAndDiscard(method);
         }
         finally {
             releaseConnection(method);
@@ -126,13 +140,27 @@ public class ResourceClient extends UDRestClient {
         HttpPut method = new HttpPut(uri);
         try {
             method.setEntity(getStringEntity(requestBody));
-            invokeMethod(method);
+            invokeMethodAndDiscard(method);
         }
         finally {
             releaseConnection(method);
         }
     }
 
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Collection variant of {@link #createResourceInventoryEntry}, for recording many entries
+     * with few requests. The target of each entry is a resource id.
+     *
+     * @param deploymentRequest The deployment request the entries are recorded for.
+     *
+     * @return an import to configure and run with the entries.
+     */
+    public InventoryImport newInventoryImport(String deploymentRequest) {
+        return new InventoryImport(this, Endpoints.INVENTORY_ENTRIES.expand(url), "resourceId",
+            deploymentRequest);
+    }
+
     //----------------------------------------------------------------------------------------------
     public String createResource(String name, String agentName, String agentPoolName, String parentName, String role)
     throws IOException, JSONException {
@@ -264,8 +292,7 @@ public class ResourceClient extends UDRestClient {
                      encodePath(resourceId) + "/" + encodePath(componentId);
         HttpGet method = new HttpGet(uri);
         HttpResponse response = invokeMethod(method);
-        String body = getBody(response);
-        result = new JSONObject(body);
+        result = getBodyAsJSONObject(response);
 
         return result;
     }
@@ -273,36 +300,66 @@ public class ResourceClient extends UDRestClient {
     //----------------------------------------------------------------------------------------------
     public JSONObject getResourceByPath(String path)
     throws IOException, JSONException {
-        JSONObject result = null;
-
-        String uri = url + "/rest/resource/resource/" + encodePath(path);
-
-        HttpGet method = new HttpGet(uri);
-        try {
-            HttpResponse response = invokeMethod(method);
-            String body = getBody(response);
-            result = new JSONObject(body);
-        }
-        finally {
-            releaseConnection(method);
-        }
+        String uri = Endpoints.RESOURCE.expand(url, path);
+        return coalesceGet(uri, () -> {
+            HttpGet method = new HttpGet(uri);
+            try {
+                HttpResponse response = invokeMethod(method);
+                return getBodyAsJSONObject(response);
+            }
+            finally {
+                releaseConnection(method);
+            }
+        });
+    }
 
-        return result;
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Non-blocking variant of {@link #getResourceByPath(String)}.
+     */
+    public CompletableFuture<JSONObject> getResourceByPathAsync(String path) {
+        String uri = Endpoints.RESOURCE.expand(url, path);
+        return coalesceGetAsync(uri, () ->
+            invokeMethodAsync(new HttpGet(uri), response -> getBodyAsJSONObject(response)));
     }
 
     //----------------------------------------------------------------------------------------------
     public JSONObject getResourceById(String id)
     throws IOException, JSONException {
-        JSONObject result = null;
+        String uri = Endpoints.RESOURCE.expand(url, id);
+        return coalesceGet(uri, () -> {
+            HttpGet method = new HttpGet(uri);
+            HttpResponse response = invokeMethod(method);
+            return getBodyAsJSONObject(response);
+        });
+    }
 
-        String uri = url + "/rest/resource/resource/" + encodePath(id);
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Non-blocking variant of {@link #getResourceById(String)}.
+     */
+    public CompletableFuture<JSONObject> getResourceByIdAsync(String id) {
+        String uri = Endpoints.RESOURCE.expand(url, id);
+        return coalesceGetAsync(uri, () ->
+            invokeMethodAsync(new HttpGet(uri), response -> getBodyAsJSONObject(response)));
+    }
 
-        HttpGet method = new HttpGet(uri);
-        HttpResponse response = invokeMethod(method);
-        String body = getBody(response);
-        result = new JSONObject(body);
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Typed variant of {@link #getResourceById(String)}, compact enough to hold in large numbers.
+     */
+    public Resource getResourceModelById(String id)
+    throws IOException, JSONException {
+        return Resource.fromJSON(getResourceById(id));
+    }
 
-        return result;
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Typed variant of {@link #getResourceByPath(String)}.
+     */
+    public Resource getResourceModelByPath(String path)
+    throws IOException, JSONException {
+        return Resource.fromJSON(getResourceByPath(path));
     }
 
     //----------------------------------------------------------------------------------------------
@@ -310,12 +367,11 @@ public class ResourceClient extends UDRestClient {
     throws IOException, JSONException {
         JSONArray result = null;
 
-        String uri = url + "/cli/resource/?parent=" + encodePath(id);
+        String uri = Endpoints.RESOURCE_CHILDREN.expand(url, id);
 
         HttpGet method = new HttpGet(uri);
         HttpResponse response = invokeMethod(method);
-        String body = getBody(response);
-        result = new JSONArray(body);
+        result = getBodyAsJSONArray(response);
 
         return result;
     }
@@ -327,9 +383,7 @@ public class ResourceClient extends UDRestClient {
         if ("".equals(resourceName) || "".equals(name)) {
             throw new IOException("a required argument was not supplied");
         }
-        String uri = url + "/cli/resource/getProperty?resource=" +
-                encodePath(resourceName) + "&name=" +
-                encodePath(name);
+        String uri = Endpoints.RESOURCE_PROPERTY.expand(url, resourceName, name);
         HttpGet method = new HttpGet(uri);
         HttpResponse response = invokeMethod(method);
         result = getBody(response);
@@ -346,8 +400,7 @@ public class ResourceClient extends UDRestClient {
         HttpGet method = new HttpGet(uri);
         try {
             HttpResponse response = invokeMethod(method);
-            String body = getBody(response);
-            result = new JSONObject(body);
+            result = getBodyAsJSONObject(response);
         }
         finally {
             releaseConnection(method);
@@ -368,7 +421,7 @@ public class ResourceClient extends UDRestClient {
                 encodePath(roleName);
         HttpGet method = new HttpGet(uri);
         HttpResponse response = invokeMethod(method);
-        result = new JSONArray(getBody(response));
+        result = getBodyAsJSONArray(response);
 
         return result;
     }
@@ -390,8 +443,7 @@ public class ResourceClient extends UDRestClient {
         HttpGet method = new HttpGet(uri);
 
         HttpResponse response = invokeMethod(method);
-        String body = getBody(response);
-        result = new JSONArray(body);
+        result = getBodyAsJSONArray(response);
         return result;
     }
 
@@ -405,8 +457,7 @@ public class ResourceClient extends UDRestClient {
         HttpGet method = new HttpGet(uri);
 
         HttpResponse response = invokeMethod(method);
-        String body = getBody(response);
-        JSONArray resultAsJSON = new JSONArray(body);
+        JSONArray resultAsJSON = getBodyAsJSONArray(response);
         for (int i=0; i<resultAsJSON.length(); i++) {
             String roleName = (String) ((JSONObject) resultAsJSON.get(i)).get("name");
             result.add(roleName);
@@ -419,16 +470,44 @@ public class ResourceClient extends UDRestClient {
     throws IOException, JSONException {
         JSONArray result = null;
 
-        String uri = url + "/rest/resource/resource/tree";
+        String uri = Endpoints.RESOURCE_TREE.expand(url);
 
         HttpGet method = new HttpGet(uri);
         HttpResponse response = invokeMethod(method);
-        String body = getBody(response);
-        result = new JSONArray(body);
+        result = getBodyAsJSONArray(response);
 
         return result;
     }
 
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Read the resource tree into a {@link CompactResourceTree}. The response is parsed as it
+     * streams in, so the JSON of the whole tree is never held in memory.
+     */
+    public CompactResourceTree getCompactResourceTree()
+    throws IOException, JSONException {
+        String uri = Endpoints.RESOURCE_TREE.expand(url);
+
+        HttpGet method = new HttpGet(uri);
+        HttpResponse response = invokeMethod(method);
+        JsonStreamReader reader = getBodyReader(response);
+        try {
+            return CompactResourceTree.read(reader);
+        }
+        finally {
+            reader.close();
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Create an index of the resource tree that answers lookups by path, id, role and agent in
+     * memory. The tree is loaded by the first lookup.
+     */
+    public ResourceTreeIndex newResourceTreeIndex() {
+        return new ResourceTreeIndex(this);
+    }
+
     //----------------------------------------------------------------------------------------------
     public void inactivateResource(String name)
     throws IOException {
@@ -445,7 +524,7 @@ public class ResourceClient extends UDRestClient {
                 encodePath(resource) + "&role=" +
                 encodePath(role);
         HttpDelete method = new HttpDelete(uri);
-        invokeMethod(method);
+        invokeMethodAndDiscard(method);
     }
 
     /**
@@ -482,7 +561,7 @@ public class ResourceClient extends UDRestClient {
                 encodePath(String.valueOf(isSecure));
 
         HttpPut method = new HttpPut(uri);
-        invokeMethod(method);
+        invokeMethodAndDiscard(method);
         if (isSecure) {
             result = name + "=****";
         }
@@ -492,6 +571,20 @@ public class ResourceClient extends UDRestClient {
         return result;
     }
 
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Collect properties of a resource and write them with a few batch requests. See
+     * {@link PropertyBatch}.
+     *
+     * @param resourcePath The path of the resource, e.g. "/Top/web/agent-1".
+     */
+    public PropertyBatch newPropertyBatch(String resourcePath)
+    throws IOException, JSONException {
+        final String id = getResourceByPath(resourcePath).getString("id");
+        return new PropertyBatch(this, "resources&" + id + "&propSheet",
+            (name, value, isSecure) -> setResourceProperty(id, name, value, isSecure));
+    }
+
     //----------------------------------------------------------------------------------------------
     public String setResourceRoleProperty(String roleName, String resourceName, String name, String value)
     throws IOException, JSONException {
@@ -509,42 +602,101 @@ public class ResourceClient extends UDRestClient {
         HttpPut method = new HttpPut(uri);
         method.setEntity(getStringEntity(jsonToSend));
 
-        invokeMethod(method);
+        invokeMethodAndDiscard(method);
         result = name + "=" + value;
         return result;
     }
 
     //----------------------------------------------------------------------------------------------
+    /**
+     * Block for up to 10 minutes until a resource exists. Waits on
+     * {@link #awaitResourceCreation(String, long, TimeUnit)}.
+     *
+     * @throws RemoteException if the resource was not created within 10 minutes.
+     */
     public void waitForResourceCreation(String name)
     throws IOException, InterruptedException, RemoteException {
-        String uri = url + "/cli/resource/info?resource=" + encodePath(name);
-        HttpGet method = new HttpGet(uri);
-        HttpResponse response = invokeMethod(method);
-        int status = response.getStatusLine().getStatusCode();
-
-        long pollInterval = 1000L;
-        long timeoutInterval = 10L * 60L * 1000L;
-        long start = System.currentTimeMillis();
-
-        while (status == HttpStatus.SC_NOT_FOUND) {
-            if (System.currentTimeMillis() - start > timeoutInterval) {
+        CompletableFuture<JSONObject> result = awaitResourceCreation(name, 10L, TimeUnit.MINUTES);
+        try {
+            result.get();
+        }
+        catch (InterruptedException e) {
+            result.cancel(false);
+            throw e;
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof TimeoutException) {
                 throw new RemoteException("Timeout waiting for Resource Creation");
             }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Wait for a resource to be created, without blocking a thread.
+     *
+     * @param name The path or id of the resource.
+     * @param timeout How long to wait, or 0 to wait until the resource exists.
+     *
+     * @return a future completing with the resource, or exceptionally with a TimeoutException
+     * when it was not created in time.
+     */
+    public CompletableFuture<JSONObject> awaitResourceCreation(final String name, long timeout, TimeUnit unit) {
+        final String uri = Endpoints.RESOURCE_INFO.expand(url, name);
+        return getProcessWatcher().watch(() -> {
+            HttpGet method = new HttpGet(uri);
             try {
-                discardBody(response);
-                Thread.sleep(pollInterval);
-                response = invokeMethod(method);
+                return ProcessWatcher.Poll.done(getBodyAsJSONObject(invokeMethod(method)));
             }
             catch (IOException e) {
-                //swallow
+                if (!isNotFound(e)) {
+                    throw e;
+                }
+                return ProcessWatcher.Poll.<JSONObject>running("NOT_FOUND");
+            }
+        }, timeout, unit);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Wait for many resources to be created, such as the agent resources of a scaling event,
+     * without blocking a thread. Every resource is checked by the shared {@link ProcessWatcher},
+     * less often the longer it is missing; the checks of all resources together send no more
+     * requests at once than the async executor allows. A resource that cannot be read for a
+     * reason other than not existing yet fails after a few attempts in a row.
+     *
+     * @param names The paths or ids of the resources.
+     * @param timeout How long to wait for each resource, or 0 to wait until they exist.
+     *
+     * @return a future per resource, in the order given. Cancelling a future stops checking its
+     * resource.
+     */
+    public Map<String, CompletableFuture<JSONObject>> awaitResourceCreation(Collection<String> names,
+        long timeout, TimeUnit unit) {
+        Map<String, CompletableFuture<JSONObject>> result = new LinkedHashMap<String, CompletableFuture<JSONObject>>();
+        for (String name : names) {
+            if (!result.containsKey(name)) {
+                result.put(name, awaitResourceCreation(name, timeout, unit));
             }
         }
-        if (status != HttpStatus.SC_OK) {
-            throw new IOException(String.format("%d %s\n%s",
-                    response.getStatusLine().getStatusCode(),
-                    response.getStatusLine().getReasonPhrase(),
-                    getBody(response)));
-        }
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return whether a failed request was answered 404, which means the resource does not exist
+     * yet.
+     */
+    static boolean isNotFound(IOException e) {
+        return e instanceof StatusException && ((StatusException) e).getStatusCode() == HttpStatus.SC_NOT_FOUND;
     }
 
     //----------------------------------------------------------------------------------------------
@@ -554,8 +706,7 @@ public class ResourceClient extends UDRestClient {
         HttpGet method = new HttpGet(uri);
         HttpResponse response = invokeMethod(method);
 
-        String body = getBody(response);
-        JSONArray result = new JSONArray(body);
+        JSONArray result = getBodyAsJSONArray(response);
 
         return result;
     }
@@ -565,7 +716,7 @@ public class ResourceClient extends UDRestClient {
     throws IOException {
         HttpPost method = new HttpPost(url + "/rest/resource/resource/applyCompareChanges");
         method.setEntity(getStringEntity(changes));
-        invokeMethod(method);
+        invokeMethodAndDiscard(method);
     }
 
     //----------------------------------------------------------------------------------------------
@@ -582,6 +733,6 @@ public class ResourceClient extends UDRestClient {
 
         HttpPut method = new HttpPut(url + "/rest/resource/resource/applyTemplate");
         method.setEntity(getStringEntity(json));
-        invokeMethod(method);
+        invokeMethodAndDiscard(method);
     }
 }
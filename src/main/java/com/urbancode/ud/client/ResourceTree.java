@@ -0,0 +1,85 @@
+/**
+ * (c) Copyright IBM Corporation 2011, 2017.
+ * (c) Copyright HCL Technologies Ltd. 2018. All Rights Reserved.
+ * This is licensed under the following license.
+ * The Apache Version 2.0 License (https://www.apache.org/licenses/LICENSE-2.0.txt)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+package com.urbancode.ud.client;
+
+import java.util.UUID;
+
+/**
+ * Navigation of a loaded resource tree. Resources are addressed by their index in the tree,
+ * 0 to size - 1, in depth-first order, so a walk allocates nothing:
+ * <pre>
+ * for (int child = tree.getFirstChild(node); child != ResourceTree.NONE; child = tree.getNextSibling(child)) {
+ *     ...
+ * }
+ * </pre>
+ * {@link JsonResourceTree} navigates the JSON returned by {@link ResourceClient#getResourceTree()};
+ * {@link CompactResourceTree} holds the same information in columns, for trees too large to keep
+ * as JSON.
+ */
+public interface ResourceTree {
+
+    /**
+     * The index returned when there is no such resource.
+     */
+    int NONE = -1;
+
+    /**
+     * @return the number of resources.
+     */
+    int size();
+
+    /**
+     * @return the first top level resource, or {@link #NONE} if the tree is empty. The other top
+     * level resources are its siblings.
+     */
+    int getFirstRoot();
+
+    /**
+     * @return the parent, or {@link #NONE} for a top level resource.
+     */
+    int getParent(int node);
+
+    /**
+     * @return the first child, or {@link #NONE}.
+     */
+    int getFirstChild(int node);
+
+    /**
+     * @return the next child of the same parent, or {@link #NONE}.
+     */
+    int getNextSibling(int node);
+
+    UUID getId(int node);
+
+    String getName(int node);
+
+    /**
+     * @return the full path, e.g. "/Top/web/agent-1".
+     */
+    String getPath(int node);
+
+    /**
+     * @return the name of the role of a component resource, or null.
+     */
+    String getRole(int node);
+
+    /**
+     * @return the kind of resource, e.g. "agent", or null.
+     */
+    String getType(int node);
+
+    /**
+     * @return whether the resource is, or is below, an agent.
+     */
+    boolean hasAgent(int node);
+
+    /**
+     * @return the resource at a path, or {@link #NONE}.
+     */
+    int find(String path);
+}
@@ -0,0 +1,674 @@
+/**
+ * (c) Copyright IBM Corporation 2011, 2017.
+ * (c) Copyright HCL Technologies Ltd. 2018. All Rights Reserved.
+ * This is licensed under the following license.
+ * The Apache Version 2.0 License (https://www.apache.org/licenses/LICENSE-2.0.txt)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+package com.urbancode.ud.client;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.log4j.Logger;
+import org.codehaus.jettison.json.JSONArray;
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+
+/**
+ * The resource tree held in memory and indexed by path, id, role and agent, so that lookups
+ * are answered without a round trip. The whole tree is loaded by the first lookup; afterwards
+ * parts of it are refreshed by listing the children of a resource.
+ * <p>
+ * Two bounds keep the index from going stale:
+ * <ul>
+ * <li>A resource read longer than the maximum age ago is revalidated, by listing its parent's
+ * children, before it is returned. Role and agent queries reload the whole tree once the last
+ * full load is older than the maximum age.</li>
+ * <li>A path or id not in the index lists the children of its nearest known ancestor, so new
+ * resources are found; each resource is listed for misses at most once per miss interval.</li>
+ * </ul>
+ * Concurrent lookups that find the same part of the index stale send one request between them:
+ * a tree reload or a listing of the same parent is shared with every caller that needs it.
+ * Instances are thread-safe. Create them with {@link ResourceClient#newResourceTreeIndex()}.
+ */
+public class ResourceTreeIndex {
+
+    //**********************************************************************************************
+    // CLASS
+    //**********************************************************************************************
+    final static private Logger log = Logger.getLogger(ResourceTreeIndex.class);
+
+    public static final long MAX_AGE_MILLIS_DEFAULT = 5L * 60L * 1000L;
+    public static final long MISS_INTERVAL_MILLIS_DEFAULT = 10L * 1000L;
+
+    /**
+     * The key under which tree reloads are shared.
+     */
+    final static private String TREE_KEY = "tree";
+
+    /**
+     * An indexed resource. Changed only while holding the write lock.
+     */
+    static private class Node {
+        final private Resource resource;
+        final private String role;
+        final private String agent;
+        final private UUID parentId;
+        final private long loadedAt;
+        private Set<UUID> children = new LinkedHashSet<UUID>();
+        private boolean childrenLoaded;
+        private long childrenLoadedAt;
+
+        //------------------------------------------------------------------------------------------
+        private Node(JSONObject json, UUID parentId, long loadedAt)
+        throws JSONException {
+            this.resource = Resource.fromJSON(json);
+            this.role = getName(json, "role");
+            this.agent = getName(json, "agent");
+            this.parentId = parentId;
+            this.loadedAt = loadedAt;
+        }
+
+        //------------------------------------------------------------------------------------------
+        private String getPath() {
+            return resource.getPath();
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return the name of a nested object, such as the role of a resource, or null.
+     */
+    static private String getName(JSONObject json, String key) {
+        JSONObject value = json.optJSONObject(key);
+        return value == null ? null : value.optString("name", null);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return the path of the parent, or null for a top level path.
+     */
+    static private String getParentPath(String path) {
+        int slash = path.lastIndexOf('/');
+        return slash <= 0 ? null : path.substring(0, slash);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return the key under which listings of a resource's children are shared.
+     */
+    static private String getChildrenKey(UUID parentId) {
+        return "children " + parentId;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    static private void add(Map<String, Set<UUID>> index, String key, UUID id) {
+        if (key != null) {
+            Set<UUID> ids = index.get(key);
+            if (ids == null) {
+                ids = new LinkedHashSet<UUID>();
+                index.put(key, ids);
+            }
+            ids.add(id);
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    static private void remove(Map<String, Set<UUID>> index, String key, UUID id) {
+        if (key != null) {
+            Set<UUID> ids = index.get(key);
+            if (ids != null) {
+                ids.remove(id);
+                if (ids.isEmpty()) {
+                    index.remove(key);
+                }
+            }
+        }
+    }
+
+    //**********************************************************************************************
+    // INSTANCE
+    //**********************************************************************************************
+    final private ResourceClient client;
+    final private ReadWriteLock lock = new ReentrantReadWriteLock();
+    final private Map<UUID, Node> byId = new HashMap<UUID, Node>();
+    final private Map<String, Node> byPath = new HashMap<String, Node>();
+    final private Map<String, Set<UUID>> byRole = new HashMap<String, Set<UUID>>();
+    final private Map<String, Set<UUID>> byAgent = new HashMap<String, Set<UUID>>();
+    final private LongAdder hitCount = new LongAdder();
+    final private LongAdder refreshCount = new LongAdder();
+    final private RequestCoalescer refreshes = new RequestCoalescer();
+    private volatile boolean loaded;
+    private volatile long loadedAt;
+    private volatile long maxAgeNanos = TimeUnit.MILLISECONDS.toNanos(MAX_AGE_MILLIS_DEFAULT);
+    private volatile long missIntervalNanos = TimeUnit.MILLISECONDS.toNanos(MISS_INTERVAL_MILLIS_DEFAULT);
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @param client Loads the tree and lists children.
+     */
+    protected ResourceTreeIndex(ResourceClient client) {
+        this.client = client;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @param maxAge How long a resource is served without revalidating it.
+     */
+    public ResourceTreeIndex setMaxAge(long maxAge, TimeUnit unit) {
+        maxAgeNanos = unit.toNanos(maxAge);
+        return this;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @param interval The shortest time between two listings of the same resource's children
+     * caused by lookups of unknown paths or ids.
+     */
+    public ResourceTreeIndex setMissInterval(long interval, TimeUnit unit) {
+        missIntervalNanos = unit.toNanos(interval);
+        return this;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return the number of lookups answered without a request.
+     */
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return the number of tree loads and child listings sent.
+     */
+    public long getRefreshCount() {
+        return refreshCount.sum();
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return the number of indexed resources.
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return byId.size();
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Load the whole tree, replacing the index.
+     */
+    public void load()
+    throws IOException, JSONException {
+        long now = System.nanoTime();
+        refreshCount.increment();
+        JSONArray tree = client.getResourceTree();
+
+        lock.writeLock().lock();
+        try {
+            byId.clear();
+            byPath.clear();
+            byRole.clear();
+            byAgent.clear();
+            for (int i = 0; i < tree.length(); i++) {
+                addTree(tree.getJSONObject(i), null, now);
+            }
+            loadedAt = now;
+            loaded = true;
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+        log.debug("Indexed " + size() + " resources");
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Refresh a resource and everything below it by listing children level by level, without
+     * reloading the rest of the tree. The listings of one level are sent concurrently.
+     *
+     * @param path The path of the subtree.
+     *
+     * @throws IOException if the resource does not exist.
+     */
+    public void refresh(String path)
+    throws IOException, JSONException {
+        Node node = find(path);
+        if (node == null) {
+            throw new IOException("No resource " + path);
+        }
+        List<UUID> level = Collections.singletonList(node.resource.getId());
+        while (!level.isEmpty()) {
+            List<CompletableFuture<JSONArray>> listings = new ArrayList<CompletableFuture<JSONArray>>();
+            for (final UUID id : level) {
+                listings.add(client.async(() -> client.getResourceChildren(id.toString())));
+            }
+            long now = System.nanoTime();
+            List<UUID> next = new ArrayList<UUID>();
+            for (int i = 0; i < level.size(); i++) {
+                refreshCount.increment();
+                next.addAll(applyChildren(level.get(i), join(listings.get(i)), now));
+            }
+            level = next;
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return the resource at a path, or null if there is none.
+     */
+    public Resource getByPath(String path)
+    throws IOException, JSONException {
+        Node node = find(path);
+        return node == null ? null : node.resource;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return the resource with an id, or null if there is none in the index. An unknown id is
+     * looked up with a single request, so resources created since the last load are found.
+     */
+    public Resource getById(UUID id)
+    throws IOException, JSONException {
+        ensureLoaded();
+        Node node = get(id);
+        if (node != null && !isStale(node)) {
+            hitCount.increment();
+            return node.resource;
+        }
+        if (node == null) {
+            JSONObject json;
+            try {
+                json = client.getResourceById(id.toString());
+            }
+            catch (IOException e) {
+                if (ResourceClient.isNotFound(e)) {
+                    return null;
+                }
+                throw e;
+            }
+            // index it where it belongs
+            Resource result = getByPath(json.getString("path"));
+            return result == null ? Resource.fromJSON(json) : result;
+        }
+        return getByPath(node.getPath());
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return the resources below a path, or an empty list if there is none.
+     */
+    public List<Resource> getChildren(String path)
+    throws IOException, JSONException {
+        List<Resource> result = new ArrayList<Resource>();
+        Node node = find(path);
+        if (node != null) {
+            lock.readLock().lock();
+            try {
+                for (UUID id : node.children) {
+                    result.add(byId.get(id).resource);
+                }
+            }
+            finally {
+                lock.readLock().unlock();
+            }
+        }
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return the resources with a role, e.g. the component resources of one component.
+     */
+    public List<Resource> getByRole(String role)
+    throws IOException, JSONException {
+        return query(byRole, role);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return the resources of an agent.
+     */
+    public List<Resource> getByAgent(String agent)
+    throws IOException, JSONException {
+        return query(byAgent, agent);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    private List<Resource> query(Map<String, Set<UUID>> index, String key)
+    throws IOException, JSONException {
+        ensureLoaded();
+        if (isTreeStale()) {
+            refreshes.execute(TREE_KEY, () -> {
+                // unless a caller that found it stale too has just reloaded it
+                if (isTreeStale()) {
+                    load();
+                }
+                return null;
+            });
+        }
+        else {
+            hitCount.increment();
+        }
+        List<Resource> result = new ArrayList<Resource>();
+        lock.readLock().lock();
+        try {
+            Set<UUID> ids = index.get(key);
+            if (ids != null) {
+                for (UUID id : ids) {
+                    result.add(byId.get(id).resource);
+                }
+            }
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return the node at a path, revalidated if stale and looked for if missing.
+     */
+    private Node find(String path)
+    throws IOException, JSONException {
+        ensureLoaded();
+        Node node = get(path);
+        if (node != null && !isStale(node)) {
+            hitCount.increment();
+            return node;
+        }
+        if (node != null) {
+            revalidate(node);
+            return get(path);
+        }
+
+        // list the children of the nearest known ancestor until the path turns up
+        Node ancestor = getAncestor(path);
+        while (ancestor != null && isMissListingDue(ancestor)) {
+            final Node listed = ancestor;
+            refreshes.execute(getChildrenKey(listed.resource.getId()), () -> {
+                if (isMissListingDue(listed)) {
+                    listChildren(listed.resource.getId());
+                }
+                return null;
+            });
+            node = get(path);
+            if (node != null) {
+                return node;
+            }
+            Node next = getAncestor(path);
+            if (next == null || next.getPath().equals(ancestor.getPath())) {
+                break;
+            }
+            ancestor = next;
+        }
+        return null;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Read a node again from its parent's children, or reload the tree for a top level node.
+     * Callers revalidating nodes of the same parent at the same time share one request.
+     */
+    private void revalidate(final Node node)
+    throws IOException, JSONException {
+        final UUID id = node.resource.getId();
+        // a node is replaced when it is read again, so a replaced node needs no request
+        if (node.parentId == null) {
+            refreshes.execute(TREE_KEY, () -> {
+                if (get(id) == node) {
+                    load();
+                }
+                return null;
+            });
+        }
+        else {
+            refreshes.execute(getChildrenKey(node.parentId), () -> {
+                if (get(id) == node) {
+                    listChildren(node.parentId);
+                }
+                return null;
+            });
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    private void listChildren(UUID parentId)
+    throws IOException, JSONException {
+        refreshCount.increment();
+        applyChildren(parentId, client.getResourceChildren(parentId.toString()), System.nanoTime());
+    }
+
+    //----------------------------------------------------------------------------------------------
+    private boolean isStale(Node node) {
+        return System.nanoTime() - node.loadedAt > maxAgeNanos;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    private boolean isTreeStale() {
+        return System.nanoTime() - loadedAt > maxAgeNanos;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    private synchronized void ensureLoaded()
+    throws IOException, JSONException {
+        if (!loaded) {
+            load();
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    private Node get(UUID id) {
+        lock.readLock().lock();
+        try {
+            return byId.get(id);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    private Node get(String path) {
+        lock.readLock().lock();
+        try {
+            return byPath.get(path);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return the deepest indexed resource above a path, or null.
+     */
+    private Node getAncestor(String path) {
+        lock.readLock().lock();
+        try {
+            for (String parent = getParentPath(path); parent != null; parent = getParentPath(parent)) {
+                Node result = byPath.get(parent);
+                if (result != null) {
+                    return result;
+                }
+            }
+            return null;
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    private boolean isMissListingDue(Node node) {
+        lock.readLock().lock();
+        try {
+            return !node.childrenLoaded || System.nanoTime() - node.childrenLoadedAt > missIntervalNanos;
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Index a resource and the children nested in its JSON. Called with the write lock held.
+     *
+     * @return the id of the resource.
+     */
+    private UUID addTree(JSONObject json, UUID parentId, long now)
+    throws JSONException {
+        Node node = new Node(json, parentId, now);
+        node.childrenLoaded = true;
+        node.childrenLoadedAt = now;
+        index(node);
+        JSONArray children = json.optJSONArray("children");
+        if (children != null) {
+            for (int i = 0; i < children.length(); i++) {
+                node.children.add(addTree(children.getJSONObject(i), node.resource.getId(), now));
+            }
+        }
+        return node.resource.getId();
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Replace the children of a resource with a listing. Children that kept their path keep
+     * their own children; the others are dropped with everything below them.
+     *
+     * @return the ids of the children.
+     */
+    private List<UUID> applyChildren(UUID parentId, JSONArray listing, long now)
+    throws JSONException {
+        List<UUID> result = new ArrayList<UUID>();
+        lock.writeLock().lock();
+        try {
+            Node parent = byId.get(parentId);
+            if (parent == null) {
+                // removed while the listing was on its way
+                return result;
+            }
+            Set<UUID> children = new LinkedHashSet<UUID>();
+            for (int i = 0; i < listing.length(); i++) {
+                Node node = new Node(listing.getJSONObject(i), parentId, now);
+                UUID id = node.resource.getId();
+                Node previous = byId.get(id);
+                if (previous != null) {
+                    Node previousParent = previous.parentId == null ? null : byId.get(previous.parentId);
+                    if (previousParent != null && previousParent != parent) {
+                        // moved here from another parent
+                        previousParent.children.remove(id);
+                    }
+                    if (previous.getPath().equals(node.getPath())) {
+                        node.children = previous.children;
+                        node.childrenLoaded = previous.childrenLoaded;
+                        node.childrenLoadedAt = previous.childrenLoadedAt;
+                    }
+                    else {
+                        for (UUID child : previous.children) {
+                            removeTree(child);
+                        }
+                    }
+                    unindex(previous);
+                }
+                index(node);
+                children.add(id);
+                result.add(id);
+            }
+            for (UUID child : parent.children) {
+                Node node = byId.get(child);
+                if (!children.contains(child) && node != null && parentId.equals(node.parentId)) {
+                    removeTree(child);
+                }
+            }
+            parent.children = children;
+            parent.childrenLoaded = true;
+            parent.childrenLoadedAt = now;
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Drop a resource and everything below it. Called with the write lock held.
+     */
+    private void removeTree(UUID id) {
+        Node node = byId.get(id);
+        if (node != null) {
+            for (UUID child : node.children) {
+                removeTree(child);
+            }
+            unindex(node);
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    private void index(Node node) {
+        UUID id = node.resource.getId();
+        byId.put(id, node);
+        byPath.put(node.getPath(), node);
+        add(byRole, node.role, id);
+        add(byAgent, node.agent, id);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    private void unindex(Node node) {
+        UUID id = node.resource.getId();
+        byId.remove(id);
+        if (byPath.get(node.getPath()) == node) {
+            byPath.remove(node.getPath());
+        }
+        remove(byRole, node.role, id);
+        remove(byAgent, node.agent, id);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    static private JSONArray join(CompletableFuture<JSONArray> future)
+    throws IOException, JSONException {
+        try {
+            return future.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted refreshing resources");
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof JSONException) {
+                throw (JSONException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+}
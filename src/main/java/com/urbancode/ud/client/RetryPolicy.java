@@ -0,0 +1,365 @@
+/**
+ * (c) Copyright IBM Corporation 2011, 2017.
+ * (c) Copyright HCL Technologies Ltd. 2018. All Rights Reserved.
+ * This is licensed under the following license.
+ * The Apache Version 2.0 License (https://www.apache.org/licenses/LICENSE-2.0.txt)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+package com.urbancode.ud.client;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.conn.HttpHostConnectException;
+
+/**
+ * Decides which failed requests {@link UDRestClient} sends again and how long it waits first.
+ * <p>
+ * Responses that mean the server did not process the request (429 Too Many Requests and
+ * 503 Service Unavailable) are retried for any method, waiting as long as the server asks
+ * with Retry-After. Gateway failures (502, 504) are only retried for idempotent methods, since
+ * the request may have reached the server. The CLI endpoints create objects with PUT, so only
+ * GET, HEAD and OPTIONS are considered idempotent unless configured otherwise. 409 Conflict is
+ * only retried when enabled, as most conflicts (e.g. a name already in use) are permanent.
+ * <p>
+ * Other waits use exponential backoff with decorrelated jitter: each wait is a random time
+ * between the base delay and three times the previous wait, capped at the maximum delay.
+ * <p>
+ * Each client also holds a {@link Budget} that limits retries to a fraction of its requests,
+ * so a struggling server does not see a retry storm.
+ */
+public class RetryPolicy {
+
+    //**********************************************************************************************
+    // CLASS
+    //**********************************************************************************************
+    public static final int MAX_RETRIES_DEFAULT = 3;
+    public static final long BASE_DELAY_MILLIS_DEFAULT = 200;
+    public static final long MAX_DELAY_MILLIS_DEFAULT = 10000;
+    public static final long MAX_RETRY_AFTER_MILLIS_DEFAULT = 60000;
+    public static final double BUDGET_RATIO_DEFAULT = 0.2;
+    public static final double BUDGET_MIN_PER_SECOND_DEFAULT = 1.0;
+    public static final int BUDGET_BURST_DEFAULT = 10;
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return a policy that never retries.
+     */
+    static public RetryPolicy noRetries() {
+        RetryPolicy result = new RetryPolicy();
+        result.setMaxRetries(0);
+        return result;
+    }
+
+    /**
+     * Limits the retries of one client to a ratio of its requests, plus a small steady
+     * allowance so an idle client can still retry. Thread-safe.
+     */
+    public static class Budget {
+        final private double ratio;
+        final private double minPerSecond;
+        final private double burst;
+        private double balance;
+        private long refilledAt;
+
+        //------------------------------------------------------------------------------------------
+        /**
+         * @param ratio Retries allowed per request, e.g. 0.2 for one retry every five requests.
+         * @param minPerSecond Retries allowed per second regardless of the request count.
+         * @param burst The most retries that can be saved up.
+         */
+        public Budget(double ratio, double minPerSecond, int burst) {
+            this.ratio = ratio;
+            this.minPerSecond = minPerSecond;
+            this.burst = burst;
+            this.balance = burst;
+            this.refilledAt = System.nanoTime();
+        }
+
+        //------------------------------------------------------------------------------------------
+        /**
+         * Record a first attempt of a request.
+         */
+        public synchronized void recordRequest() {
+            balance = Math.min(burst, balance + ratio);
+        }
+
+        //------------------------------------------------------------------------------------------
+        /**
+         * @return true, and spend the retry, if the budget allows another retry.
+         */
+        public synchronized boolean tryAcquire() {
+            long now = System.nanoTime();
+            balance = Math.min(burst, balance + minPerSecond * (now - refilledAt) / 1e9);
+            refilledAt = now;
+
+            boolean result = false;
+            if (balance >= 1.0) {
+                balance -= 1.0;
+                result = true;
+            }
+            return result;
+        }
+
+        //------------------------------------------------------------------------------------------
+        public synchronized double getBalance() {
+            return balance;
+        }
+    }
+
+    //**********************************************************************************************
+    // INSTANCE
+    //**********************************************************************************************
+    private volatile int maxRetries = MAX_RETRIES_DEFAULT;
+    private volatile long baseDelayMillis = BASE_DELAY_MILLIS_DEFAULT;
+    private volatile long maxDelayMillis = MAX_DELAY_MILLIS_DEFAULT;
+    private volatile long maxRetryAfterMillis = MAX_RETRY_AFTER_MILLIS_DEFAULT;
+    private volatile boolean retryConflicts = false;
+    private volatile Set<String> idempotentMethods = Collections.unmodifiableSet(
+        new HashSet<String>(Arrays.asList("GET", "HEAD", "OPTIONS")));
+    private volatile double budgetRatio = BUDGET_RATIO_DEFAULT;
+    private volatile double budgetMinPerSecond = BUDGET_MIN_PER_SECOND_DEFAULT;
+    private volatile int budgetBurst = BUDGET_BURST_DEFAULT;
+
+    //----------------------------------------------------------------------------------------------
+    public RetryPolicy() {
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Copy another policy, e.g. to adjust it for a single call.
+     */
+    public RetryPolicy(RetryPolicy other) {
+        this.maxRetries = other.maxRetries;
+        this.baseDelayMillis = other.baseDelayMillis;
+        this.maxDelayMillis = other.maxDelayMillis;
+        this.maxRetryAfterMillis = other.maxRetryAfterMillis;
+        this.retryConflicts = other.retryConflicts;
+        this.idempotentMethods = other.idempotentMethods;
+        this.budgetRatio = other.budgetRatio;
+        this.budgetMinPerSecond = other.budgetMinPerSecond;
+        this.budgetBurst = other.budgetBurst;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @param maxRetries How many times a request is sent again, 0 to disable retries.
+     */
+    public void setMaxRetries(int maxRetries) {
+        this.maxRetries = Math.max(0, maxRetries);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public long getBaseDelayMillis() {
+        return baseDelayMillis;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public void setBaseDelayMillis(long baseDelayMillis) {
+        this.baseDelayMillis = Math.max(0, baseDelayMillis);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public long getMaxDelayMillis() {
+        return maxDelayMillis;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public void setMaxDelayMillis(long maxDelayMillis) {
+        this.maxDelayMillis = Math.max(0, maxDelayMillis);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public long getMaxRetryAfterMillis() {
+        return maxRetryAfterMillis;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @param maxRetryAfterMillis The longest Retry-After honored. Longer waits are shortened.
+     */
+    public void setMaxRetryAfterMillis(long maxRetryAfterMillis) {
+        this.maxRetryAfterMillis = Math.max(0, maxRetryAfterMillis);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public boolean isRetryConflicts() {
+        return retryConflicts;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @param retryConflicts Whether to retry 409 Conflict, e.g. for property updates racing
+     * with other updates of the same object.
+     */
+    public void setRetryConflicts(boolean retryConflicts) {
+        this.retryConflicts = retryConflicts;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public Set<String> getIdempotentMethods() {
+        return idempotentMethods;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @param methods The HTTP methods that are safe to send twice, e.g. GET and DELETE.
+     */
+    public void setIdempotentMethods(String... methods) {
+        Set<String> result = new HashSet<String>();
+        for (String method : methods) {
+            result.add(method.toUpperCase(Locale.ENGLISH));
+        }
+        this.idempotentMethods = Collections.unmodifiableSet(result);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Configure the retry budget of clients using this policy. See {@link Budget}.
+     */
+    public void setBudget(double ratio, double minPerSecond, int burst) {
+        this.budgetRatio = ratio;
+        this.budgetMinPerSecond = minPerSecond;
+        this.budgetBurst = burst;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return a new budget configured by this policy, for one client.
+     */
+    public Budget createBudget() {
+        return new Budget(budgetRatio, budgetMinPerSecond, budgetBurst);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public boolean isIdempotent(HttpRequest request) {
+        return idempotentMethods.contains(request.getRequestLine().getMethod());
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @param request The request that failed.
+     * @param status The status code of the response.
+     * @param retryCount How many times the request was already retried.
+     *
+     * @return whether to send the request again.
+     */
+    public boolean isRetryable(HttpRequest request, int status, int retryCount) {
+        boolean result = false;
+        if (retryCount < maxRetries && isRepeatable(request)) {
+            switch (status) {
+                case 429:
+                case 503:
+                    result = true;
+                    break;
+                case 409:
+                    result = retryConflicts;
+                    break;
+                case 502:
+                case 504:
+                    result = isIdempotent(request);
+                    break;
+                default:
+                    break;
+            }
+        }
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Connection failures are only retried when the request cannot have been sent. Failures
+     * during the exchange are left to the HTTP client's own retry handler.
+     *
+     * @param request The request that failed.
+     * @param exception The failure.
+     * @param retryCount How many times the request was already retried.
+     *
+     * @return whether to send the request again.
+     */
+    public boolean isRetryable(HttpRequest request, IOException exception, int retryCount) {
+        return retryCount < maxRetries
+            && isRepeatable(request)
+            && (exception instanceof HttpHostConnectException
+                || exception instanceof ConnectTimeoutException);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @param response The failed response, or null if no response was received.
+     * @param previousDelayMillis The previous wait for this request, or 0 before the first retry.
+     *
+     * @return how long to wait before retrying, in milliseconds.
+     */
+    public long getDelayMillis(HttpResponse response, long previousDelayMillis) {
+        long result = -1;
+        if (response != null) {
+            result = getRetryAfterMillis(response);
+        }
+        if (result < 0) {
+            long upper = Math.max(baseDelayMillis, previousDelayMillis * 3);
+            long delay = baseDelayMillis;
+            if (upper > baseDelayMillis) {
+                delay += ThreadLocalRandom.current().nextLong(upper - baseDelayMillis + 1);
+            }
+            result = Math.min(maxDelayMillis, delay);
+        }
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return the wait requested by the Retry-After header of a 429 or 503 response, capped at
+     * the maximum, or -1 if there is none.
+     */
+    long getRetryAfterMillis(HttpResponse response) {
+        long result = -1;
+        int status = response.getStatusLine().getStatusCode();
+        Header header = response.getFirstHeader("Retry-After");
+        if (header != null && (status == 429 || status == 503)) {
+            String value = header.getValue().trim();
+            try {
+                result = Math.max(0, Long.parseLong(value)) * 1000L;
+            }
+            catch (NumberFormatException e) {
+                Date date = DateUtils.parseDate(value);
+                if (date != null) {
+                    // a date in the past means the server is ready now
+                    result = Math.max(0, date.getTime() - System.currentTimeMillis());
+                }
+            }
+            if (result >= 0) {
+                result = Math.min(maxRetryAfterMillis, result);
+            }
+        }
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    private boolean isRepeatable(HttpRequest request) {
+        boolean result = true;
+        if (request instanceof HttpEntityEnclosingRequest) {
+            HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+            result = entity == null || entity.isRepeatable();
+        }
+        return result;
+    }
+}
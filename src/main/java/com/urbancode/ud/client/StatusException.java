@@ -0,0 +1,49 @@
+/**
+ * (c) Copyright IBM Corporation 2011, 2017.
+ * (c) Copyright HCL Technologies Ltd. 2018. All Rights Reserved.
+ * This is licensed under the following license.
+ * The Apache Version 2.0 License (https://www.apache.org/licenses/LICENSE-2.0.txt)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+package com.urbancode.ud.client;
+
+import java.io.IOException;
+
+/**
+ * Thrown when the server answers a request with an error status. The message is the status
+ * line followed by the response body, as it always was; callers that need to tell a missing
+ * object from a real failure check {@link #getStatusCode()} instead of parsing it.
+ */
+public class StatusException extends IOException {
+
+    //**********************************************************************************************
+    // CLASS
+    //**********************************************************************************************
+    private static final long serialVersionUID = 1L;
+
+    //**********************************************************************************************
+    // INSTANCE
+    //**********************************************************************************************
+    final private int statusCode;
+    final private String reasonPhrase;
+
+    //----------------------------------------------------------------------------------------------
+    public StatusException(int statusCode, String reasonPhrase, String body) {
+        super(String.format("%d %s\n%s", statusCode, reasonPhrase, body));
+        this.statusCode = statusCode;
+        this.reasonPhrase = reasonPhrase;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return the HTTP status of the response, e.g. 404.
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public String getReasonPhrase() {
+        return reasonPhrase;
+    }
+}
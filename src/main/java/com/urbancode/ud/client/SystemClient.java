@@ -47,6 +47,14 @@ public class SystemClient extends UDRestClient {
         super(url, client);
     }
 
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Construct with the shared transport of a session. See UDClientSession.
+     */
+    public SystemClient(UDClientSession session) {
+        super(session);
+    }
+
     //----------------------------------------------------------------------------------------------
     public void addUserToTeam(String user, String team, String type)
     throws IOException {
@@ -55,7 +63,7 @@ public class SystemClient extends UDRestClient {
                 encodePath(team) + "&type=" +
                 encodePath(type);
         HttpPut method = new HttpPut(uri);
-        invokeMethod(method);
+        invokeMethodAndDiscard(method);
     }
 
     //----------------------------------------------------------------------------------------------
@@ -66,7 +74,7 @@ public class SystemClient extends UDRestClient {
                 encodePath(team) + "&type=" +
                 encodePath(type);
         HttpPut method = new HttpPut(uri);
-        invokeMethod(method);
+        invokeMethodAndDiscard(method);
     }
 
     //----------------------------------------------------------------------------------------------
@@ -77,7 +85,7 @@ public class SystemClient extends UDRestClient {
 
         HttpGet method = new HttpGet(uri);
         HttpResponse response = invokeMethod(method);
-        result = new JSONObject(getBody(response));
+        result = getBodyAsJSONObject(response);
 
         return result;
     }
@@ -94,7 +102,7 @@ public class SystemClient extends UDRestClient {
 
         HttpPut method = new HttpPut(uri);
         method.setEntity(getStringEntity(jsonToSend));
-        invokeMethod(method);
+        invokeMethodAndDiscard(method);
     }
 
     //----------------------------------------------------------------------------------------------
@@ -111,7 +119,7 @@ public class SystemClient extends UDRestClient {
                 encodePath(String.valueOf(isSecure));
 
         HttpPut method = new HttpPut(uri);
-        invokeMethod(method);
+        invokeMethodAndDiscard(method);
         if (isSecure) {
             result = name + "=****";
         }
@@ -121,4 +129,14 @@ public class SystemClient extends UDRestClient {
         return result;
     }
 
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Collect system properties and write them with a few batch requests. See
+     * {@link PropertyBatch}.
+     */
+    public PropertyBatch newPropertyBatch() {
+        return new PropertyBatch(this, "system&properties",
+            (name, value, isSecure) -> setSystemProperty(name, value, isSecure));
+    }
+
 }
@@ -0,0 +1,361 @@
+/**
+ * (c) Copyright IBM Corporation 2011, 2017.
+ * (c) Copyright HCL Technologies Ltd. 2018. All Rights Reserved.
+ * This is licensed under the following license.
+ * The Apache Version 2.0 License (https://www.apache.org/licenses/LICENSE-2.0.txt)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+package com.urbancode.ud.client;
+
+import java.io.Closeable;
+import java.net.URI;
+
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.pool.ConnPoolControl;
+import org.apache.http.pool.PoolStats;
+
+import com.urbancode.commons.util.Check;
+
+/**
+ * Holds one pooled, thread-safe HTTP transport for an UrbanCode Deploy server and hands out
+ * clients of every type on top of it. Creating clients from a session avoids repeating the
+ * connection setup, TLS handshake and SSL context build that each standalone client performs.
+ *
+ * <pre>
+ * UDClientSession session = new UDClientSession(url, user, password);
+ * try {
+ *     session.getComponentClient().getComponent("core-lib");
+ *     session.getEnvironmentClient().getEnvironment("QA", "JPetStore");
+ * }
+ * finally {
+ *     session.close();
+ * }
+ * </pre>
+ */
+@SuppressWarnings("deprecation") // Triggered by DefaultHttpClient
+public class UDClientSession implements Closeable {
+
+    //**********************************************************************************************
+    // CLASS
+    //**********************************************************************************************
+    public static final int MAX_CONNECTIONS_DEFAULT = 20;
+
+    //**********************************************************************************************
+    // INSTANCE
+    //**********************************************************************************************
+    final private URI url;
+    final private String clientUser;
+    final private String clientPassword;
+    final private DefaultHttpClient client;
+    final private boolean trustAllCerts;
+    final private AsyncHttpTransport asyncTransport;
+    final private AsyncRequestExecutor asyncExecutor;
+    final private ProcessWatcher processWatcher;
+    final private ResolverCache resolverCache = new ResolverCache();
+    final private RetryPolicy retryPolicy = new RetryPolicy();
+    final private MetricsRegistry metrics = new MetricsRegistry();
+    final private RequestCoalescer requestCoalescer = new RequestCoalescer(false);
+    private volatile ContentCache contentCache;
+
+    private AgentClient agentClient;
+    private ApplicationClient applicationClient;
+    private ComponentClient componentClient;
+    private EnvironmentClient environmentClient;
+    private ProcessClient processClient;
+    private PropertyClient propertyClient;
+    private ResourceClient resourceClient;
+    private SystemClient systemClient;
+    private VersionClient versionClient;
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Create a session, configuring trustAllCerts using agent environment variables.
+     *
+     * @param url The url of the UrbanCode Deploy server.
+     * @param clientUser The username of the UrbanCode Deploy user.
+     * @param clientPassword The password of the UrbanCode Deploy user.
+     */
+    public UDClientSession(URI url, String clientUser, String clientPassword) {
+        this(url, clientUser, clientPassword, UDRestClient.isTrustAllCertsDefault());
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @param url The url of the UrbanCode Deploy server.
+     * @param clientUser The username of the UrbanCode Deploy user.
+     * @param clientPassword The password of the UrbanCode Deploy user.
+     * @param trustAllCerts Boolean to trust or deny all insecure certifications with the http client.
+     */
+    public UDClientSession(URI url, String clientUser, String clientPassword, boolean trustAllCerts) {
+        this(url, clientUser, clientPassword, trustAllCerts, MAX_CONNECTIONS_DEFAULT);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @param url The url of the UrbanCode Deploy server.
+     * @param clientUser The username of the UrbanCode Deploy user.
+     * @param clientPassword The password of the UrbanCode Deploy user.
+     * @param trustAllCerts Boolean to trust or deny all insecure certifications with the http client.
+     * @param maxConnections The maximum number of pooled connections to the server.
+     */
+    public UDClientSession(URI url, String clientUser, String clientPassword, boolean trustAllCerts,
+        int maxConnections) {
+        Check.nonNull(url);
+        if (maxConnections < 1) {
+            throw new IllegalArgumentException("maxConnections must be at least 1: " + maxConnections);
+        }
+        this.url = url;
+        this.clientUser = clientUser;
+        this.clientPassword = clientPassword;
+        this.client = UDRestClient.createPooledHttpClient(clientUser, clientPassword, trustAllCerts,
+            maxConnections);
+        this.trustAllCerts = trustAllCerts;
+        this.asyncTransport = new AsyncHttpTransport(trustAllCerts, maxConnections);
+        this.asyncExecutor = new AsyncRequestExecutor(maxConnections);
+        this.processWatcher = new ProcessWatcher(asyncExecutor);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Create a session around a supplied HTTP client. The client must be configured with a
+     * thread-safe connection manager if the session is used from more than one thread. See
+     * UDRestClient for the remaining configuration requirements and restrictions. Non-blocking
+     * calls trust certificates as configured by the agent environment variable
+     * UC_TLS_VERIFY_CERTS.
+     *
+     * @param url The url of the UrbanCode Deploy server.
+     * @param client The HTTP client shared by all clients of this session.
+     */
+    public UDClientSession(URI url, DefaultHttpClient client) {
+        Check.nonNull(url);
+        Check.nonNull(client);
+        this.url = url;
+        this.client = client;
+        clientUser = null;
+        clientPassword = null;
+        trustAllCerts = UDRestClient.isTrustAllCertsDefault();
+        asyncTransport = new AsyncHttpTransport(trustAllCerts, MAX_CONNECTIONS_DEFAULT);
+        asyncExecutor = new AsyncRequestExecutor(MAX_CONNECTIONS_DEFAULT);
+        processWatcher = new ProcessWatcher(asyncExecutor);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public URI getUrl() {
+        return url;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public DefaultHttpClient getHttpClient() {
+        return client;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public boolean isTrustAllCerts() {
+        return trustAllCerts;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return the non-blocking transport sending the single reads of this session's async
+     * calls. It has its own connections, as many as the blocking pool.
+     */
+    public AsyncHttpTransport getAsyncTransport() {
+        return asyncTransport;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return the worker pool running the other async calls of this session's clients. Its
+     * in-flight limit matches the size of the connection pool.
+     */
+    public AsyncRequestExecutor getAsyncExecutor() {
+        return asyncExecutor;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return the watcher waiting for processes started by this session's clients. Its checks
+     * run on the session's async executor.
+     */
+    public ProcessWatcher getProcessWatcher() {
+        return processWatcher;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return the name to id cache shared by this session's clients.
+     */
+    public ResolverCache getResolverCache() {
+        return resolverCache;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return the cache of large downloads given to new clients, or null.
+     */
+    public ContentCache getContentCache() {
+        return contentCache;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Keep large downloads of this session's clients, such as the agent install package, in a
+     * local cache. Clients created earlier, including ones returned by the getters of this
+     * session, keep the cache they had; set it on them with
+     * {@link UDRestClient#setContentCache}.
+     *
+     * @param contentCache The cache to use, or null to download in full on every call.
+     */
+    public void setContentCache(ContentCache contentCache) {
+        this.contentCache = contentCache;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return the retry policy of clients created from this session. Changes apply to existing
+     * clients too; each client keeps its own retry budget.
+     */
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return the request metrics of all clients created from this session. Use a
+     * {@link JmxMetricsExporter} to publish them.
+     */
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return the request coalescer of all clients created from this session. It is disabled
+     * until {@link RequestCoalescer#setEnabled(boolean)} is called.
+     */
+    public RequestCoalescer getRequestCoalescer() {
+        return requestCoalescer;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    String getClientUser() {
+        return clientUser;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    String getClientPassword() {
+        return clientPassword;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return statistics of the connection pool, or null if the transport is not pooled.
+     */
+    public PoolStats getPoolStats() {
+        PoolStats result = null;
+        ClientConnectionManager manager = client.getConnectionManager();
+        if (manager instanceof ConnPoolControl<?>) {
+            result = ((ConnPoolControl<?>) manager).getTotalStats();
+        }
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return the leak detector of the connection pool, or null if the session was created
+     * around a supplied HTTP client.
+     */
+    public LeakDetectingConnectionManager getLeakDetector() {
+        LeakDetectingConnectionManager result = null;
+        ClientConnectionManager manager = client.getConnectionManager();
+        if (manager instanceof LeakDetectingConnectionManager) {
+            result = (LeakDetectingConnectionManager) manager;
+        }
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public synchronized AgentClient getAgentClient() {
+        if (agentClient == null) {
+            agentClient = new AgentClient(this);
+        }
+        return agentClient;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public synchronized ApplicationClient getApplicationClient() {
+        if (applicationClient == null) {
+            applicationClient = new ApplicationClient(this);
+        }
+        return applicationClient;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public synchronized ComponentClient getComponentClient() {
+        if (componentClient == null) {
+            componentClient = new ComponentClient(this);
+        }
+        return componentClient;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public synchronized EnvironmentClient getEnvironmentClient() {
+        if (environmentClient == null) {
+            environmentClient = new EnvironmentClient(this);
+        }
+        return environmentClient;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public synchronized ProcessClient getProcessClient() {
+        if (processClient == null) {
+            processClient = new ProcessClient(this);
+        }
+        return processClient;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public synchronized PropertyClient getPropertyClient() {
+        if (propertyClient == null) {
+            propertyClient = new PropertyClient(this);
+        }
+        return propertyClient;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public synchronized ResourceClient getResourceClient() {
+        if (resourceClient == null) {
+            resourceClient = new ResourceClient(this);
+        }
+        return resourceClient;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public synchronized SystemClient getSystemClient() {
+        if (systemClient == null) {
+            systemClient = new SystemClient(this);
+        }
+        return systemClient;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public synchronized VersionClient getVersionClient() {
+        if (versionClient == null) {
+            versionClient = new VersionClient(this);
+        }
+        return versionClient;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Close all pooled connections. Clients handed out by this session must not be used after
+     * the session is closed.
+     */
+    public void close() {
+        processWatcher.close();
+        asyncExecutor.close();
+        asyncTransport.close();
+        client.getConnectionManager().shutdown();
+    }
+}
@@ -0,0 +1,178 @@
+/**
+ * (c) Copyright IBM Corporation 2011, 2017.
+ * (c) Copyright HCL Technologies Ltd. 2018. All Rights Reserved.
+ * This is licensed under the following license.
+ * The Apache Version 2.0 License (https://www.apache.org/licenses/LICENSE-2.0.txt)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+package com.urbancode.ud.client;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.UUID;
+
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+
+/**
+ * Base of the immutable result models, such as {@link Component} and {@link Resource}.
+ * <p>
+ * Models are meant to be held in large numbers. The id is kept as two longs and the name is
+ * interned. Only the commonly used fields of the server's JSON are decoded into fields; the
+ * others are kept as compact UTF-8 and decoded on demand by {@link #getDetails()}.
+ */
+public abstract class UDObject {
+
+    //**********************************************************************************************
+    // CLASS
+    //**********************************************************************************************
+    static private final Charset UTF8 = Charset.forName("UTF-8");
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return the string value of a field, or null when it is missing or JSON null.
+     */
+    static protected String getString(JSONObject json, String key) {
+        Object value = json.opt(key);
+        return value == null || JSONObject.NULL.equals(value) ? null : value.toString();
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Use for values drawn from a small set, such as types and colors, or names repeated across
+     * many objects.
+     *
+     * @return the interned string value of a field, or null when it is missing or JSON null.
+     */
+    static protected String getInternedString(JSONObject json, String key) {
+        String result = getString(json, key);
+        return result == null ? null : result.intern();
+    }
+
+    //----------------------------------------------------------------------------------------------
+    static protected Set<String> keys(String... keys) {
+        return new HashSet<String>(Arrays.asList(keys));
+    }
+
+    //**********************************************************************************************
+    // INSTANCE
+    //**********************************************************************************************
+    final private long idMostSigBits;
+    final private long idLeastSigBits;
+    final private String name;
+    final private byte[] details;
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @param json The object as returned by the server. It must have an id.
+     * @param decodedKeys The fields decoded by the subclass, which are left out of the details.
+     * The id and name are always decoded.
+     */
+    protected UDObject(JSONObject json, Set<String> decodedKeys)
+    throws JSONException {
+        UUID id = UDRestClient.parseUUID(getString(json, "id"));
+        if (id == null) {
+            throw new JSONException("Expected a UUID id in " + json);
+        }
+        this.idMostSigBits = id.getMostSignificantBits();
+        this.idLeastSigBits = id.getLeastSignificantBits();
+        this.name = getInternedString(json, "name");
+
+        JSONObject remaining = new JSONObject();
+        Iterator<?> iterator = json.keys();
+        while (iterator.hasNext()) {
+            String key = (String) iterator.next();
+            if (!"id".equals(key) && !"name".equals(key) && !decodedKeys.contains(key)) {
+                remaining.put(key, json.get(key));
+            }
+        }
+        this.details = remaining.length() == 0 ? null : remaining.toString().getBytes(UTF8);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public UUID getId() {
+        return new UUID(idMostSigBits, idLeastSigBits);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public String getName() {
+        return name;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Decodes the fields that are not exposed as properties of the model. The result is a new
+     * object on every call.
+     *
+     * @return the remaining fields of the server's JSON
+     */
+    public JSONObject getDetails() {
+        try {
+            return details == null ? new JSONObject() : new JSONObject(new String(details, UTF8));
+        }
+        catch (JSONException e) {
+            // the details were produced by JSONObject.toString
+            throw new IllegalStateException(e);
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return a field that is not exposed as a property, or null when it is missing.
+     */
+    public String getDetail(String key) {
+        return details == null ? null : getString(getDetails(), key);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return the object in the JSON form returned by the server.
+     */
+    public JSONObject toJSON()
+    throws JSONException {
+        JSONObject result = getDetails();
+        result.put("id", getId().toString());
+        if (name != null) {
+            result.put("name", name);
+        }
+        putFields(result);
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Add the decoded fields of the subclass back to the JSON form.
+     */
+    abstract protected void putFields(JSONObject json)
+    throws JSONException;
+
+    //----------------------------------------------------------------------------------------------
+    @Override
+    public boolean equals(Object object) {
+        boolean result = false;
+        if (object == this) {
+            result = true;
+        }
+        else if (object != null && object.getClass() == getClass()) {
+            UDObject other = (UDObject) object;
+            result = idMostSigBits == other.idMostSigBits && idLeastSigBits == other.idLeastSigBits;
+        }
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    @Override
+    public int hashCode() {
+        long hash = idMostSigBits ^ idLeastSigBits;
+        return (int) (hash >> 32) ^ (int) hash;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[" + name + ", " + getId() + "]";
+    }
+}
@@ -7,23 +7,45 @@
  */
 package com.urbancode.ud.client;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.FilterInputStream;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.io.Reader;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 
 import org.apache.commons.codec.EncoderException;
 import org.apache.commons.lang.StringUtils;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpHost;
 import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.AuthCache;
 import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.entity.HttpEntityWrapper;
 import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.auth.BasicScheme;
+import org.apache.http.impl.client.BasicAuthCache;
 import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
 import org.apache.http.util.EntityUtils;
 import org.apache.log4j.Logger;
 import org.codehaus.jettison.json.JSONArray;
@@ -33,7 +55,6 @@ import org.codehaus.jettison.json.JSONObject;
 import com.urbancode.commons.httpcomponentsutil.HttpClientBuilder;
 import com.urbancode.commons.util.Check;
 import com.urbancode.commons.util.IO;
-import com.urbancode.commons.web.util.PercentCodec;
 
 @SuppressWarnings("deprecation") // Triggered by DefaultHttpClient
 public class UDRestClient {
@@ -58,9 +79,17 @@ public class UDRestClient {
      * @return DefaultHttpClient
      */
     static public DefaultHttpClient createHttpClient(String user, String password) {
+        return createHttpClient(user, password, isTrustAllCertsDefault());
+    }
+
+    /**
+     * @return whether to trust all certificates unless told otherwise: true unless the agent
+     * environment variable UC_TLS_VERIFY_CERTS is true.
+     */
+    static boolean isTrustAllCertsDefault() {
         String verifyServerIdentityString = System.getenv().get("UC_TLS_VERIFY_CERTS");
         Boolean verifiedCerts = Boolean.valueOf(verifyServerIdentityString);
-        return createHttpClient(user, password, !verifiedCerts);
+        return !verifiedCerts;
     }
 
     /**
@@ -99,6 +128,185 @@ public class UDRestClient {
         return builder.buildClient();
     }
 
+    /**
+     * Create an HTTP client configured like {@link #createHttpClient(String,String,boolean)} but
+     * backed by a thread-safe pooled connection manager, so a single instance can be shared by
+     * many clients and threads and keep-alive connections (and their TLS sessions) are reused.
+     *
+     * @param user The username to associate with the http client connection.
+     * @param password The password of the username used to associate with the http client connection.
+     * @param trustAllCerts Boolean to trust or deny all insecure certifications with the http client.
+     * @param maxConnections The maximum number of connections kept open to the server.
+     *
+     * @return DefaultHttpClient
+     */
+    static public DefaultHttpClient createPooledHttpClient(String user, String password,
+        boolean trustAllCerts, int maxConnections) {
+        DefaultHttpClient template = createHttpClient(user, password, trustAllCerts);
+        ClientConnectionManager templateManager = template.getConnectionManager();
+
+        // Reuse the scheme registry so the SSL socket factory (and its context) is built only once
+        PoolingClientConnectionManager manager =
+            new LeakDetectingConnectionManager(templateManager.getSchemeRegistry());
+        manager.setMaxTotal(maxConnections);
+        manager.setDefaultMaxPerRoute(maxConnections);
+
+        DefaultHttpClient result = new DefaultHttpClient(manager, template.getParams());
+        result.setCredentialsProvider(template.getCredentialsProvider());
+        result.setRoutePlanner(template.getRoutePlanner());
+        result.setAuthSchemes(template.getAuthSchemes());
+        result.setCookieStore(template.getCookieStore());
+        result.setTargetAuthenticationStrategy(template.getTargetAuthenticationStrategy());
+        result.setProxyAuthenticationStrategy(template.getProxyAuthenticationStrategy());
+        result.setHttpRequestRetryHandler(template.getHttpRequestRetryHandler());
+        result.setRedirectStrategy(template.getRedirectStrategy());
+        result.setKeepAliveStrategy(template.getConnectionKeepAliveStrategy());
+        result.setReuseStrategy(template.getConnectionReuseStrategy());
+        result.setUserTokenHandler(template.getUserTokenHandler());
+
+        // Carry over interceptors such as preemptive authentication
+        result.clearRequestInterceptors();
+        for (int i = 0; i < template.getRequestInterceptorCount(); i++) {
+            result.addRequestInterceptor(template.getRequestInterceptor(i));
+        }
+        result.clearResponseInterceptors();
+        for (int i = 0; i < template.getResponseInterceptorCount(); i++) {
+            result.addResponseInterceptor(template.getResponseInterceptor(i));
+        }
+
+        templateManager.shutdown();
+        return result;
+    }
+
+    /**
+     * Reads the result of a managed call from its response. See
+     * {@link UDRestClient#invokeMethod(HttpRequestBase, ResponseReader)}.
+     */
+    protected interface ResponseReader<T> {
+        T read(HttpResponse response) throws IOException, JSONException;
+    }
+
+    /**
+     * Looks up the id of a named object on the server. See
+     * {@link UDRestClient#resolveUUID(String, String, String, UUIDLookup)}.
+     */
+    protected interface UUIDLookup {
+        UUID lookup() throws IOException, JSONException;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @param value A name or id supplied by the caller.
+     *
+     * @return the value as a UUID, or null if it is not one.
+     */
+    static protected UUID parseUUID(String value) {
+        UUID result = null;
+        // cheap shape check first, so names do not pay for an exception
+        if (value != null && value.length() == 36 && value.charAt(8) == '-' && value.charAt(13) == '-') {
+            try {
+                result = UUID.fromString(value);
+            }
+            catch (IllegalArgumentException e) {
+                // not an id
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Counts the bytes read from a response body and reports them when the body is read to
+     * the end or closed.
+     */
+    static private class MeteredEntity extends HttpEntityWrapper {
+        final private RequestMetrics metrics;
+        final private String method;
+        final private String endpoint;
+
+        //------------------------------------------------------------------------------------------
+        private MeteredEntity(HttpEntity entity, RequestMetrics metrics, String method, String endpoint) {
+            super(entity);
+            this.metrics = metrics;
+            this.method = method;
+            this.endpoint = endpoint;
+        }
+
+        //------------------------------------------------------------------------------------------
+        @Override
+        public InputStream getContent()
+        throws IOException {
+            return new FilterInputStream(super.getContent()) {
+                private long count;
+                private boolean reported;
+
+                @Override
+                public int read()
+                throws IOException {
+                    int result = super.read();
+                    if (result < 0) {
+                        report();
+                    }
+                    else {
+                        count++;
+                    }
+                    return result;
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int length)
+                throws IOException {
+                    int result = super.read(buffer, offset, length);
+                    if (result < 0) {
+                        report();
+                    }
+                    else {
+                        count += result;
+                    }
+                    return result;
+                }
+
+                @Override
+                public long skip(long n)
+                throws IOException {
+                    long result = super.skip(n);
+                    count += result;
+                    return result;
+                }
+
+                @Override
+                public void close()
+                throws IOException {
+                    report();
+                    super.close();
+                }
+
+                private void report() {
+                    if (!reported) {
+                        reported = true;
+                        metrics.responseRead(method, endpoint, count);
+                    }
+                }
+            };
+        }
+
+        //------------------------------------------------------------------------------------------
+        @Override
+        public void writeTo(OutputStream out)
+        throws IOException {
+            InputStream in = getContent();
+            try {
+                byte[] buffer = new byte[8192];
+                int count;
+                while ((count = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, count);
+                }
+            }
+            finally {
+                in.close();
+            }
+        }
+    }
+
     //**********************************************************************************************
     // INSTANCE
     //**********************************************************************************************
@@ -106,6 +314,16 @@ public class UDRestClient {
     final protected String clientUser;
     final protected String clientPassword;
     final protected DefaultHttpClient client;
+    final private boolean trustAllCerts;
+    private AsyncHttpTransport asyncTransport;
+    private AsyncRequestExecutor asyncExecutor;
+    private ProcessWatcher processWatcher;
+    private volatile ResolverCache resolverCache;
+    private volatile ContentCache contentCache;
+    private volatile RetryPolicy retryPolicy = new RetryPolicy();
+    private volatile RetryPolicy.Budget retryBudget = retryPolicy.createBudget();
+    private volatile RequestMetrics metrics;
+    private volatile RequestCoalescer requestCoalescer;
 
     //----------------------------------------------------------------------------------------------
     /**
@@ -118,7 +336,8 @@ public class UDRestClient {
         this.url = url;
         this.clientUser = clientUser;
         this.clientPassword = clientPassword;
-        client = createHttpClient(clientUser, clientPassword);
+        this.trustAllCerts = isTrustAllCertsDefault();
+        client = createHttpClient(clientUser, clientPassword, trustAllCerts);
     }
 
     //----------------------------------------------------------------------------------------------
@@ -133,6 +352,7 @@ public class UDRestClient {
         this.url = url;
         this.clientUser = clientUser;
         this.clientPassword = clientPassword;
+        this.trustAllCerts = trustAllCerts;
         client = createHttpClient(clientUser, clientPassword, trustAllCerts);
     }
 
@@ -141,7 +361,8 @@ public class UDRestClient {
      * Create a client with a supplied HTTP client. The client must be
      * configured with any proxy settings, credentials, etc required for correct
      * operation. Subclasses will not be able to access the username or
-     * password if the instance is constructed with this method.
+     * password if the instance is constructed with this method. Non-blocking calls trust
+     * certificates as configured by the agent environment variable UC_TLS_VERIFY_CERTS.
      *
      * @param url The url of the UrbanCode Deploy server.
      * @param client The HTTP client builder to make a REST call against the UrbanCode Deploy server.
@@ -154,6 +375,60 @@ public class UDRestClient {
         this.client = client;
         clientUser = null;
         clientPassword = null;
+        trustAllCerts = isTrustAllCertsDefault();
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Create a client that shares the pooled HTTP client of a session. Any number of clients
+     * of any type may be created from the same session without repeating connection setup.
+     *
+     * @param session The session holding the shared transport for the UrbanCode Deploy server.
+     *
+     */
+    public UDRestClient(UDClientSession session) {
+        Check.nonNull(session);
+        this.url = session.getUrl();
+        this.client = session.getHttpClient();
+        this.clientUser = session.getClientUser();
+        this.clientPassword = session.getClientPassword();
+        this.trustAllCerts = session.isTrustAllCerts();
+        this.asyncTransport = session.getAsyncTransport();
+        this.asyncExecutor = session.getAsyncExecutor();
+        this.processWatcher = session.getProcessWatcher();
+        this.resolverCache = session.getResolverCache();
+        this.contentCache = session.getContentCache();
+        this.retryPolicy = session.getRetryPolicy();
+        this.retryBudget = retryPolicy.createBudget();
+        this.metrics = session.getMetrics();
+        this.requestCoalescer = session.getRequestCoalescer();
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Create a client of another type for the same server, e.g. to reuse the calls of another
+     * client class. It shares the HTTP client, async executors, caches, retry policy and budget,
+     * metrics and coalescer of the given client.
+     *
+     * @param other The client whose transport and settings are shared.
+     *
+     */
+    protected UDRestClient(UDRestClient other) {
+        Check.nonNull(other);
+        this.url = other.url;
+        this.client = other.client;
+        this.clientUser = other.clientUser;
+        this.clientPassword = other.clientPassword;
+        this.trustAllCerts = other.trustAllCerts;
+        this.asyncTransport = other.getAsyncTransport();
+        this.asyncExecutor = other.getAsyncExecutor();
+        this.processWatcher = other.getProcessWatcher();
+        this.resolverCache = other.resolverCache;
+        this.contentCache = other.contentCache;
+        this.retryPolicy = other.retryPolicy;
+        this.retryBudget = other.retryBudget;
+        this.metrics = other.metrics;
+        this.requestCoalescer = other.requestCoalescer;
     }
 
     //----------------------------------------------------------------------------------------------
@@ -243,6 +518,168 @@ public class UDRestClient {
         return result;
     }
 
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Open a streaming JSON reader on the response entity. Closing the reader releases the
+     * connection.
+     *
+     * @param response The response created by an HTTPClient call.
+     *
+     * @return JsonStreamReader, or null if the response has no content.
+     */
+    protected JsonStreamReader getBodyReader(HttpResponse response)
+    throws IOException {
+        JsonStreamReader result = null;
+
+        if (response.getStatusLine().getStatusCode() != 204 && response.getEntity() != null) {
+            InputStream body = response.getEntity().getContent();
+            if (body != null) {
+                result = new JsonStreamReader(IO.reader(body, IO.utf8()));
+            }
+        }
+
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Decode the response straight from the entity stream, without first copying the whole
+     * body into a String.
+     *
+     * @param response The response created by an HTTPClient call.
+     *
+     * @return JSONObject, or null if the response has no content.
+     *
+     * @throws JSONException
+     */
+    protected JSONObject getBodyAsJSONObject(HttpResponse response)
+    throws IOException, JSONException {
+        JSONObject result = null;
+
+        JsonStreamReader reader = getBodyReader(response);
+        if (reader != null) {
+            try {
+                result = reader.readObject();
+            }
+            finally {
+                reader.close();
+            }
+        }
+
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Decode the response straight from the entity stream, without first copying the whole
+     * body into a String.
+     *
+     * @param response The response created by an HTTPClient call.
+     *
+     * @return JSONArray, or null if the response has no content.
+     *
+     * @throws JSONException
+     */
+    protected JSONArray getBodyAsJSONArray(HttpResponse response)
+    throws IOException, JSONException {
+        JSONArray result = null;
+
+        JsonStreamReader reader = getBodyReader(response);
+        if (reader != null) {
+            try {
+                result = reader.readArray();
+            }
+            finally {
+                reader.close();
+            }
+        }
+
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Decode one page of a paged listing. A paged response is an object with the page in its
+     * "records" field and the size of the listing in "totalRecords". A plain array is the whole
+     * listing, returned by a server that ignored the paging parameters.
+     *
+     * @param response The response created by an HTTPClient call.
+     *
+     * @return the page, empty if the response has no content.
+     *
+     * @throws JSONException
+     */
+    protected PagedIterator.Page<JSONObject> getBodyAsPage(HttpResponse response)
+    throws IOException, JSONException {
+        List<JSONObject> items = new ArrayList<JSONObject>();
+        PagedIterator.Page<JSONObject> result = PagedIterator.Page.of(items, -1);
+
+        JsonStreamReader reader = getBodyReader(response);
+        if (reader != null) {
+            try {
+                if (reader.peek() == JsonStreamReader.Token.BEGIN_OBJECT) {
+                    long totalRecords = -1;
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String name = reader.nextName();
+                        if ("records".equals(name)) {
+                            readPage(reader, items);
+                        }
+                        else if ("totalRecords".equals(name)) {
+                            Object value = reader.readValue();
+                            if (value instanceof Number) {
+                                totalRecords = ((Number) value).longValue();
+                            }
+                        }
+                        else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                    result = PagedIterator.Page.of(items, totalRecords);
+                }
+                else {
+                    readPage(reader, items);
+                    result = PagedIterator.Page.unpaged(items);
+                }
+            }
+            finally {
+                reader.close();
+            }
+        }
+
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @param response A response whose body is an array of properties, each with a name and
+     * a value.
+     *
+     * @return the values by name
+     */
+    protected Map<String, String> getBodyAsProperties(HttpResponse response)
+    throws IOException, JSONException {
+        Map<String, String> result = new HashMap<String, String>();
+        JSONArray propsJSON = getBodyAsJSONArray(response);
+
+        for (int i=0; i<propsJSON.length(); i++) {
+            JSONObject propObject = (JSONObject) propsJSON.get(i);
+            result.put((String)propObject.get("name"), (String)propObject.get("value"));
+        }
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    private void readPage(JsonStreamReader reader, List<JSONObject> page)
+    throws IOException, JSONException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            page.add(reader.readObject());
+        }
+        reader.endArray();
+    }
+
     //----------------------------------------------------------------------------------------------
     /**
      * @param response The response created by an HTTPClient call.
@@ -255,27 +692,117 @@ public class UDRestClient {
 
     //----------------------------------------------------------------------------------------------
     /**
+     * Send a request, retrying failures the retry policy allows.
+     *
      * @param request The response created by an HTTPClient call.
      *
      * @return HttpResponse
+     *
+     * @see #setRetryPolicy(RetryPolicy)
      */
     protected HttpResponse invokeMethod(HttpRequestBase request)
     throws IOException, ClientProtocolException {
-        HttpResponse response = client.execute(request);
-        int status = response.getStatusLine().getStatusCode();
-        if (status > 299) {
-            throw new IOException(String.format("%d %s\n%s",
-                    response.getStatusLine().getStatusCode(),
-                    response.getStatusLine().getReasonPhrase(),
-                    getBody(response)));
+        return invokeMethod(request, retryPolicy, true, null);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Invoke a method and read its result, always consuming the rest of the entity and
+     * releasing the connection afterwards, even if the reader fails.
+     *
+     * @param request The request to send.
+     * @param reader Reads the result from the successful response.
+     *
+     * @return the value returned by the reader
+     *
+     * @throws JSONException
+     */
+    protected <T> T invokeMethod(HttpRequestBase request, ResponseReader<T> reader)
+    throws IOException, JSONException {
+        try {
+            HttpResponse response = invokeMethod(request);
+            try {
+                return reader.read(response);
+            }
+            finally {
+                discardBody(response);
+            }
+        }
+        finally {
+            releaseConnection(request);
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Invoke a method whose response body is not needed. The entity is consumed and the
+     * connection released so it can be reused.
+     *
+     * @param request The request to send.
+     */
+    protected void invokeMethodAndDiscard(HttpRequestBase request)
+    throws IOException {
+        try {
+            HttpResponse response = invokeMethod(request);
+            discardBody(response);
+        }
+        finally {
+            releaseConnection(request);
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Download content through the content cache. The cached copy is revalidated with its ETag
+     * and Last-Modified, so unchanged content costs one 304 response. Concurrent calls for the
+     * same URI take turns, so only the first of them downloads the body.
+     *
+     * @param uri The URI of the content.
+     *
+     * @return the local copy. Copy it elsewhere rather than changing it.
+     *
+     * @throws IllegalStateException if no content cache is set.
+     */
+    protected File getCachedContent(String uri)
+    throws IOException {
+        ContentCache cache = contentCache;
+        if (cache == null) {
+            throw new IllegalStateException("No content cache is set");
+        }
+        synchronized (cache.getLock(uri)) {
+            ContentCache.Entry entry = cache.get(uri);
+            HttpGet request = new HttpGet(uri);
+            if (entry != null) {
+                if (entry.getETag() != null) {
+                    request.setHeader("If-None-Match", entry.getETag());
+                }
+                if (entry.getLastModified() != null) {
+                    request.setHeader("If-Modified-Since", entry.getLastModified());
+                }
+            }
+            try {
+                HttpResponse response = invokeMethod(request);
+                if (response.getStatusLine().getStatusCode() == HttpStatus.SC_NOT_MODIFIED) {
+                    cache.recordHit();
+                    return entry.getFile();
+                }
+                Header etag = response.getFirstHeader("ETag");
+                Header lastModified = response.getFirstHeader("Last-Modified");
+                return cache.put(uri, response.getEntity().getContent(),
+                    etag == null ? null : etag.getValue(),
+                    lastModified == null ? null : lastModified.getValue()).getFile();
+            }
+            finally {
+                releaseConnection(request);
+            }
         }
-        return response;
     }
 
     /**
      * Invokes the specified REST API method, with retry if the HTTP request
      * returned a status code of 409 (Conflict).
-     * Uses default values for wait range and retry limit.
+     * Uses default values for wait range and retry limit. The retry limit is not reduced by
+     * the retry budget of the client.
      *
      * @param request HTTP REST API method (for URI)
      * @param logMethodName [Optional, but recommended] if not null, logs message for each retry.
@@ -296,7 +823,9 @@ public class UDRestClient {
 
     /**
      * Invokes the specified REST API method, with retry if the HTTP request
-     * returned a status code of 409 (Conflict).
+     * returned a status code of 409 (Conflict), in addition to the failures retried by the
+     * retry policy of the client. The retry limit is kept even when the retry budget of the
+     * client is spent: the budget only limits the retries the policy adds to other requests.
      *
      * @param request HTTP REST API method (for URI)
      * @param logMethodName [Optional, but recommended] if not null, logs message for each retry.
@@ -334,57 +863,568 @@ public class UDRestClient {
             retryLimit = RETRY_LIMIT_DEFAULT;
         }
 
-        int waitRandomLimit = waitRangeMax - waitRangeMin + 1;
-        int tryCount = 0;
-        Random random = new Random();
-        HttpResponse response = null;
-        int status = 0;
+        RetryPolicy policy = new RetryPolicy(retryPolicy);
+        policy.setRetryConflicts(true);
+        policy.setBaseDelayMillis(waitRangeMin);
+        policy.setMaxDelayMillis(waitRangeMax);
+        policy.setMaxRetries(retryLimit);
+
+        return invokeMethod(request, policy, false, logMethodName);
+    }
 
-        // Loop until we either break or throw an exception
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Send a request until it succeeds, the policy gives up or, if budgeted, the retry budget
+     * of this client is spent.
+     *
+     * @param request The request to send.
+     * @param policy Decides which failures are retried and how long to wait.
+     * @param budgeted Whether retries are limited by the retry budget too.
+     * @param logMethodName If not null, print a message for each retry.
+     *
+     * @return the successful response
+     *
+     * @throws IOException if the request failed, including any status code above 299.
+     */
+    private HttpResponse invokeMethod(HttpRequestBase request, RetryPolicy policy, boolean budgeted,
+        String logMethodName)
+    throws IOException {
+        RetryPolicy.Budget budget = retryBudget;
+        budget.recordRequest();
+        RequestMetrics requestMetrics = metrics;
+        String endpoint = requestMetrics == null ? null : getEndpointTemplate(request.getURI());
+
+        int retryCount = 0;
+        long delay = 0;
+        // Loop until we either return or throw an exception
         while (true) {
-            response = client.execute(request); // send HTTP request
-            status = response.getStatusLine().getStatusCode();
-
-            // If status code is HTTP 409 Conflict error, retry if retry limit is not reached.
-            if (status == 409) {
-                ++tryCount;
-                // Throw error if retry limit is reached.
-                if (tryCount > retryLimit) {
-                    // Log message if retry limit is not 0 and string parameter != null.
-                    if (retryLimit > 0 && logMethodName != null) {
+            HttpResponse response = null;
+            int status = -1;
+            long started = System.nanoTime();
+            try {
+                response = client.execute(request); // send HTTP request
+            }
+            catch (IOException e) {
+                if (requestMetrics != null) {
+                    requestMetrics.requestCompleted(request.getMethod(), endpoint, status,
+                        System.nanoTime() - started, getContentLength(request));
+                }
+                if (!policy.isRetryable(request, e, retryCount) || (budgeted && !budget.tryAcquire())) {
+                    throw e;
+                }
+                log.debug("Retrying " + request.getRequestLine() + " after " + e);
+            }
+
+            if (response != null) {
+                status = response.getStatusLine().getStatusCode();
+                if (requestMetrics != null) {
+                    requestMetrics.requestCompleted(request.getMethod(), endpoint, status,
+                        System.nanoTime() - started, getContentLength(request));
+                    if (response.getEntity() != null) {
+                        response.setEntity(new MeteredEntity(response.getEntity(), requestMetrics,
+                            request.getMethod(), endpoint));
+                    }
+                }
+                if (status <= 299 || (status == HttpStatus.SC_NOT_MODIFIED && isConditional(request))) {
+                    return response;
+                }
+                if (!policy.isRetryable(request, status, retryCount) || (budgeted && !budget.tryAcquire())) {
+                    // Log message if there were retries and string parameter != null.
+                    if (retryCount > 0 && logMethodName != null) {
                         System.out.println("Reached retry limit");
                     }
-                    // reached retry limit
-                    throw new IOException(String.format("%d %s\n%s",
-                            response.getStatusLine().getStatusCode(),
-                            response.getStatusLine().getReasonPhrase(),
-                            getBody(response)));
+                    throw new StatusException(status, response.getStatusLine().getReasonPhrase(),
+                            getBody(response));
                 }
+                log.debug("Retrying " + request.getRequestLine() + " after status " + status);
+            }
 
-                // Log retry if logMethodName was specified.
-                if (logMethodName != null) {
-                    System.out.println("Retrying " + logMethodName);
-                }
-                // wait random number of milliseconds within specified range
-                long wait = random.nextInt(waitRandomLimit)+waitRangeMin;
+            if (requestMetrics != null) {
+                requestMetrics.requestRetried(request.getMethod(), endpoint, status);
+            }
+            delay = policy.getDelayMillis(response, delay);
+            if (response != null) {
+                // Return the connection before waiting so the retry can reuse it
+                discardBody(response);
+            }
+            // Log retry if logMethodName was specified.
+            if (logMethodName != null) {
+                System.out.println("Retrying " + logMethodName);
+            }
+            try {
+                Thread.sleep(delay);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting to retry " +
+                    request.getRequestLine());
+            }
+            request.reset();
+            ++retryCount;
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Non-blocking form of {@link #invokeMethod(HttpRequestBase)}: the request is sent over
+     * the non-blocking transport, with the same retries, and no thread waits for the response
+     * or for a retry. The response is read into memory before the future completes.
+     *
+     * @param request The request to send.
+     *
+     * @return CompletableFuture of the successful response, completed on an I/O thread
+     */
+    protected CompletableFuture<HttpResponse> invokeMethodAsync(HttpRequestBase request) {
+        CompletableFuture<HttpResponse> result = new CompletableFuture<HttpResponse>();
+        RetryPolicy.Budget budget = retryBudget;
+        budget.recordRequest();
+        sendAsync(request, retryPolicy, budget, 0, 0, result);
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Non-blocking form of {@link #invokeMethod(HttpRequestBase, ResponseReader)}. The reader
+     * runs on the common fork-join pool rather than an I/O thread, so neither the reader nor
+     * stages added to the returned future hold up other requests.
+     *
+     * @param request The request to send.
+     * @param reader Reads the result from the successful response.
+     *
+     * @return CompletableFuture completed with the value returned by the reader, or the failure.
+     */
+    protected <T> CompletableFuture<T> invokeMethodAsync(HttpRequestBase request,
+        final ResponseReader<T> reader) {
+        final CompletableFuture<T> result = new CompletableFuture<T>();
+        final CompletableFuture<HttpResponse> sent = invokeMethodAsync(request);
+        sent.whenCompleteAsync((response, error) -> {
+            if (error != null) {
+                result.completeExceptionally(error);
+            }
+            else {
                 try {
-                    Thread.sleep(wait);
+                    result.complete(reader.read(response));
                 }
-                catch (InterruptedException e1) {
-                    System.out.println(e1);
+                catch (Throwable e) {
+                    result.completeExceptionally(e);
+                }
+                finally {
+                    EntityUtils.consumeQuietly(response.getEntity());
                 }
             }
-            else if(status > 299) {
-                throw new IOException(String.format("%d %s\n%s",
-                        response.getStatusLine().getStatusCode(),
-                        response.getStatusLine().getReasonPhrase(),
-                        getBody(response)));
+        });
+        result.whenComplete((value, error) -> {
+            if (result.isCancelled()) {
+                sent.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * One attempt of {@link #invokeMethodAsync(HttpRequestBase)}. Decides like
+     * {@link #invokeMethod(HttpRequestBase, RetryPolicy, String)} whether to retry, and schedules
+     * the next attempt instead of sleeping.
+     */
+    private void sendAsync(final HttpRequestBase request, final RetryPolicy policy,
+        final RetryPolicy.Budget budget, final int retryCount, final long delay,
+        final CompletableFuture<HttpResponse> result) {
+        if (result.isDone()) {
+            // Cancelled while waiting to retry
+            return;
+        }
+        final AsyncHttpTransport transport = getAsyncTransport();
+        final RequestMetrics requestMetrics = metrics;
+        final String endpoint = requestMetrics == null ? null : getEndpointTemplate(request.getURI());
+        final long started = System.nanoTime();
+        final CompletableFuture<HttpResponse> sent = transport.execute(request, newAsyncContext());
+        result.whenComplete((value, error) -> {
+            if (result.isCancelled()) {
+                sent.cancel(true);
+            }
+        });
+        sent.whenComplete((response, error) -> {
+            int status = response == null ? -1 : response.getStatusLine().getStatusCode();
+            if (requestMetrics != null) {
+                requestMetrics.requestCompleted(request.getMethod(), endpoint, status,
+                    System.nanoTime() - started, getContentLength(request));
+                if (response != null && response.getEntity() != null) {
+                    response.setEntity(new MeteredEntity(response.getEntity(), requestMetrics,
+                        request.getMethod(), endpoint));
+                }
+            }
+
+            if (error != null) {
+                if (!(error instanceof IOException) ||
+                    !policy.isRetryable(request, (IOException) error, retryCount) ||
+                    !budget.tryAcquire())
+                {
+                    result.completeExceptionally(error);
+                    return;
+                }
+                log.debug("Retrying " + request.getRequestLine() + " after " + error);
             }
             else {
-                break;  // return response from the HTTP request
+                if (status <= 299 || (status == HttpStatus.SC_NOT_MODIFIED && isConditional(request))) {
+                    result.complete(response);
+                    return;
+                }
+                if (!policy.isRetryable(request, status, retryCount) || !budget.tryAcquire()) {
+                    try {
+                        result.completeExceptionally(new StatusException(status,
+                            response.getStatusLine().getReasonPhrase(), getBody(response)));
+                    }
+                    catch (IOException e) {
+                        result.completeExceptionally(e);
+                    }
+                    return;
+                }
+                log.debug("Retrying " + request.getRequestLine() + " after status " + status);
+            }
+
+            if (requestMetrics != null) {
+                requestMetrics.requestRetried(request.getMethod(), endpoint, status);
+            }
+            final long nextDelay = policy.getDelayMillis(response, delay);
+            if (response != null) {
+                EntityUtils.consumeQuietly(response.getEntity());
+            }
+            transport.schedule(() -> {
+                request.reset();
+                sendAsync(request, policy, budget, retryCount + 1, nextDelay, result);
+            }, nextDelay);
+        });
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return a context carrying the credentials and cookies of this client to the non-blocking
+     * transport, which may be shared with other clients. Credentials are sent with the first
+     * request, as the blocking client does.
+     */
+    private HttpClientContext newAsyncContext() {
+        HttpClientContext result = HttpClientContext.create();
+        result.setCredentialsProvider(client.getCredentialsProvider());
+        result.setCookieStore(client.getCookieStore());
+        AuthCache authCache = new BasicAuthCache();
+        authCache.put(new HttpHost(url.getHost(), url.getPort(), url.getScheme()), new BasicScheme());
+        result.setAuthCache(authCache);
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return whether the request carries a validator, so that 304 is an answer rather than an
+     * error.
+     */
+    static private boolean isConditional(HttpRequestBase request) {
+        return request.containsHeader("If-None-Match") || request.containsHeader("If-Modified-Since");
+    }
+
+    //----------------------------------------------------------------------------------------------
+    private long getContentLength(HttpRequestBase request) {
+        long result = 0;
+        if (request instanceof HttpEntityEnclosingRequest) {
+            HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+            if (entity != null) {
+                result = Math.max(0, entity.getContentLength());
+            }
+        }
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * The endpoint a request is recorded under in the metrics: the path with ids and numbers
+     * replaced by {id}, and without the query string, which holds names.
+     *
+     * @param uri The request URI.
+     *
+     * @return String
+     */
+    static protected String getEndpointTemplate(URI uri) {
+        String path = uri.getRawPath();
+        StringBuilder result = new StringBuilder();
+        if (path != null) {
+            for (String segment : StringUtils.split(path, '/')) {
+                result.append('/');
+                if (parseUUID(segment) != null || StringUtils.isNumeric(segment)) {
+                    result.append("{id}");
+                }
+                else {
+                    result.append(segment);
+                }
+            }
+        }
+        if (result.length() == 0) {
+            result.append('/');
+        }
+        return result.toString();
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public RequestMetrics getMetrics() {
+        return metrics;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Record the latency, status, size and retries of every request sent by this client.
+     * Clients created from a session record into the session's {@link MetricsRegistry}.
+     *
+     * @param metrics The receiver of the measurements, or null to disable them.
+     */
+    public void setMetrics(RequestMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public RequestCoalescer getRequestCoalescer() {
+        return requestCoalescer;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Share concurrent identical reads of objects and name resolutions with a single request.
+     * Off by default. Clients created from a session use the session's coalescer, which is
+     * enabled with {@link RequestCoalescer#setEnabled(boolean)}.
+     *
+     * @param requestCoalescer The coalescer, or null to send every request.
+     */
+    public void setRequestCoalescer(RequestCoalescer requestCoalescer) {
+        this.requestCoalescer = requestCoalescer;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Replace the retry policy of this client. The client gets a new retry budget configured
+     * by the policy. Clients created from a session start with the session's policy.
+     *
+     * @param retryPolicy The policy, see {@link RetryPolicy#noRetries()} to disable retries.
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        Check.nonNull(retryPolicy);
+        this.retryPolicy = retryPolicy;
+        this.retryBudget = retryPolicy.createBudget();
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return the cache of name to id resolutions, or null if resolutions are not cached.
+     */
+    public ResolverCache getResolverCache() {
+        return resolverCache;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Cache name to id resolutions made by this client. Clients created from a session share
+     * the session's cache.
+     *
+     * @param resolverCache The cache to use, or null to resolve on every call.
+     */
+    public void setResolverCache(ResolverCache resolverCache) {
+        this.resolverCache = resolverCache;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return the cache of large downloads, or null if they are fetched in full every time.
+     */
+    public ContentCache getContentCache() {
+        return contentCache;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Keep large downloads, such as the agent install package, in a local cache and revalidate
+     * them with conditional requests.
+     *
+     * @param contentCache The cache to use, or null to download in full on every call.
+     */
+    public void setContentCache(ContentCache contentCache) {
+        this.contentCache = contentCache;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Resolve a name to an id. Values that already are ids are returned without a request, and
+     * resolutions are served from the resolver cache when one is set.
+     *
+     * @param type The kind of object, e.g. "component".
+     * @param scope The name of the enclosing object, or null.
+     * @param name The name or id to resolve.
+     * @param lookup Fetches the id from the server on a cache miss.
+     *
+     * @return UUID
+     *
+     * @throws JSONException
+     */
+    protected UUID resolveUUID(String type, String scope, String name, UUIDLookup lookup)
+    throws IOException, JSONException {
+        UUID result = parseUUID(name);
+        if (result == null) {
+            ResolverCache cache = resolverCache;
+            if (cache != null) {
+                result = cache.get(type, scope, name);
+            }
+            if (result == null) {
+                RequestCoalescer coalescer = requestCoalescer;
+                if (coalescer != null) {
+                    result = coalescer.execute("resolve " + ResolverCache.key(type, scope, name), lookup::lookup);
+                }
+                else {
+                    result = lookup.lookup();
+                }
+                if (cache != null && result != null) {
+                    cache.put(type, scope, name, result);
+                }
+            }
+        }
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Send a GET, or share the identical one in flight when request coalescing is enabled.
+     *
+     * @param uri The request URI, which identifies the read.
+     * @param call Sends the request and decodes the response. Its result may be shared between
+     * threads.
+     *
+     * @return the decoded response
+     */
+    protected <T> T coalesceGet(String uri, RequestCoalescer.Call<T> call)
+    throws IOException, JSONException {
+        T result;
+        RequestCoalescer coalescer = requestCoalescer;
+        if (coalescer == null) {
+            result = call.call();
+        }
+        else {
+            final RequestMetrics requestMetrics = metrics;
+            Runnable onCoalesced = null;
+            if (requestMetrics != null) {
+                onCoalesced = () -> requestMetrics.requestCoalesced("GET", getEndpointTemplate(URI.create(uri)));
+            }
+            result = coalescer.execute(uri, call, onCoalesced);
+        }
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Non-blocking form of {@link #coalesceGet(String, RequestCoalescer.Call)}. Blocking and
+     * non-blocking reads of the same URI share one request.
+     *
+     * @param uri The request URI, which identifies the read.
+     * @param call Sends the request and returns a future of the decoded response.
+     *
+     * @return CompletableFuture of the decoded response
+     */
+    protected <T> CompletableFuture<T> coalesceGetAsync(final String uri, Supplier<CompletableFuture<T>> call) {
+        CompletableFuture<T> result;
+        RequestCoalescer coalescer = requestCoalescer;
+        if (coalescer == null) {
+            result = call.get();
+        }
+        else {
+            final RequestMetrics requestMetrics = metrics;
+            Runnable onCoalesced = null;
+            if (requestMetrics != null) {
+                onCoalesced = () -> requestMetrics.requestCoalesced("GET", getEndpointTemplate(URI.create(uri)));
             }
+            result = coalescer.executeAsync(uri, call, onCoalesced);
+        }
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Forget a cached resolution, e.g. after deleting the object.
+     */
+    protected void invalidateUUID(String type, String scope, String name) {
+        ResolverCache cache = resolverCache;
+        if (cache != null) {
+            cache.invalidate(type, scope, name);
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Clients created from a session share its non-blocking transport. Standalone clients share
+     * one process-wide transport, which sends the credentials of each client with its requests.
+     *
+     * @return AsyncHttpTransport
+     */
+    protected synchronized AsyncHttpTransport getAsyncTransport() {
+        if (asyncTransport == null) {
+            asyncTransport = AsyncHttpTransport.getShared(trustAllCerts);
         }
-        return response;
+        return asyncTransport;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * The worker pool for calls that are not single reads, such as resolving a name and then
+     * sending a request, and for process checks and page prefetches. Clients created from a
+     * session share its pool. Standalone clients get their own pool limited to one call at a
+     * time, as their HTTP client holds a single connection.
+     *
+     * @return AsyncRequestExecutor
+     */
+    protected synchronized AsyncRequestExecutor getAsyncExecutor() {
+        if (asyncExecutor == null) {
+            asyncExecutor = new AsyncRequestExecutor(1);
+        }
+        return asyncExecutor;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Clients created from a session share its watcher. Standalone clients get their own, which
+     * checks through their async executor.
+     *
+     * @return ProcessWatcher
+     */
+    protected synchronized ProcessWatcher getProcessWatcher() {
+        if (processWatcher == null) {
+            processWatcher = new ProcessWatcher(getAsyncExecutor());
+        }
+        return processWatcher;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Run a blocking client call on the worker pool without blocking the calling thread. The
+     * call holds a worker thread while it waits for the server; single reads should use
+     * {@link #invokeMethodAsync(HttpRequestBase, ResponseReader)} instead.
+     *
+     * @param call The client call to run.
+     *
+     * @return CompletableFuture completed with the call's result or exception.
+     */
+    protected <T> CompletableFuture<T> async(Callable<T> call) {
+        return getAsyncExecutor().submit(call);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Page through a listing, prefetching the next page on the async executor.
+     *
+     * @param source Fetches a page.
+     * @param pageSize The number of items per page.
+     *
+     * @return PagedIterator
+     */
+    protected <T> PagedIterator<T> paged(PagedIterator.PageSource<T> source, int pageSize) {
+        return new PagedIterator<T>(source, pageSize, getAsyncExecutor());
     }
 
     //----------------------------------------------------------------------------------------------
@@ -403,15 +1443,7 @@ public class UDRestClient {
      * @return String
      */
     protected String encodePath(String path) {
-        String result;
-        try {
-            result = sanitizePathSegment(path);
-        }
-        catch (Exception e) {
-            log.debug("the user input " + path + " could not be sanitized. defaulting to user input", e);
-            result = path;
-        }
-        return result;
+        return PercentEncoder.encode(path);
     }
     /**
      * @param path String input to be encoded.
@@ -423,8 +1455,7 @@ public class UDRestClient {
      */
     protected String sanitizePathSegment(String path)
     throws URISyntaxException, EncoderException {
-        PercentCodec encoder = new PercentCodec();
-        return encoder.encode(path);
+        return PercentEncoder.encode(path);
     }
 
     /**
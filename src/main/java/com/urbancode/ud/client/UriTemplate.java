@@ -0,0 +1,182 @@
+/**
+ * (c) Copyright IBM Corporation 2011, 2017.
+ * (c) Copyright HCL Technologies Ltd. 2018. All Rights Reserved.
+ * This is licensed under the following license.
+ * The Apache Version 2.0 License (https://www.apache.org/licenses/LICENSE-2.0.txt)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+package com.urbancode.ud.client;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A request URI with variables, parsed once, e.g.
+ * "/cli/environment/info?environment={environment}&amp;application={application}".
+ * <p>
+ * Values are percent encoded with {@link PercentEncoder} into a per-thread buffer that is
+ * reused across requests. Path variables are required. A query parameter whose value is null
+ * is left out, as the clients do for optional parameters such as the application of an
+ * environment.
+ *
+ * @see Endpoints
+ */
+public class UriTemplate {
+
+    //**********************************************************************************************
+    // CLASS
+    //**********************************************************************************************
+    static private final int MAX_BUFFER_RETAINED = 8192;
+
+    static private final ThreadLocal<StringBuilder> BUFFER = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(256);
+        }
+    };
+
+    //**********************************************************************************************
+    // INSTANCE
+    //**********************************************************************************************
+    final private String template;
+    // the path alternates literals and variables: literal, variable, literal, ..., literal
+    final private String[] pathLiterals;
+    final private int[] pathVariables;
+    // the query has a name per parameter and either a literal value or a variable
+    final private String[] queryNames;
+    final private String[] queryLiterals;
+    final private int[] queryVariables;
+    final private List<String> variables;
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @param template The path and query of the URI, relative to the server URL.
+     */
+    public UriTemplate(String template) {
+        this.template = template;
+        List<String> variableNames = new ArrayList<String>();
+
+        int question = template.indexOf('?');
+        String path = question < 0 ? template : template.substring(0, question);
+        List<String> literals = new ArrayList<String>();
+        List<Integer> pathIndexes = new ArrayList<Integer>();
+        int start = 0;
+        int open = path.indexOf('{');
+        while (open >= 0) {
+            int close = path.indexOf('}', open);
+            if (close < 0) {
+                throw new IllegalArgumentException("Unclosed variable in " + template);
+            }
+            literals.add(path.substring(start, open));
+            pathIndexes.add(variableNames.size());
+            variableNames.add(path.substring(open + 1, close));
+            start = close + 1;
+            open = path.indexOf('{', start);
+        }
+        literals.add(path.substring(start));
+        pathLiterals = literals.toArray(new String[literals.size()]);
+        pathVariables = toArray(pathIndexes);
+
+        List<String> names = new ArrayList<String>();
+        List<String> values = new ArrayList<String>();
+        List<Integer> queryIndexes = new ArrayList<Integer>();
+        if (question >= 0) {
+            for (String pair : template.substring(question + 1).split("&")) {
+                int equals = pair.indexOf('=');
+                if (equals <= 0) {
+                    throw new IllegalArgumentException("Invalid query parameter " + pair + " in " + template);
+                }
+                String value = pair.substring(equals + 1);
+                names.add(pair.substring(0, equals));
+                if (value.startsWith("{") && value.endsWith("}")) {
+                    values.add(null);
+                    queryIndexes.add(variableNames.size());
+                    variableNames.add(value.substring(1, value.length() - 1));
+                }
+                else {
+                    values.add(value);
+                    queryIndexes.add(-1);
+                }
+            }
+        }
+        queryNames = names.toArray(new String[names.size()]);
+        queryLiterals = values.toArray(new String[values.size()]);
+        queryVariables = toArray(queryIndexes);
+        variables = Collections.unmodifiableList(variableNames);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public String getTemplate() {
+        return template;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return the names of the variables, in the order their values are passed to expand.
+     */
+    public List<String> getVariables() {
+        return variables;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @param base The server URL.
+     * @param values The values of the variables in order. Values are converted with toString.
+     *
+     * @return the URI
+     */
+    public String expand(URI base, Object... values) {
+        if (values.length != variables.size()) {
+            throw new IllegalArgumentException("Expected values for " + variables + " in " + template
+                + " but got " + values.length);
+        }
+        StringBuilder builder = BUFFER.get();
+        builder.setLength(0);
+
+        String baseString = base.toString();
+        builder.append(baseString, 0, baseString.endsWith("/") ? baseString.length() - 1 : baseString.length());
+        for (int i = 0; i < pathVariables.length; i++) {
+            builder.append(pathLiterals[i]);
+            Object value = values[pathVariables[i]];
+            if (value == null) {
+                throw new IllegalArgumentException("No value for {" + variables.get(pathVariables[i])
+                    + "} in " + template);
+            }
+            PercentEncoder.encode(value.toString(), builder);
+        }
+        builder.append(pathLiterals[pathLiterals.length - 1]);
+
+        char separator = '?';
+        for (int i = 0; i < queryNames.length; i++) {
+            Object value = queryVariables[i] < 0 ? queryLiterals[i] : values[queryVariables[i]];
+            if (value != null) {
+                builder.append(separator).append(queryNames[i]).append('=');
+                PercentEncoder.encode(value.toString(), builder);
+                separator = '&';
+            }
+        }
+
+        String result = builder.toString();
+        if (builder.capacity() > MAX_BUFFER_RETAINED) {
+            BUFFER.remove();
+        }
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    @Override
+    public String toString() {
+        return template;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    static private int[] toArray(List<Integer> list) {
+        int[] result = new int[list.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = list.get(i);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,123 @@
+/**
+ * (c) Copyright IBM Corporation 2011, 2017.
+ * (c) Copyright HCL Technologies Ltd. 2018. All Rights Reserved.
+ * This is licensed under the following license.
+ * The Apache Version 2.0 License (https://www.apache.org/licenses/LICENSE-2.0.txt)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+package com.urbancode.ud.client;
+
+import java.util.Set;
+import java.util.UUID;
+
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+
+/**
+ * A version of a component, as returned by {@link VersionClient#getVersionModel(String)}.
+ * The component the server embeds in the version is kept as a detail; only its id and name
+ * are decoded.
+ */
+public class Version extends UDObject {
+
+    //**********************************************************************************************
+    // CLASS
+    //**********************************************************************************************
+    static private final Set<String> DECODED_KEYS = keys("type", "active", "archived", "created");
+
+    //----------------------------------------------------------------------------------------------
+    static public Version fromJSON(JSONObject json)
+    throws JSONException {
+        return new Version(json);
+    }
+
+    //**********************************************************************************************
+    // INSTANCE
+    //**********************************************************************************************
+    final private String type;
+    final private boolean active;
+    final private boolean archived;
+    final private long created;
+    final private long componentIdMostSigBits;
+    final private long componentIdLeastSigBits;
+    final private String componentName;
+
+    //----------------------------------------------------------------------------------------------
+    protected Version(JSONObject json)
+    throws JSONException {
+        super(json, DECODED_KEYS);
+        this.type = getInternedString(json, "type");
+        this.active = json.optBoolean("active", true);
+        this.archived = json.optBoolean("archived");
+        this.created = json.optLong("created");
+
+        UUID componentId = null;
+        String componentName = null;
+        JSONObject component = json.optJSONObject("component");
+        if (component != null) {
+            componentId = UDRestClient.parseUUID(getString(component, "id"));
+            componentName = getInternedString(component, "name");
+        }
+        this.componentIdMostSigBits = componentId == null ? 0 : componentId.getMostSignificantBits();
+        this.componentIdLeastSigBits = componentId == null ? 0 : componentId.getLeastSignificantBits();
+        this.componentName = componentName;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return "FULL" or "INCREMENTAL".
+     */
+    public String getType() {
+        return type;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public boolean isActive() {
+        return active;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public boolean isArchived() {
+        return archived;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return the creation time in milliseconds since the epoch.
+     */
+    public long getCreated() {
+        return created;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return the id of the component, or null if the server did not include it.
+     */
+    public UUID getComponentId() {
+        UUID result = null;
+        if (componentIdMostSigBits != 0 || componentIdLeastSigBits != 0) {
+            result = new UUID(componentIdMostSigBits, componentIdLeastSigBits);
+        }
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return the name of the component, or null if the server did not include it.
+     */
+    public String getComponentName() {
+        return componentName;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    @Override
+    protected void putFields(JSONObject json)
+    throws JSONException {
+        if (type != null) {
+            json.put("type", type);
+        }
+        json.put("active", active);
+        json.put("archived", archived);
+        json.put("created", created);
+    }
+}
@@ -9,11 +9,14 @@ package com.urbancode.ud.client;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.nio.charset.Charset;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.http.HttpResponse;
@@ -61,19 +64,32 @@ public class VersionClient extends UDRestClient{
         super(url, client);
     }
 
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Construct with the shared transport of a session. See UDClientSession.
+     */
+    public VersionClient(UDClientSession session) {
+        super(session);
+    }
+
     //----------------------------------------------------------------------------------------------
     public UUID createVersion(String component, String version, String description)
+    throws IOException, JSONException {
+        return createVersion(component, version, description, null);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @param type FULL or INCREMENTAL, or null for the default type of the component.
+     */
+    public UUID createVersion(String component, String version, String description, String type)
     throws IOException, JSONException {
         UUID result = null;
-        String uri = url + "/cli/version/createVersion/?name=" +
-            encodePath(version) + "&component=" +
-            encodePath(component) + "&description=" +
-            encodePath(description);
+        String uri = Endpoints.VERSION_CREATE.expand(url, version, component, description, type);
 
         HttpPost method = new HttpPost(uri);
         HttpResponse response = invokeMethod(method);
-        String body = getBody(response);
-        JSONObject jsonResult = new JSONObject(body);
+        JSONObject jsonResult = getBodyAsJSONObject(response);
         result = UUID.fromString((String) jsonResult.get("id"));
 
         return result;
@@ -123,11 +139,11 @@ public class VersionClient extends UDRestClient{
     //----------------------------------------------------------------------------------------------
     public void deleteVersion(UUID versionId)
     throws IOException {
-        String uri = url + "/rest/deploy/version/" + versionId.toString();
+        String uri = Endpoints.VERSION.expand(url, versionId);
 
         HttpDelete method = new HttpDelete(uri);
         try {
-            invokeMethod(method);
+            invokeMethodAndDiscard(method);
         }
         finally {
             releaseConnection(method);
@@ -158,35 +174,194 @@ public class VersionClient extends UDRestClient{
         return versionId;
     }
 
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Create a version and upload its files with a {@link VersionUpload}, several chunks at a
+     * time. Like the single-threaded variant, the version is deleted if the upload fails.
+     *
+     * @param concurrency The most chunks uploaded at once.
+     */
+    public UUID createAndAddVersionFiles(String component, String version, String description,
+        File baseDir, String offset, String[] includes, String[] excludes,
+        boolean saveExecuteBits, boolean verbose, Charset charset, String[] extensions, int concurrency)
+    throws Exception {
+        UUID versionId = createVersion(component, version, description);
+        try {
+            newVersionUpload(component, version, baseDir, offset, includes, excludes, saveExecuteBits,
+                verbose, charset, extensions).setConcurrency(concurrency).execute();
+        }
+        catch (Exception e) {
+            log.error("Error creating version" + e.getMessage());
+            log.error("Cleaning up version " + versionId);
+            deleteVersion(versionId);
+            throw e;
+        }
+
+        return versionId;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Create an INCREMENTAL version holding only the files that are new or changed since a
+     * base version. The selected files are hashed in parallel and compared with the files the
+     * server lists for the baseline, see {@link #getBaselineVersion(String, String)}; unchanged
+     * files are not uploaded. Files deleted since the baseline are not recorded, as incremental
+     * versions only add files. Without a baseline a FULL version with every selected file is
+     * created. The version is deleted if the upload fails.
+     *
+     * @param baseVersion The name or id of the version to compare with, or null for the most
+     * recent version of the component.
+     * @param concurrency The most chunks uploaded at once.
+     *
+     * @return the id of the new version.
+     */
+    public UUID createAndAddIncrementalVersionFiles(String component, String version,
+        String description, String baseVersion, File baseDir, String offset, String[] includes,
+        String[] excludes, boolean saveExecuteBits, boolean verbose, Charset charset, String[] extensions,
+        int concurrency)
+    throws Exception {
+        baseVersion = getBaselineVersion(component, baseVersion);
+        VersionUpload upload = newVersionUpload(component, version, baseDir, offset, includes, excludes,
+            saveExecuteBits, verbose, charset, extensions).setConcurrency(concurrency);
+        if (baseVersion != null) {
+            upload.setBaseline(getVersionArtifacts(component, baseVersion));
+        }
+
+        UUID versionId = createVersion(component, version, description,
+            baseVersion == null ? "FULL" : "INCREMENTAL");
+        try {
+            log.debug("Version " + versionId + ": " + upload.execute());
+        }
+        catch (Exception e) {
+            log.error("Error creating version" + e.getMessage());
+            log.error("Cleaning up version " + versionId);
+            deleteVersion(versionId);
+            throw e;
+        }
+
+        return versionId;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * The version an incremental upload is compared with. The server lists only the files an
+     * INCREMENTAL version added, so comparing with one would upload again every file it did not
+     * change. For an INCREMENTAL base the nearest FULL version listed after it, which is older,
+     * is used instead.
+     *
+     * @param component The name or id of the component.
+     * @param baseVersion The name or id of the base version, or null for the most recent version.
+     *
+     * @return the name of the FULL version to compare with, or null if the component has none or
+     * the base version is not among its active versions.
+     */
+    protected String getBaselineVersion(String component, String baseVersion)
+    throws IOException, JSONException {
+        ComponentClient components = new ComponentClient(this);
+        if (baseVersion == null) {
+            baseVersion = components.getLatestVersion(component);
+            if (baseVersion == null) {
+                return null;
+            }
+        }
+
+        PagedIterator<JSONObject> versions = components.getComponentVersionsIterator(component, false,
+            PagedIterator.PAGE_SIZE_DEFAULT);
+        try {
+            boolean found = false;
+            while (versions.hasNext()) {
+                JSONObject version = versions.next();
+                found = found || baseVersion.equals(version.optString("name"))
+                    || baseVersion.equals(version.optString("id"));
+                if (found && !"INCREMENTAL".equals(version.optString("type"))) {
+                    return version.getString("name");
+                }
+            }
+            return null;
+        }
+        catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        finally {
+            versions.close();
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return the files of a version with their sizes and hashes.
+     */
+    public List<VersionDownload.Artifact> getVersionArtifacts(String component, String version)
+    throws IOException, JSONException {
+        return new VersionDownload(this, component, version, null).getArtifacts();
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Prepare a parallel upload of version files. Takes the arguments of
+     * {@link #addVersionFiles(String, String, File, String, String[], String[], boolean, boolean, Charset, String[])};
+     * each chunk is added by its own add-files command from a directory holding only the
+     * chunk's files, so file names are never read as include patterns.
+     */
+    public VersionUpload newVersionUpload(final String component, final String version, File base,
+        final String offset, String[] includes, String[] excludes, final boolean saveExecuteBits,
+        final boolean verbose, final Charset charset, final String[] extensions) {
+        return new VersionUpload(this, base, includes, excludes, (chunkBase, paths) -> {
+            AddVersionFilesCommand command = new AddVersionFilesCommand(
+                    url.toString(),
+                    client, component,
+                    version,
+                    chunkBase,
+                    offset,
+                    new String[] {"**/*"},
+                    new String[0],
+                    saveExecuteBits,
+                    verbose,
+                    charset,
+                    extensions);
+            command.execute();
+        });
+    }
+
     //----------------------------------------------------------------------------------------------
     public JSONObject getVersion(String versionId)
         throws IOException, JSONException {
-        JSONObject result = null;
-        String uri = url + "/rest/deploy/version/" + encodePath(versionId);
-
-        HttpGet method = new HttpGet(uri);
+        String uri = Endpoints.VERSION.expand(url, versionId);
+        return coalesceGet(uri, () -> {
+            HttpGet method = new HttpGet(uri);
+            HttpResponse response = invokeMethod(method);
+            return getBodyAsJSONObject(response);
+        });
+    }
 
-        HttpResponse response = invokeMethod(method);
-        String body = getBody(response);
-        result = new JSONObject(body);
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Non-blocking variant of {@link #getVersion(String)}.
+     */
+    public CompletableFuture<JSONObject> getVersionAsync(String versionId) {
+        String uri = Endpoints.VERSION.expand(url, versionId);
+        return coalesceGetAsync(uri, () ->
+            invokeMethodAsync(new HttpGet(uri), response -> getBodyAsJSONObject(response)));
+    }
 
-        return result;
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Typed variant of {@link #getVersion(String)}, compact enough to hold in large numbers.
+     */
+    public Version getVersionModel(String versionId)
+    throws IOException, JSONException {
+        return Version.fromJSON(getVersion(versionId));
     }
 
     //----------------------------------------------------------------------------------------------
     public Map<String, String> getVersionProperties(String version, String component)
         throws Exception {
         Map<String, String> result = new HashMap<String, String>();
-        String uri = url + "/cli/version/versionProperties?version=" + encodePath(version);
-
-        if (component != null) {
-            uri = uri + "&component=" + encodePath(component);
-        }
+        String uri = Endpoints.VERSION_PROPERTIES.expand(url, version, component);
         HttpGet method = new HttpGet(uri);
 
         HttpResponse response = invokeMethod(method);
-        String body = getBody(response);
-        JSONArray propsJSON = new JSONArray(body);
+        JSONArray propsJSON = getBodyAsJSONArray(response);
 
         for (int i = 0; i < propsJSON.length(); i++) {
             JSONObject prop = propsJSON.getJSONObject(i);
@@ -217,7 +392,7 @@ public class VersionClient extends UDRestClient{
 
         HttpPut method = new HttpPut(uri);
 
-        invokeMethod(method);
+        invokeMethodAndDiscard(method);
         if (isSecure) {
             result = name + "=****";
         }
@@ -227,6 +402,17 @@ public class VersionClient extends UDRestClient{
         return result;
     }
 
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Collect properties of a version and write them with a few batch requests. See
+     * {@link PropertyBatch}.
+     */
+    public PropertyBatch newPropertyBatch(final UUID componentId, final UUID versionId) {
+        return new PropertyBatch(this, "components&" + componentId + "&versions&" + versionId + "&propSheet",
+            (name, value, isSecure) -> setVersionProperty(versionId.toString(), componentId.toString(),
+                name, value, isSecure));
+    }
+
     //------------------------------------------------------------------------------------------------------
     public void downloadFiles(String component, String version, String download2Path, String singleFilePath)
         throws Exception {
@@ -238,4 +424,16 @@ public class VersionClient extends UDRestClient{
             singleFilePath);
         dc.execute();
     }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Prepare a parallel, resumable download of all files of a version.
+     *
+     * @param component The name or id of the component.
+     * @param version The name or id of the version.
+     * @param target The directory the files are written to.
+     */
+    public VersionDownload newVersionDownload(String component, String version, File target) {
+        return new VersionDownload(this, component, version, target);
+    }
 }
@@ -0,0 +1,470 @@
+/**
+ * (c) Copyright IBM Corporation 2011, 2017.
+ * (c) Copyright HCL Technologies Ltd. 2018. All Rights Reserved.
+ * This is licensed under the following license.
+ * The Apache Version 2.0 License (https://www.apache.org/licenses/LICENSE-2.0.txt)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+package com.urbancode.ud.client;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.log4j.Logger;
+import org.codehaus.jettison.json.JSONArray;
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+
+/**
+ * Downloads the files of a component version, several files at a time. Each file is written
+ * through a {@link FileChannel} to a ".part" file next to its target and moved into place once
+ * its size and checksum are verified.
+ * <p>
+ * A dropped connection does not restart the file: the next attempt asks for the missing bytes
+ * with an HTTP Range request. Partial files left by an earlier, interrupted download are resumed
+ * the same way, and files already present with the right size and checksum are skipped. A file
+ * failing its checksum is downloaded again from the start.
+ * <p>
+ * Create downloads with {@link VersionClient#newVersionDownload}.
+ */
+public class VersionDownload {
+
+    //**********************************************************************************************
+    // CLASS
+    //**********************************************************************************************
+    final static private Logger log = Logger.getLogger(VersionDownload.class);
+    final static private long RETRY_DELAY_MILLIS = 1000L;
+    final static private int BUFFER_SIZE = 64 * 1024;
+    final static private long MAP_THRESHOLD = 1024L * 1024L;
+    final static private long MAP_REGION_SIZE = 64L * 1024L * 1024L;
+    final static private String PART_SUFFIX = ".part";
+
+    public static final int CONCURRENCY_DEFAULT = 4;
+    public static final int MAX_ATTEMPTS_DEFAULT = 5;
+    public static final String HASH_ALGORITHM_DEFAULT = "SHA-256";
+
+    /**
+     * A file of the version, as listed by the server.
+     */
+    public static class Artifact {
+        final private String path;
+        final private long size;
+        final private String hash;
+        final private String hashAlgorithm;
+
+        //------------------------------------------------------------------------------------------
+        static Artifact fromJSON(JSONObject json)
+        throws JSONException {
+            return new Artifact(json.getString("path"), json.optLong("size", -1L),
+                json.optString("hash", null), json.optString("hashAlgorithm", HASH_ALGORITHM_DEFAULT));
+        }
+
+        //------------------------------------------------------------------------------------------
+        private Artifact(String path, long size, String hash, String hashAlgorithm) {
+            this.path = path;
+            this.size = size;
+            this.hash = hash;
+            this.hashAlgorithm = hashAlgorithm;
+        }
+
+        //------------------------------------------------------------------------------------------
+        public String getPath() {
+            return path;
+        }
+
+        //------------------------------------------------------------------------------------------
+        /**
+         * @return the size in bytes, or -1 if the server did not list it.
+         */
+        public long getSize() {
+            return size;
+        }
+
+        //------------------------------------------------------------------------------------------
+        /**
+         * @return the hex encoded checksum, or null if the server did not list one.
+         */
+        public String getHash() {
+            return hash;
+        }
+
+        //------------------------------------------------------------------------------------------
+        public String getHashAlgorithm() {
+            return hashAlgorithm;
+        }
+    }
+
+    /**
+     * The outcome of a successful {@link VersionDownload#execute()}.
+     */
+    public static class Result {
+        final private int fileCount;
+        final private int skippedCount;
+        final private int resumedCount;
+        final private int retryCount;
+        final private long byteCount;
+        final private long elapsedMillis;
+
+        //------------------------------------------------------------------------------------------
+        private Result(int fileCount, int skippedCount, int resumedCount, int retryCount, long byteCount,
+            long elapsedMillis) {
+            this.fileCount = fileCount;
+            this.skippedCount = skippedCount;
+            this.resumedCount = resumedCount;
+            this.retryCount = retryCount;
+            this.byteCount = byteCount;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        //------------------------------------------------------------------------------------------
+        public int getFileCount() {
+            return fileCount;
+        }
+
+        //------------------------------------------------------------------------------------------
+        /**
+         * @return the number of files already present and verified.
+         */
+        public int getSkippedCount() {
+            return skippedCount;
+        }
+
+        //------------------------------------------------------------------------------------------
+        /**
+         * @return the number of times a partly written file was continued with a range request.
+         */
+        public int getResumedCount() {
+            return resumedCount;
+        }
+
+        //------------------------------------------------------------------------------------------
+        public int getRetryCount() {
+            return retryCount;
+        }
+
+        //------------------------------------------------------------------------------------------
+        /**
+         * @return the number of bytes received.
+         */
+        public long getByteCount() {
+            return byteCount;
+        }
+
+        //------------------------------------------------------------------------------------------
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        //------------------------------------------------------------------------------------------
+        public long getBytesPerSecond() {
+            return elapsedMillis == 0 ? byteCount * 1000L : byteCount * 1000L / elapsedMillis;
+        }
+
+        //------------------------------------------------------------------------------------------
+        @Override
+        public String toString() {
+            return fileCount + " files, " + skippedCount + " skipped, " + resumedCount + " resumed, "
+                + retryCount + " retries, " + byteCount + " bytes in " + elapsedMillis + " ms, "
+                + getBytesPerSecond() + " bytes/s";
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return whether a local file has the size and hash of an artifact. Artifacts listed
+     * without a size or hash match on what they have.
+     */
+    static boolean matches(Artifact artifact, Path file)
+    throws IOException {
+        boolean result = artifact.getSize() < 0 || Files.size(file) == artifact.getSize();
+        if (result && artifact.getHash() != null) {
+            result = hash(file, artifact.getHashAlgorithm()).equalsIgnoreCase(artifact.getHash());
+        }
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return the hex digest of a file. Large files are memory-mapped in regions, so hashing
+     * does not copy them through a heap buffer.
+     */
+    static String hash(Path file, String algorithm)
+    throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(algorithm);
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IOException("Cannot hash " + file, e);
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < MAP_THRESHOLD) {
+                ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+                while (channel.read(buffer) != -1) {
+                    buffer.flip();
+                    digest.update(buffer);
+                    buffer.clear();
+                }
+            }
+            else {
+                for (long position = 0; position < size; position += MAP_REGION_SIZE) {
+                    digest.update(channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(MAP_REGION_SIZE, size - position)));
+                }
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    //----------------------------------------------------------------------------------------------
+    static private String toHex(byte[] bytes) {
+        StringBuilder result = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            result.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return result.toString();
+    }
+
+    //**********************************************************************************************
+    // INSTANCE
+    //**********************************************************************************************
+    final private UDRestClient client;
+    final private String component;
+    final private String version;
+    final private File target;
+    private int concurrency = CONCURRENCY_DEFAULT;
+    private int maxAttempts = MAX_ATTEMPTS_DEFAULT;
+
+    final private AtomicInteger skipped = new AtomicInteger();
+    final private AtomicInteger resumed = new AtomicInteger();
+    final private AtomicInteger retries = new AtomicInteger();
+    final private AtomicLong received = new AtomicLong();
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @param client Sends the requests.
+     * @param component The name or id of the component.
+     * @param version The name or id of the version.
+     * @param target The directory the files are written to.
+     */
+    protected VersionDownload(UDRestClient client, String component, String version, File target) {
+        this.client = client;
+        this.component = component;
+        this.version = version;
+        this.target = target;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @param concurrency The most files downloaded at once. Clients not created from a
+     * {@link UDClientSession} hold a single connection, so they should download one at a time.
+     */
+    public VersionDownload setConcurrency(int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("concurrency must be at least 1: " + concurrency);
+        }
+        this.concurrency = concurrency;
+        return this;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @param maxAttempts How often a file is requested before the download fails.
+     */
+    public VersionDownload setMaxAttempts(int maxAttempts) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts must be at least 1: " + maxAttempts);
+        }
+        this.maxAttempts = maxAttempts;
+        return this;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return the files of the version.
+     */
+    public List<Artifact> getArtifacts()
+    throws IOException, JSONException {
+        String uri = Endpoints.VERSION_ARTIFACTS.expand(client.url, component, version);
+        JSONArray json = client.getBodyAsJSONArray(client.invokeMethod(new HttpGet(uri)));
+        List<Artifact> result = new ArrayList<Artifact>(json.length());
+        for (int i = 0; i < json.length(); i++) {
+            result.add(Artifact.fromJSON(json.getJSONObject(i)));
+        }
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Download all files of the version and wait for the last one. Partial files of a failed
+     * download are kept, so running it again continues where it stopped.
+     *
+     * @return the counts and throughput of the download.
+     *
+     * @throws IOException the failure of the first file that failed on its last attempt.
+     */
+    public Result execute()
+    throws IOException, JSONException {
+        long start = System.currentTimeMillis();
+        skipped.set(0);
+        resumed.set(0);
+        retries.set(0);
+        received.set(0L);
+        List<Artifact> artifacts = getArtifacts();
+
+        final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+        BulkExecutor executor = new BulkExecutor(concurrency);
+        try {
+            BulkExecutor.Result<Artifact, Void> result = executor.invokeAll(client, artifacts, artifact -> {
+                if (failure.get() != null) {
+                    throw new IOException("Skipped after an earlier file failed");
+                }
+                try {
+                    download(artifact);
+                }
+                catch (Exception e) {
+                    failure.compareAndSet(null, e);
+                    throw e;
+                }
+                return null;
+            });
+            if (!result.getCancelled().isEmpty()) {
+                throw new InterruptedIOException("Version download was cancelled");
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted downloading version files");
+        }
+        finally {
+            executor.close();
+        }
+
+        Exception e = failure.get();
+        if (e instanceof IOException) {
+            throw (IOException) e;
+        }
+        if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        }
+        if (e != null) {
+            throw new IOException(e);
+        }
+
+        Result download = new Result(artifacts.size(), skipped.get(), resumed.get(), retries.get(),
+            received.get(), System.currentTimeMillis() - start);
+        log.debug("Downloaded " + download);
+        return download;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    private void download(Artifact artifact)
+    throws IOException, InterruptedException {
+        Path file = new File(target, artifact.getPath()).toPath().normalize();
+        if (!file.startsWith(target.toPath().normalize())) {
+            throw new IOException("Artifact path leaves the target directory: " + artifact.getPath());
+        }
+        Path part = file.resolveSibling(file.getFileName() + PART_SUFFIX);
+        if (Files.isRegularFile(file) && matches(artifact, file)) {
+            skipped.incrementAndGet();
+            return;
+        }
+        Files.createDirectories(file.getParent());
+
+        for (int attempt = 1; ; attempt++) {
+            try {
+                fetch(artifact, part);
+                if (!matches(artifact, part)) {
+                    Files.delete(part);
+                    throw new IOException("Checksum or size mismatch for " + artifact.getPath());
+                }
+                Files.move(part, file, StandardCopyOption.REPLACE_EXISTING);
+                return;
+            }
+            catch (IOException e) {
+                if (attempt >= maxAttempts || Thread.currentThread().isInterrupted()) {
+                    throw e;
+                }
+                retries.incrementAndGet();
+                log.debug("Retrying " + artifact.getPath() + " after " + e);
+                Thread.sleep(RETRY_DELAY_MILLIS * attempt);
+            }
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Write the missing bytes of a file to its part file.
+     */
+    private void fetch(Artifact artifact, Path part)
+    throws IOException {
+        long offset = Files.exists(part) ? Files.size(part) : 0L;
+        if (artifact.getSize() >= 0 && offset >= artifact.getSize()) {
+            // complete except for verification, or longer than it should be
+            if (offset > artifact.getSize()) {
+                Files.delete(part);
+                offset = 0L;
+            }
+            else {
+                return;
+            }
+        }
+
+        String uri = Endpoints.VERSION_ARTIFACT_DOWNLOAD.expand(client.url, component, version,
+            artifact.getPath());
+        HttpGet method = new HttpGet(uri);
+        if (offset > 0) {
+            method.setHeader("Range", "bytes=" + offset + "-");
+        }
+        try {
+            HttpResponse response = client.invokeMethod(method);
+            boolean partial = response.getStatusLine().getStatusCode() == HttpStatus.SC_PARTIAL_CONTENT;
+            if (offset > 0 && partial) {
+                resumed.incrementAndGet();
+            }
+            HttpEntity entity = response.getEntity();
+            try (FileChannel channel = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                // a server ignoring the range sends the whole file
+                long position = partial ? offset : 0L;
+                channel.truncate(position);
+                if (entity != null) {
+                    try (InputStream in = entity.getContent()) {
+                        byte[] buffer = new byte[BUFFER_SIZE];
+                        int count;
+                        while ((count = in.read(buffer)) != -1) {
+                            ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, count);
+                            while (bytes.hasRemaining()) {
+                                position += channel.write(bytes, position);
+                            }
+                            received.addAndGet(count);
+                        }
+                    }
+                }
+                channel.force(false);
+            }
+        }
+        finally {
+            client.releaseConnection(method);
+        }
+    }
+}
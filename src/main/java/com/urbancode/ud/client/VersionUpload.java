@@ -0,0 +1,525 @@
+/**
+ * (c) Copyright IBM Corporation 2011, 2017.
+ * (c) Copyright HCL Technologies Ltd. 2018. All Rights Reserved.
+ * This is licensed under the following license.
+ * The Apache Version 2.0 License (https://www.apache.org/licenses/LICENSE-2.0.txt)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+package com.urbancode.ud.client;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Uploads the files of a component version in chunks, several chunks at a time. The files under
+ * the base directory are selected with the includes and excludes, then packed into chunks capped
+ * by file count and bytes. Each chunk is uploaded as one unit and retried on failure.
+ * <p>
+ * Each chunk is staged in a temporary directory of its own, holding hard links to the chunk's
+ * files, or copies where the file system cannot link them. The uploader sends that whole
+ * directory, so it never has to select the chunk's files by name from the base directory.
+ * <p>
+ * When a chunk still fails after its last attempt, chunks not yet started are skipped and
+ * {@link #execute()} throws, so a caller can delete the incomplete version.
+ * <p>
+ * With a baseline, the files of an earlier version, the upload is incremental: selected files
+ * whose size and hash match the baseline are left out. The files are hashed in parallel before
+ * the first chunk is sent.
+ * <p>
+ * Create uploads with {@link VersionClient#newVersionUpload}.
+ */
+public class VersionUpload {
+
+    //**********************************************************************************************
+    // CLASS
+    //**********************************************************************************************
+    final static private Logger log = Logger.getLogger(VersionUpload.class);
+    final static private long RETRY_DELAY_MILLIS = 1000L;
+
+    public static final int CONCURRENCY_DEFAULT = 4;
+    public static final int CHUNK_FILES_DEFAULT = 500;
+    public static final long CHUNK_BYTES_DEFAULT = 256L * 1024L * 1024L;
+    public static final int MAX_ATTEMPTS_DEFAULT = 3;
+
+    /**
+     * Uploads one chunk of files to the version.
+     */
+    public interface ChunkUploader {
+        /**
+         * @param base A directory holding exactly the files of the chunk. It is deleted after
+         * the chunk is uploaded.
+         * @param paths The paths of the files to upload, relative to the directory and
+         * separated by '/'.
+         */
+        void upload(File base, List<String> paths)
+        throws Exception;
+    }
+
+    /**
+     * The outcome of a successful {@link VersionUpload#execute()}.
+     */
+    public static class Result {
+        final private int fileCount;
+        final private int unchangedCount;
+        final private long byteCount;
+        final private int chunkCount;
+        final private int retryCount;
+        final private long elapsedMillis;
+
+        //------------------------------------------------------------------------------------------
+        private Result(int fileCount, int unchangedCount, long byteCount, int chunkCount, int retryCount,
+            long elapsedMillis) {
+            this.fileCount = fileCount;
+            this.unchangedCount = unchangedCount;
+            this.byteCount = byteCount;
+            this.chunkCount = chunkCount;
+            this.retryCount = retryCount;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        //------------------------------------------------------------------------------------------
+        public int getFileCount() {
+            return fileCount;
+        }
+
+        //------------------------------------------------------------------------------------------
+        /**
+         * @return the number of selected files left out because they match the baseline.
+         */
+        public int getUnchangedCount() {
+            return unchangedCount;
+        }
+
+        //------------------------------------------------------------------------------------------
+        public long getByteCount() {
+            return byteCount;
+        }
+
+        //------------------------------------------------------------------------------------------
+        public int getChunkCount() {
+            return chunkCount;
+        }
+
+        //------------------------------------------------------------------------------------------
+        /**
+         * @return the number of chunk uploads that failed and were tried again.
+         */
+        public int getRetryCount() {
+            return retryCount;
+        }
+
+        //------------------------------------------------------------------------------------------
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        //------------------------------------------------------------------------------------------
+        public long getBytesPerSecond() {
+            return elapsedMillis == 0 ? byteCount * 1000L : byteCount * 1000L / elapsedMillis;
+        }
+
+        //------------------------------------------------------------------------------------------
+        @Override
+        public String toString() {
+            return fileCount + " files, " + unchangedCount + " unchanged, " + byteCount + " bytes in " + chunkCount + " chunks, "
+                + retryCount + " retries, " + elapsedMillis + " ms, " + getBytesPerSecond() + " bytes/s";
+        }
+    }
+
+    /**
+     * A selected file.
+     */
+    static private class Candidate {
+        final private String path;
+        final private long size;
+
+        //------------------------------------------------------------------------------------------
+        private Candidate(String path, long size) {
+            this.path = path;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Files uploaded together.
+     */
+    static private class Chunk {
+        final private List<String> paths = new ArrayList<String>();
+        private long bytes;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Convert an Ant-style pattern, as accepted by addVersionFiles, to a regular expression.
+     * "**" matches any number of directories, "*" and "?" match within one path segment.
+     */
+    static Pattern toPattern(String antPattern) {
+        String pattern = antPattern.replace('\\', '/');
+        if (pattern.endsWith("/")) {
+            pattern += "**";
+        }
+        StringBuilder result = new StringBuilder();
+        int i = 0;
+        while (i < pattern.length()) {
+            char c = pattern.charAt(i);
+            if (pattern.startsWith("**/", i)) {
+                result.append("(?:.*/)?");
+                i += 3;
+            }
+            else if (pattern.startsWith("**", i)) {
+                result.append(".*");
+                i += 2;
+            }
+            else {
+                if (c == '*') {
+                    result.append("[^/]*");
+                }
+                else if (c == '?') {
+                    result.append("[^/]");
+                }
+                else {
+                    result.append(Pattern.quote(String.valueOf(c)));
+                }
+                i++;
+            }
+        }
+        return Pattern.compile(result.toString());
+    }
+
+    //----------------------------------------------------------------------------------------------
+    static private List<Pattern> toPatterns(String[] antPatterns) {
+        List<Pattern> result = new ArrayList<Pattern>();
+        if (antPatterns != null) {
+            for (String antPattern : antPatterns) {
+                if (antPattern != null && !antPattern.trim().isEmpty()) {
+                    result.add(toPattern(antPattern.trim()));
+                }
+            }
+        }
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    static private boolean matchesAny(List<Pattern> patterns, String path) {
+        for (Pattern pattern : patterns) {
+            if (pattern.matcher(path).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    //**********************************************************************************************
+    // INSTANCE
+    //**********************************************************************************************
+    final private UDRestClient client;
+    final private File base;
+    final private List<Pattern> includes;
+    final private List<Pattern> excludes;
+    final private ChunkUploader uploader;
+    private int concurrency = CONCURRENCY_DEFAULT;
+    private int chunkFiles = CHUNK_FILES_DEFAULT;
+    private long chunkBytes = CHUNK_BYTES_DEFAULT;
+    private int maxAttempts = MAX_ATTEMPTS_DEFAULT;
+    private Map<String, VersionDownload.Artifact> baseline;
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @param client The client whose server the files are uploaded to.
+     * @param base The directory holding the files.
+     * @param includes Ant-style patterns of the files to upload, or null for all files.
+     * @param excludes Ant-style patterns of files to leave out, or null.
+     * @param uploader Uploads a chunk.
+     */
+    protected VersionUpload(UDRestClient client, File base, String[] includes, String[] excludes,
+        ChunkUploader uploader) {
+        this.client = client;
+        this.base = base;
+        this.includes = toPatterns(includes);
+        this.excludes = toPatterns(excludes);
+        this.uploader = uploader;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @param concurrency The most chunks uploaded at once. Clients not created from a
+     * {@link UDClientSession} hold a single connection, so they should upload one at a time.
+     */
+    public VersionUpload setConcurrency(int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("concurrency must be at least 1: " + concurrency);
+        }
+        this.concurrency = concurrency;
+        return this;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @param chunkFiles The most files in one chunk.
+     * @param chunkBytes The most bytes in one chunk. A larger file is uploaded as a chunk of its own.
+     */
+    public VersionUpload setChunkSize(int chunkFiles, long chunkBytes) {
+        if (chunkFiles < 1) {
+            throw new IllegalArgumentException("chunkFiles must be at least 1: " + chunkFiles);
+        }
+        this.chunkFiles = chunkFiles;
+        this.chunkBytes = chunkBytes;
+        return this;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @param maxAttempts How often a chunk is tried before the upload fails.
+     */
+    public VersionUpload setMaxAttempts(int maxAttempts) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts must be at least 1: " + maxAttempts);
+        }
+        this.maxAttempts = maxAttempts;
+        return this;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Upload only the files that differ from a baseline, such as the files of the previous
+     * version listed by {@link VersionClient#getVersionArtifacts}.
+     *
+     * @param artifacts The files of the baseline, or null to upload every selected file.
+     */
+    public VersionUpload setBaseline(Collection<VersionDownload.Artifact> artifacts) {
+        if (artifacts == null) {
+            baseline = null;
+        }
+        else {
+            baseline = new HashMap<String, VersionDownload.Artifact>();
+            for (VersionDownload.Artifact artifact : artifacts) {
+                baseline.put(artifact.getPath(), artifact);
+            }
+        }
+        return this;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Upload all selected files and wait for the last chunk.
+     *
+     * @return the counts and throughput of the upload.
+     *
+     * @throws Exception the failure of the first chunk that failed on its last attempt.
+     */
+    public Result execute()
+    throws Exception {
+        long start = System.currentTimeMillis();
+        List<Candidate> selected = scan();
+        List<Candidate> changed = baseline == null ? selected : changed(selected);
+        List<Chunk> chunks = pack(changed);
+
+        final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+        final AtomicInteger retries = new AtomicInteger();
+        final AtomicLong uploaded = new AtomicLong();
+        BulkExecutor.Result<Chunk, Void> result;
+        BulkExecutor executor = new BulkExecutor(concurrency);
+        try {
+            result = executor.invokeAll(client, chunks, chunk -> {
+                if (failure.get() != null) {
+                    throw new IOException("Skipped after an earlier chunk failed");
+                }
+                try {
+                    upload(chunk, retries);
+                }
+                catch (Exception e) {
+                    failure.compareAndSet(null, e);
+                    throw e;
+                }
+                uploaded.addAndGet(chunk.bytes);
+                return null;
+            });
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted uploading version files");
+        }
+        finally {
+            executor.close();
+        }
+
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        if (!result.getCancelled().isEmpty()) {
+            throw new InterruptedIOException("Version upload was cancelled");
+        }
+
+        Result upload = new Result(changed.size(), selected.size() - changed.size(), uploaded.get(),
+            chunks.size(), retries.get(), System.currentTimeMillis() - start);
+        log.debug("Uploaded " + upload);
+        return upload;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    private void upload(Chunk chunk, AtomicInteger retries)
+    throws Exception {
+        Path staged = stage(chunk);
+        try {
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    uploader.upload(staged.toFile(), Collections.unmodifiableList(chunk.paths));
+                    return;
+                }
+                catch (Exception e) {
+                    if (attempt >= maxAttempts || Thread.currentThread().isInterrupted()) {
+                        throw e;
+                    }
+                    retries.incrementAndGet();
+                    log.debug("Retrying a chunk of " + chunk.paths.size() + " files after " + e);
+                    Thread.sleep(RETRY_DELAY_MILLIS * attempt);
+                }
+            }
+        }
+        finally {
+            delete(staged);
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return a new temporary directory with the files of the chunk at their relative paths.
+     */
+    private Path stage(Chunk chunk)
+    throws IOException {
+        Path result = Files.createTempDirectory("ud-version-chunk-");
+        try {
+            Path root = base.toPath();
+            for (String path : chunk.paths) {
+                Path source = root.resolve(path);
+                Path target = result.resolve(path);
+                Files.createDirectories(target.getParent());
+                try {
+                    Files.createLink(target, source);
+                }
+                catch (IOException | UnsupportedOperationException e) {
+                    // e.g. the temporary directory is on another file system
+                    Files.copy(source, target, StandardCopyOption.COPY_ATTRIBUTES);
+                }
+            }
+        }
+        catch (IOException | RuntimeException e) {
+            delete(result);
+            throw e;
+        }
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    static private void delete(Path directory) {
+        try {
+            Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes)
+                throws IOException {
+                    Files.delete(file);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException e)
+                throws IOException {
+                    Files.delete(dir);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        catch (IOException e) {
+            log.warn("Failed to delete the staged chunk " + directory + ": " + e);
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return the selected files.
+     */
+    private List<Candidate> scan()
+    throws IOException {
+        final List<Candidate> result = new ArrayList<Candidate>();
+        final Path root = base.toPath();
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                String path = root.relativize(file).toString().replace(File.separatorChar, '/');
+                if (attributes.isRegularFile()
+                    && (includes.isEmpty() || matchesAny(includes, path))
+                    && !matchesAny(excludes, path)) {
+                    result.add(new Candidate(path, attributes.size()));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return the files that are not in the baseline or differ from it, in their original order.
+     * Only files whose size matches are hashed.
+     */
+    private List<Candidate> changed(List<Candidate> candidates)
+    throws IOException {
+        try {
+            return candidates.parallelStream().filter(candidate -> {
+                VersionDownload.Artifact artifact = baseline.get(candidate.path);
+                if (artifact == null || artifact.getHash() == null || artifact.getSize() != candidate.size) {
+                    return true;
+                }
+                try {
+                    return !VersionDownload.matches(artifact, new File(base, candidate.path).toPath());
+                }
+                catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }).collect(Collectors.toList());
+        }
+        catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return the files packed into chunks.
+     */
+    private List<Chunk> pack(List<Candidate> candidates) {
+        List<Chunk> result = new ArrayList<Chunk>();
+        Chunk current = null;
+        for (Candidate candidate : candidates) {
+            if (current == null || current.paths.size() >= chunkFiles
+                || (!current.paths.isEmpty() && current.bytes + candidate.size > chunkBytes)) {
+                current = new Chunk();
+                result.add(current);
+            }
+            current.paths.add(candidate.path);
+            current.bytes += candidate.size;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,139 @@
+/**
+ * (c) Copyright IBM Corporation 2011, 2017.
+ * (c) Copyright HCL Technologies Ltd. 2018. All Rights Reserved.
+ * This is licensed under the following license.
+ * The Apache Version 2.0 License (https://www.apache.org/licenses/LICENSE-2.0.txt)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+package com.urbancode.ud.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.codehaus.jettison.json.JSONException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ApplicationClientTest {
+
+    //**********************************************************************************************
+    // CLASS
+    //**********************************************************************************************
+    static private final int REQUESTS = 120;
+
+    //**********************************************************************************************
+    // INSTANCE
+    //**********************************************************************************************
+    private StubUcdServer server;
+    private UDClientSession session;
+    private ApplicationClient applications;
+
+    @Before
+    public void setUp()
+    throws IOException {
+        server = new StubUcdServer();
+        session = new UDClientSession(server.getUri(), "admin", "admin", false, 4);
+        session.getProcessWatcher().setMinInterval(20, TimeUnit.MILLISECONDS);
+        applications = session.getApplicationClient();
+    }
+
+    @After
+    public void tearDown() {
+        session.close();
+        server.close();
+    }
+
+    //----------------------------------------------------------------------------------------------
+    private UUID deploy(int environment)
+    throws IOException, JSONException {
+        return applications.requestApplicationProcess("JPetStore", "Deploy", null, "env-" + environment,
+            null, false, Collections.singletonMap("web", Collections.singletonList("1.0." + environment)));
+    }
+
+    @Test
+    public void testAwaitAllCompletesEveryRequest()
+    throws Exception {
+        server.setProcessDurationMillis(300);
+        List<UUID> requestIds = new ArrayList<UUID>();
+        for (int i = 0; i < REQUESTS; i++) {
+            requestIds.add(deploy(i));
+        }
+
+        Map<UUID, CompletableFuture<ApplicationClient.ProcessRequestStatus>> results =
+            applications.awaitAll(requestIds, 1, TimeUnit.MINUTES);
+
+        assertEquals(requestIds, new ArrayList<UUID>(results.keySet()));
+        for (UUID requestId : requestIds) {
+            ApplicationClient.ProcessRequestStatus status = results.get(requestId).get();
+            assertEquals(requestId, status.getRequestId());
+            assertEquals("CLOSED", status.getStatus());
+            assertTrue(status.isSuccessful());
+        }
+        // one scheduled check per group of requests
+        long groups = (REQUESTS + ApplicationClient.AWAIT_GROUP_SIZE - 1) / ApplicationClient.AWAIT_GROUP_SIZE;
+        assertTrue(session.getProcessWatcher().getPollCount() < groups * 20);
+    }
+
+    @Test
+    public void testAwaitApplicationProcessTimesOut()
+    throws Exception {
+        server.setProcessDurationMillis(60000);
+        CompletableFuture<ApplicationClient.ProcessRequestStatus> result =
+            applications.awaitApplicationProcess(deploy(0), 200, TimeUnit.MILLISECONDS);
+        try {
+            result.get();
+            assertTrue("expected a timeout", false);
+        }
+        catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+    }
+
+    @Test
+    public void testUnknownRequestFailsAlone()
+    throws Exception {
+        server.setProcessDurationMillis(100);
+        UUID known = deploy(0);
+        UUID unknown = UUID.randomUUID();
+
+        Map<UUID, CompletableFuture<ApplicationClient.ProcessRequestStatus>> results =
+            applications.awaitAll(Arrays.asList(unknown, known), 1, TimeUnit.MINUTES);
+
+        assertTrue(results.get(known).get().isSuccessful());
+        try {
+            results.get(unknown).get();
+            assertTrue("expected the unknown request to fail", false);
+        }
+        catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    @Test
+    public void testEmptyStatusResponseIsRetried()
+    throws Exception {
+        server.setProcessDurationMillis(100);
+        List<UUID> requestIds = Arrays.asList(deploy(0), deploy(1));
+        server.failNext("/cli/applicationProcessRequest/requestStatus", 204, 2);
+
+        Map<UUID, CompletableFuture<ApplicationClient.ProcessRequestStatus>> results =
+            applications.awaitAll(requestIds, 1, TimeUnit.MINUTES);
+
+        for (UUID requestId : requestIds) {
+            assertTrue(results.get(requestId).get().isSuccessful());
+        }
+    }
+}
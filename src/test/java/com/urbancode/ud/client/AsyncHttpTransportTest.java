@@ -0,0 +1,149 @@
+/**
+ * (c) Copyright IBM Corporation 2011, 2017.
+ * (c) Copyright HCL Technologies Ltd. 2018. All Rights Reserved.
+ * This is licensed under the following license.
+ * The Apache Version 2.0 License (https://www.apache.org/licenses/LICENSE-2.0.txt)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+package com.urbancode.ud.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import org.codehaus.jettison.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AsyncHttpTransportTest {
+
+    //**********************************************************************************************
+    // CLASS
+    //**********************************************************************************************
+
+    //**********************************************************************************************
+    // INSTANCE
+    //**********************************************************************************************
+    private StubUcdServer server;
+
+    @Before
+    public void setUp()
+    throws Exception {
+        server = new StubUcdServer();
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void testStandaloneClientKeepsManyReadsInFlight()
+    throws Exception {
+        // A standalone client has a single worker thread; its reads must not wait for it
+        server.setLatency(300, 300);
+        ComponentClient client = new ComponentClient(server.getUri(), "admin", "admin");
+        List<CompletableFuture<JSONObject>> futures = new ArrayList<CompletableFuture<JSONObject>>();
+        long started = System.nanoTime();
+        for (int i = 0; i < 20; i++) {
+            futures.add(client.getComponentAsync("component-" + i));
+        }
+        for (int i = 0; i < 20; i++) {
+            assertEquals("component-" + i, futures.get(i).get().getString("name"));
+        }
+        long elapsedMillis = (System.nanoTime() - started) / 1000000L;
+        assertTrue("took " + elapsedMillis + " ms", elapsedMillis < 20 * 300 / 3);
+    }
+
+    @Test
+    public void testStandaloneClientKeepsManyProcessRequestsInFlight()
+    throws Exception {
+        server.setLatency(500, 500);
+        ApplicationClient applications = new ApplicationClient(server.getUri(), "admin", "admin");
+        ProcessClient processes = new ProcessClient(server.getUri(), "admin", "admin");
+        List<CompletableFuture<UUID>> futures = new ArrayList<CompletableFuture<UUID>>();
+        for (int i = 0; i < 10; i++) {
+            futures.add(applications.requestApplicationProcessAsync("shop", "Deploy", null, "env-" + i,
+                null, false, Collections.singletonMap("web", Collections.singletonList("1.0." + i))));
+            futures.add(processes.requestGenericProcessAsync("deploy", null, "/agents/a" + i, null));
+        }
+
+        // none of them waits for a worker thread
+        AsyncHttpTransport transport = applications.getAsyncTransport();
+        assertSame(transport, processes.getAsyncTransport());
+        long deadline = System.nanoTime() + 400000000L;
+        while (transport.getInFlightCount() < futures.size() && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(futures.size(), transport.getInFlightCount());
+
+        Set<UUID> requestIds = new HashSet<UUID>();
+        for (CompletableFuture<UUID> future : futures) {
+            requestIds.add(future.get());
+        }
+        assertEquals(futures.size(), requestIds.size());
+        assertEquals(10, server.getRequestCount("/cli/applicationProcessRequest/request"));
+        assertEquals(10, server.getRequestCount("/rest/process/request"));
+    }
+
+    @Test
+    public void testReadIsRetried()
+    throws Exception {
+        UDClientSession session = new UDClientSession(server.getUri(), "admin", "admin", false, 2);
+        try {
+            server.failNext("/cli/application/info", 503, 1);
+            JSONObject application = session.getApplicationClient().getApplicationAsync("JPetStore").get();
+            assertEquals("JPetStore", application.getString("name"));
+            assertEquals(2, server.getRequestCount("/cli/application/info"));
+        }
+        finally {
+            session.close();
+        }
+    }
+
+    @Test
+    public void testErrorStatusFailsTheFuture()
+    throws Exception {
+        UDClientSession session = new UDClientSession(server.getUri(), "admin", "admin", false, 2);
+        try {
+            server.failNext("/cli/component/info", 404, 1);
+            try {
+                session.getComponentClient().getComponentAsync("missing").get();
+                fail("Expected a StatusException");
+            }
+            catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof StatusException);
+                assertEquals(404, ((StatusException) e.getCause()).getStatusCode());
+            }
+        }
+        finally {
+            session.close();
+        }
+    }
+
+    @Test
+    public void testClosedTransportFailsRequests()
+    throws Exception {
+        UDClientSession session = new UDClientSession(server.getUri(), "admin", "admin", false, 2);
+        session.close();
+        try {
+            session.getComponentClient().getComponentAsync("core-lib").get();
+            fail("Expected the request to fail");
+        }
+        catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/**
+ * (c) Copyright IBM Corporation 2011, 2017.
+ * (c) Copyright HCL Technologies Ltd. 2018. All Rights Reserved.
+ * This is licensed under the following license.
+ * The Apache Version 2.0 License (https://www.apache.org/licenses/LICENSE-2.0.txt)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+package com.urbancode.ud.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BulkExecutorTest {
+
+    //**********************************************************************************************
+    // CLASS
+    //**********************************************************************************************
+
+    //**********************************************************************************************
+    // INSTANCE
+    //**********************************************************************************************
+    private BulkExecutor bulk;
+    private URI server;
+
+    @Before
+    public void createExecutor() throws URISyntaxException {
+        bulk = new BulkExecutor(4);
+        server = new URI("https://localhost:8443");
+    }
+
+    @After
+    public void closeExecutor() {
+        bulk.close();
+    }
+
+    @Test
+    public void testResultsAndFailures()
+    throws InterruptedException {
+        List<Integer> items = new ArrayList<Integer>();
+        for (int i = 0; i < 100; i++) {
+            items.add(i);
+        }
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger peak = new AtomicInteger();
+
+        BulkExecutor.Result<Integer, String> result = bulk.invokeAll(server, items, item -> {
+            peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(1);
+                if (item % 10 == 0) {
+                    throw new IOException("500 Internal Server Error");
+                }
+                return "v" + item;
+            }
+            finally {
+                running.decrementAndGet();
+            }
+        });
+
+        assertEquals(90, result.getResults().size());
+        assertEquals(10, result.getFailures().size());
+        assertEquals("v1", result.getResults().get(1));
+        assertTrue(result.getFailures().get(20) instanceof IOException);
+        assertFalse(result.isCancelled());
+        assertTrue(peak.get() <= 4);
+    }
+
+    @Test
+    public void testCancel()
+    throws InterruptedException {
+        List<Integer> items = new ArrayList<Integer>();
+        for (int i = 0; i < 50; i++) {
+            items.add(i);
+        }
+        final CountDownLatch started = new CountDownLatch(4);
+        BulkExecutor.Batch<Integer, Integer> batch = bulk.submit(server, items, item -> {
+            started.countDown();
+            Thread.sleep(60000);
+            return item;
+        });
+        started.await();
+        batch.cancel();
+
+        BulkExecutor.Result<Integer, Integer> result = batch.await();
+        assertTrue(result.isCancelled());
+        assertEquals(50, result.getCancelled().size());
+        assertTrue(result.getResults().isEmpty());
+    }
+
+    @Test
+    public void testCancelRightAfterSubmit()
+    throws InterruptedException {
+        List<Integer> items = new ArrayList<Integer>();
+        for (int i = 0; i < 50; i++) {
+            items.add(i);
+        }
+        BulkExecutor.Batch<Integer, Integer> batch = bulk.submit(server, items, item -> {
+            Thread.sleep(60000);
+            return item;
+        });
+        batch.cancel();
+
+        BulkExecutor.Result<Integer, Integer> result = batch.await();
+        assertTrue(result.isCancelled());
+        assertEquals(50, result.getCancelled().size());
+
+        // every permit was returned
+        assertTrue(bulk.invokeAll(server, items, item -> item).isSuccessful());
+    }
+
+    @Test
+    public void testCancelDoesNotInterruptOtherBatches()
+    throws InterruptedException {
+        List<Integer> items = new ArrayList<Integer>();
+        for (int i = 0; i < 4; i++) {
+            items.add(i);
+        }
+        BulkExecutor.Batch<Integer, Integer> finished = bulk.submit(server, items, item -> item);
+        assertTrue(finished.await().isSuccessful());
+
+        final CountDownLatch started = new CountDownLatch(4);
+        BulkExecutor.Batch<Integer, Integer> running = bulk.submit(server, items, item -> {
+            started.countDown();
+            Thread.sleep(200);
+            return item;
+        });
+        started.await();
+        // the pool threads of the finished batch now run the other one
+        finished.cancel();
+
+        BulkExecutor.Result<Integer, Integer> result = running.await();
+        assertTrue(result.isSuccessful());
+        assertEquals(4, result.getResults().size());
+    }
+}
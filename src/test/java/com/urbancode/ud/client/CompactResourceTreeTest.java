@@ -0,0 +1,167 @@
+/**
+ * (c) Copyright IBM Corporation 2011, 2017.
+ * (c) Copyright HCL Technologies Ltd. 2018. All Rights Reserved.
+ * This is licensed under the following license.
+ * The Apache Version 2.0 License (https://www.apache.org/licenses/LICENSE-2.0.txt)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+package com.urbancode.ud.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.util.UUID;
+
+import org.codehaus.jettison.json.JSONArray;
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+import org.junit.Test;
+
+public class CompactResourceTreeTest {
+
+    //**********************************************************************************************
+    // CLASS
+    //**********************************************************************************************
+
+    //----------------------------------------------------------------------------------------------
+    static private JSONObject resource(String path, JSONObject... children)
+    throws JSONException {
+        JSONObject result = new JSONObject()
+            .put("id", UUID.nameUUIDFromBytes(path.getBytes()).toString())
+            .put("name", path.substring(path.lastIndexOf('/') + 1))
+            .put("path", path)
+            .put("description", "ignored");
+        if (children.length > 0) {
+            JSONArray array = new JSONArray();
+            for (JSONObject child : children) {
+                array.put(child);
+            }
+            result.put("children", array);
+        }
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Two top level resources, an agent with component resources and a resource whose path
+     * does not follow from its name.
+     */
+    static private JSONArray tree()
+    throws JSONException {
+        JSONObject web = resource("/East/host-1/web").put("role", new JSONObject().put("name", "JBoss"));
+        JSONObject db = resource("/East/host-1/db").put("role", new JSONObject().put("name", "DB2"));
+        JSONObject host = resource("/East/host-1", web, db).put("hasAgent", true).put("type", "agent");
+        JSONObject renamed = resource("/East/legacy").put("name", "Legacy Host");
+        JSONObject below = resource("/East/legacy/app");
+        renamed.put("children", new JSONArray().put(below));
+        JSONObject west = resource("/West");
+        west.remove("id");
+        return new JSONArray().put(resource("/East", host, renamed)).put(west);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    static private void assertSameTree(ResourceTree expected, ResourceTree actual) {
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected.getFirstRoot(), actual.getFirstRoot());
+        for (int node = 0; node < expected.size(); node++) {
+            assertEquals(expected.getParent(node), actual.getParent(node));
+            assertEquals(expected.getFirstChild(node), actual.getFirstChild(node));
+            assertEquals(expected.getNextSibling(node), actual.getNextSibling(node));
+            assertEquals(expected.getId(node), actual.getId(node));
+            assertEquals(expected.getName(node), actual.getName(node));
+            assertEquals(expected.getPath(node), actual.getPath(node));
+            assertEquals(expected.getRole(node), actual.getRole(node));
+            assertEquals(expected.getType(node), actual.getType(node));
+            assertEquals(expected.hasAgent(node), actual.hasAgent(node));
+            assertEquals(node, actual.find(expected.getPath(node)));
+        }
+    }
+
+    //**********************************************************************************************
+    // INSTANCE
+    //**********************************************************************************************
+
+    @Test
+    public void testNavigationMatchesTheJson()
+    throws Exception {
+        JsonResourceTree json = new JsonResourceTree(tree());
+        CompactResourceTree compact = CompactResourceTree.fromJSON(tree());
+        assertSameTree(json, compact);
+
+        int host = compact.find("/East/host-1");
+        assertEquals("agent", compact.getType(host));
+        assertTrue(compact.hasAgent(host));
+        assertEquals("JBoss", compact.getRole(compact.getFirstChild(host)));
+        assertEquals("Legacy Host", compact.getName(compact.find("/East/legacy")));
+        assertEquals("/East/legacy/app", compact.getPath(compact.find("/East/legacy/app")));
+        assertNull(compact.getId(compact.find("/West")));
+        assertEquals(ResourceTree.NONE, compact.find("/East/host-2"));
+        assertEquals(ResourceTree.NONE, compact.find("/East/Legacy Host"));
+    }
+
+    @Test
+    public void testStreamedTreeMatchesTheParsedOne()
+    throws Exception {
+        byte[] body = tree().toString().getBytes("UTF-8");
+        JsonStreamReader reader = new JsonStreamReader(new ByteArrayInputStream(body));
+        CompactResourceTree streamed = CompactResourceTree.read(reader);
+        reader.close();
+        assertSameTree(CompactResourceTree.fromJSON(tree()), streamed);
+    }
+
+    @Test
+    public void testOffHeapCopyReadsTheSame()
+    throws Exception {
+        CompactResourceTree heap = CompactResourceTree.fromJSON(tree());
+        CompactResourceTree offHeap = heap.toOffHeap();
+        assertFalse(heap.isOffHeap());
+        assertTrue(offHeap.isOffHeap());
+        assertSameTree(heap, offHeap);
+    }
+
+    @Test
+    public void testOffHeapTreeCanBeCopiedAgain()
+    throws Exception {
+        CompactResourceTree heap = CompactResourceTree.fromJSON(tree());
+        CompactResourceTree copy = heap.toOffHeap().toOffHeap();
+        assertTrue(copy.isOffHeap());
+        assertSameTree(heap, copy);
+    }
+
+    @Test
+    public void testNamesAreSharedInTheDictionary()
+    throws Exception {
+        JSONArray roots = new JSONArray();
+        for (int i = 0; i < 50; i++) {
+            roots.put(resource("/Host " + i, resource("/Host " + i + "/web").put("type", "subresource")));
+        }
+        CompactResourceTree tree = CompactResourceTree.fromJSON(roots);
+        assertEquals(100, tree.size());
+        // fifty host names, "web" and "subresource"
+        assertEquals(52, tree.getDictionary().size());
+    }
+
+    @Test
+    public void testLoadsFromTheServer()
+    throws Exception {
+        StubUcdServer server = new StubUcdServer();
+        UDClientSession session = new UDClientSession(server.getUri(), "admin", "admin", false, 2);
+        try {
+            server.setResourceCount(100);
+            server.addResource("/Stub/web-7.prod.example.com/web", "web", null);
+            ResourceClient client = session.getResourceClient();
+            JsonResourceTree json = new JsonResourceTree(client.getResourceTree());
+            CompactResourceTree compact = client.getCompactResourceTree();
+            assertSameTree(json, compact);
+            assertEquals(102, compact.size());
+            assertEquals("web", compact.getRole(compact.find("/Stub/web-7.prod.example.com/web")));
+        }
+        finally {
+            session.close();
+            server.close();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/**
+ * (c) Copyright IBM Corporation 2011, 2017.
+ * (c) Copyright HCL Technologies Ltd. 2018. All Rights Reserved.
+ * This is licensed under the following license.
+ * The Apache Version 2.0 License (https://www.apache.org/licenses/LICENSE-2.0.txt)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+package com.urbancode.ud.client;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ContentCacheTest {
+
+    //**********************************************************************************************
+    // CLASS
+    //**********************************************************************************************
+    static private final int AGENTS = 50;
+
+    //----------------------------------------------------------------------------------------------
+    static private byte[] content(int size, int seed) {
+        byte[] result = new byte[size];
+        for (int i = 0; i < size; i++) {
+            result[i] = (byte) (seed + i * 7);
+        }
+        return result;
+    }
+
+    //**********************************************************************************************
+    // INSTANCE
+    //**********************************************************************************************
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private StubUcdServer server;
+    private UDClientSession session;
+
+    @Before
+    public void setUp()
+    throws IOException {
+        server = new StubUcdServer();
+        session = new UDClientSession(server.getUri(), "admin", "admin", false, 4);
+    }
+
+    @After
+    public void tearDown() {
+        session.close();
+        server.close();
+    }
+
+    @Test
+    public void testUnchangedPackageIsNotDownloadedAgain()
+    throws Exception {
+        byte[] first = content(2 * 1024 * 1024, 1);
+        server.setAgentPackage(first);
+        ContentCache cache = new ContentCache(folder.newFolder("cache"));
+        session.setContentCache(cache);
+        AgentClient agents = new AgentClient(session);
+
+        List<CompletableFuture<File>> results = new ArrayList<CompletableFuture<File>>();
+        for (int i = 0; i < AGENTS; i++) {
+            final File target = new File(folder.getRoot(), "agent-" + i + ".zip");
+            results.add(agents.async(() -> {
+                agents.getAgentInstallPackage(target);
+                return target;
+            }));
+        }
+        for (CompletableFuture<File> result : results) {
+            assertArrayEquals(first, Files.readAllBytes(result.get().toPath()));
+        }
+        assertEquals(1, cache.getMissCount());
+        assertEquals(AGENTS - 1, cache.getHitCount());
+
+        // a new package is picked up by the next request
+        byte[] second = content(1024, 2);
+        server.setAgentPackage(second);
+        File target = new File(folder.getRoot(), "agent.zip");
+        agents.getAgentInstallPackage(target);
+        assertArrayEquals(second, Files.readAllBytes(target.toPath()));
+        assertEquals(2, cache.getMissCount());
+
+        // a second cache instance on the same directory starts warm
+        AgentClient other = new AgentClient(session);
+        other.setContentCache(new ContentCache(cache.getDirectory()));
+        other.getAgentInstallPackage(target);
+        assertEquals(1, other.getContentCache().getHitCount());
+        assertEquals(0, other.getContentCache().getMissCount());
+    }
+
+    @Test
+    public void testWithoutCacheThePackageIsDownloaded()
+    throws Exception {
+        byte[] content = content(100000, 3);
+        server.setAgentPackage(content);
+        File target = new File(folder.getRoot(), "agent.zip");
+        AgentClient agents = session.getAgentClient();
+        agents.getAgentInstallPackage(target);
+        agents.getAgentInstallPackage(target);
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+        assertEquals(2, server.getRequestCount("/tools/ibm-ucd-agent.zip"));
+    }
+}
@@ -0,0 +1,134 @@
+/**
+ * (c) Copyright IBM Corporation 2011, 2017.
+ * (c) Copyright HCL Technologies Ltd. 2018. All Rights Reserved.
+ * This is licensed under the following license.
+ * The Apache Version 2.0 License (https://www.apache.org/licenses/LICENSE-2.0.txt)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+package com.urbancode.ud.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class InventoryImportTest {
+
+    //**********************************************************************************************
+    // CLASS
+    //**********************************************************************************************
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Generates entries on demand, like a reader over a large export.
+     */
+    static private Iterator<InventoryEntry> entries(final int count) {
+        final String component = UUID.randomUUID().toString();
+        return new Iterator<InventoryEntry>() {
+            private int next;
+
+            public boolean hasNext() {
+                return next < count;
+            }
+
+            public InventoryEntry next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                next++;
+                return new InventoryEntry(UUID.randomUUID().toString(), component,
+                    UUID.randomUUID().toString(), "Active");
+            }
+        };
+    }
+
+    //**********************************************************************************************
+    // INSTANCE
+    //**********************************************************************************************
+    private StubUcdServer server;
+    private UDClientSession session;
+
+    @Before
+    public void setUp()
+    throws IOException {
+        server = new StubUcdServer();
+        session = new UDClientSession(server.getUri(), "admin", "admin", false, 4);
+    }
+
+    @After
+    public void tearDown() {
+        session.close();
+        server.close();
+    }
+
+    @Test
+    public void testEntriesAreSentInConcurrentChunks()
+    throws IOException {
+        final AtomicLong reported = new AtomicLong();
+        InventoryImport.Result result = session.getResourceClient().newInventoryImport("request-1")
+            .setChunkSize(100)
+            .setListener((written, failed) -> reported.accumulateAndGet(written + failed, Math::max))
+            .run(entries(2345));
+
+        assertTrue(result.isSuccessful());
+        assertEquals(2345, result.getWrittenCount());
+        assertEquals(24, result.getRequestCount());
+        assertEquals(24, server.getRequestCount("/rest/inventory/entries"));
+        assertEquals(2345, server.getInventoryEntryCount());
+        assertEquals(2345, reported.get());
+    }
+
+    @Test
+    public void testChunksAreCappedBySize()
+    throws IOException {
+        InventoryImport.Result result = session.getEnvironmentClient().newDesiredInventoryImport("request-1")
+            .setMaxChunkBytes(1000)
+            .run(entries(50));
+
+        assertEquals(50, result.getWrittenCount());
+        assertTrue(String.valueOf(result.getRequestCount()), result.getRequestCount() >= 10);
+        assertEquals(50, server.getInventoryEntryCount());
+    }
+
+    @Test
+    public void testRejectedChunksAreReported()
+    throws IOException {
+        server.failNext("/rest/inventory/desiredInventory/entries", 400, 1);
+        InventoryImport.Result result = session.getEnvironmentClient().newDesiredInventoryImport("request-1")
+            .setChunkSize(100)
+            .setConcurrency(1)
+            .run(entries(250));
+
+        assertEquals(1, result.getFailures().size());
+        assertEquals(100, result.getFailures().get(0).getEntries().size());
+        assertEquals(100, result.getFailedCount());
+        assertEquals(150, result.getWrittenCount());
+        assertEquals(150, server.getInventoryEntryCount());
+    }
+
+    @Test
+    public void testFailingListenerDoesNotFailChunks()
+    throws IOException {
+        InventoryImport.Result result = session.getResourceClient().newInventoryImport("request-1")
+            .setChunkSize(100)
+            .setConcurrency(2)
+            .setListener((written, failed) -> {
+                throw new IllegalStateException("listener failed");
+            })
+            .run(entries(250));
+
+        assertTrue(result.isSuccessful());
+        assertEquals(250, result.getWrittenCount());
+        assertEquals(0, result.getFailedCount());
+        assertEquals(3, result.getRequestCount());
+        assertEquals(250, server.getInventoryEntryCount());
+    }
+}
@@ -0,0 +1,84 @@
+/**
+ * (c) Copyright IBM Corporation 2011, 2017.
+ * (c) Copyright HCL Technologies Ltd. 2018. All Rights Reserved.
+ * This is licensed under the following license.
+ * The Apache Version 2.0 License (https://www.apache.org/licenses/LICENSE-2.0.txt)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+package com.urbancode.ud.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.codehaus.jettison.json.JSONArray;
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+import org.junit.Test;
+
+public class JsonStreamReaderTest {
+
+    //**********************************************************************************************
+    // CLASS
+    //**********************************************************************************************
+    private static final String TREE = "[{\"id\":\"1\",\"name\":\"web \\\"01\\\"\",\"path\":\"/web\\/01\","
+        + "\"active\":true,\"version\":12,\"created\":1546300800000,\"weight\":0.5,\"parent\":null,"
+        + "\"children\":[{\"id\":\"2\",\"name\":\"caf\\u00e9\",\"tags\":[]}],\"extra\":{}}, {\"id\":\"3\"}]";
+
+    //**********************************************************************************************
+    // INSTANCE
+    //**********************************************************************************************
+
+    @Test
+    public void testMatchesJettison()
+    throws IOException, JSONException {
+        JSONArray expected = new JSONArray(TREE);
+        JSONArray actual = new JsonStreamReader(new StringReader(TREE)).readArray();
+
+        assertEquals(expected.toString(), actual.toString());
+        JSONObject first = actual.getJSONObject(0);
+        assertEquals("web \"01\"", first.getString("name"));
+        assertEquals("/web/01", first.getString("path"));
+        assertEquals(Integer.valueOf(12), first.get("version"));
+        assertEquals(Long.valueOf(1546300800000L), first.get("created"));
+        assertEquals(Boolean.TRUE, first.get("active"));
+        assertSame(JSONObject.NULL, first.get("parent"));
+        assertEquals("caf\u00e9", first.getJSONArray("children").getJSONObject(0).getString("name"));
+    }
+
+    @Test
+    public void testSkipValue()
+    throws IOException, JSONException {
+        JsonStreamReader reader = new JsonStreamReader(new StringReader(TREE));
+        List<String> ids = new ArrayList<String>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if ("id".equals(reader.nextName())) {
+                    ids.add(reader.nextString());
+                }
+                else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+        reader.endArray();
+
+        assertEquals(2, ids.size());
+        assertEquals("3", ids.get(1));
+        assertFalse(reader.hasNext());
+    }
+
+    @Test(expected = JSONException.class)
+    public void testMalformed()
+    throws IOException, JSONException {
+        new JsonStreamReader(new StringReader("[1,]")).readArray();
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ * (c) Copyright IBM Corporation 2011, 2017.
+ * (c) Copyright HCL Technologies Ltd. 2018. All Rights Reserved.
+ * This is licensed under the following license.
+ * The Apache Version 2.0 License (https://www.apache.org/licenses/LICENSE-2.0.txt)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+package com.urbancode.ud.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.util.UUID;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+public class MetricsRegistryTest {
+
+    //**********************************************************************************************
+    // CLASS
+    //**********************************************************************************************
+    private static final long MILLI = 1000000L;
+
+    //**********************************************************************************************
+    // INSTANCE
+    //**********************************************************************************************
+
+    @Test
+    public void testEndpointTemplate() {
+        UUID id = UUID.randomUUID();
+        assertEquals("/rest/deploy/component/{id}/versions/{id}", UDRestClient.getEndpointTemplate(
+            URI.create("https://ucd:8443/rest/deploy/component/" + id + "/versions/12?rowsPerPage=10")));
+        assertEquals("/cli/environment/info", UDRestClient.getEndpointTemplate(
+            URI.create("https://ucd:8443/cli/environment/info?environment=DEV&application=web")));
+    }
+
+    @Test
+    public void testPercentiles() {
+        MetricsRegistry registry = new MetricsRegistry();
+        for (int i = 1; i <= 100; i++) {
+            registry.requestCompleted("GET", "/cli/environment/info", 200, i * MILLI, 0);
+        }
+        registry.requestCompleted("GET", "/cli/environment/info", 503, 5 * MILLI, 0);
+        registry.requestRetried("GET", "/cli/environment/info", 503);
+        registry.responseRead("GET", "/cli/environment/info", 1024);
+
+        MetricsRegistry.EndpointStats stats = registry.getEndpoint("GET /cli/environment/info");
+        assertEquals(101, stats.getRequestCount());
+        assertEquals(1, stats.getErrorCount());
+        assertEquals(1, stats.getRetryCount());
+        assertEquals(1024, stats.getBytesIn());
+        assertEquals(Long.valueOf(100), stats.getStatusCounts().get("200"));
+        // buckets are at most 25% wide
+        assertTrue(stats.getP50Millis() >= 50 && stats.getP50Millis() <= 50 * 1.25);
+        assertTrue(stats.getP99Millis() >= 99 && stats.getP99Millis() <= 100);
+        assertEquals(100.0, stats.getMaxMillis(), 0.001);
+    }
+
+    @Test
+    public void testEndpointLimit() {
+        MetricsRegistry registry = new MetricsRegistry(2);
+        registry.requestCompleted("GET", "/a", 200, MILLI, 0);
+        registry.requestCompleted("GET", "/b", 200, MILLI, 0);
+        registry.requestCompleted("GET", "/c", 200, MILLI, 0);
+        registry.requestCompleted("GET", "/d", 200, MILLI, 0);
+
+        assertEquals(3, registry.getEndpoints().size());
+        assertEquals(2, registry.getEndpoint(MetricsRegistry.OTHER_ENDPOINT).getRequestCount());
+    }
+
+    @Test
+    public void testJmxExport()
+    throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.requestCompleted("GET", "/cli/component/info", 200, 3 * MILLI, 0);
+        JmxMetricsExporter exporter = new JmxMetricsExporter(registry, server, "test.metrics");
+        exporter.start();
+        try {
+            registry.requestCompleted("PUT", "/cli/component/create", 200, 3 * MILLI, 128);
+
+            ObjectName name = exporter.getObjectName("PUT /cli/component/create");
+            assertEquals(Long.valueOf(128), server.getAttribute(name, "BytesOut"));
+            assertEquals(Long.valueOf(1), server.getAttribute(
+                exporter.getObjectName("GET /cli/component/info"), "RequestCount"));
+        }
+        finally {
+            exporter.close();
+        }
+        assertEquals(0, server.queryNames(new ObjectName("test.metrics:*"), null).size());
+    }
+}
@@ -0,0 +1,168 @@
+/**
+ * (c) Copyright IBM Corporation 2011, 2017.
+ * (c) Copyright HCL Technologies Ltd. 2018. All Rights Reserved.
+ * This is licensed under the following license.
+ * The Apache Version 2.0 License (https://www.apache.org/licenses/LICENSE-2.0.txt)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+package com.urbancode.ud.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PagedIteratorTest {
+
+    //**********************************************************************************************
+    // CLASS
+    //**********************************************************************************************
+    static private final String VERSIONS_PATH = "/rest/deploy/component/web/versions/";
+
+    //**********************************************************************************************
+    // INSTANCE
+    //**********************************************************************************************
+    private StubUcdServer server;
+    private UDClientSession session;
+
+    @Before
+    public void setUp()
+    throws IOException {
+        server = new StubUcdServer();
+        server.setVersionCount(1234);
+        session = new UDClientSession(server.getUri(), "admin", "admin", false, 4);
+    }
+
+    @After
+    public void tearDown() {
+        session.close();
+        server.close();
+    }
+
+    @Test
+    public void testIteratesAllPagesInOrder()
+    throws JSONException {
+        PagedIterator<JSONObject> versions =
+            session.getComponentClient().getComponentVersionsIterator("web", false, 100);
+        int count = 0;
+        while (versions.hasNext()) {
+            assertEquals("1.0." + count, versions.next().getString("name"));
+            count++;
+        }
+        assertEquals(1234, count);
+        assertEquals(13, server.getRequestCount(VERSIONS_PATH));
+    }
+
+    @Test
+    public void testCappedPageSizeIsFollowed()
+    throws JSONException {
+        server.setMaxRowsPerPage(100);
+        PagedIterator<JSONObject> versions =
+            session.getComponentClient().getComponentVersionsIterator("web", false, 500);
+        int count = 0;
+        while (versions.hasNext()) {
+            assertEquals("1.0." + count, versions.next().getString("name"));
+            count++;
+        }
+        assertEquals(1234, count);
+        assertEquals(13, server.getRequestCount(VERSIONS_PATH));
+    }
+
+    @Test
+    public void testUnpagedResponseIsTheWholeListing() {
+        final List<Integer> all = new ArrayList<Integer>();
+        for (int i = 0; i < 1234; i++) {
+            all.add(i);
+        }
+        final List<Integer> requested = new ArrayList<Integer>();
+        PagedIterator<Integer> iterator = new PagedIterator<Integer>((pageNumber, rowsPerPage) -> {
+            requested.add(pageNumber);
+            return PagedIterator.Page.unpaged(all);
+        }, 500, null);
+        assertEquals(1234, iterator.stream().count());
+        assertEquals(1, requested.size());
+
+        // more rows than asked for also means the paging was ignored
+        requested.clear();
+        iterator = new PagedIterator<Integer>((pageNumber, rowsPerPage) -> {
+            requested.add(pageNumber);
+            return PagedIterator.Page.of(all, -1);
+        }, 500, null);
+        assertEquals(1234, iterator.stream().count());
+        assertEquals(1, requested.size());
+    }
+
+    @Test
+    public void testEmptyPageEndsTheListing() {
+        final List<Integer> requested = new ArrayList<Integer>();
+        PagedIterator<Integer> iterator = new PagedIterator<Integer>((pageNumber, rowsPerPage) -> {
+            requested.add(pageNumber);
+            List<Integer> page = new ArrayList<Integer>();
+            for (int i = 0; pageNumber < 3 && i < rowsPerPage; i++) {
+                page.add(i);
+            }
+            // the total is wrong, e.g. versions were deleted while paging
+            return PagedIterator.Page.of(page, 1000);
+        }, 10, null);
+        assertEquals(20, iterator.stream().count());
+        assertEquals(3, requested.size());
+    }
+
+    @Test
+    public void testStreamArchivedVersions() {
+        try (Stream<JSONObject> versions = session.getComponentClient().streamArchivedComponentVersions("web")) {
+            assertEquals(124, versions.filter(version -> version.optBoolean("archived")).count());
+        }
+    }
+
+    @Test
+    public void testClosingStopsPaging() {
+        List<String> names;
+        try (Stream<JSONObject> versions = session.getComponentClient().streamComponentVersions("web", false)) {
+            names = versions.limit(3).map(version -> version.optString("name")).collect(Collectors.toList());
+        }
+        assertEquals(3, names.size());
+        assertTrue(server.getRequestCount(VERSIONS_PATH) <= 2);
+    }
+
+    @Test
+    public void testFailureIsThrownWhenReached() {
+        final List<Integer> requested = new ArrayList<Integer>();
+        PagedIterator<Integer> iterator = new PagedIterator<Integer>((pageNumber, rowsPerPage) -> {
+            requested.add(pageNumber);
+            if (pageNumber == 2) {
+                throw new IOException("page 2 failed");
+            }
+            List<Integer> page = new ArrayList<Integer>();
+            for (int i = 0; i < rowsPerPage; i++) {
+                page.add(i);
+            }
+            return PagedIterator.Page.of(page, -1);
+        }, 5, null);
+
+        for (int i = 0; i < 5; i++) {
+            iterator.next();
+        }
+        try {
+            iterator.hasNext();
+            assertTrue("expected the failure of page 2", false);
+        }
+        catch (UncheckedIOException e) {
+            assertEquals("page 2 failed", e.getCause().getMessage());
+        }
+        assertFalse(iterator.hasNext());
+        assertEquals(2, requested.size());
+    }
+}
@@ -0,0 +1,141 @@
+/**
+ * (c) Copyright IBM Corporation 2011, 2017.
+ * (c) Copyright HCL Technologies Ltd. 2018. All Rights Reserved.
+ * This is licensed under the following license.
+ * The Apache Version 2.0 License (https://www.apache.org/licenses/LICENSE-2.0.txt)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+package com.urbancode.ud.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ProcessWatcherTest {
+
+    //**********************************************************************************************
+    // CLASS
+    //**********************************************************************************************
+    static private final int PROCESSES = 200;
+
+    //**********************************************************************************************
+    // INSTANCE
+    //**********************************************************************************************
+    private AsyncRequestExecutor executor;
+    private ProcessWatcher watcher;
+
+    @Before
+    public void setUp() {
+        executor = new AsyncRequestExecutor(2);
+        watcher = new ProcessWatcher(executor).setMinInterval(10, TimeUnit.MILLISECONDS);
+    }
+
+    @After
+    public void tearDown() {
+        watcher.close();
+        executor.close();
+    }
+
+    @Test
+    public void testIntervalGrowsWhileStateIsUnchanged()
+    throws Exception {
+        final long doneAt = System.currentTimeMillis() + 1500;
+        final AtomicInteger polls = new AtomicInteger();
+        CompletableFuture<String> result = watcher.watch(() -> {
+            polls.incrementAndGet();
+            return System.currentTimeMillis() >= doneAt
+                ? ProcessWatcher.Poll.done("SUCCEEDED")
+                : ProcessWatcher.Poll.<String>running("EXECUTING");
+        });
+
+        assertEquals("SUCCEEDED", result.get());
+        // checking every 10 ms would have taken 150 polls
+        assertTrue("polls " + polls.get(), polls.get() < 40);
+        assertEquals(0, watcher.getWatchCount());
+    }
+
+    @Test
+    public void testDeadlineFailsTheWatch()
+    throws Exception {
+        CompletableFuture<String> result = watcher.watch(
+            () -> ProcessWatcher.Poll.<String>running("EXECUTING"), 200, TimeUnit.MILLISECONDS);
+        try {
+            result.get();
+            assertTrue("expected a timeout", false);
+        }
+        catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        assertEquals(0, watcher.getWatchCount());
+    }
+
+    @Test
+    public void testManyGenericProcessesShareTheSessionWatcher()
+    throws Exception {
+        StubUcdServer server = new StubUcdServer();
+        UDClientSession session = new UDClientSession(server.getUri(), "admin", "admin", false, 4);
+        try {
+            server.setProcessDurationMillis(300);
+            session.getProcessWatcher().setMinInterval(20, TimeUnit.MILLISECONDS);
+            ProcessClient processes = session.getProcessClient();
+
+            List<CompletableFuture<String>> results = new ArrayList<CompletableFuture<String>>();
+            for (int i = 0; i < PROCESSES; i++) {
+                UUID request = processes.requestGenericProcess("deploy", null, "/agents/a" + i, null);
+                results.add(processes.watchGenericProcess(request.toString(), 1, TimeUnit.MINUTES));
+            }
+            for (CompletableFuture<String> result : results) {
+                assertEquals("SUCCEEDED", result.get());
+            }
+
+            // the workflow trace id is looked up once per process
+            assertEquals(PROCESSES, server.getRequestCount("/rest/process/request/"));
+            assertEquals(session.getProcessWatcher().getPollCount(),
+                server.getRequestCount("/rest/workflow/workflowTrace/"));
+            assertEquals(0, session.getProcessWatcher().getWatchCount());
+
+            UUID request = processes.requestGenericProcess("deploy", null, "/agents/a0", null);
+            assertEquals("SUCCEEDED", processes.getGenericProcessResult(request.toString(), 1));
+        }
+        finally {
+            session.close();
+            server.close();
+        }
+    }
+
+    @Test
+    public void testNoTimeoutChecksOnce()
+    throws Exception {
+        StubUcdServer server = new StubUcdServer();
+        UDClientSession session = new UDClientSession(server.getUri(), "admin", "admin", false, 2);
+        try {
+            server.setProcessDurationMillis(60000);
+            ProcessClient processes = session.getProcessClient();
+            UUID request = processes.requestGenericProcess("deploy", null, "/agents/a0", null);
+            try {
+                processes.getGenericProcessResult(request.toString(), 0);
+                assertTrue("expected a timeout", false);
+            }
+            catch (RemoteException e) {
+                assertEquals(1, server.getRequestCount("/rest/workflow/workflowTrace/"));
+            }
+        }
+        finally {
+            session.close();
+            server.close();
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/**
+ * (c) Copyright IBM Corporation 2011, 2017.
+ * (c) Copyright HCL Technologies Ltd. 2018. All Rights Reserved.
+ * This is licensed under the following license.
+ * The Apache Version 2.0 License (https://www.apache.org/licenses/LICENSE-2.0.txt)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+package com.urbancode.ud.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.codehaus.jettison.json.JSONException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PropertyBatchTest {
+
+    //**********************************************************************************************
+    // CLASS
+    //**********************************************************************************************
+    static private final String BATCH_PATH = "/property/propSheet/";
+    static private final String SINGLE_PATH = "/cli/component/propValue";
+
+    //**********************************************************************************************
+    // INSTANCE
+    //**********************************************************************************************
+    private StubUcdServer server;
+    private UDClientSession session;
+    private String propSheet;
+
+    @Before
+    public void setUp()
+    throws IOException {
+        server = new StubUcdServer();
+        session = new UDClientSession(server.getUri(), "admin", "admin", false, 2);
+        propSheet = "components&" + server.getId("component", null, "web") + "&propSheet";
+    }
+
+    @After
+    public void tearDown() {
+        session.close();
+        server.close();
+    }
+
+    @Test
+    public void testValuesAreMergedIntoTheSheet()
+    throws IOException, JSONException {
+        server.setProperty(propSheet, "existing", "kept", false);
+        PropertyBatch batch = session.getComponentClient().newPropertyBatch("web");
+        for (int i = 0; i < 250; i++) {
+            batch.set("prop." + i, "value " + i);
+        }
+        batch.set("password", "secret", true);
+
+        PropertyBatch.Result result = batch.execute();
+
+        assertTrue(result.getFailures().toString(), result.isSuccessful());
+        assertEquals(251, result.getWritten().size());
+        // one read and one write of the sheet, then the secure value on its own
+        assertEquals(3, result.getRequestCount());
+        assertEquals(2, server.getRequestCount(BATCH_PATH));
+        assertEquals(1, server.getRequestCount(SINGLE_PATH));
+
+        Map<String, String> properties = server.getProperties(propSheet);
+        assertEquals(252, properties.size());
+        assertEquals("kept", properties.get("existing"));
+        assertEquals("value 249", properties.get("prop.249"));
+        assertEquals(0, batch.size());
+    }
+
+    @Test
+    public void testNullValuesOfTheSheetAreKept()
+    throws IOException, JSONException {
+        server.setProperty(propSheet, "unset", null, false);
+        PropertyBatch batch = session.getComponentClient().newPropertyBatch("web");
+        batch.set("a", "1").set("b", null);
+
+        PropertyBatch.Result result = batch.execute();
+
+        assertTrue(result.getFailures().toString(), result.isSuccessful());
+        assertEquals(2, server.getRequestCount(BATCH_PATH));
+        Map<String, String> properties = server.getProperties(propSheet);
+        assertEquals(3, properties.size());
+        assertTrue(properties.containsKey("unset"));
+        assertNull(properties.get("unset"));
+        assertEquals("", properties.get("b"));
+    }
+
+    @Test
+    public void testNullValueIsWrittenEmptyOneAtATime()
+    throws IOException, JSONException {
+        server.failNext(BATCH_PATH, 400, 1);
+        PropertyBatch batch = session.getComponentClient().newPropertyBatch("web");
+        batch.set("b", null);
+
+        PropertyBatch.Result result = batch.execute();
+
+        assertTrue(result.getFailures().toString(), result.isSuccessful());
+        assertEquals(1, server.getRequestCount(SINGLE_PATH));
+        assertEquals("", server.getProperties(propSheet).get("b"));
+    }
+
+    @Test
+    public void testConflictReadsTheSheetAgain()
+    throws IOException, JSONException {
+        server.conflictNextBatches(1);
+        PropertyBatch batch = session.getComponentClient().newPropertyBatch("web");
+        batch.set("a", "1").set("b", "2");
+
+        PropertyBatch.Result result = batch.execute();
+
+        assertTrue(result.getFailures().toString(), result.isSuccessful());
+        assertEquals(4, result.getRequestCount());
+        Map<String, String> properties = server.getProperties(propSheet);
+        // the value written by the other user survived the retry
+        assertEquals(3, properties.size());
+        assertEquals("2", properties.get("b"));
+    }
+
+    @Test
+    public void testRepeatedConflictsFallBackToSingleWrites()
+    throws IOException, JSONException {
+        server.conflictNextBatches(3);
+        PropertyBatch batch = session.getComponentClient().newPropertyBatch("web");
+        batch.set("a", "1").set("b", "2");
+
+        PropertyBatch.Result result = batch.execute();
+
+        assertTrue(result.getFailures().toString(), result.isSuccessful());
+        assertEquals(6 + 2, result.getRequestCount());
+        assertEquals(2 + 3, server.getProperties(propSheet).size());
+    }
+
+    @Test
+    public void testSheetWithSecureValuesIsWrittenOneAtATime()
+    throws IOException, JSONException {
+        server.setProperty(propSheet, "token", "secret", true);
+        PropertyBatch batch = session.getComponentClient().newPropertyBatch("web");
+        batch.set("a", "1").set("b", "2");
+
+        PropertyBatch.Result result = batch.execute();
+
+        assertTrue(result.getFailures().toString(), result.isSuccessful());
+        assertEquals(3, result.getRequestCount());
+        assertEquals(1, server.getRequestCount(BATCH_PATH));
+        assertEquals("secret", server.getProperties(propSheet).get("token"));
+        assertEquals(3, server.getProperties(propSheet).size());
+    }
+
+    @Test
+    public void testRejectedBatchIsWrittenOneAtATime()
+    throws IOException, JSONException {
+        server.failNext(BATCH_PATH, 400, 1);
+        server.failNext(SINGLE_PATH, 400, 1);
+        PropertyBatch batch = session.getComponentClient().newPropertyBatch("web");
+        batch.set("a", "1").set("b", "2").set("c", "3").set("d", "4");
+
+        PropertyBatch.Result result = batch.execute();
+
+        // the sheet could not be read, then the first property failed on its own
+        assertEquals(1, result.getFailures().size());
+        assertTrue(result.getFailures().containsKey("a"));
+        assertEquals(3, result.getWritten().size());
+        assertEquals(5, result.getRequestCount());
+        assertEquals(3, server.getProperties(propSheet).size());
+    }
+}
@@ -0,0 +1,151 @@
+/**
+ * (c) Copyright IBM Corporation 2011, 2017.
+ * (c) Copyright HCL Technologies Ltd. 2018. All Rights Reserved.
+ * This is licensed under the following license.
+ * The Apache Version 2.0 License (https://www.apache.org/licenses/LICENSE-2.0.txt)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+package com.urbancode.ud.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.codehaus.jettison.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RequestCoalescerTest {
+
+    //**********************************************************************************************
+    // CLASS
+    //**********************************************************************************************
+    static private final int THREADS = 8;
+
+    //----------------------------------------------------------------------------------------------
+    static private void await(CountDownLatch latch)
+    throws IOException {
+        try {
+            latch.await();
+        }
+        catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+    }
+
+    //**********************************************************************************************
+    // INSTANCE
+    //**********************************************************************************************
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testConcurrentCallsShareOneRequest()
+    throws Exception {
+        final RequestCoalescer coalescer = new RequestCoalescer();
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger sent = new AtomicInteger();
+        final Object shared = new Object();
+
+        List<Future<Object>> results = new ArrayList<Future<Object>>();
+        for (int i = 0; i < THREADS; i++) {
+            results.add(executor.submit(() -> coalescer.execute("GET /x", () -> {
+                sent.incrementAndGet();
+                await(release);
+                return shared;
+            })));
+        }
+        while (coalescer.getCoalescedCount() < THREADS - 1) {
+            Thread.sleep(1);
+        }
+        release.countDown();
+
+        for (Future<Object> result : results) {
+            assertSame(shared, result.get());
+        }
+        assertEquals(1, sent.get());
+        assertEquals(THREADS, coalescer.getCallCount());
+        assertEquals((THREADS - 1) / (double) THREADS, coalescer.getHitRate(), 0.0001);
+        assertEquals(0, coalescer.getInFlightCount());
+    }
+
+    @Test
+    public void testFailureIsSharedAndNotRemembered()
+    throws Exception {
+        final RequestCoalescer coalescer = new RequestCoalescer();
+        final CountDownLatch release = new CountDownLatch(1);
+
+        List<Future<String>> results = new ArrayList<Future<String>>();
+        for (int i = 0; i < THREADS; i++) {
+            results.add(executor.submit(() -> coalescer.execute("GET /x", () -> {
+                await(release);
+                throw new IOException("server down");
+            })));
+        }
+        while (coalescer.getCoalescedCount() < THREADS - 1) {
+            Thread.sleep(1);
+        }
+        release.countDown();
+
+        for (Future<String> result : results) {
+            try {
+                result.get();
+                assertTrue("expected the failure to be shared", false);
+            }
+            catch (ExecutionException e) {
+                assertEquals("server down", e.getCause().getMessage());
+            }
+        }
+        assertEquals("ok", coalescer.execute("GET /x", () -> "ok"));
+    }
+
+    @Test
+    public void testSessionCoalescesIdenticalReads()
+    throws Exception {
+        StubUcdServer server = new StubUcdServer();
+        UDClientSession session = new UDClientSession(server.getUri(), "admin", "admin", false, THREADS);
+        try {
+            server.setLatency(200, 200);
+            session.getRequestCoalescer().setEnabled(true);
+            final ComponentClient components = session.getComponentClient();
+
+            List<Future<JSONObject>> results = new ArrayList<Future<JSONObject>>();
+            for (int i = 0; i < THREADS; i++) {
+                results.add(executor.submit(() -> components.getComponent("core-lib")));
+            }
+            for (Future<JSONObject> result : results) {
+                assertEquals("core-lib", result.get().getString("name"));
+            }
+
+            long sent = server.getRequestCount("/cli/component/info");
+            long coalesced = session.getMetrics().getEndpoint("GET /cli/component/info").getCoalescedCount();
+            assertTrue("sent " + sent, sent < THREADS);
+            assertEquals(THREADS, sent + coalesced);
+        }
+        finally {
+            session.close();
+            server.close();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/**
+ * (c) Copyright IBM Corporation 2011, 2017.
+ * (c) Copyright HCL Technologies Ltd. 2018. All Rights Reserved.
+ * This is licensed under the following license.
+ * The Apache Version 2.0 License (https://www.apache.org/licenses/LICENSE-2.0.txt)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+package com.urbancode.ud.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.UUID;
+
+import org.junit.Test;
+
+public class ResolverCacheTest {
+
+    //**********************************************************************************************
+    // CLASS
+    //**********************************************************************************************
+
+    //**********************************************************************************************
+    // INSTANCE
+    //**********************************************************************************************
+
+    @Test
+    public void testScopedLookup() {
+        ResolverCache cache = new ResolverCache();
+        UUID dev = UUID.randomUUID();
+        cache.put("environment", "app1", "DEV", dev);
+
+        assertEquals(dev, cache.get("environment", "app1", "DEV"));
+        assertNull(cache.get("environment", "app2", "DEV"));
+        assertNull(cache.get("component", "app1", "DEV"));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+
+        cache.invalidate(dev);
+        assertNull(cache.get("environment", "app1", "DEV"));
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        ResolverCache cache = new ResolverCache(2, ResolverCache.TTL_MILLIS_DEFAULT);
+        cache.put("component", null, "a", UUID.randomUUID());
+        cache.put("component", null, "b", UUID.randomUUID());
+        cache.get("component", null, "a");
+        cache.put("component", null, "c", UUID.randomUUID());
+
+        assertEquals(2, cache.size());
+        assertNull(cache.get("component", null, "b"));
+    }
+
+    @Test
+    public void testExpires()
+    throws InterruptedException {
+        ResolverCache cache = new ResolverCache(10, 1);
+        cache.put("component", null, "a", UUID.randomUUID());
+        Thread.sleep(5);
+
+        assertNull(cache.get("component", null, "a"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testParseUUID() {
+        UUID id = UUID.randomUUID();
+        assertEquals(id, UDRestClient.parseUUID(id.toString()));
+        assertNull(UDRestClient.parseUUID("my-component"));
+        assertNull(UDRestClient.parseUUID("zzzzzzzz-zzzz-zzzz-zzzz-zzzzzzzzzzzz"));
+    }
+}
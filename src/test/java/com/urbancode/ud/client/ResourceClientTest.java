@@ -0,0 +1,127 @@
+/**
+ * (c) Copyright IBM Corporation 2011, 2017.
+ * (c) Copyright HCL Technologies Ltd. 2018. All Rights Reserved.
+ * This is licensed under the following license.
+ * The Apache Version 2.0 License (https://www.apache.org/licenses/LICENSE-2.0.txt)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+package com.urbancode.ud.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.codehaus.jettison.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ResourceClientTest {
+
+    //**********************************************************************************************
+    // CLASS
+    //**********************************************************************************************
+    static private final int AGENTS = 150;
+
+    //**********************************************************************************************
+    // INSTANCE
+    //**********************************************************************************************
+    private StubUcdServer server;
+    private UDClientSession session;
+    private ResourceClient resources;
+
+    @Before
+    public void setUp()
+    throws IOException {
+        server = new StubUcdServer();
+        session = new UDClientSession(server.getUri(), "admin", "admin", false, 4);
+        session.getProcessWatcher().setMinInterval(20, TimeUnit.MILLISECONDS);
+        resources = session.getResourceClient();
+    }
+
+    @After
+    public void tearDown() {
+        session.close();
+        server.close();
+    }
+
+    @Test
+    public void testAwaitManyResources()
+    throws Exception {
+        List<String> names = new ArrayList<String>();
+        for (int i = 0; i < AGENTS; i++) {
+            String name = "/autoscale/agent-" + i;
+            names.add(name);
+            server.provisionResource(name, 100 + 2 * i);
+        }
+
+        Map<String, CompletableFuture<JSONObject>> results =
+            resources.awaitResourceCreation(names, 1, TimeUnit.MINUTES);
+
+        assertEquals(names, new ArrayList<String>(results.keySet()));
+        for (String name : names) {
+            assertEquals(name, results.get(name).get().getString("path"));
+        }
+        // checking every resource every 20 ms would have sent far more
+        long sent = server.getRequestCount("/cli/resource/info");
+        assertTrue("sent " + sent, sent < AGENTS * 10);
+    }
+
+    @Test
+    public void testMissingResourceTimesOut()
+    throws Exception {
+        server.provisionResource("/autoscale/late", 60000);
+        CompletableFuture<JSONObject> result =
+            resources.awaitResourceCreation("/autoscale/late", 200, TimeUnit.MILLISECONDS);
+        try {
+            result.get();
+            assertTrue("expected a timeout", false);
+        }
+        catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+    }
+
+    @Test
+    public void testWaitForResourceCreationReportsServerErrors()
+    throws Exception {
+        server.provisionResource("/autoscale/broken", 0);
+        server.setErrorRate(1.0, 500);
+        try {
+            resources.waitForResourceCreation("/autoscale/broken");
+            assertTrue("expected the server error", false);
+        }
+        catch (RemoteException e) {
+            throw e;
+        }
+        catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("500"));
+            assertEquals(500, ((StatusException) e).getStatusCode());
+        }
+    }
+
+    @Test
+    public void testMissingResourceIsReportedWithItsStatus()
+    throws Exception {
+        try {
+            resources.getResourceById(UUID.randomUUID().toString());
+            assertTrue("expected a 404", false);
+        }
+        catch (StatusException e) {
+            assertEquals(404, e.getStatusCode());
+            assertTrue(ResourceClient.isNotFound(e));
+        }
+        assertFalse(ResourceClient.isNotFound(new IOException("404 Not Found")));
+    }
+}
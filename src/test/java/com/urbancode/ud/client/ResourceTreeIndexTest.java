@@ -0,0 +1,200 @@
+/**
+ * (c) Copyright IBM Corporation 2011, 2017.
+ * (c) Copyright HCL Technologies Ltd. 2018. All Rights Reserved.
+ * This is licensed under the following license.
+ * The Apache Version 2.0 License (https://www.apache.org/licenses/LICENSE-2.0.txt)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+package com.urbancode.ud.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ResourceTreeIndexTest {
+
+    //**********************************************************************************************
+    // CLASS
+    //**********************************************************************************************
+    static private final int RESOURCES = 200;
+
+    //**********************************************************************************************
+    // INSTANCE
+    //**********************************************************************************************
+    private StubUcdServer server;
+    private UDClientSession session;
+    private ResourceTreeIndex index;
+
+    @Before
+    public void setUp()
+    throws Exception {
+        server = new StubUcdServer();
+        server.setResourceCount(RESOURCES);
+        for (int i = 0; i < 10; i++) {
+            server.addResource("/Stub/web-" + i + ".prod.example.com/web", "web", null);
+        }
+        session = new UDClientSession(server.getUri(), "admin", "admin", false, 4);
+        index = session.getResourceClient().newResourceTreeIndex();
+    }
+
+    @After
+    public void tearDown() {
+        session.close();
+        server.close();
+    }
+
+    //----------------------------------------------------------------------------------------------
+    private String host(int i) {
+        return "/Stub/web-" + i + ".prod.example.com";
+    }
+
+    @Test
+    public void testLookupsAreServedFromOneLoad()
+    throws Exception {
+        for (int i = 0; i < RESOURCES; i++) {
+            Resource resource = index.getByPath(host(i));
+            assertEquals(host(i), resource.getPath());
+            assertEquals(resource, index.getById(resource.getId()));
+            assertEquals(1, index.getByAgent("web-" + i + ".prod.example.com").size());
+        }
+        assertEquals(10, index.getByRole("web").size());
+        assertEquals(RESOURCES, index.getChildren("/Stub").size());
+        assertEquals(1 + RESOURCES + 10, index.size());
+
+        assertEquals(1, server.getRequestCount("/rest/resource/resource/tree"));
+        assertEquals(0, server.getRequestCount("/cli/resource"));
+        assertEquals(1, index.getRefreshCount());
+    }
+
+    @Test
+    public void testMissListsTheNearestAncestorOncePerInterval()
+    throws Exception {
+        index.setMissInterval(300, TimeUnit.MILLISECONDS);
+        assertNotNull(index.getByPath("/Stub"));
+        server.addResource(host(20) + "/db", "db", null);
+
+        // the tree was just loaded, so the miss is not worth a request yet
+        assertNull(index.getByPath(host(20) + "/db"));
+        assertEquals(0, server.getRequestCount("/cli/resource"));
+
+        Thread.sleep(400);
+        Resource added = index.getByPath(host(20) + "/db");
+        assertEquals(host(20) + "/db", added.getPath());
+        assertEquals(1, index.getByRole("db").size());
+        assertEquals(1, server.getRequestCount("/cli/resource"));
+
+        // within the interval, a path that does not exist costs nothing
+        assertNull(index.getByPath(host(20) + "/missing"));
+        assertNull(index.getByPath(host(20) + "/missing/deeper"));
+        assertEquals(1, server.getRequestCount("/cli/resource"));
+        assertEquals(1, server.getRequestCount("/rest/resource/resource/tree"));
+    }
+
+    @Test
+    public void testRefreshUpdatesOnlyTheSubtree()
+    throws Exception {
+        assertEquals(10, index.getByRole("web").size());
+        server.removeResource(host(3) + "/web");
+        server.addResource(host(3) + "/api", "api", null);
+        server.addResource(host(3) + "/api/v2", "api", null);
+
+        index.refresh(host(3));
+
+        assertNull(index.getByPath(host(3) + "/web"));
+        assertEquals(9, index.getByRole("web").size());
+        assertEquals(2, index.getByRole("api").size());
+        assertEquals(1, index.getChildren(host(3)).size());
+        // the host, /api and /api/v2 were listed
+        assertEquals(3, server.getRequestCount("/cli/resource"));
+        assertEquals(1, server.getRequestCount("/rest/resource/resource/tree"));
+    }
+
+    @Test
+    public void testStaleResourcesAreRevalidated()
+    throws Exception {
+        index.setMaxAge(0, TimeUnit.MILLISECONDS);
+        assertNotNull(index.getByPath(host(5) + "/web"));
+        server.removeResource(host(5) + "/web");
+
+        assertNull(index.getByPath(host(5) + "/web"));
+        assertEquals(9, index.getByRole("web").size());
+        // role queries reload the whole tree once it is older than the maximum age
+        assertEquals(2, server.getRequestCount("/rest/resource/resource/tree"));
+    }
+
+    @Test
+    public void testConcurrentStaleQueriesReloadOnce()
+    throws Exception {
+        assertEquals(10, index.getByRole("web").size());
+        index.setMaxAge(100, TimeUnit.MILLISECONDS);
+        Thread.sleep(150);
+        server.setLatency(200, 200);
+
+        List<Future<List<Resource>>> queries = new ArrayList<Future<List<Resource>>>();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            for (int i = 0; i < 8; i++) {
+                queries.add(executor.submit(() -> index.getByRole("web")));
+            }
+            for (Future<List<Resource>> query : queries) {
+                assertEquals(10, query.get().size());
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+        assertEquals(2, server.getRequestCount("/rest/resource/resource/tree"));
+    }
+
+    @Test
+    public void testConcurrentRevalidationsListTheParentOnce()
+    throws Exception {
+        assertNotNull(index.getByPath(host(1)));
+        index.setMaxAge(100, TimeUnit.MILLISECONDS);
+        Thread.sleep(150);
+        server.setLatency(200, 200);
+
+        List<Future<Resource>> lookups = new ArrayList<Future<Resource>>();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            for (int i = 0; i < 8; i++) {
+                final int host = i;
+                lookups.add(executor.submit(() -> index.getByPath(host(host))));
+            }
+            for (int i = 0; i < 8; i++) {
+                assertEquals(host(i), lookups.get(i).get().getPath());
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+        // all hosts are children of /Stub
+        assertEquals(1, server.getRequestCount("/cli/resource"));
+    }
+
+    @Test
+    public void testUnknownIdIsNotFound()
+    throws Exception {
+        assertNull(index.getById(UUID.randomUUID()));
+    }
+
+    @Test(expected = IOException.class)
+    public void testRefreshOfUnknownPathFails()
+    throws Exception {
+        index.setMissInterval(1, TimeUnit.MINUTES);
+        index.refresh("/Nowhere/at/all");
+    }
+}
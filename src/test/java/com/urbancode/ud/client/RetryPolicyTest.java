@@ -0,0 +1,97 @@
+/**
+ * (c) Copyright IBM Corporation 2011, 2017.
+ * (c) Copyright HCL Technologies Ltd. 2018. All Rights Reserved.
+ * This is licensed under the following license.
+ * The Apache Version 2.0 License (https://www.apache.org/licenses/LICENSE-2.0.txt)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+package com.urbancode.ud.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.Test;
+
+public class RetryPolicyTest {
+
+    //**********************************************************************************************
+    // CLASS
+    //**********************************************************************************************
+    private static HttpResponse response(int status, String retryAfter) {
+        HttpResponse result = new BasicHttpResponse(HttpVersion.HTTP_1_1, status, "");
+        if (retryAfter != null) {
+            result.addHeader("Retry-After", retryAfter);
+        }
+        return result;
+    }
+
+    //**********************************************************************************************
+    // INSTANCE
+    //**********************************************************************************************
+
+    @Test
+    public void testIdempotencyRules() {
+        RetryPolicy policy = new RetryPolicy();
+        HttpGet get = new HttpGet("http://localhost/rest/deploy/component");
+        HttpPut put = new HttpPut("http://localhost/cli/component/create");
+
+        assertTrue(policy.isRetryable(get, 503, 0));
+        assertTrue(policy.isRetryable(put, 429, 0));
+        assertTrue(policy.isRetryable(get, 502, 0));
+        assertFalse(policy.isRetryable(put, 502, 0));
+        assertFalse(policy.isRetryable(get, 409, 0));
+        assertFalse(policy.isRetryable(get, 500, 0));
+        assertFalse(policy.isRetryable(get, 503, RetryPolicy.MAX_RETRIES_DEFAULT));
+
+        policy.setRetryConflicts(true);
+        assertTrue(policy.isRetryable(put, 409, 0));
+
+        put.setEntity(new InputStreamEntity(new ByteArrayInputStream(new byte[1])));
+        assertFalse("streamed entities cannot be sent twice", policy.isRetryable(put, 429, 0));
+    }
+
+    @Test
+    public void testRetryAfter() {
+        RetryPolicy policy = new RetryPolicy();
+        assertEquals(2000, policy.getDelayMillis(response(503, "2"), 0));
+        assertEquals(RetryPolicy.MAX_RETRY_AFTER_MILLIS_DEFAULT,
+            policy.getDelayMillis(response(429, "86400"), 0));
+        assertEquals(0, policy.getDelayMillis(response(503, "Thu, 01 Jan 1970 00:00:00 GMT"), 0));
+    }
+
+    @Test
+    public void testDecorrelatedJitter() {
+        RetryPolicy policy = new RetryPolicy();
+        policy.setBaseDelayMillis(100);
+        policy.setMaxDelayMillis(1000);
+        long delay = 0;
+        for (int i = 0; i < 100; i++) {
+            long next = policy.getDelayMillis(response(502, "5"), delay);
+            assertTrue(next >= 100);
+            assertTrue(next <= Math.min(1000, Math.max(100, delay * 3)));
+            delay = next;
+        }
+    }
+
+    @Test
+    public void testBudget() {
+        RetryPolicy.Budget budget = new RetryPolicy.Budget(0.5, 0, 2);
+        assertTrue(budget.tryAcquire());
+        assertTrue(budget.tryAcquire());
+        assertFalse(budget.tryAcquire());
+
+        budget.recordRequest();
+        budget.recordRequest();
+        assertTrue(budget.tryAcquire());
+        assertFalse(budget.tryAcquire());
+    }
+}
@@ -0,0 +1,1187 @@
+/**
+ * (c) Copyright IBM Corporation 2011, 2017.
+ * (c) Copyright HCL Technologies Ltd. 2018. All Rights Reserved.
+ * This is licensed under the following license.
+ * The Apache Version 2.0 License (https://www.apache.org/licenses/LICENSE-2.0.txt)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+package com.urbancode.ud.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+
+import org.codehaus.jettison.json.JSONArray;
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsParameters;
+import com.sun.net.httpserver.HttpsServer;
+
+/**
+ * In-process stand-in for the UrbanCode Deploy endpoints the clients call, for tests and load
+ * scenarios that must run offline. Components, applications and environments are created the
+ * first time they are referenced, so scenarios need no setup. Latency, payload size and failures
+ * can be injected. It serves HTTP, or HTTPS with a self-signed certificate so that load
+ * scenarios pay for TLS handshakes as they would against a real server.
+ * <p>
+ * Supported endpoints: component, application and environment info; version creation;
+ * application process requests and their status; generic process requests and their workflow
+ * traces; desired inventory; the resource tree, resource children, resources by id or path
+ * and resource info; version artifact listing and ranged download; the agent install package,
+ * answering 304 to a matching If-None-Match. Anything else answers 404.
+ */
+public class StubUcdServer implements Closeable {
+
+    //**********************************************************************************************
+    // CLASS
+    //**********************************************************************************************
+    final static private Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Self-signed certificate for localhost and 127.0.0.1, valid until 2126.
+     */
+    final static public String KEY_STORE = "stub-ucd-server.p12";
+    final static private char[] KEY_STORE_PASSWORD = "changeit".toCharArray();
+
+    static {
+        // The JDK server writes headers and body separately; without this, Nagle's algorithm
+        // and delayed acks add 40 ms to many responses and drown out injected latency.
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    static private SSLContext createSSLContext()
+    throws IOException {
+        try {
+            KeyManagerFactory keys = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            keys.init(loadKeyStore(), KEY_STORE_PASSWORD);
+            SSLContext result = SSLContext.getInstance("TLS");
+            result.init(keys.getKeyManagers(), null, null);
+            return result;
+        }
+        catch (GeneralSecurityException e) {
+            throw new IOException("Failed to create the server SSL context", e);
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    static private KeyStore loadKeyStore()
+    throws IOException, GeneralSecurityException {
+        InputStream in = StubUcdServer.class.getResourceAsStream(KEY_STORE);
+        if (in == null) {
+            throw new IOException("Missing key store " + KEY_STORE);
+        }
+        try {
+            KeyStore result = KeyStore.getInstance("PKCS12");
+            result.load(in, KEY_STORE_PASSWORD);
+            return result;
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    static private Map<String, String> parseQuery(String query)
+    throws UnsupportedEncodingException {
+        Map<String, String> result = new HashMap<String, String>();
+        if (query != null) {
+            for (String pair : query.split("&")) {
+                int equals = pair.indexOf('=');
+                if (equals > 0) {
+                    result.put(URLDecoder.decode(pair.substring(0, equals), "UTF-8"),
+                        URLDecoder.decode(pair.substring(equals + 1), "UTF-8"));
+                }
+            }
+        }
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    static private String readBody(HttpExchange exchange)
+    throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        InputStream in = exchange.getRequestBody();
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            result.write(buffer, 0, count);
+        }
+        return new String(result.toByteArray(), UTF8);
+    }
+
+    /**
+     * Thrown by handlers to answer with an error status.
+     */
+    static private class StatusException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        final private int status;
+
+        //------------------------------------------------------------------------------------------
+        private StatusException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    /**
+     * A property sheet. Every write gives it a new version.
+     */
+    static private class PropSheet {
+        private int version;
+        final private Map<String, String> values = new LinkedHashMap<String, String>();
+        final private Set<String> secure = new HashSet<String>();
+
+        //------------------------------------------------------------------------------------------
+        synchronized private void put(String name, String value, boolean isSecure) {
+            values.put(name, value);
+            if (isSecure) {
+                secure.add(name);
+            }
+            else {
+                secure.remove(name);
+            }
+            version++;
+        }
+
+        //------------------------------------------------------------------------------------------
+        synchronized private JSONObject toJSON(String path)
+        throws JSONException {
+            JSONArray properties = new JSONArray();
+            for (Map.Entry<String, String> entry : values.entrySet()) {
+                boolean isSecure = secure.contains(entry.getKey());
+                properties.put(new JSONObject()
+                    .put("name", entry.getKey())
+                    .put("value", isSecure ? "****" : entry.getValue() == null ? JSONObject.NULL : entry.getValue())
+                    .put("secure", isSecure));
+            }
+            return new JSONObject().put("path", path).put("version", version).put("properties", properties);
+        }
+
+        //------------------------------------------------------------------------------------------
+        /**
+         * Replace all values, as the batch endpoint does, if the sheet is still at a version.
+         */
+        synchronized private void replaceAll(int expectedVersion, JSONObject all)
+        throws JSONException {
+            if (expectedVersion != version) {
+                throw new StatusException(409, "Property sheet is at version " + version
+                    + ", not " + expectedVersion);
+            }
+            values.clear();
+            secure.clear();
+            Iterator<?> names = all.keys();
+            while (names.hasNext()) {
+                String name = (String) names.next();
+                values.put(name, all.isNull(name) ? null : all.getString(name));
+            }
+            version++;
+        }
+    }
+
+    /**
+     * A requested application process.
+     */
+    static private class ProcessRequest {
+        final private UUID environmentId;
+        final private JSONArray versions;
+        final private long completesAt;
+        private boolean applied;
+
+        //------------------------------------------------------------------------------------------
+        private ProcessRequest(UUID environmentId, JSONArray versions, long completesAt) {
+            this.environmentId = environmentId;
+            this.versions = versions;
+            this.completesAt = completesAt;
+        }
+    }
+
+    //**********************************************************************************************
+    // INSTANCE
+    //**********************************************************************************************
+    final private HttpServer server;
+    final private ExecutorService executor;
+    final private SSLContext sslContext;
+    final private LongAdder handshakeCount = new LongAdder();
+    final private ConcurrentMap<String, UUID> ids = new ConcurrentHashMap<String, UUID>();
+    final private ConcurrentMap<UUID, ProcessRequest> requests =
+        new ConcurrentHashMap<UUID, ProcessRequest>();
+    final private ConcurrentMap<String, ConcurrentMap<String, byte[]>> artifacts =
+        new ConcurrentHashMap<String, ConcurrentMap<String, byte[]>>();
+    final private ConcurrentMap<String, List<JSONObject>> addedVersions =
+        new ConcurrentHashMap<String, List<JSONObject>>();
+    final private AtomicInteger downloadsToDrop = new AtomicInteger();
+    private volatile byte[] agentPackage = new byte[0];
+    final private ConcurrentMap<String, Long> provisionedResources = new ConcurrentHashMap<String, Long>();
+    final private ConcurrentMap<UUID, Long> genericRequests = new ConcurrentHashMap<UUID, Long>();
+    final private ConcurrentMap<UUID, ConcurrentMap<String, String>> inventory =
+        new ConcurrentHashMap<UUID, ConcurrentMap<String, String>>();
+    final private ConcurrentMap<String, PropSheet> propSheets = new ConcurrentHashMap<String, PropSheet>();
+    final private AtomicInteger propSheetConflicts = new AtomicInteger();
+    final private LongAdder inventoryEntryCount = new LongAdder();
+    final private ConcurrentMap<String, AtomicInteger> failures =
+        new ConcurrentHashMap<String, AtomicInteger>();
+    final private ConcurrentMap<String, LongAdder> requestCounts =
+        new ConcurrentHashMap<String, LongAdder>();
+    final private ConcurrentMap<String, String> lastQueries = new ConcurrentHashMap<String, String>();
+
+    private volatile long minLatencyMillis;
+    private volatile long maxLatencyMillis;
+    private volatile double errorRate;
+    private volatile int errorStatus = 503;
+    private volatile long processDurationMillis = 200;
+    private volatile int resourceCount = 100;
+    private volatile int versionCount = 10;
+    private volatile int maxRowsPerPage = Integer.MAX_VALUE;
+    private volatile byte[] resourceTree;
+    final private ConcurrentMap<String, JSONObject> addedResources = new ConcurrentHashMap<String, JSONObject>();
+    final private Set<String> removedResources = ConcurrentHashMap.newKeySet();
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Start a server on an ephemeral port of the loopback interface.
+     */
+    public StubUcdServer()
+    throws IOException {
+        this(false);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Start a server on an ephemeral port of the loopback interface.
+     *
+     * @param https Whether to serve HTTPS with the self-signed certificate of {@link #KEY_STORE},
+     *              as a real server does, so connections pay for a TLS handshake.
+     */
+    public StubUcdServer(boolean https)
+    throws IOException {
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+        if (https) {
+            HttpsServer httpsServer = HttpsServer.create(address, 100);
+            sslContext = createSSLContext();
+            httpsServer.setHttpsConfigurator(new HttpsConfigurator(sslContext) {
+                @Override
+                public void configure(HttpsParameters params) {
+                    // called once for each connection accepted, before its handshake
+                    handshakeCount.increment();
+                    params.setSSLParameters(getSSLContext().getDefaultSSLParameters());
+                }
+            });
+            server = httpsServer;
+        }
+        else {
+            server = HttpServer.create(address, 100);
+            sslContext = null;
+        }
+        executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            final private AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable runnable) {
+                Thread result = new Thread(runnable, "stub-ucd-" + count.incrementAndGet());
+                result.setDaemon(true);
+                return result;
+            }
+        });
+        server.setExecutor(executor);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange)
+            throws IOException {
+                StubUcdServer.this.handle(exchange);
+            }
+        });
+        server.start();
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public URI getUri() {
+        InetSocketAddress address = server.getAddress();
+        return URI.create((sslContext == null ? "http://" : "https://") +
+            address.getAddress().getHostAddress() + ":" + address.getPort());
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return the number of TLS handshakes, one per connection accepted; 0 when serving HTTP.
+     */
+    public long getHandshakeCount() {
+        return handshakeCount.sum();
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return a context trusting only this server's certificate, for clients that verify it.
+     */
+    public SSLContext getClientSSLContext()
+    throws IOException {
+        try {
+            TrustManagerFactory trust = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            trust.init(loadKeyStore());
+            SSLContext result = SSLContext.getInstance("TLS");
+            result.init(null, trust.getTrustManagers(), null);
+            return result;
+        }
+        catch (GeneralSecurityException e) {
+            throw new IOException("Failed to create the client SSL context", e);
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Delay every response by a random time in the range.
+     */
+    public void setLatency(long minMillis, long maxMillis) {
+        this.minLatencyMillis = minMillis;
+        this.maxLatencyMillis = Math.max(minMillis, maxMillis);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Fail a fraction of all requests with the given status. 429 and 503 carry Retry-After: 0.
+     */
+    public void setErrorRate(double errorRate, int status) {
+        this.errorRate = errorRate;
+        this.errorStatus = status;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Fail the next requests whose path starts with a prefix.
+     *
+     * @param pathPrefix e.g. "/cli/environment/info"
+     * @param status The status to answer with. 204 answers with no body at all.
+     * @param count How many requests to fail.
+     */
+    public void failNext(String pathPrefix, int status, int count) {
+        failures.put(status + " " + pathPrefix, new AtomicInteger(count));
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @param processDurationMillis How long application and generic processes run before
+     * succeeding.
+     */
+    public void setProcessDurationMillis(long processDurationMillis) {
+        this.processDurationMillis = processDurationMillis;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @param resourceCount The number of resources in the resource tree, to size its payload.
+     */
+    public void setResourceCount(int resourceCount) {
+        this.resourceCount = resourceCount;
+        this.resourceTree = null;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Add a resource below an existing one.
+     *
+     * @param path The full path, e.g. "/Stub/web-1.prod.example.com/web".
+     * @param role The name of its role, or null.
+     * @param agent The name of its agent, or null.
+     */
+    public void addResource(String path, String role, String agent)
+    throws JSONException {
+        JSONObject resource = resource(path);
+        if (role != null) {
+            resource.put("role", new JSONObject().put("name", role));
+        }
+        if (agent != null) {
+            resource.put("agent", new JSONObject().put("name", agent));
+        }
+        removedResources.remove(path);
+        addedResources.put(path, resource);
+        resourceTree = null;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Remove a resource and everything below it.
+     */
+    public void removeResource(String path) {
+        addedResources.remove(path);
+        removedResources.add(path);
+        resourceTree = null;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Add a file to the artifacts of a version.
+     */
+    public void putArtifact(String component, String version, String path, byte[] content) {
+        String key = component + "/" + version;
+        artifacts.putIfAbsent(key, new ConcurrentHashMap<String, byte[]>());
+        artifacts.get(key).put(path, content);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Add a version to a component. A component with added versions lists only those, the
+     * latest first, instead of the generated ones.
+     *
+     * @param type FULL or INCREMENTAL.
+     */
+    public void addVersion(String component, String version, String type) {
+        addedVersions.putIfAbsent(component, new CopyOnWriteArrayList<JSONObject>());
+        try {
+            addedVersions.get(component).add(0, new JSONObject()
+                .put("id", getId("version", component, version).toString())
+                .put("name", version)
+                .put("type", type)
+                .put("archived", false));
+        }
+        catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Set the agent install package. Its ETag is the hash of the content.
+     */
+    public void setAgentPackage(byte[] content) {
+        agentPackage = content;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Drop the connection half way through the body of the next artifact downloads.
+     */
+    public void dropNextDownloads(int count) {
+        downloadsToDrop.set(count);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @param maxRowsPerPage The most versions returned in one page, however many were asked for.
+     */
+    public void setMaxRowsPerPage(int maxRowsPerPage) {
+        this.maxRowsPerPage = maxRowsPerPage;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @param versionCount The number of versions listed for every component. Every tenth
+     * version is archived.
+     */
+    public void setVersionCount(int versionCount) {
+        this.versionCount = versionCount;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return the number of requests to paths starting with a prefix, including failed ones.
+     */
+    public long getRequestCount(String pathPrefix) {
+        long result = 0;
+        for (Map.Entry<String, LongAdder> entry : requestCounts.entrySet()) {
+            if (entry.getKey().startsWith(pathPrefix)) {
+                result += entry.getValue().sum();
+            }
+        }
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return the raw query of the last request to a path, empty if it had none, or null if
+     * there was no request.
+     */
+    public String getLastQuery(String path) {
+        return lastQueries.get(path);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Make a resource appear after a delay, like an agent resource created when the agent first
+     * connects. Until then, and for resources never provisioned, resource info answers 404.
+     */
+    public void provisionResource(String path, long delayMillis) {
+        provisionedResources.put(path, System.currentTimeMillis() + delayMillis);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return the number of entries recorded through the inventory entries endpoints.
+     */
+    public long getInventoryEntryCount() {
+        return inventoryEntryCount.sum();
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @param propSheet The path of a property sheet, e.g. "components&amp;{id}&amp;propSheet".
+     *
+     * @return the values written to the sheet, by batch or one at a time.
+     */
+    public Map<String, String> getProperties(String propSheet) {
+        PropSheet sheet = getPropSheet(propSheet);
+        synchronized (sheet) {
+            return new LinkedHashMap<String, String>(sheet.values);
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Write a property as another user of the server would.
+     */
+    public void setProperty(String propSheet, String name, String value, boolean isSecure) {
+        getPropSheet(propSheet).put(name, value, isSecure);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Let another user change the property sheet just before each of the next batch writes, so
+     * that they are rejected as conflicts.
+     */
+    public void conflictNextBatches(int count) {
+        propSheetConflicts.set(count);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return the id the stub gave a named object, creating it if needed.
+     */
+    public UUID getId(String type, String scope, String name) {
+        String key = ResolverCache.key(type, scope, name);
+        UUID result = ids.get(key);
+        if (result == null) {
+            UUID created = UUID.randomUUID();
+            result = ids.putIfAbsent(key, created);
+            if (result == null) {
+                result = created;
+            }
+        }
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    //----------------------------------------------------------------------------------------------
+    private void handle(HttpExchange exchange)
+    throws IOException {
+        try {
+            String path = exchange.getRequestURI().getRawPath();
+            if (path.length() > 1 && path.endsWith("/")) {
+                path = path.substring(0, path.length() - 1);
+            }
+            count(path);
+            String rawQuery = exchange.getRequestURI().getRawQuery();
+            lastQueries.put(path, rawQuery == null ? "" : rawQuery);
+            delay();
+
+            int status = 200;
+            byte[] body;
+            try {
+                injectFailure(path);
+                body = dispatch(exchange, path);
+            }
+            catch (StatusException e) {
+                if (e.status == 204) {
+                    exchange.sendResponseHeaders(204, -1);
+                    return;
+                }
+                status = e.status;
+                body = e.getMessage().getBytes(UTF8);
+                if (status == 429 || status == 503) {
+                    exchange.getResponseHeaders().add("Retry-After", "0");
+                }
+            }
+            catch (JSONException e) {
+                status = 400;
+                body = String.valueOf(e.getMessage()).getBytes(UTF8);
+            }
+            if (body == null) {
+                // the handler sent the response itself
+                return;
+            }
+
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            // an empty body is sent chunked; the JDK server closes the connection after a
+            // response declared to have no body, which breaks pooled keep-alive connections
+            exchange.sendResponseHeaders(status, body.length == 0 ? 0 : body.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(body);
+            out.close();
+        }
+        finally {
+            exchange.close();
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    private byte[] dispatch(HttpExchange exchange, String path)
+    throws IOException, JSONException {
+        String method = exchange.getRequestMethod();
+        Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+        Object result;
+
+        if ("GET".equals(method) && path.equals("/cli/component/info")) {
+            result = info("component", null, required(query, "component"));
+        }
+        else if ("GET".equals(method) && path.equals("/cli/application/info")) {
+            result = info("application", null, required(query, "application"));
+        }
+        else if ("GET".equals(method) && path.equals("/cli/environment/info")) {
+            result = info("environment", query.get("application"), required(query, "environment"));
+        }
+        else if ("POST".equals(method) && path.equals("/cli/version/createVersion")) {
+            String component = required(query, "component");
+            String version = required(query, "name");
+            getId("component", null, component);
+            result = new JSONObject().put("id", getId("version", component, version).toString())
+                .put("name", version);
+        }
+        else if ("PUT".equals(method) && path.equals("/cli/applicationProcessRequest/request")) {
+            result = requestProcess(new JSONObject(readBody(exchange)));
+        }
+        else if ("GET".equals(method) && path.equals("/cli/applicationProcessRequest/requestStatus")) {
+            result = processStatus(required(query, "request"));
+        }
+        else if ("POST".equals(method) && path.equals("/rest/process/request")) {
+            new JSONObject(readBody(exchange)).getString("processId");
+            UUID requestId = UUID.randomUUID();
+            genericRequests.put(requestId, System.currentTimeMillis() + processDurationMillis);
+            result = new JSONObject().put("id", requestId.toString());
+        }
+        else if ("GET".equals(method) && path.startsWith("/rest/process/request/")) {
+            // the stub uses the request id as workflow trace id
+            String requestId = path.substring("/rest/process/request/".length());
+            genericRequest(requestId);
+            result = new JSONObject().put("id", requestId).put("workflowTraceId", requestId);
+        }
+        else if ("GET".equals(method) && path.startsWith("/rest/workflow/workflowTrace/")) {
+            boolean done = System.currentTimeMillis() >= genericRequest(
+                path.substring("/rest/workflow/workflowTrace/".length()));
+            result = new JSONObject()
+                .put("rootActivity", new JSONObject().put("state", done ? "CLOSED" : "EXECUTING"))
+                .put("result", done ? "SUCCEEDED" : "NONE");
+        }
+        else if ("GET".equals(method) && path.startsWith("/rest/deploy/component/") && path.endsWith("/latestVersion")) {
+            String component = URLDecoder.decode(path.substring("/rest/deploy/component/".length(),
+                path.length() - "/latestVersion".length()), "UTF-8");
+            List<JSONObject> added = addedVersions.get(component);
+            if (added == null || added.isEmpty()) {
+                exchange.sendResponseHeaders(204, -1);
+                exchange.close();
+                return null;
+            }
+            result = added.get(0);
+        }
+        else if ("GET".equals(method) && path.startsWith("/rest/deploy/component/") && path.contains("/versions/")) {
+            String component = URLDecoder.decode(path.substring("/rest/deploy/component/".length(),
+                path.indexOf("/versions/")), "UTF-8");
+            result = versions(component, "archived".equals(query.get("filterFields")),
+                query.get("rowsPerPage"), query.get("pageNumber"));
+        }
+        else if ("GET".equals(method) && path.startsWith("/property/propSheet/") && path.endsWith(".-1")) {
+            String propSheet = URLDecoder.decode(path.substring("/property/propSheet/".length(),
+                path.length() - ".-1".length()), "UTF-8");
+            result = getPropSheet(propSheet).toJSON(propSheet);
+        }
+        else if ("PUT".equals(method) && path.startsWith("/property/propSheet/")
+            && path.endsWith("/allPropValuesFromBatch")) {
+            String versioned = URLDecoder.decode(path.substring("/property/propSheet/".length(),
+                path.length() - "/allPropValuesFromBatch".length()), "UTF-8");
+            String propSheet = versioned.substring(0, versioned.lastIndexOf('.'));
+            String version = versioned.substring(versioned.lastIndexOf('.') + 1);
+            if (!version.equals(exchange.getRequestHeaders().getFirst("Version"))) {
+                throw new StatusException(400, "Version header does not match " + version);
+            }
+            PropSheet sheet = getPropSheet(propSheet);
+            if (propSheetConflicts.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+                sheet.put("concurrent." + UUID.randomUUID(), "written by someone else", false);
+            }
+            sheet.replaceAll(Integer.parseInt(version), new JSONObject(readBody(exchange)));
+            return new byte[0];
+        }
+        else if ("PUT".equals(method) && (path.equals("/rest/inventory/entries")
+            || path.equals("/rest/inventory/desiredInventory/entries"))) {
+            JSONObject request = new JSONObject(readBody(exchange));
+            required(Collections.singletonMap("deploymentRequest", request.optString("deploymentRequest")),
+                "deploymentRequest");
+            inventoryEntryCount.add(request.getJSONArray("entries").length());
+            return new byte[0];
+        }
+        else if ("PUT".equals(method) && path.equals("/cli/component/propValue")) {
+            UUID component = getId("component", null, required(query, "component"));
+            getPropSheet("components&" + component + "&propSheet").put(required(query, "name"),
+                String.valueOf(query.get("value")), "true".equals(query.get("isSecure")));
+            return new byte[0];
+        }
+        else if ("PUT".equals(method) && path.equals("/cli/environment/propValue")) {
+            UUID environment = getId("environment", query.get("application"), required(query, "environment"));
+            getPropSheet("environments&" + environment + "&propSheet").put(required(query, "name"),
+                String.valueOf(query.get("value")), "true".equals(query.get("isSecure")));
+            return new byte[0];
+        }
+        else if ("GET".equals(method) && path.startsWith("/rest/inventory/desiredInventory/")) {
+            result = desiredInventory(path.substring(path.lastIndexOf('/') + 1));
+        }
+        else if ("GET".equals(method) && path.equals("/tools/ibm-ucd-agent.zip")) {
+            byte[] content = agentPackage;
+            String etag = '"' + sha256(content) + '"';
+            exchange.getResponseHeaders().add("ETag", etag);
+            if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return null;
+            }
+            return content;
+        }
+        else if ("GET".equals(method) && path.equals("/cli/version/listVersionArtifacts")) {
+            JSONArray listing = new JSONArray();
+            for (Map.Entry<String, byte[]> entry : getArtifacts(query).entrySet()) {
+                listing.put(new JSONObject()
+                    .put("path", entry.getKey())
+                    .put("size", entry.getValue().length)
+                    .put("hash", sha256(entry.getValue())));
+            }
+            result = listing;
+        }
+        else if ("GET".equals(method) && path.equals("/cli/version/downloadArtifacts")) {
+            downloadArtifact(exchange, getArtifacts(query).get(required(query, "singleFilePath")));
+            return null;
+        }
+        else if ("GET".equals(method) && path.equals("/cli/resource/info")) {
+            String resource = required(query, "resource");
+            Long availableAt = provisionedResources.get(resource);
+            if (availableAt == null || System.currentTimeMillis() < availableAt) {
+                throw new StatusException(404, "No resource " + resource);
+            }
+            result = new JSONObject().put("id", getId("resource", null, resource).toString())
+                .put("name", resource.substring(resource.lastIndexOf('/') + 1))
+                .put("path", resource);
+        }
+        else if ("GET".equals(method) && path.equals("/cli/resource")) {
+            result = resourceChildren(required(query, "parent"));
+        }
+        else if ("GET".equals(method) && path.equals("/rest/resource/resource/tree")) {
+            return resourceTree();
+        }
+        else if ("GET".equals(method) && path.startsWith("/rest/resource/resource/")) {
+            String resource = URLDecoder.decode(path.substring("/rest/resource/resource/".length()), "UTF-8");
+            result = null;
+            for (JSONObject candidate : resources().values()) {
+                if (resource.equals(candidate.getString("id"))) {
+                    result = candidate;
+                }
+            }
+            if (result == null && resource.matches("[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}")) {
+                throw new StatusException(404, "No resource " + resource);
+            }
+            if (result == null) {
+                result = resource(resource);
+            }
+        }
+        else {
+            throw new StatusException(404, "No stub for " + method + " " + path);
+        }
+        return result.toString().getBytes(UTF8);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    private JSONObject info(String type, String scope, String name)
+    throws JSONException {
+        return new JSONObject()
+            .put("id", getId(type, scope, name).toString())
+            .put("name", name)
+            .put("active", true);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    private JSONObject requestProcess(JSONObject request)
+    throws JSONException {
+        String application = request.getString("application");
+        getId("application", null, application);
+        UUID environmentId = getId("environment", application, request.getString("environment"));
+        JSONArray versions = request.optJSONArray("versions");
+        UUID requestId = UUID.randomUUID();
+        requests.put(requestId, new ProcessRequest(environmentId,
+            versions == null ? new JSONArray() : versions,
+            System.currentTimeMillis() + processDurationMillis));
+        return new JSONObject().put("requestId", requestId.toString());
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return when the generic process request completes.
+     */
+    private long genericRequest(String requestId) {
+        Long result = genericRequests.get(UUID.fromString(requestId));
+        if (result == null) {
+            throw new StatusException(404, "No request " + requestId);
+        }
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    private JSONObject processStatus(String requestId)
+    throws JSONException {
+        ProcessRequest request = requests.get(UUID.fromString(requestId));
+        if (request == null) {
+            throw new StatusException(404, "No request " + requestId);
+        }
+        boolean done = settle(request);
+        return new JSONObject()
+            .put("status", done ? "CLOSED" : "EXECUTING")
+            .put("result", done ? "SUCCEEDED" : "NONE");
+    }
+
+    //----------------------------------------------------------------------------------------------
+    private PropSheet getPropSheet(String propSheet) {
+        PropSheet result = propSheets.get(propSheet);
+        if (result == null) {
+            propSheets.putIfAbsent(propSheet, new PropSheet());
+            result = propSheets.get(propSheet);
+        }
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return all versions as an array, or one page of them with the total when paged.
+     */
+    private Object versions(String component, boolean archivedOnly, String rowsPerPage, String pageNumber)
+    throws JSONException {
+        int first = 0;
+        int last = Integer.MAX_VALUE;
+        if (rowsPerPage != null) {
+            int rows = Math.min(Integer.parseInt(rowsPerPage), maxRowsPerPage);
+            first = (Integer.parseInt(pageNumber) - 1) * rows;
+            last = first + rows;
+        }
+        JSONArray result = new JSONArray();
+        int index = 0;
+        List<JSONObject> added = addedVersions.get(component);
+        if (added != null) {
+            for (JSONObject version : added) {
+                if (!archivedOnly) {
+                    if (index >= first && index < last) {
+                        result.put(version);
+                    }
+                    index++;
+                }
+            }
+        }
+        else {
+            for (int i = 0; i < versionCount; i++) {
+                boolean archived = i % 10 == 0;
+                if (archived || !archivedOnly) {
+                    if (index >= first && index < last) {
+                        String name = "1.0." + i;
+                        result.put(new JSONObject()
+                            .put("id", getId("version", component, name).toString())
+                            .put("name", name)
+                            .put("type", "FULL")
+                            .put("archived", archived));
+                    }
+                    index++;
+                }
+            }
+        }
+        if (rowsPerPage != null) {
+            return new JSONObject().put("totalRecords", index).put("records", result);
+        }
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    private JSONArray desiredInventory(String environmentId)
+    throws JSONException {
+        UUID id = UUID.fromString(environmentId);
+        for (ProcessRequest request : requests.values()) {
+            if (request.environmentId.equals(id)) {
+                settle(request);
+            }
+        }
+        JSONArray result = new JSONArray();
+        Map<String, String> entries = inventory.get(id);
+        if (entries != null) {
+            for (Map.Entry<String, String> entry : entries.entrySet()) {
+                result.put(new JSONObject()
+                    .put("component", new JSONObject().put("name", entry.getKey()))
+                    .put("version", new JSONObject().put("name", entry.getValue()))
+                    .put("status", new JSONObject().put("name", "Active")));
+            }
+        }
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Apply the versions of a finished process to the inventory of its environment.
+     *
+     * @return whether the process finished
+     */
+    private boolean settle(ProcessRequest request)
+    throws JSONException {
+        boolean result = System.currentTimeMillis() >= request.completesAt;
+        if (result) {
+            synchronized (request) {
+                if (!request.applied) {
+                    ConcurrentMap<String, String> entries = inventory.get(request.environmentId);
+                    if (entries == null) {
+                        inventory.putIfAbsent(request.environmentId, new ConcurrentHashMap<String, String>());
+                        entries = inventory.get(request.environmentId);
+                    }
+                    for (int i = 0; i < request.versions.length(); i++) {
+                        JSONObject version = request.versions.getJSONObject(i);
+                        entries.put(version.getString("component"), version.getString("version"));
+                    }
+                    request.applied = true;
+                }
+            }
+        }
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    private byte[] resourceTree()
+    throws JSONException {
+        byte[] result = resourceTree;
+        if (result == null) {
+            Map<String, JSONObject> resources = resources();
+            JSONObject root = null;
+            for (JSONObject resource : resources.values()) {
+                String path = resource.getString("path");
+                JSONObject parent = resources.get(path.substring(0, path.lastIndexOf('/')));
+                if (parent == null) {
+                    root = resource;
+                }
+                else {
+                    if (!parent.has("children")) {
+                        parent.put("children", new JSONArray());
+                    }
+                    parent.getJSONArray("children").put(resource);
+                }
+            }
+            result = new JSONArray().put(root).toString().getBytes(UTF8);
+            resourceTree = result;
+        }
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @param parent The id or path of a resource.
+     *
+     * @return the resources directly below it.
+     */
+    private JSONArray resourceChildren(String parent)
+    throws JSONException {
+        String parentPath = null;
+        for (JSONObject resource : resources().values()) {
+            if (parent.equals(resource.getString("id")) || parent.equals(resource.getString("path"))) {
+                parentPath = resource.getString("path");
+            }
+        }
+        if (parentPath == null) {
+            throw new StatusException(404, "No resource " + parent);
+        }
+        JSONArray result = new JSONArray();
+        for (JSONObject resource : resources().values()) {
+            String path = resource.getString("path");
+            if (path.lastIndexOf('/') == parentPath.length() && path.startsWith(parentPath)) {
+                result.put(resource);
+            }
+        }
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * @return the generated and added resources that were not removed, by path, parents first.
+     */
+    private Map<String, JSONObject> resources()
+    throws JSONException {
+        Map<String, JSONObject> result = new LinkedHashMap<String, JSONObject>();
+        result.put("/Stub", resource("/Stub"));
+        for (int i = 0; i < resourceCount; i++) {
+            String name = "web-" + i + ".prod.example.com";
+            result.put("/Stub/" + name, resource("/Stub/" + name)
+                .put("hasAgent", true)
+                .put("agent", new JSONObject().put("name", name))
+                .put("status", "ONLINE")
+                .put("description", "Stub resource " + i));
+        }
+        List<String> added = new ArrayList<String>(addedResources.keySet());
+        Collections.sort(added);
+        for (String path : added) {
+            JSONObject resource = addedResources.get(path);
+            if (resource != null) {
+                result.put(path, new JSONObject(resource.toString()));
+            }
+        }
+        Iterator<String> paths = result.keySet().iterator();
+        while (paths.hasNext()) {
+            String path = paths.next();
+            for (String removed : removedResources) {
+                if (path.equals(removed) || path.startsWith(removed + "/")) {
+                    paths.remove();
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    private JSONObject resource(String path)
+    throws JSONException {
+        return new JSONObject()
+            .put("id", getId("resource", null, path).toString())
+            .put("name", path.substring(path.lastIndexOf('/') + 1))
+            .put("path", path);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    private String required(Map<String, String> query, String name) {
+        String result = query.get(name);
+        if (result == null || result.isEmpty()) {
+            throw new StatusException(400, "Missing parameter " + name);
+        }
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    private Map<String, byte[]> getArtifacts(Map<String, String> query) {
+        Map<String, byte[]> result = artifacts.get(required(query, "component") + "/" + required(query, "version"));
+        if (result == null) {
+            throw new StatusException(404, "No version " + query.get("version"));
+        }
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    /**
+     * Send an artifact, or the part of it asked for with "Range: bytes=N-".
+     */
+    private void downloadArtifact(HttpExchange exchange, byte[] content)
+    throws IOException {
+        if (content == null) {
+            throw new StatusException(404, "No such artifact");
+        }
+        int offset = 0;
+        int status = 200;
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        if (range != null && range.startsWith("bytes=") && range.endsWith("-")) {
+            offset = Integer.parseInt(range.substring("bytes=".length(), range.length() - 1));
+            status = 206;
+            exchange.getResponseHeaders().add("Content-Range",
+                "bytes " + offset + "-" + (content.length - 1) + "/" + content.length);
+        }
+        int length = content.length - offset;
+        boolean drop = downloadsToDrop.getAndDecrement() > 0;
+        exchange.getResponseHeaders().add("Content-Type", "application/octet-stream");
+        exchange.sendResponseHeaders(status, length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(content, offset, drop ? length / 2 : length);
+        out.flush();
+        if (drop) {
+            // closing the exchange with bytes missing aborts the connection
+            exchange.close();
+            return;
+        }
+        out.close();
+    }
+
+    //----------------------------------------------------------------------------------------------
+    static private String sha256(byte[] content) {
+        try {
+            StringBuilder result = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-256").digest(content)) {
+                result.append(String.format("%02x", b));
+            }
+            return result.toString();
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    private void count(String path) {
+        LongAdder counter = requestCounts.get(path);
+        if (counter == null) {
+            requestCounts.putIfAbsent(path, new LongAdder());
+            counter = requestCounts.get(path);
+        }
+        counter.increment();
+    }
+
+    //----------------------------------------------------------------------------------------------
+    private void delay() {
+        long max = maxLatencyMillis;
+        if (max > 0) {
+            long min = minLatencyMillis;
+            try {
+                Thread.sleep(min + ThreadLocalRandom.current().nextLong(max - min + 1));
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    private void injectFailure(String path) {
+        for (Map.Entry<String, AtomicInteger> entry : failures.entrySet()) {
+            String key = entry.getKey();
+            int space = key.indexOf(' ');
+            if (path.startsWith(key.substring(space + 1)) && entry.getValue().getAndDecrement() > 0) {
+                throw new StatusException(Integer.parseInt(key.substring(0, space)), "Injected failure");
+            }
+        }
+        if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+            throw new StatusException(errorStatus, "Injected failure");
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/**
+ * (c) Copyright IBM Corporation 2011, 2017.
+ * (c) Copyright HCL Technologies Ltd. 2018. All Rights Reserved.
+ * This is licensed under the following license.
+ * The Apache Version 2.0 License (https://www.apache.org/licenses/LICENSE-2.0.txt)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+package com.urbancode.ud.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+
+import org.apache.http.client.methods.HttpPut;
+import org.codehaus.jettison.json.JSONArray;
+import org.codehaus.jettison.json.JSONException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StubUcdServerTest {
+
+    //**********************************************************************************************
+    // CLASS
+    //**********************************************************************************************
+
+    //**********************************************************************************************
+    // INSTANCE
+    //**********************************************************************************************
+    private StubUcdServer server;
+    private UDClientSession session;
+
+    @Before
+    public void setUp()
+    throws IOException {
+        server = new StubUcdServer();
+        server.setProcessDurationMillis(50);
+        session = new UDClientSession(server.getUri(), "admin", "admin", false, 4);
+    }
+
+    @After
+    public void tearDown() {
+        session.close();
+        server.close();
+    }
+
+    @Test
+    public void testDeployScenario()
+    throws IOException, JSONException, InterruptedException {
+        UUID version = session.getVersionClient().createVersion("web", "1.0.1", "stub build");
+        assertNotNull(version);
+
+        Map<String, List<String>> versions =
+            Collections.singletonMap("web", Collections.singletonList("1.0.1"));
+        UUID request = session.getApplicationClient().requestApplicationProcess(
+            "shop", "Deploy", "stub deploy", "DEV", null, false, versions);
+
+        String result = session.getApplicationClient().getApplicationProcessStatus(request.toString());
+        while ("NONE".equals(result)) {
+            Thread.sleep(10);
+            result = session.getApplicationClient().getApplicationProcessStatus(request.toString());
+        }
+        assertEquals("SUCCEEDED", result);
+
+        EnvironmentClient environments = session.getEnvironmentClient();
+        assertTrue(environments.verifyInventoryStatus("DEV", "shop", "web", "1.0.1", "Active"));
+        assertFalse(environments.verifyInventoryStatus("DEV", "shop", "web", "1.0.0", "Active"));
+        // the environment id is resolved once per session
+        assertEquals(1, server.getRequestCount("/cli/environment/info"));
+
+        assertEquals(0, session.getLeakDetector().getLeases(0).size());
+    }
+
+    @Test
+    public void testRetriesInjectedFailures()
+    throws IOException, JSONException {
+        server.failNext("/rest/resource/resource/tree", 503, 2);
+        server.setResourceCount(500);
+
+        JSONArray tree = session.getResourceClient().getResourceTree();
+
+        assertEquals(500, tree.getJSONObject(0).getJSONArray("children").length());
+        assertEquals(3, server.getRequestCount("/rest/resource/resource/tree"));
+        MetricsRegistry.EndpointStats stats =
+            session.getMetrics().getEndpoint("GET /rest/resource/resource/tree");
+        assertEquals(3, stats.getRequestCount());
+        assertEquals(2, stats.getRetryCount());
+        assertEquals(Long.valueOf(2), stats.getStatusCounts().get("503"));
+        assertTrue(stats.getBytesIn() > 500 * 100);
+    }
+
+    @Test
+    public void testExplicitRetryLimitIsNotCutByTheBudget()
+    throws IOException {
+        RetryPolicy policy = new RetryPolicy();
+        policy.setBudget(0, 0, 0);
+        ComponentClient components = session.getComponentClient();
+        components.setRetryPolicy(policy);
+        server.failNext("/cli/component/propValue", 409, 2);
+
+        HttpPut put = new HttpPut(server.getUri() + "/cli/component/propValue?component=web&name=a&value=b");
+        components.discardBody(components.retryInvokeMethod(put, null, 0, 10, 3));
+
+        assertEquals(3, server.getRequestCount("/cli/component/propValue"));
+    }
+
+    @Test
+    public void testNullPropertyValueIsSent()
+    throws IOException {
+        session.getComponentClient().setComponentProperty("web", "a", null, false);
+        assertEquals("component=web&name=a&value=null&isSecure=false",
+            server.getLastQuery("/cli/component/propValue"));
+
+        session.getEnvironmentClient().setEnvironmentProperty("DEV", "shop", "a", null, false);
+        assertEquals("environment=DEV&name=a&value=null&isSecure=false&application=shop",
+            server.getLastQuery("/cli/environment/propValue"));
+    }
+
+    @Test
+    public void testErrorsAreReported()
+    throws JSONException {
+        server.failNext("/cli/component/info", 500, 1);
+        try {
+            session.getComponentClient().getComponentUUID("web");
+            assertTrue("expected failure", false);
+        }
+        catch (IOException e) {
+            assertTrue(e.getMessage().startsWith("500"));
+        }
+        assertEquals(0, session.getLeakDetector().getLeases(0).size());
+    }
+
+    @Test
+    public void testHttpsCountsHandshakes()
+    throws IOException {
+        StubUcdServer httpsServer = new StubUcdServer(true);
+        try {
+            assertEquals("https", httpsServer.getUri().getScheme());
+            SSLSocketFactory sockets = httpsServer.getClientSSLContext().getSocketFactory();
+            for (int i = 0; i < 2; i++) {
+                URL info = httpsServer.getUri().resolve("/cli/component/info?component=web").toURL();
+                HttpsURLConnection connection = (HttpsURLConnection) info.openConnection();
+                connection.setSSLSocketFactory(sockets);
+                assertEquals(200, connection.getResponseCode());
+                InputStream in = connection.getInputStream();
+                while (in.read() != -1) {
+                }
+                in.close();
+            }
+            // the second request reuses the kept-alive connection
+            assertEquals(1, httpsServer.getHandshakeCount());
+            assertEquals(0, server.getHandshakeCount());
+        }
+        finally {
+            httpsServer.close();
+        }
+    }
+}
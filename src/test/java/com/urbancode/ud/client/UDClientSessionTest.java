@@ -0,0 +1,59 @@
+/**
+ * (c) Copyright IBM Corporation 2011, 2017.
+ * (c) Copyright HCL Technologies Ltd. 2018. All Rights Reserved.
+ * This is licensed under the following license.
+ * The Apache Version 2.0 License (https://www.apache.org/licenses/LICENSE-2.0.txt)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+package com.urbancode.ud.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+
+import org.apache.http.pool.PoolStats;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class UDClientSessionTest {
+
+    //**********************************************************************************************
+    // CLASS
+    //**********************************************************************************************
+
+    //**********************************************************************************************
+    // INSTANCE
+    //**********************************************************************************************
+    private UDClientSession session;
+
+    @Before
+    public void createSession() throws URISyntaxException {
+        session = new UDClientSession(new URI("https://localhost:8443"), "admin", "admin", true, 8);
+    }
+
+    @After
+    public void closeSession() {
+        session.close();
+    }
+
+    @Test
+    public void testClientsShareTransport() {
+        assertSame(session.getHttpClient(), session.getComponentClient().client);
+        assertSame(session.getHttpClient(), session.getEnvironmentClient().client);
+        assertSame(session.getHttpClient(), session.getResourceClient().client);
+        assertSame(session.getHttpClient(), session.getVersionClient().client);
+        assertSame(session.getComponentClient(), session.getComponentClient());
+        assertEquals("admin", session.getAgentClient().clientUser);
+    }
+
+    @Test
+    public void testTransportIsPooled() {
+        PoolStats stats = session.getPoolStats();
+        assertNotNull(stats);
+        assertEquals(8, stats.getMax());
+    }
+}
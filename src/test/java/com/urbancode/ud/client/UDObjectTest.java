@@ -0,0 +1,93 @@
+/**
+ * (c) Copyright IBM Corporation 2011, 2017.
+ * (c) Copyright HCL Technologies Ltd. 2018. All Rights Reserved.
+ * This is licensed under the following license.
+ * The Apache Version 2.0 License (https://www.apache.org/licenses/LICENSE-2.0.txt)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+package com.urbancode.ud.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.UUID;
+
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+import org.junit.Test;
+
+public class UDObjectTest {
+
+    //**********************************************************************************************
+    // CLASS
+    //**********************************************************************************************
+    static private final String RESOURCE_ID = "1a2b3c4d-0000-4000-8000-000000000001";
+    static private final String COMPONENT_ID = "1a2b3c4d-0000-4000-8000-000000000002";
+
+    //**********************************************************************************************
+    // INSTANCE
+    //**********************************************************************************************
+
+    //----------------------------------------------------------------------------------------------
+    @Test
+    public void testResourceDecodesCommonFields()
+    throws JSONException {
+        JSONObject json = new JSONObject("{\"id\":\"" + RESOURCE_ID + "\",\"name\":\"agent-1\"," +
+            "\"path\":\"/Top/web/agent-1\",\"type\":\"agent\",\"active\":true,\"hasAgent\":true," +
+            "\"description\":\"first agent\",\"inheritTeam\":false}");
+        Resource resource = Resource.fromJSON(json);
+
+        assertEquals(UUID.fromString(RESOURCE_ID), resource.getId());
+        assertEquals("agent-1", resource.getName());
+        assertEquals("/Top/web/agent-1", resource.getPath());
+        assertSame("agent", resource.getType());
+        assertTrue(resource.isActive());
+        assertTrue(resource.hasAgent());
+        assertEquals("first agent", resource.getDetail("description"));
+        assertEquals(2, resource.getDetails().length());
+        assertNull(resource.getDetail("missing"));
+    }
+
+    //----------------------------------------------------------------------------------------------
+    @Test
+    public void testToJSONRestoresAllFields()
+    throws JSONException {
+        JSONObject json = new JSONObject("{\"id\":\"" + RESOURCE_ID + "\",\"name\":\"1.0\"," +
+            "\"type\":\"FULL\",\"active\":true,\"archived\":false,\"created\":1500000000000," +
+            "\"description\":null,\"component\":{\"id\":\"" + COMPONENT_ID + "\",\"name\":\"web\"}}");
+        Version version = Version.fromJSON(json);
+
+        assertEquals(UUID.fromString(COMPONENT_ID), version.getComponentId());
+        assertEquals("web", version.getComponentName());
+        assertEquals(1500000000000L, version.getCreated());
+
+        JSONObject restored = version.toJSON();
+        assertEquals(json.length(), restored.length());
+        assertEquals(RESOURCE_ID, restored.getString("id"));
+        assertEquals("FULL", restored.getString("type"));
+        assertEquals(1500000000000L, restored.getLong("created"));
+        assertTrue(restored.isNull("description"));
+        assertEquals("web", restored.getJSONObject("component").getString("name"));
+    }
+
+    //----------------------------------------------------------------------------------------------
+    @Test
+    public void testEqualityByTypeAndId()
+    throws JSONException {
+        String json = "{\"id\":\"" + RESOURCE_ID + "\",\"name\":\"x\"}";
+        assertEquals(Component.fromJSON(new JSONObject(json)), Component.fromJSON(new JSONObject(json)));
+        assertEquals(Component.fromJSON(new JSONObject(json)).hashCode(),
+            Component.fromJSON(new JSONObject(json)).hashCode());
+        assertFalse(Component.fromJSON(new JSONObject(json)).equals(Environment.fromJSON(new JSONObject(json))));
+    }
+
+    //----------------------------------------------------------------------------------------------
+    @Test(expected = JSONException.class)
+    public void testIdIsRequired()
+    throws JSONException {
+        Environment.fromJSON(new JSONObject("{\"name\":\"PROD\"}"));
+    }
+}
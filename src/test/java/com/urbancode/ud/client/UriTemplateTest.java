@@ -0,0 +1,92 @@
+/**
+ * (c) Copyright IBM Corporation 2011, 2017.
+ * (c) Copyright HCL Technologies Ltd. 2018. All Rights Reserved.
+ * This is licensed under the following license.
+ * The Apache Version 2.0 License (https://www.apache.org/licenses/LICENSE-2.0.txt)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+package com.urbancode.ud.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.net.URI;
+import java.util.Arrays;
+
+import org.apache.commons.codec.EncoderException;
+import org.junit.Test;
+
+import com.urbancode.commons.web.util.PercentCodec;
+
+public class UriTemplateTest {
+
+    //**********************************************************************************************
+    // CLASS
+    //**********************************************************************************************
+    static private final URI BASE = URI.create("https://localhost:8443");
+
+    //**********************************************************************************************
+    // INSTANCE
+    //**********************************************************************************************
+
+    //----------------------------------------------------------------------------------------------
+    @Test
+    public void testEncoderMatchesPercentCodec()
+    throws EncoderException {
+        PercentCodec codec = new PercentCodec();
+        String[] inputs = {"", "plain-name_1.0~", "/Top/Group A/agent:1", "caf\u00e9 \u20ac",
+            "\ud83d\ude00 emoji", "100% & more?", "a+b=c;d,e"};
+        for (String input : inputs) {
+            assertEquals(input, codec.encode(input), PercentEncoder.encode(input));
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    @Test
+    public void testEncoderReturnsUnreservedInputAsIs() {
+        String name = "order-service";
+        assertSame(name, PercentEncoder.encode(name));
+        assertEquals(null, PercentEncoder.encode(null));
+    }
+
+    //----------------------------------------------------------------------------------------------
+    @Test
+    public void testExpandPathAndQuery() {
+        assertEquals("https://localhost:8443/rest/resource/resource/%2FTop%2Fweb%201",
+            Endpoints.RESOURCE.expand(BASE, "/Top/web 1"));
+        assertEquals("https://localhost:8443/cli/environment/info?environment=PERF&application=My%20App",
+            Endpoints.ENVIRONMENT_INFO.expand(URI.create("https://localhost:8443/"), "PERF", "My App"));
+        assertEquals("https://localhost:8443/rest/deploy/component/c1/versions/false",
+            Endpoints.COMPONENT_VERSIONS.expand(BASE, "c1", Boolean.FALSE, null, null));
+    }
+
+    //----------------------------------------------------------------------------------------------
+    @Test
+    public void testNullQueryValuesAreOmitted() {
+        assertEquals("https://localhost:8443/cli/environment/info?environment=PERF",
+            Endpoints.ENVIRONMENT_INFO.expand(BASE, "PERF", null));
+        assertEquals("https://localhost:8443/cli/environment/propValue?environment=PERF&value=v&isSecure=true",
+            Endpoints.ENVIRONMENT_PROP_VALUE.expand(BASE, "PERF", null, "v", true, null));
+    }
+
+    //----------------------------------------------------------------------------------------------
+    @Test
+    public void testLiteralQueryValues() {
+        UriTemplate template = new UriTemplate("/rest/x/{id}?rowsPerPage=10&filter={filter}");
+        assertEquals(Arrays.asList("id", "filter"), template.getVariables());
+        assertEquals("https://localhost:8443/rest/x/1?rowsPerPage=10",
+            template.expand(BASE, "1", null));
+    }
+
+    //----------------------------------------------------------------------------------------------
+    @Test(expected = IllegalArgumentException.class)
+    public void testNullPathValueIsRejected() {
+        Endpoints.RESOURCE.expand(BASE, (Object) null);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongValueCountIsRejected() {
+        Endpoints.ENVIRONMENT_INFO.expand(BASE, "PERF");
+    }
+}
@@ -0,0 +1,141 @@
+/**
+ * (c) Copyright IBM Corporation 2011, 2017.
+ * (c) Copyright HCL Technologies Ltd. 2018. All Rights Reserved.
+ * This is licensed under the following license.
+ * The Apache Version 2.0 License (https://www.apache.org/licenses/LICENSE-2.0.txt)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+package com.urbancode.ud.client;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class VersionDownloadTest {
+
+    //**********************************************************************************************
+    // CLASS
+    //**********************************************************************************************
+    static private final int FILES = 40;
+    static private final int FILE_BYTES = 64 * 1024;
+
+    //----------------------------------------------------------------------------------------------
+    static private byte[] content(int i) {
+        byte[] result = new byte[FILE_BYTES + i];
+        for (int j = 0; j < result.length; j++) {
+            result[j] = (byte) (i * 31 + j);
+        }
+        return result;
+    }
+
+    //**********************************************************************************************
+    // INSTANCE
+    //**********************************************************************************************
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private StubUcdServer server;
+    private UDClientSession session;
+    private VersionClient versions;
+    private File target;
+
+    @Before
+    public void setUp()
+    throws IOException {
+        server = new StubUcdServer();
+        session = new UDClientSession(server.getUri(), "admin", "admin", false, 4);
+        versions = session.getVersionClient();
+        target = folder.newFolder("download");
+        for (int i = 0; i < FILES; i++) {
+            server.putArtifact("web", "1.0", "lib/module-" + (i % 4) + "/file-" + i + ".jar", content(i));
+        }
+    }
+
+    @After
+    public void tearDown() {
+        session.close();
+        server.close();
+    }
+
+    //----------------------------------------------------------------------------------------------
+    private void assertDownloaded()
+    throws IOException {
+        for (int i = 0; i < FILES; i++) {
+            File file = new File(target, "lib/module-" + (i % 4) + "/file-" + i + ".jar");
+            assertArrayEquals(file.getPath(), content(i), Files.readAllBytes(file.toPath()));
+            assertFalse(new File(file.getPath() + ".part").exists());
+        }
+    }
+
+    @Test
+    public void testFilesAreDownloadedConcurrently()
+    throws Exception {
+        VersionDownload.Result result = versions.newVersionDownload("web", "1.0", target).execute();
+
+        assertDownloaded();
+        assertEquals(FILES, result.getFileCount());
+        assertEquals(0, result.getSkippedCount());
+        assertEquals(0, result.getRetryCount());
+        assertEquals(FILES, server.getRequestCount("/cli/version/downloadArtifacts"));
+    }
+
+    @Test
+    public void testBrokenTransfersAreResumed()
+    throws Exception {
+        server.dropNextDownloads(2);
+
+        VersionDownload.Result result = versions.newVersionDownload("web", "1.0", target).execute();
+
+        assertDownloaded();
+        assertEquals(2, result.getRetryCount());
+        assertEquals(2, result.getResumedCount());
+        // the retries only fetch the missing halves
+        long total = 0;
+        for (int i = 0; i < FILES; i++) {
+            total += content(i).length;
+        }
+        assertTrue(result.toString(), result.getByteCount() < total + FILE_BYTES * 2);
+    }
+
+    @Test
+    public void testCompleteFilesAreSkippedAndBadFilesReplaced()
+    throws Exception {
+        versions.newVersionDownload("web", "1.0", target).execute();
+        File damaged = new File(target, "lib/module-1/file-1.jar");
+        byte[] bytes = content(1);
+        Arrays.fill(bytes, 0, 16, (byte) 0);
+        Files.write(damaged.toPath(), bytes);
+
+        VersionDownload.Result result = versions.newVersionDownload("web", "1.0", target)
+            .setConcurrency(1).execute();
+
+        assertDownloaded();
+        assertEquals(FILES - 1, result.getSkippedCount());
+        assertEquals(FILES + 1, server.getRequestCount("/cli/version/downloadArtifacts"));
+    }
+
+    @Test
+    public void testPathOutsideTargetIsRejected()
+    throws Exception {
+        server.putArtifact("web", "2.0", "../escape.txt", content(0));
+        try {
+            versions.newVersionDownload("web", "2.0", target).execute();
+            assertTrue("expected the path to be rejected", false);
+        }
+        catch (IOException e) {
+            assertFalse(new File(target.getParentFile(), "escape.txt").exists());
+        }
+    }
+}
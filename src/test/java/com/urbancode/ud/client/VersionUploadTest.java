@@ -0,0 +1,230 @@
+/**
+ * (c) Copyright IBM Corporation 2011, 2017.
+ * (c) Copyright HCL Technologies Ltd. 2018. All Rights Reserved.
+ * This is licensed under the following license.
+ * The Apache Version 2.0 License (https://www.apache.org/licenses/LICENSE-2.0.txt)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+package com.urbancode.ud.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.codehaus.jettison.json.JSONObject;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class VersionUploadTest {
+
+    //**********************************************************************************************
+    // CLASS
+    //**********************************************************************************************
+    static private final int FILES = 1000;
+
+    //**********************************************************************************************
+    // INSTANCE
+    //**********************************************************************************************
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private VersionClient client;
+    private File base;
+
+    @Before
+    public void setUp()
+    throws IOException {
+        client = new VersionClient(URI.create("http://localhost:8443"), "admin", "admin");
+        base = folder.newFolder("artifacts");
+        for (int i = 0; i < FILES; i++) {
+            File file = new File(base, "lib/module-" + (i % 10) + "/file-" + i + ".jar");
+            file.getParentFile().mkdirs();
+            Files.write(file.toPath(), new byte[100]);
+        }
+        new File(base, "build").mkdirs();
+        Files.write(new File(base, "build/output.log").toPath(), new byte[100]);
+    }
+
+    @Test
+    public void testPatterns() {
+        assertTrue(VersionUpload.toPattern("**/*.jar").matcher("a.jar").matches());
+        assertTrue(VersionUpload.toPattern("**/*.jar").matcher("lib/x/a.jar").matches());
+        assertFalse(VersionUpload.toPattern("*.jar").matcher("lib/a.jar").matches());
+        assertTrue(VersionUpload.toPattern("build/").matcher("build/output.log").matches());
+        assertTrue(VersionUpload.toPattern("lib/module-?/**").matcher("lib/module-1/a/b.jar").matches());
+        assertFalse(VersionUpload.toPattern("file.jar").matcher("fileXjar").matches());
+    }
+
+    @Test
+    public void testChunksAreUploadedConcurrentlyAndRetried()
+    throws Exception {
+        final Set<String> uploaded = ConcurrentHashMap.newKeySet();
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final AtomicInteger calls = new AtomicInteger();
+
+        VersionUpload.Result result = new VersionUpload(client, base, null, new String[] {"build/**"},
+            (chunkBase, paths) -> {
+                int now = running.incrementAndGet();
+                maxRunning.accumulateAndGet(now, Math::max);
+                try {
+                    if (calls.incrementAndGet() == 3) {
+                        throw new IOException("connection reset");
+                    }
+                    Thread.sleep(20);
+                    uploaded.addAll(paths);
+                }
+                finally {
+                    running.decrementAndGet();
+                }
+            })
+            .setConcurrency(4)
+            .setChunkSize(100, Long.MAX_VALUE)
+            .execute();
+
+        assertEquals(FILES, uploaded.size());
+        assertFalse(uploaded.contains("build/output.log"));
+        assertEquals(FILES, result.getFileCount());
+        assertEquals(FILES * 100L, result.getByteCount());
+        assertEquals(10, result.getChunkCount());
+        assertEquals(1, result.getRetryCount());
+        assertTrue("max running " + maxRunning.get(), maxRunning.get() > 1 && maxRunning.get() <= 4);
+    }
+
+    @Test
+    public void testChunkDirectoryHoldsOnlyTheChunk()
+    throws Exception {
+        // a name that is also an include pattern matching its neighbours
+        Files.write(new File(base, "lib/module-1/file-*.jar").toPath(), new byte[100]);
+        final Set<File> stagedDirectories = ConcurrentHashMap.newKeySet();
+        final AtomicInteger uploadedCount = new AtomicInteger();
+
+        new VersionUpload(client, base, null, null, (chunkBase, paths) -> {
+            stagedDirectories.add(chunkBase);
+            final Set<String> staged = new HashSet<String>();
+            Files.walk(chunkBase.toPath()).filter(Files::isRegularFile).forEach(file ->
+                staged.add(chunkBase.toPath().relativize(file).toString().replace(File.separatorChar, '/')));
+            assertEquals(new HashSet<String>(paths), staged);
+            assertEquals(100, new File(chunkBase, paths.get(0)).length());
+            uploadedCount.addAndGet(paths.size());
+        })
+        .setChunkSize(1, Long.MAX_VALUE)
+        .execute();
+
+        assertEquals(FILES + 2, uploadedCount.get());
+        assertEquals(FILES + 2, stagedDirectories.size());
+        for (File staged : stagedDirectories) {
+            assertFalse(staged.exists());
+        }
+    }
+
+    @Test
+    public void testChunkBytesLimitTheChunk()
+    throws Exception {
+        VersionUpload.Result result = new VersionUpload(client, base, new String[] {"lib/"}, null,
+            (chunkBase, paths) -> assertTrue(paths.size() <= 5))
+            .setChunkSize(100, 500)
+            .execute();
+
+        assertEquals(FILES / 5, result.getChunkCount());
+    }
+
+    @Test
+    public void testFailedChunkFailsTheUpload()
+    throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        try {
+            new VersionUpload(client, base, null, null, (chunkBase, paths) -> {
+                if (calls.incrementAndGet() == 2) {
+                    throw new IOException("disk full");
+                }
+            })
+            .setConcurrency(1)
+            .setChunkSize(100, Long.MAX_VALUE)
+            .setMaxAttempts(1)
+            .execute();
+            assertTrue("expected the upload to fail", false);
+        }
+        catch (IOException e) {
+            assertEquals("disk full", e.getMessage());
+        }
+        // the chunks after the failed one were skipped
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void testBaselineLeavesOutUnchangedFiles()
+    throws Exception {
+        byte[] large = new byte[3 * 1024 * 1024 + 17];
+        large[large.length - 1] = 1;
+        Files.write(new File(base, "lib/large.bin").toPath(), large);
+
+        final List<VersionDownload.Artifact> baseline = new ArrayList<VersionDownload.Artifact>();
+        new VersionUpload(client, base, null, null, (chunkBase, paths) -> {
+            for (String path : paths) {
+                File file = new File(chunkBase, path);
+                baseline.add(VersionDownload.Artifact.fromJSON(new JSONObject()
+                    .put("path", path)
+                    .put("size", file.length())
+                    .put("hash", VersionDownload.hash(file.toPath(), "SHA-256"))));
+            }
+        }).setConcurrency(1).execute();
+
+        // same size, new content; new size; a new file
+        Files.write(new File(base, "lib/module-3/file-3.jar").toPath(), new byte[] {1});
+        byte[] changed = new byte[100];
+        changed[50] = 1;
+        Files.write(new File(base, "lib/module-4/file-4.jar").toPath(), changed);
+        Files.write(new File(base, "lib/added.jar").toPath(), new byte[10]);
+
+        final Set<String> uploaded = ConcurrentHashMap.newKeySet();
+        VersionUpload.Result result = new VersionUpload(client, base, null, null,
+            (chunkBase, paths) -> uploaded.addAll(paths))
+            .setBaseline(baseline)
+            .execute();
+
+        assertEquals(new HashSet<String>(Arrays.asList("lib/module-3/file-3.jar", "lib/module-4/file-4.jar",
+            "lib/added.jar")), uploaded);
+        assertEquals(3, result.getFileCount());
+        // the other jars, the build log and the large file
+        assertEquals(FILES - 2 + 1 + 1, result.getUnchangedCount());
+    }
+
+    @Test
+    public void testIncrementalBaseIsComparedWithItsFullVersion()
+    throws Exception {
+        StubUcdServer server = new StubUcdServer();
+        try {
+            server.addVersion("app", "1.0", "FULL");
+            server.addVersion("app", "1.1", "INCREMENTAL");
+            server.addVersion("app", "1.2", "INCREMENTAL");
+            VersionClient versions = new VersionClient(server.getUri(), "admin", "admin");
+            assertEquals("1.0", versions.getBaselineVersion("app", null));
+            assertEquals("1.0", versions.getBaselineVersion("app", "1.1"));
+
+            server.addVersion("app", "2.0", "FULL");
+            assertEquals("2.0", versions.getBaselineVersion("app", null));
+            assertEquals("1.0", versions.getBaselineVersion("app", "1.2"));
+            assertNull(versions.getBaselineVersion("app", "0.9"));
+            assertNull(versions.getBaselineVersion("empty", null));
+        }
+        finally {
+            server.close();
+        }
+    }
+}